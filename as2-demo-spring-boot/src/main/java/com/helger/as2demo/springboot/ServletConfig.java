@@ -29,7 +29,6 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import com.helger.as2lib.exception.AS2Exception;
-import com.helger.as2lib.session.AS2ComponentNotFoundException;
 import com.helger.as2servlet.AS2ReceiveXServletHandlerConstantSession;
 import com.helger.as2servlet.AS2WebAppListener;
 import com.helger.as2servlet.mdn.AS2MDNReceiveXServletHandlerConstantSession;
@@ -129,8 +128,9 @@ public class ServletConfig
       try
       {
         AS2_SESSION.getMessageProcessor ().stopActiveModules ();
+        AS2_SESSION.savePendingChanges ();
       }
-      catch (final AS2ComponentNotFoundException ex)
+      catch (final AS2Exception ex)
       {
         // we don't care on shut down
       }
@@ -21,7 +21,6 @@ import java.io.File;
 import javax.annotation.concurrent.Immutable;
 
 import com.helger.as2lib.exception.AS2Exception;
-import com.helger.as2lib.session.AS2ComponentNotFoundException;
 import com.helger.as2servlet.util.AS2ServletXMLSession;
 import com.helger.commons.exception.InitializationException;
 
@@ -69,8 +68,9 @@ public final class GlobalAS2Session
       try
       {
         AS2_SESSION.getMessageProcessor ().stopActiveModules ();
+        AS2_SESSION.savePendingChanges ();
       }
-      catch (final AS2ComponentNotFoundException ex)
+      catch (final AS2Exception ex)
       {
         // we don't care on shut down
       }
@@ -32,6 +32,7 @@
  */
 package com.helger.as2lib.cert;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -55,6 +56,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.as2lib.AbstractDynamicComponent;
+import com.helger.as2lib.crypto.CertificateCheckCache;
 import com.helger.as2lib.exception.AS2Exception;
 import com.helger.as2lib.exception.WrappedAS2Exception;
 import com.helger.as2lib.message.IBaseMessage;
@@ -73,6 +75,7 @@ import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsOrderedMap;
 import com.helger.commons.exception.InitializationException;
 import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
 import com.helger.security.keystore.EKeyStoreType;
 import com.helger.security.keystore.IKeyStoreType;
 
@@ -96,6 +99,11 @@ public abstract class AbstractCertificateFactory extends AbstractDynamicComponen
   /** Key store type; since 4.0.0 */
   public static final String ATTR_TYPE = "type";
   public static final String ATTR_PASSWORD = "password";
+  /**
+   * Optional local CRL file to check the certificate revocation against; since
+   * 4.11.1
+   */
+  public static final String ATTR_CRL_FILE = "crlfile";
 
   private static final Logger LOGGER = LoggerFactory.getLogger (AbstractCertificateFactory.class);
 
@@ -103,6 +111,8 @@ public abstract class AbstractCertificateFactory extends AbstractDynamicComponen
   private KeyStore m_aKeyStore;
   @GuardedBy ("m_aRWLock")
   private boolean m_bDebugLog = false;
+  // Per factory, as the CRL file and the key store are per factory
+  private final CertificateCheckCache m_aCertificateCheckCache = new CertificateCheckCache ();
 
   public AbstractCertificateFactory ()
   {}
@@ -164,6 +174,49 @@ public abstract class AbstractCertificateFactory extends AbstractDynamicComponen
     return ret;
   }
 
+  /**
+   * @return The path of the CRL file used to check the certificate revocation.
+   *         May be <code>null</code>.
+   * @since 4.11.1
+   */
+  @Nullable
+  public final String getCRLFilename ()
+  {
+    return m_aRWLock.readLockedGet ( () -> attrs ().getAsString (ATTR_CRL_FILE));
+  }
+
+  /**
+   * Set the CRL file used to check the certificate revocation. It is applied
+   * upon the next call to
+   * {@link #initDynamicComponent(IAS2Session, IStringMap)}.
+   *
+   * @param sCRLFilename
+   *        The path of the CRL file. May be <code>null</code> to disable the
+   *        revocation check.
+   * @since 4.11.1
+   */
+  public final void setCRLFilename (@Nullable final String sCRLFilename)
+  {
+    m_aRWLock.writeLocked ( () -> {
+      if (sCRLFilename == null)
+        attrs ().remove (ATTR_CRL_FILE);
+      else
+        attrs ().putIn (ATTR_CRL_FILE, sCRLFilename);
+    });
+  }
+
+  /**
+   * @return The certificate check cache of this factory, holding the
+   *         revocation state according to the configured CRL file. Never
+   *         <code>null</code>.
+   * @since 4.11.1
+   */
+  @Nonnull
+  public final CertificateCheckCache getCertificateCheckCache ()
+  {
+    return m_aCertificateCheckCache;
+  }
+
   @Nonnull
   @Nonempty
   private static String _debug (@Nullable final X509Certificate aCert)
@@ -196,6 +249,16 @@ public abstract class AbstractCertificateFactory extends AbstractDynamicComponen
 
     super.initDynamicComponent (aSession, aOptions);
 
+    final String sCRLFilename = getCRLFilename ();
+    if (StringHelper.hasText (sCRLFilename))
+    {
+      m_aCertificateCheckCache.setCRLFile (new File (sCRLFilename));
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Using CRL file " + sCRLFilename + " to check certificate revocation");
+    }
+    else
+      m_aCertificateCheckCache.setCRLFile (null);
+
     reinitKeyStore ();
 
     debugLog ( () -> "initDynamicComponent -> done");
@@ -222,6 +285,7 @@ public abstract class AbstractCertificateFactory extends AbstractDynamicComponen
 
     debugLog ( () -> "setKeyStore (" + aKeyStore + ")");
     m_aRWLock.writeLockedGet ( () -> m_aKeyStore = aKeyStore);
+    _onKeyStoreModified ();
     debugLog ( () -> "setKeyStore -> done");
   }
 
@@ -322,6 +386,11 @@ public abstract class AbstractCertificateFactory extends AbstractDynamicComponen
       final X509Certificate aCert = (X509Certificate) m_aKeyStore.getCertificate (sRealAlias);
       if (aCert == null)
         throw new AS2CertificateNotFoundException (ePartnershipType, sRealAlias);
+      if (ePartnershipType != null)
+      {
+        // Certificate is used for signing, encryption or verification
+        checkRevocation (aCert);
+      }
       debugLog ( () -> "internalGetCertificate -> " + _debug (aCert));
       return aCert;
     }
@@ -398,6 +467,22 @@ public abstract class AbstractCertificateFactory extends AbstractDynamicComponen
   protected void onChange () throws AS2Exception
   {}
 
+  /**
+   * Cached certificate checks may no longer be valid if the key store was
+   * modified. Only the cache of this factory is affected.
+   */
+  private void _onKeyStoreModified ()
+  {
+    m_aCertificateCheckCache.clearCache ();
+  }
+
+  @Override
+  public void checkRevocation (@Nonnull final X509Certificate aCert) throws AS2Exception
+  {
+    if (m_aCertificateCheckCache.isRevoked (aCert))
+      throw new AS2Exception ("Certificate " + _debug (aCert) + " has been revoked according to CRL file " + m_aCertificateCheckCache.getCRLFile ());
+  }
+
   @Nonnull
   private ICommonsList <String> _getAllAliases ()
   {
@@ -494,6 +579,7 @@ public abstract class AbstractCertificateFactory extends AbstractDynamicComponen
       m_aRWLock.writeLock ().unlock ();
     }
 
+    _onKeyStoreModified ();
     onChange ();
 
     if (LOGGER.isInfoEnabled ())
@@ -532,6 +618,7 @@ public abstract class AbstractCertificateFactory extends AbstractDynamicComponen
       m_aRWLock.writeLock ().unlock ();
     }
 
+    _onKeyStoreModified ();
     onChange ();
 
     if (LOGGER.isInfoEnabled ())
@@ -568,6 +655,7 @@ public abstract class AbstractCertificateFactory extends AbstractDynamicComponen
     if (nDeleted > 0)
     {
       // Only if something changed
+      _onKeyStoreModified ();
       onChange ();
 
       if (LOGGER.isInfoEnabled ())
@@ -633,6 +721,7 @@ public abstract class AbstractCertificateFactory extends AbstractDynamicComponen
       m_aRWLock.writeLock ().unlock ();
     }
 
+    _onKeyStoreModified ();
     onChange ();
 
     if (LOGGER.isInfoEnabled ())
@@ -666,6 +755,8 @@ public abstract class AbstractCertificateFactory extends AbstractDynamicComponen
       m_aRWLock.writeLock ().unlock ();
     }
 
+    _onKeyStoreModified ();
+
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Finished loading keystore from an InputStream");
     debugLog ( () -> "load -> done");
@@ -681,6 +772,8 @@ public abstract class AbstractCertificateFactory extends AbstractDynamicComponen
       try
       {
         m_aKeyStore.store (aOS, aPassword);
+        // Close explicitly, so that errors on closing are not swallowed
+        aOS.close ();
       }
       catch (final IOException | GeneralSecurityException ex)
       {
@@ -39,6 +39,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.as2lib.exception.AS2Exception;
+import com.helger.as2lib.util.DebouncedSave;
 import com.helger.commons.annotation.OverrideOnDemand;
 import com.helger.commons.string.StringHelper;
 
@@ -54,9 +55,20 @@ public class CertificateFactory extends AbstractCertificateFactory implements IS
 {
   public static final String ATTR_FILENAME = "filename";
   public static final String ATTR_SAVE_CHANGES_TO_FILE = "autosave";
+  /**
+   * The number of milliseconds by which saving changes is delayed, so that
+   * bulk modifications result in only one save.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_SAVE_DELAY_MS = "autosavedelay";
+  /** By default changes are saved immediately */
+  public static final long DEFAULT_SAVE_DELAY_MS = 0;
 
   private static final Logger LOGGER = LoggerFactory.getLogger (CertificateFactory.class);
 
+  private final DebouncedSave m_aDebouncedSave = new DebouncedSave ("key store", this::_saveNow);
+
   public CertificateFactory ()
   {}
 
@@ -90,6 +102,64 @@ public class CertificateFactory extends AbstractCertificateFactory implements IS
     return ret;
   }
 
+  /**
+   * @return The delay in milliseconds by which saving changes is delayed.
+   *         Values &le; 0 mean that changes are saved immediately.
+   * @since 4.11.1
+   */
+  public long getSaveDelayMS ()
+  {
+    return m_aRWLock.readLockedLong ( () -> attrs ().getAsLong (ATTR_SAVE_DELAY_MS, DEFAULT_SAVE_DELAY_MS));
+  }
+
+  /**
+   * Set the delay by which saving changes is delayed. All changes within this
+   * window are persisted with a single save. This only has an effect if
+   * {@link #isSaveChangesToFile()} is <code>true</code>.
+   *
+   * @param nSaveDelayMS
+   *        The delay in milliseconds. Values &le; 0 mean that changes are
+   *        saved immediately.
+   * @since 4.11.1
+   */
+  public void setSaveDelayMS (final long nSaveDelayMS)
+  {
+    debugLog ( () -> "setSaveDelayMS (" + nSaveDelayMS + ")");
+    m_aRWLock.writeLocked ( () -> attrs ().putIn (ATTR_SAVE_DELAY_MS, nSaveDelayMS));
+  }
+
+  /**
+   * @return <code>true</code> if a delayed save is pending, <code>false</code>
+   *         if not.
+   * @since 4.11.1
+   */
+  public boolean isSavePending ()
+  {
+    return m_aDebouncedSave.isPending ();
+  }
+
+  /**
+   * Save pending changes now, if there are any, and release the thread used
+   * for delayed saving. Should be called before shutdown if a save delay is
+   * configured.
+   *
+   * @throws AS2Exception
+   *         In case saving fails.
+   * @since 4.11.1
+   */
+  @Override
+  public void savePendingChanges () throws AS2Exception
+  {
+    m_aDebouncedSave.shutdown ();
+  }
+
+  private void _saveNow () throws AS2Exception
+  {
+    final String sFilename = getFilename ();
+    if (StringHelper.hasText (sFilename))
+      save (sFilename, getPassword ());
+  }
+
   public void reinitKeyStore () throws AS2Exception
   {
     debugLog ( () -> "reinitKeyStore ()");
@@ -123,7 +193,7 @@ public class CertificateFactory extends AbstractCertificateFactory implements IS
     {
       final String sFilename = getFilename ();
       if (StringHelper.hasText (sFilename))
-        save (sFilename, getPassword ());
+        m_aDebouncedSave.requestSave (getSaveDelayMS ());
       else
       {
         if (LOGGER.isDebugEnabled ())
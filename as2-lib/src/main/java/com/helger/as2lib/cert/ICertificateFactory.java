@@ -93,6 +93,21 @@ public interface ICertificateFactory extends IDynamicComponent
     }
   }
 
+  /**
+   * Check if the provided certificate was revoked according to the revocation
+   * information of this factory. This is used for certificates that are not
+   * taken from this factory, e.g. the certificate contained in a signed body
+   * part. The default implementation performs no check.
+   *
+   * @param aCert
+   *        The certificate to check. May not be <code>null</code>.
+   * @throws AS2Exception
+   *         If the certificate was revoked
+   * @since 4.11.1
+   */
+  default void checkRevocation (@Nonnull final X509Certificate aCert) throws AS2Exception
+  {}
+
   @Nonnull
   PrivateKey getPrivateKey (@Nullable X509Certificate aCert) throws AS2Exception;
 }
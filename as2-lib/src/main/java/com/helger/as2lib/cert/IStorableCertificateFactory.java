@@ -33,6 +33,7 @@
 package com.helger.as2lib.cert;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
@@ -40,8 +41,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import com.helger.as2lib.exception.AS2Exception;
-import com.helger.commons.io.EAppend;
-import com.helger.commons.io.file.FileHelper;
+import com.helger.as2lib.util.AS2IOHelper;
 import com.helger.security.keystore.KeyStoreHelper;
 
 /**
@@ -125,14 +125,40 @@ public interface IStorableCertificateFactory extends ICertificateFactory
     save (getFilename (), getPassword ());
   }
 
+  /**
+   * Save the key store to the provided file. The file is written atomically,
+   * so that a crash while saving never leaves a corrupted key store behind.
+   *
+   * @param sFilename
+   *        The filename to write to. May not be <code>null</code>.
+   * @param aPassword
+   *        The key store password. May not be <code>null</code>.
+   * @throws AS2Exception
+   *         In case of an internal error
+   */
   default void save (@Nonnull final String sFilename, @Nonnull final char [] aPassword) throws AS2Exception
   {
     // Must be File by default
-    final OutputStream fOut = FileHelper.getOutputStream (new File (sFilename), EAppend.TRUNCATE);
-    if (fOut == null)
-      throw new AS2Exception ("Failed to to open output stream to '" + sFilename + "'");
-    save (fOut, aPassword);
+    try
+    {
+      AS2IOHelper.writeFileAtomic (new File (sFilename), aOS -> save (aOS, aPassword));
+    }
+    catch (final IOException ex)
+    {
+      throw new AS2Exception ("Failed to write key store to '" + sFilename + "'", ex);
+    }
   }
 
   void save (@Nonnull OutputStream aOS, @Nonnull char [] aPassword) throws AS2Exception;
+
+  /**
+   * Save all changes that were not yet saved because saving is delayed. Should
+   * be called before shutdown. The default implementation does nothing.
+   *
+   * @throws AS2Exception
+   *         In case saving fails.
+   * @since 4.11.1
+   */
+  default void savePendingChanges () throws AS2Exception
+  {}
 }
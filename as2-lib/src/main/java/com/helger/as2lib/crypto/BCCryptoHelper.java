@@ -53,6 +53,7 @@ import java.util.Map;
 import java.util.function.Consumer;
 
 import javax.activation.CommandMap;
+import javax.activation.DataHandler;
 import javax.activation.MailcapCommandMap;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -61,6 +62,7 @@ import javax.mail.MessagingException;
 import javax.mail.internet.ContentType;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
 
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
@@ -72,7 +74,11 @@ import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaCertStore;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.cms.CMSAttributeTableGenerator;
+import org.bouncycastle.cms.CMSAuthEnvelopedData;
+import org.bouncycastle.cms.CMSAuthEnvelopedDataGenerator;
 import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.DefaultCMSSignatureAlgorithmNameGenerator;
 import org.bouncycastle.cms.DefaultSignedAttributeTableGenerator;
 import org.bouncycastle.cms.RecipientId;
 import org.bouncycastle.cms.RecipientInformation;
@@ -81,9 +87,10 @@ import org.bouncycastle.cms.SignerInfoGenerator;
 import org.bouncycastle.cms.SignerInformation;
 import org.bouncycastle.cms.SignerInformationVerifier;
 import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
-import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
 import org.bouncycastle.cms.jcajce.JceCMSContentEncryptorBuilder;
+import org.bouncycastle.cms.jcajce.JceKeyTransAuthEnvelopedRecipient;
 import org.bouncycastle.cms.jcajce.JceKeyTransEnvelopedRecipient;
+import org.bouncycastle.cms.jcajce.JceKeyTransRecipient;
 import org.bouncycastle.cms.jcajce.JceKeyTransRecipientId;
 import org.bouncycastle.cms.jcajce.JceKeyTransRecipientInfoGenerator;
 import org.bouncycastle.mail.smime.SMIMEEnvelopedGenerator;
@@ -93,8 +100,11 @@ import org.bouncycastle.mail.smime.SMIMESignedGenerator;
 import org.bouncycastle.mail.smime.SMIMESignedParser;
 import org.bouncycastle.mail.smime.SMIMEUtil;
 import org.bouncycastle.mail.smime.util.FileBackedMimeBodyPart;
+import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
 import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.OutputAEADEncryptor;
 import org.bouncycastle.operator.OutputEncryptor;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
 import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -134,6 +144,8 @@ public final class BCCryptoHelper implements ICryptoHelper
   private static final File DUMP_DECRYPTED_DIR_PATH;
   private static final String DEFAULT_SECURITY_PROVIDER_NAME;
   private static final byte [] EOL_BYTES = AS2IOHelper.getAllAsciiBytes (CHttp.EOL);
+  private static final String SMIME_TYPE_ENVELOPED_DATA = "enveloped-data";
+  private static final String SMIME_TYPE_AUTH_ENVELOPED_DATA = "authEnveloped-data";
 
   static
   {
@@ -182,6 +194,12 @@ public final class BCCryptoHelper implements ICryptoHelper
   }
 
   private String m_sSecurityProviderName = DEFAULT_SECURITY_PROVIDER_NAME;
+  // Optional providers for the single primitives - fall back to the security
+  // provider
+  private volatile String m_sDigestProviderName;
+  private volatile String m_sCipherProviderName;
+  private volatile String m_sAsymmetricProviderName;
+  private final CertificateCheckCache m_aCertificateCheckCache = new CertificateCheckCache ();
 
   public BCCryptoHelper ()
   {
@@ -202,6 +220,18 @@ public final class BCCryptoHelper implements ICryptoHelper
     });
   }
 
+  /**
+   * @return The cache used for the certificate validity checks as well as for
+   *         the PEM encoding. The revocation is checked by the certificate
+   *         factories, each with its own CRL file. Never <code>null</code>.
+   * @since 4.11.1
+   */
+  @Nonnull
+  public CertificateCheckCache getCertificateCheckCache ()
+  {
+    return m_aCertificateCheckCache;
+  }
+
   /**
    * @return The security provider name to use. <code>BC</code> by default.
    * @since 4.2.0
@@ -229,6 +259,118 @@ public final class BCCryptoHelper implements ICryptoHelper
     return this;
   }
 
+  /**
+   * @return The explicitly configured provider name for message digests (used
+   *         for the MIC calculation). May be <code>null</code> in which case
+   *         the security provider is used.
+   * @since 4.11.1
+   */
+  @Nullable
+  public String getDigestProviderName ()
+  {
+    return m_sDigestProviderName;
+  }
+
+  /**
+   * Set the provider to be used for message digests. E.g. the JDK provider
+   * <code>SUN</code> may be faster than BouncyCastle on some platforms.
+   *
+   * @param sDigestProviderName
+   *        The provider name. May be <code>null</code> to use the security
+   *        provider.
+   * @return this for chaining
+   * @since 4.11.1
+   */
+  @Nonnull
+  public BCCryptoHelper setDigestProviderName (@Nullable final String sDigestProviderName)
+  {
+    m_sDigestProviderName = sDigestProviderName;
+    return this;
+  }
+
+  @Nonnull
+  @Nonempty
+  private String _getDigestProviderName ()
+  {
+    final String ret = m_sDigestProviderName;
+    return StringHelper.hasText (ret) ? ret : m_sSecurityProviderName;
+  }
+
+  /**
+   * @return The explicitly configured provider name for the symmetric content
+   *         encryption and decryption. May be <code>null</code> in which case
+   *         the security provider is used.
+   * @since 4.11.1
+   */
+  @Nullable
+  public String getCipherProviderName ()
+  {
+    return m_sCipherProviderName;
+  }
+
+  /**
+   * Set the provider to be used for the symmetric content encryption and
+   * decryption (e.g. <code>SunJCE</code>). The CMS/S-MIME structure is always
+   * handled by BouncyCastle.
+   *
+   * @param sCipherProviderName
+   *        The provider name. May be <code>null</code> to use the security
+   *        provider.
+   * @return this for chaining
+   * @since 4.11.1
+   */
+  @Nonnull
+  public BCCryptoHelper setCipherProviderName (@Nullable final String sCipherProviderName)
+  {
+    m_sCipherProviderName = sCipherProviderName;
+    return this;
+  }
+
+  @Nonnull
+  @Nonempty
+  private String _getCipherProviderName ()
+  {
+    final String ret = m_sCipherProviderName;
+    return StringHelper.hasText (ret) ? ret : m_sSecurityProviderName;
+  }
+
+  /**
+   * @return The explicitly configured provider name for the asymmetric (RSA)
+   *         operations: key transport, signing and signature verification. May
+   *         be <code>null</code> in which case the security provider is used.
+   * @since 4.11.1
+   */
+  @Nullable
+  public String getAsymmetricProviderName ()
+  {
+    return m_sAsymmetricProviderName;
+  }
+
+  /**
+   * Set the provider to be used for the asymmetric operations (key transport,
+   * signing and signature verification).
+   *
+   * @param sAsymmetricProviderName
+   *        The provider name. May be <code>null</code> to use the security
+   *        provider.
+   * @return this for chaining
+   * @since 4.11.1
+   */
+  @Nonnull
+  public BCCryptoHelper setAsymmetricProviderName (@Nullable final String sAsymmetricProviderName)
+  {
+    m_sAsymmetricProviderName = sAsymmetricProviderName;
+    return this;
+  }
+
+  @Nonnull
+  @Nonempty
+  private String _getAsymmetricProviderName ()
+  {
+    final String ret = m_sAsymmetricProviderName;
+    return StringHelper.hasText (ret) ? ret : m_sSecurityProviderName;
+  }
+
   @Nonnull
   public KeyStore createNewKeyStore (@Nonnull final IKeyStoreType aKeyStoreType) throws GeneralSecurityException
   {
@@ -271,7 +413,18 @@ public final class BCCryptoHelper implements ICryptoHelper
       return false;
 
     final String sSmimeType = aContentType.getParameter ("smime-type");
-    return sSmimeType != null && sSmimeType.equalsIgnoreCase ("enveloped-data");
+    return sSmimeType != null && (sSmimeType.equalsIgnoreCase (SMIME_TYPE_ENVELOPED_DATA) ||
+                                  sSmimeType.equalsIgnoreCase (SMIME_TYPE_AUTH_ENVELOPED_DATA));
+  }
+
+  private static boolean _isAuthEnveloped (@Nonnull final MimeBodyPart aPart) throws MessagingException
+  {
+    final ContentType aContentType = AS2HttpHelper.parseContentType (aPart.getContentType ());
+    if (aContentType == null)
+      return false;
+
+    final String sSmimeType = aContentType.getParameter ("smime-type");
+    return sSmimeType != null && sSmimeType.equalsIgnoreCase (SMIME_TYPE_AUTH_ENVELOPED_DATA);
   }
 
   public boolean isSigned (@Nonnull final MimeBodyPart aPart) throws MessagingException
@@ -319,7 +472,7 @@ public final class BCCryptoHelper implements ICryptoHelper
 
     final ASN1ObjectIdentifier aMICAlg = eDigestAlgorithm.getOID ();
 
-    MessageDigest aMessageDigest = MessageDigest.getInstance (aMICAlg.getId (), m_sSecurityProviderName);
+    MessageDigest aMessageDigest = MessageDigest.getInstance (aMICAlg.getId (), _getDigestProviderName ());
     if (false)
       aMessageDigest = new LoggingMessageDigest (aMessageDigest);
 
@@ -419,12 +572,23 @@ public final class BCCryptoHelper implements ICryptoHelper
     // Get the recipient object for decryption
     final RecipientId aRecipientID = new JceKeyTransRecipientId (aX509Cert);
 
+    // AuthEnvelopedData (e.g. AES-GCM) or regular EnvelopedData?
+    final boolean bAuthEnveloped = _isAuthEnveloped (aPart);
+
     // Parse the MIME body into an SMIME envelope object
     RecipientInformation aRecipient = null;
     try
     {
-      final SMIMEEnvelopedParser aEnvelope = new SMIMEEnvelopedParser (aPart);
-      aRecipient = aEnvelope.getRecipientInfos ().get (aRecipientID);
+      if (bAuthEnveloped)
+      {
+        final CMSAuthEnvelopedData aEnvelope = new CMSAuthEnvelopedData (aPart.getInputStream ());
+        aRecipient = aEnvelope.getRecipientInfos ().get (aRecipientID);
+      }
+      else
+      {
+        final SMIMEEnvelopedParser aEnvelope = new SMIMEEnvelopedParser (aPart);
+        aRecipient = aEnvelope.getRecipientInfos ().get (aRecipientID);
+      }
     }
     catch (final Exception ex)
     {
@@ -435,8 +599,13 @@ public final class BCCryptoHelper implements ICryptoHelper
       throw new GeneralSecurityException ("Certificate does not match part signature");
 
     // try to decrypt the data
+    // For AuthEnvelopedData the MAC is checked when the end of the content
+    // stream is reached
+    final JceKeyTransRecipient aDecryptRecipient = bAuthEnveloped ? new JceKeyTransAuthEnvelopedRecipient (aPrivateKey)
+                                                                  : new JceKeyTransEnvelopedRecipient (aPrivateKey);
+    aDecryptRecipient.setProvider (_getAsymmetricProviderName ()).setContentProvider (_getCipherProviderName ());
     // Custom file: see #103
-    final FileBackedMimeBodyPart aDecryptedDataBodyPart = SMIMEUtil.toMimeBodyPart (aRecipient.getContentStream (new JceKeyTransEnvelopedRecipient (aPrivateKey).setProvider (m_sSecurityProviderName)),
+    final FileBackedMimeBodyPart aDecryptedDataBodyPart = SMIMEUtil.toMimeBodyPart (aRecipient.getContentStream (aDecryptRecipient),
                                                                                     aResHelper.createTempFile ());
 
     if (DUMP_DECRYPTED_DIR_PATH != null)
@@ -471,21 +640,70 @@ public final class BCCryptoHelper implements ICryptoHelper
                     "; CTE=" +
                     eCTE);
 
-    // Check if the certificate is expired or active.
-    aX509Cert.checkValidity ();
+    // Check if the certificate is expired, active or revoked
+    m_aCertificateCheckCache.checkCertificate (aX509Cert);
 
     final ASN1ObjectIdentifier aEncAlg = eAlgorithm.getOID ();
+    final OutputEncryptor aEncryptor = new JceCMSContentEncryptorBuilder (aEncAlg).setProvider (_getCipherProviderName ()).build ();
+    final JceKeyTransRecipientInfoGenerator aRecipientInfoGen = new JceKeyTransRecipientInfoGenerator (aX509Cert).setProvider (_getAsymmetricProviderName ());
+
+    if (eAlgorithm.isAuthEnveloped ())
+      return _encryptAuthEnveloped (aPart, aRecipientInfoGen, aEncryptor, eCTE);
 
     final SMIMEEnvelopedGenerator aGen = new SMIMEEnvelopedGenerator ();
-    aGen.addRecipientInfoGenerator (new JceKeyTransRecipientInfoGenerator (aX509Cert).setProvider (m_sSecurityProviderName));
+    aGen.addRecipientInfoGenerator (aRecipientInfoGen);
     aGen.setContentTransferEncoding (eCTE.getID ());
 
-    final OutputEncryptor aEncryptor = new JceCMSContentEncryptorBuilder (aEncAlg).setProvider (m_sSecurityProviderName).build ();
-
     // Return the encrypted Mime Body Part
     return aGen.generate (aPart, aEncryptor);
   }
 
+  /**
+   * Create an AuthEnvelopedData (RFC 5083) S/MIME body part with
+   * "smime-type=authEnveloped-data". BouncyCastle only provides an S/MIME
+   * generator for this in newer versions, so the CMS structure is created
+   * directly.
+   */
+  @Nonnull
+  private static MimeBodyPart _encryptAuthEnveloped (@Nonnull final MimeBodyPart aPart,
+                                                     @Nonnull final JceKeyTransRecipientInfoGenerator aRecipientInfoGen,
+                                                     @Nonnull final OutputEncryptor aEncryptor,
+                                                     @Nonnull final EContentTransferEncoding eCTE) throws SMIMEException,
+                                                                                                   CMSException
+  {
+    if (!(aEncryptor instanceof OutputAEADEncryptor))
+      throw new CMSException ("The content encryptor for AuthEnvelopedData must be an AEAD encryptor");
+
+    try
+    {
+      // The MIME entity including its headers is encrypted
+      final byte [] aContent;
+      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+      {
+        aPart.writeTo (aBAOS);
+        aContent = aBAOS.toByteArray ();
+      }
+
+      final CMSAuthEnvelopedDataGenerator aGen = new CMSAuthEnvelopedDataGenerator ();
+      aGen.addRecipientInfoGenerator (aRecipientInfoGen);
+      final CMSAuthEnvelopedData aAuthEnvelopedData = aGen.generate (new CMSProcessableByteArray (aContent),
+                                                                     (OutputAEADEncryptor) aEncryptor);
+
+      final String sContentType = "application/pkcs7-mime; name=\"smime.p7m\"; smime-type=" + SMIME_TYPE_AUTH_ENVELOPED_DATA;
+      final MimeBodyPart ret = new MimeBodyPart ();
+      ret.setDataHandler (new DataHandler (new ByteArrayDataSource (aAuthEnvelopedData.getEncoded (), sContentType)));
+      ret.setHeader (CHttpHeader.CONTENT_TYPE, sContentType);
+      ret.setHeader (CHttpHeader.CONTENT_DISPOSITION, "attachment; filename=\"smime.p7m\"");
+      ret.setHeader ("Content-Description", "S/MIME Encrypted Message");
+      ret.setHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING, eCTE.getID ());
+      return ret;
+    }
+    catch (final IOException | MessagingException ex)
+    {
+      throw new SMIMEException ("Failed to create AuthEnvelopedData", ex);
+    }
+  }
+
   @Nonnull
   public MimeBodyPart sign (@Nonnull final MimeBodyPart aPart,
                             @Nonnull final X509Certificate aX509Cert,
@@ -515,8 +733,8 @@ public final class BCCryptoHelper implements ICryptoHelper
                     "; CTE=" +
                     eCTE);
 
-    // Check if the certificate is expired or active.
-    aX509Cert.checkValidity ();
+    // Check if the certificate is expired, active or revoked
+    m_aCertificateCheckCache.checkCertificate (aX509Cert);
 
     // create a CertStore containing the certificates we want carried
     // in the signature
@@ -550,7 +768,7 @@ public final class BCCryptoHelper implements ICryptoHelper
     // will be generated as part of the signature. The encryption algorithm
     // used is taken from the key
     {
-      SignerInfoGenerator aSigInfoGen = new JcaSimpleSignerInfoGeneratorBuilder ().setProvider (m_sSecurityProviderName)
+      SignerInfoGenerator aSigInfoGen = new JcaSimpleSignerInfoGeneratorBuilder ().setProvider (_getAsymmetricProviderName ())
                                                                                   .setSignedAttributeGenerator (new AttributeTable (aSignedAttrs))
                                                                                   .build (eAlgorithm.getSignAlgorithmName (),
                                                                                           aPrivateKey,
@@ -672,7 +890,7 @@ public final class BCCryptoHelper implements ICryptoHelper
     final MimeMultipart aMainPart = (MimeMultipart) aContent;
 
     // SMIMESignedParser uses "7bit" as the default - AS2 wants "binary"
-    final SMIMESignedParser aSignedParser = new SMIMESignedParser (new JcaDigestCalculatorProviderBuilder ().setProvider (m_sSecurityProviderName)
+    final SMIMESignedParser aSignedParser = new SMIMESignedParser (new JcaDigestCalculatorProviderBuilder ().setProvider (_getDigestProviderName ())
                                                                                                             .build (),
                                                                    aMainPart,
                                                                    EContentTransferEncoding.AS2_DEFAULT.getID (),
@@ -691,12 +909,17 @@ public final class BCCryptoHelper implements ICryptoHelper
     if (aEffectiveCertificateConsumer != null)
       aEffectiveCertificateConsumer.accept (aRealX509Cert);
 
-    // Check if the certificate is expired or active.
-    aRealX509Cert.checkValidity ();
-
-    // Verify certificate
-    final SignerInformationVerifier aSIV = new JcaSimpleSignerInfoVerifierBuilder ().setProvider (m_sSecurityProviderName)
-                                                                                    .build (aRealX509Cert.getPublicKey ());
+    // Check if the certificate is expired, active or revoked
+    m_aCertificateCheckCache.checkCertificate (aRealX509Cert);
+
+    // Verify certificate - the signature itself is checked with the
+    // asymmetric provider, the message digest with the digest provider
+    final SignerInformationVerifier aSIV = new SignerInformationVerifier (new DefaultCMSSignatureAlgorithmNameGenerator (),
+                                                                          new DefaultSignatureAlgorithmIdentifierFinder (),
+                                                                          new JcaContentVerifierProviderBuilder ().setProvider (_getAsymmetricProviderName ())
+                                                                                                                  .build (aRealX509Cert.getPublicKey ()),
+                                                                          new JcaDigestCalculatorProviderBuilder ().setProvider (_getDigestProviderName ())
+                                                                                                                   .build ());
 
     for (final SignerInformation aSignerInfo : aSignedParser.getSignerInfos ().getSigners ())
     {
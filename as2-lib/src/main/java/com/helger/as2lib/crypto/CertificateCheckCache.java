@@ -0,0 +1,591 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.crypto;
+
+import java.io.File;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.CRL;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.security.certificate.CertificateHelper;
+
+/**
+ * A cache for the per-certificate checks performed when signing, encrypting
+ * and verifying. For each certificate the validity window, the revocation
+ * state (if a CRL file is configured) and the PEM and fingerprint encodings
+ * are determined only once. The validity check afterwards is a simple
+ * comparison against the cached window. The revocation state is only
+ * re-evaluated if the CRL file changed.<br>
+ * The cache is bounded: the least recently used entries are evicted once more
+ * than {@link #getMaxSize()} certificates are cached, and entries older than
+ * {@link #getTTLMS()} are re-created upon the next access.<br>
+ * The cache should be cleared via {@link #clearCache()} whenever the
+ * underlying key store changes. Each certificate factory owns a separate
+ * instance, so that CRL files and key store reloads don't affect each other.
+ *
+ * @author Philip Helger
+ * @since 4.11.1
+ */
+@ThreadSafe
+public class CertificateCheckCache
+{
+  /** The minimum time between two checks of the CRL file modification */
+  public static final long DEFAULT_CRL_RECHECK_INTERVAL_MS = 60_000L;
+  /** The default time to live of a single cache entry */
+  public static final long DEFAULT_TTL_MS = 60 * 60_000L;
+  /** The default maximum number of cached certificates */
+  public static final int DEFAULT_MAX_SIZE = 1_000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (CertificateCheckCache.class);
+
+  /**
+   * The revocation state of a single certificate together with the CRL
+   * generation it was determined for. Immutable, so that both values are
+   * always published together.
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  private static final class RevocationState
+  {
+    private final int m_nCRLGeneration;
+    private final boolean m_bRevoked;
+
+    RevocationState (final int nCRLGeneration, final boolean bRevoked)
+    {
+      m_nCRLGeneration = nCRLGeneration;
+      m_bRevoked = bRevoked;
+    }
+  }
+
+  /**
+   * The cached information for a single certificate.
+   *
+   * @author Philip Helger
+   */
+  @ThreadSafe
+  public static final class CertificateCheckEntry
+  {
+    private final X509Certificate m_aCert;
+    private final long m_nCreationMillis;
+    private final long m_nNotBeforeMillis;
+    private final long m_nNotAfterMillis;
+    private volatile String m_sPEMEncoded;
+    private volatile String m_sFingerprintSHA256;
+    private volatile RevocationState m_aRevocationState;
+
+    CertificateCheckEntry (@Nonnull final X509Certificate aCert)
+    {
+      m_aCert = aCert;
+      m_nCreationMillis = PDTFactory.getCurrentMillis ();
+      m_nNotBeforeMillis = aCert.getNotBefore ().getTime ();
+      m_nNotAfterMillis = aCert.getNotAfter ().getTime ();
+    }
+
+    @Nonnull
+    public X509Certificate getCertificate ()
+    {
+      return m_aCert;
+    }
+
+    /**
+     * @return The point in time when this entry was created.
+     */
+    public long getCreationMillis ()
+    {
+      return m_nCreationMillis;
+    }
+
+    public long getNotBeforeMillis ()
+    {
+      return m_nNotBeforeMillis;
+    }
+
+    public long getNotAfterMillis ()
+    {
+      return m_nNotAfterMillis;
+    }
+
+    /**
+     * @param nNowMillis
+     *        The point in time to check.
+     * @return <code>true</code> if the certificate is valid at the provided
+     *         point in time.
+     */
+    public boolean isValidAt (final long nNowMillis)
+    {
+      return nNowMillis >= m_nNotBeforeMillis && nNowMillis <= m_nNotAfterMillis;
+    }
+
+    /**
+     * @return The PEM encoded certificate. Created upon first access. Never
+     *         <code>null</code>.
+     */
+    @Nonnull
+    @Nonempty
+    public String getPEMEncoded ()
+    {
+      String ret = m_sPEMEncoded;
+      if (ret == null)
+      {
+        // Concurrent creation is harmless - the result is always the same
+        ret = CertificateHelper.getPEMEncodedCertificate (m_aCert);
+        m_sPEMEncoded = ret;
+      }
+      return ret;
+    }
+
+    /**
+     * @return The hex encoded SHA-256 fingerprint of the encoded certificate.
+     *         Created upon first access. Never <code>null</code>.
+     * @throws GeneralSecurityException
+     *         If the certificate cannot be encoded
+     */
+    @Nonnull
+    @Nonempty
+    public String getFingerprintSHA256 () throws GeneralSecurityException
+    {
+      String ret = m_sFingerprintSHA256;
+      if (ret == null)
+      {
+        final byte [] aDigest = MessageDigest.getInstance ("SHA-256").digest (m_aCert.getEncoded ());
+        ret = StringHelper.getHexEncoded (aDigest);
+        m_sFingerprintSHA256 = ret;
+      }
+      return ret;
+    }
+
+    @Override
+    public String toString ()
+    {
+      final RevocationState aState = m_aRevocationState;
+      return new ToStringGenerator (null).append ("Subject", m_aCert.getSubjectX500Principal ().getName ())
+                                         .append ("NotBefore", m_nNotBeforeMillis)
+                                         .append ("NotAfter", m_nNotAfterMillis)
+                                         .append ("Revoked", aState != null && aState.m_bRevoked)
+                                         .append ("CRLGeneration", aState == null ? -1 : aState.m_nCRLGeneration)
+                                         .getToString ();
+    }
+  }
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private long m_nTTLMS = DEFAULT_TTL_MS;
+  @GuardedBy ("m_aLock")
+  private int m_nMaxSize = DEFAULT_MAX_SIZE;
+  // Access ordered for LRU eviction
+  @GuardedBy ("m_aLock")
+  private final Map <X509Certificate, CertificateCheckEntry> m_aMap = new LinkedHashMap <X509Certificate, CertificateCheckEntry> (16,
+                                                                                                                                   0.75f,
+                                                                                                                                   true)
+  {
+    @Override
+    protected boolean removeEldestEntry (final Map.Entry <X509Certificate, CertificateCheckEntry> aEldest)
+    {
+      return size () > m_nMaxSize;
+    }
+  };
+
+  // CRL handling
+  private final Object m_aCRLLock = new Object ();
+  private volatile File m_aCRLFile;
+  private volatile long m_nCRLRecheckIntervalMS = DEFAULT_CRL_RECHECK_INTERVAL_MS;
+  @GuardedBy ("m_aCRLLock")
+  private ICommonsList <X509CRL> m_aCRLs = new CommonsArrayList <> ();
+  @GuardedBy ("m_aCRLLock")
+  private long m_nCRLLastModified = -1;
+  private volatile long m_nCRLNextCheckMillis;
+  private volatile int m_nCRLGeneration;
+
+  public CertificateCheckCache ()
+  {}
+
+  /**
+   * @return The time to live of a single cache entry in milliseconds. Always
+   *         &gt; 0.
+   */
+  public final long getTTLMS ()
+  {
+    return m_aLock.lockedGet ( () -> Long.valueOf (m_nTTLMS)).longValue ();
+  }
+
+  /**
+   * Set the time to live of a single cache entry. Expired entries are
+   * re-created upon the next access.
+   *
+   * @param nTTLMS
+   *        Time to live in milliseconds. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final CertificateCheckCache setTTLMS (final long nTTLMS)
+  {
+    ValueEnforcer.isGT0 (nTTLMS, "TTLMS");
+    m_aLock.locked ( () -> m_nTTLMS = nTTLMS);
+    return this;
+  }
+
+  /**
+   * @return The maximum number of cached certificates. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_aLock.lockedInt ( () -> m_nMaxSize);
+  }
+
+  /**
+   * Set the maximum number of cached certificates. If the cache currently
+   * contains more entries, the least recently used ones are removed.
+   *
+   * @param nMaxSize
+   *        The maximum number of entries. Must be &gt; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final CertificateCheckCache setMaxSize (@Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_aLock.locked ( () -> {
+      m_nMaxSize = nMaxSize;
+      // Remove the least recently used entries
+      final Iterator <X509Certificate> it = m_aMap.keySet ().iterator ();
+      while (m_aMap.size () > nMaxSize)
+      {
+        it.next ();
+        it.remove ();
+      }
+    });
+    return this;
+  }
+
+  /**
+   * @return The CRL file to check the certificates against. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public final File getCRLFile ()
+  {
+    return m_aCRLFile;
+  }
+
+  /**
+   * Set a local CRL file to check certificates against. The file is parsed
+   * lazily and re-parsed only if its modification date changes.
+   *
+   * @param aCRLFile
+   *        The CRL file (DER or PEM encoded). May be <code>null</code> to
+   *        disable revocation checking.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final CertificateCheckCache setCRLFile (@Nullable final File aCRLFile)
+  {
+    synchronized (m_aCRLLock)
+    {
+      m_aCRLFile = aCRLFile;
+      m_aCRLs = new CommonsArrayList <> ();
+      m_nCRLLastModified = -1;
+      m_nCRLNextCheckMillis = 0;
+      m_nCRLGeneration++;
+    }
+    return this;
+  }
+
+  /**
+   * @return The minimum number of milliseconds between two checks of the CRL
+   *         file modification date.
+   */
+  public final long getCRLRecheckIntervalMS ()
+  {
+    return m_nCRLRecheckIntervalMS;
+  }
+
+  /**
+   * @param nCRLRecheckIntervalMS
+   *        The minimum number of milliseconds between two checks of the CRL
+   *        file modification date. Must be &ge; 0.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final CertificateCheckCache setCRLRecheckIntervalMS (final long nCRLRecheckIntervalMS)
+  {
+    ValueEnforcer.isGE0 (nCRLRecheckIntervalMS, "CRLRecheckIntervalMS");
+    m_nCRLRecheckIntervalMS = nCRLRecheckIntervalMS;
+    return this;
+  }
+
+  @Nonnull
+  private static ICommonsList <X509CRL> _readCRLs (@Nonnull final File aFile)
+  {
+    final ICommonsList <X509CRL> ret = new CommonsArrayList <> ();
+    final InputStream aIS = FileHelper.getBufferedInputStream (aFile);
+    if (aIS == null)
+      LOGGER.warn ("Failed to open CRL file " + aFile.getAbsolutePath ());
+    else
+      try
+      {
+        final CertificateFactory aCF = CertificateFactory.getInstance ("X.509");
+        for (final CRL aCRL : aCF.generateCRLs (aIS))
+          if (aCRL instanceof X509CRL)
+            ret.add ((X509CRL) aCRL);
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Read " + ret.size () + " CRL(s) from " + aFile.getAbsolutePath ());
+      }
+      catch (final GeneralSecurityException ex)
+      {
+        LOGGER.warn ("Failed to parse CRL file " + aFile.getAbsolutePath (), ex);
+      }
+      finally
+      {
+        StreamHelper.close (aIS);
+      }
+    return ret;
+  }
+
+  /**
+   * Ensure the parsed CRL state is up to date. The file system is only touched
+   * once per re-check interval.
+   *
+   * @param nNowMillis
+   *        Current time
+   * @return The current CRL generation
+   */
+  private int _refreshCRLs (final long nNowMillis)
+  {
+    if (m_aCRLFile == null || nNowMillis < m_nCRLNextCheckMillis)
+      return m_nCRLGeneration;
+
+    synchronized (m_aCRLLock)
+    {
+      final File aFile = m_aCRLFile;
+      if (aFile != null && nNowMillis >= m_nCRLNextCheckMillis)
+      {
+        final long nLastModified = aFile.lastModified ();
+        if (nLastModified != m_nCRLLastModified)
+        {
+          m_aCRLs = nLastModified == 0L ? new CommonsArrayList <> () : _readCRLs (aFile);
+          m_nCRLLastModified = nLastModified;
+          m_nCRLGeneration++;
+        }
+        m_nCRLNextCheckMillis = nNowMillis + m_nCRLRecheckIntervalMS;
+      }
+      return m_nCRLGeneration;
+    }
+  }
+
+  @Nonnull
+  private RevocationState _getRevocationState (@Nonnull final CertificateCheckEntry aEntry, final long nNowMillis)
+  {
+    final int nGeneration = _refreshCRLs (nNowMillis);
+    RevocationState ret = aEntry.m_aRevocationState;
+    if (ret == null || ret.m_nCRLGeneration != nGeneration)
+    {
+      // Determine the generation and the state under the same lock, so that
+      // they always match
+      synchronized (m_aCRLLock)
+      {
+        boolean bRevoked = false;
+        if (m_aCRLFile != null)
+        {
+          final X509Certificate aCert = aEntry.getCertificate ();
+          for (final X509CRL aCRL : m_aCRLs)
+            if (aCRL.getIssuerX500Principal ().equals (aCert.getIssuerX500Principal ()) && aCRL.isRevoked (aCert))
+            {
+              bRevoked = true;
+              break;
+            }
+        }
+        ret = new RevocationState (m_nCRLGeneration, bRevoked);
+      }
+      // A concurrently published older state is simply re-evaluated
+      aEntry.m_aRevocationState = ret;
+    }
+    return ret;
+  }
+
+  /**
+   * Get or create the cache entry of the provided certificate.
+   *
+   * @param aCert
+   *        The certificate to get the entry for. May not be <code>null</code>.
+   * @return The cache entry and never <code>null</code>.
+   */
+  @Nonnull
+  public CertificateCheckEntry getEntry (@Nonnull final X509Certificate aCert)
+  {
+    ValueEnforcer.notNull (aCert, "Cert");
+
+    // Always the exclusive lock, as the access order is updated upon get
+    return m_aLock.lockedGet ( () -> {
+      CertificateCheckEntry ret = m_aMap.get (aCert);
+      if (ret == null || PDTFactory.getCurrentMillis () - ret.getCreationMillis () >= m_nTTLMS)
+      {
+        // Not yet cached or expired
+        ret = new CertificateCheckEntry (aCert);
+        m_aMap.put (aCert, ret);
+      }
+      return ret;
+    });
+  }
+
+  /**
+   * Check if the provided certificate was revoked according to the configured
+   * CRL file.
+   *
+   * @param aCert
+   *        The certificate to check. May not be <code>null</code>.
+   * @return <code>true</code> if a CRL file is configured and the certificate
+   *         is contained in it, <code>false</code> otherwise.
+   */
+  public boolean isRevoked (@Nonnull final X509Certificate aCert)
+  {
+    return _getRevocationState (getEntry (aCert), PDTFactory.getCurrentMillis ()).m_bRevoked;
+  }
+
+  /**
+   * Check if the provided certificate is currently valid. This replaces
+   * {@link X509Certificate#checkValidity()} and additionally checks the
+   * revocation state if a CRL file is configured.
+   *
+   * @param aCert
+   *        The certificate to check. May not be <code>null</code>.
+   * @throws CertificateExpiredException
+   *         If the certificate is expired
+   * @throws CertificateNotYetValidException
+   *         If the certificate is not yet valid
+   * @throws CertificateException
+   *         If the certificate was revoked
+   */
+  public void checkCertificate (@Nonnull final X509Certificate aCert) throws CertificateException
+  {
+    final CertificateCheckEntry aEntry = getEntry (aCert);
+    final long nNow = PDTFactory.getCurrentMillis ();
+
+    if (nNow > aEntry.getNotAfterMillis ())
+      throw new CertificateExpiredException ("Certificate expired on " + new Date (aEntry.getNotAfterMillis ()));
+    if (nNow < aEntry.getNotBeforeMillis ())
+      throw new CertificateNotYetValidException ("Certificate is not valid before " + new Date (aEntry.getNotBeforeMillis ()));
+
+    if (_getRevocationState (aEntry, nNow).m_bRevoked)
+      throw new CertificateException ("Certificate with subject '" +
+                                      aCert.getSubjectX500Principal ().getName () +
+                                      "' and serial number " +
+                                      aCert.getSerialNumber () +
+                                      " has been revoked");
+  }
+
+  /**
+   * Get the PEM encoding of the provided certificate from the cache.
+   *
+   * @param aCert
+   *        The certificate to encode. May not be <code>null</code>.
+   * @return The PEM encoded certificate.
+   */
+  @Nonnull
+  @Nonempty
+  public String getPEMEncodedCertificate (@Nonnull final X509Certificate aCert)
+  {
+    return getEntry (aCert).getPEMEncoded ();
+  }
+
+  /**
+   * @return The number of cached certificates. Always &ge; 0.
+   */
+  public int getCachedCertificateCount ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  /**
+   * @return A copy of all cached entries. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <CertificateCheckEntry> getAllEntries ()
+  {
+    return m_aLock.lockedGet ( () -> new CommonsArrayList <> (m_aMap.values ()));
+  }
+
+  /**
+   * Remove all cached entries, e.g. because the key store changed. The CRL
+   * file state is re-checked on the next access.
+   */
+  public void clearCache ()
+  {
+    m_aLock.locked (m_aMap::clear);
+    m_nCRLNextCheckMillis = 0;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("TTLMS", m_nTTLMS)
+                                       .append ("MaxSize", m_nMaxSize)
+                                       .append ("CRLFile", m_aCRLFile)
+                                       .append ("CRLRecheckIntervalMS", m_nCRLRecheckIntervalMS)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.crypto;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.system.SystemProperties;
+
+/**
+ * An optional offload stage for CPU intensive crypto operations (sign,
+ * encrypt, decrypt and verify). If enabled, the operations are executed on a
+ * dedicated thread pool which is sized to the number of available processors,
+ * so that receiver, sender and polling threads do not oversubscribe the CPU
+ * cores during bursts. The calling thread waits for the result.<br>
+ * By default the offloading is disabled and the operations are executed in
+ * the calling thread. It can be enabled via the system property
+ * <code>AS2.cryptoOffload</code> or via {@link #setEnabled(boolean)}. The
+ * number of threads can be customized with the system property
+ * <code>AS2.cryptoOffloadThreads</code> or via {@link #setMaxThreads(int)}.
+ * The number of waiting operations is bounded (system property
+ * <code>AS2.cryptoOffloadQueueSize</code> or {@link #setQueueSize(int)}). If
+ * the queue is full, the operation is executed in the calling thread, so that
+ * bursts slow down the callers instead of piling up unbounded work.
+ *
+ * @author Philip Helger
+ * @since 4.11.1
+ */
+@ThreadSafe
+public final class CryptoOffloadExecutor
+{
+  public static final String SYSTEM_PROPERTY_ENABLED = "AS2.cryptoOffload";
+  public static final String SYSTEM_PROPERTY_THREADS = "AS2.cryptoOffloadThreads";
+  public static final String SYSTEM_PROPERTY_QUEUE_SIZE = "AS2.cryptoOffloadQueueSize";
+  /** The default queue size is this value multiplied with the thread count */
+  public static final int DEFAULT_QUEUE_SIZE_PER_THREAD = 4;
+  public static final long DEFAULT_KEEP_ALIVE_SECONDS = 60;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (CryptoOffloadExecutor.class);
+
+  /**
+   * Marker class to identify the threads of the pool, so that nested calls are
+   * executed directly.
+   */
+  private static final class CryptoThread extends Thread
+  {
+    CryptoThread (@Nonnull final Runnable aRunnable, @Nonnull final String sName)
+    {
+      super (aRunnable, sName);
+      setDaemon (true);
+      setUncaughtExceptionHandler (BasicThreadFactory.getDefaultUncaughtExceptionHandler ());
+    }
+  }
+
+  private static final SimpleLock LOCK = new SimpleLock ();
+  private static final AtomicInteger THREAD_INDEX = new AtomicInteger (0);
+  private static volatile boolean s_bEnabled = StringParser.parseBool (SystemProperties.getPropertyValueOrNull (SYSTEM_PROPERTY_ENABLED),
+                                                                      false);
+  @GuardedBy ("LOCK")
+  private static int s_nMaxThreads = StringParser.parseInt (SystemProperties.getPropertyValueOrNull (SYSTEM_PROPERTY_THREADS),
+                                                            Runtime.getRuntime ().availableProcessors ());
+  @GuardedBy ("LOCK")
+  private static int s_nQueueSize = StringParser.parseInt (SystemProperties.getPropertyValueOrNull (SYSTEM_PROPERTY_QUEUE_SIZE), -1);
+  @GuardedBy ("LOCK")
+  private static ThreadPoolExecutor s_aExecutor;
+
+  private CryptoOffloadExecutor ()
+  {}
+
+  /**
+   * @return <code>true</code> if crypto operations are executed in the
+   *         dedicated thread pool, <code>false</code> if they are executed in
+   *         the calling thread.
+   */
+  public static boolean isEnabled ()
+  {
+    return s_bEnabled;
+  }
+
+  /**
+   * Enable or disable the crypto offloading. Disabling it does not shutdown
+   * the thread pool - use {@link #shutdown()} for that.
+   *
+   * @param bEnabled
+   *        <code>true</code> to enable offloading, <code>false</code> to
+   *        disable it.
+   */
+  public static void setEnabled (final boolean bEnabled)
+  {
+    s_bEnabled = bEnabled;
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Crypto offloading is now " + (bEnabled ? "enabled" : "disabled"));
+  }
+
+  /**
+   * @return The maximum number of crypto threads. Always &gt; 0. Defaults to
+   *         the number of available processors.
+   */
+  public static int getMaxThreads ()
+  {
+    return LOCK.lockedInt ( () -> s_nMaxThreads);
+  }
+
+  /**
+   * Set the maximum number of crypto threads. A running pool is resized.
+   *
+   * @param nMaxThreads
+   *        The maximum number of threads. Must be &gt; 0.
+   */
+  public static void setMaxThreads (final int nMaxThreads)
+  {
+    ValueEnforcer.isGT0 (nMaxThreads, "MaxThreads");
+    LOCK.locked ( () -> {
+      s_nMaxThreads = nMaxThreads;
+      if (s_aExecutor != null)
+      {
+        // Order matters to not violate core <= max
+        if (nMaxThreads > s_aExecutor.getMaximumPoolSize ())
+        {
+          s_aExecutor.setMaximumPoolSize (nMaxThreads);
+          s_aExecutor.setCorePoolSize (nMaxThreads);
+        }
+        else
+        {
+          s_aExecutor.setCorePoolSize (nMaxThreads);
+          s_aExecutor.setMaximumPoolSize (nMaxThreads);
+        }
+      }
+    });
+  }
+
+  /**
+   * @return The maximum number of crypto operations waiting for a thread.
+   *         Always &gt; 0. Defaults to {@link #DEFAULT_QUEUE_SIZE_PER_THREAD}
+   *         times the maximum number of threads.
+   */
+  public static int getQueueSize ()
+  {
+    return LOCK.lockedInt (CryptoOffloadExecutor::_getQueueSize);
+  }
+
+  @GuardedBy ("LOCK")
+  private static int _getQueueSize ()
+  {
+    return s_nQueueSize > 0 ? s_nQueueSize : s_nMaxThreads * DEFAULT_QUEUE_SIZE_PER_THREAD;
+  }
+
+  /**
+   * Set the maximum number of crypto operations waiting for a thread. If the
+   * queue is full, operations are executed in the calling thread. A running
+   * pool is not changed - the new size is used when the pool is created the
+   * next time (e.g. after {@link #shutdown()}).
+   *
+   * @param nQueueSize
+   *        The maximum queue size. Values &le; 0 mean the default.
+   */
+  public static void setQueueSize (final int nQueueSize)
+  {
+    LOCK.locked ( () -> s_nQueueSize = nQueueSize);
+  }
+
+  @Nonnull
+  private static ThreadPoolExecutor _getOrCreateExecutor ()
+  {
+    return LOCK.lockedGet ( () -> {
+      if (s_aExecutor == null)
+      {
+        final int nQueueSize = _getQueueSize ();
+        // If the queue is full or the pool was shut down in the meantime, run
+        // in the calling thread, so that the waiting caller always gets a
+        // result
+        final RejectedExecutionHandler aRunInCaller = (r, aExecutor) -> r.run ();
+        s_aExecutor = new ThreadPoolExecutor (s_nMaxThreads,
+                                              s_nMaxThreads,
+                                              DEFAULT_KEEP_ALIVE_SECONDS,
+                                              TimeUnit.SECONDS,
+                                              new ArrayBlockingQueue <> (nQueueSize),
+                                              r -> new CryptoThread (r, "AS2-Crypto-" + THREAD_INDEX.incrementAndGet ()),
+                                              aRunInCaller);
+        // Don't keep idle threads forever
+        s_aExecutor.allowCoreThreadTimeOut (true);
+        if (LOGGER.isInfoEnabled ())
+          LOGGER.info ("Created crypto offload executor with " + s_nMaxThreads + " threads and a queue size of " + nQueueSize);
+      }
+      return s_aExecutor;
+    });
+  }
+
+  /**
+   * Execute the provided crypto operation. If offloading is disabled or if the
+   * current thread is already a crypto thread, the operation is executed
+   * directly. Otherwise it is executed in the crypto thread pool and the
+   * current thread waits for the result. If the queue of the pool is full, the
+   * operation is executed directly as well.
+   *
+   * @param aCallable
+   *        The operation to execute. May not be <code>null</code>.
+   * @return The result of the operation. May be <code>null</code>.
+   * @throws Exception
+   *         The exception thrown by the operation, or an
+   *         {@link InterruptedException} if waiting was interrupted. In the
+   *         latter case the operation is cancelled.
+   * @param <T>
+   *        Return type
+   */
+  @Nullable
+  public static <T> T execute (@Nonnull final Callable <T> aCallable) throws Exception
+  {
+    ValueEnforcer.notNull (aCallable, "Callable");
+
+    if (!s_bEnabled || Thread.currentThread () instanceof CryptoThread)
+      return aCallable.call ();
+
+    final Future <T> aFuture = _getOrCreateExecutor ().submit (aCallable);
+    try
+    {
+      return aFuture.get ();
+    }
+    catch (final InterruptedException ex)
+    {
+      // Nobody is waiting for the result anymore
+      aFuture.cancel (true);
+      Thread.currentThread ().interrupt ();
+      throw ex;
+    }
+    catch (final ExecutionException ex)
+    {
+      // Unwrap the original exception
+      final Throwable aCause = ex.getCause ();
+      if (aCause instanceof Exception)
+        throw (Exception) aCause;
+      if (aCause instanceof Error)
+        throw (Error) aCause;
+      throw ex;
+    }
+  }
+
+  /**
+   * Shutdown the thread pool, if it was created. Afterwards it is re-created
+   * on demand.
+   */
+  public static void shutdown ()
+  {
+    final ThreadPoolExecutor aExecutor = LOCK.lockedGet ( () -> {
+      final ThreadPoolExecutor ret = s_aExecutor;
+      s_aExecutor = null;
+      return ret;
+    });
+    if (aExecutor != null)
+    {
+      aExecutor.shutdown ();
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Shut down crypto offload executor");
+    }
+  }
+}
@@ -60,15 +60,25 @@ public enum ECryptoAlgorithmCrypt implements ICryptoAlgorithm
   // Added in 4.2.0
   CRYPT_AES128_GCM ("aes128-gcm", CMSAlgorithm.AES128_GCM),
   CRYPT_AES192_GCM ("aes192-gcm", CMSAlgorithm.AES192_GCM),
-  CRYPT_AES256_GCM ("aes256-gcm", CMSAlgorithm.AES256_GCM);
+  CRYPT_AES256_GCM ("aes256-gcm", CMSAlgorithm.AES256_GCM),
+  // Added in 4.11.1 - CMS AuthEnvelopedData according to RFC 5083/5084
+  CRYPT_AES128_GCM_AUTHENVELOPED ("aes128-gcm-authenveloped", CMSAlgorithm.AES128_GCM, true),
+  CRYPT_AES256_GCM_AUTHENVELOPED ("aes256-gcm-authenveloped", CMSAlgorithm.AES256_GCM, true);
 
   private final String m_sID;
   private final ASN1ObjectIdentifier m_aOID;
+  private final boolean m_bAuthEnveloped;
 
   ECryptoAlgorithmCrypt (@Nonnull @Nonempty final String sID, @Nonnull final ASN1ObjectIdentifier aOID)
+  {
+    this (sID, aOID, false);
+  }
+
+  ECryptoAlgorithmCrypt (@Nonnull @Nonempty final String sID, @Nonnull final ASN1ObjectIdentifier aOID, final boolean bAuthEnveloped)
   {
     m_sID = sID;
     m_aOID = aOID;
+    m_bAuthEnveloped = bAuthEnveloped;
   }
 
   @Nonnull
@@ -84,6 +94,17 @@ public enum ECryptoAlgorithmCrypt implements ICryptoAlgorithm
     return m_aOID;
   }
 
+  /**
+   * @return <code>true</code> if this algorithm creates a CMS AuthEnvelopedData
+   *         structure (<code>smime-type=authEnveloped-data</code>),
+   *         <code>false</code> if it creates a regular EnvelopedData structure.
+   * @since 4.11.1
+   */
+  public boolean isAuthEnveloped ()
+  {
+    return m_bAuthEnveloped;
+  }
+
   @Nullable
   public static ECryptoAlgorithmCrypt getFromIDOrNull (@Nullable final String sID)
   {
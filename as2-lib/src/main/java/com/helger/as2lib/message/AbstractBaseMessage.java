@@ -33,8 +33,11 @@
 package com.helger.as2lib.message;
 
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 
@@ -65,7 +68,21 @@ public abstract class AbstractBaseMessage implements IBaseMessage
   {
     // read in attributes
     m_aAttributes = (StringMap) aOIS.readObject ();
-    m_aHeaders = (HttpHeaderMap) aOIS.readObject ();
+    // read in headers - both the HttpHeaderMap instance and the map of all
+    // headers are supported (see writeObject)
+    final Object aHeaders = aOIS.readObject ();
+    if (aHeaders instanceof HttpHeaderMap)
+      m_aHeaders = (HttpHeaderMap) aHeaders;
+    else
+      if (aHeaders instanceof Map <?, ?>)
+      {
+        m_aHeaders = new HttpHeaderMap ();
+        for (final Map.Entry <?, ?> aEntry : ((Map <?, ?>) aHeaders).entrySet ())
+          for (final Object aValue : (Iterable <?>) aEntry.getValue ())
+            m_aHeaders.addHeader ((String) aEntry.getKey (), (String) aValue);
+      }
+      else
+        throw new InvalidObjectException ("Unsupported serialized headers " + aHeaders);
 
     // read in partnership
     m_aPartnership = (Partnership) aOIS.readObject ();
@@ -76,8 +93,13 @@ public abstract class AbstractBaseMessage implements IBaseMessage
     // write attributes
     aOOS.writeObject (m_aAttributes);
 
-    // write headers
-    aOOS.writeObject (m_aHeaders);
+    // write headers - keep the HttpHeaderMap instance if possible, so that the
+    // format stays the same as before. Some ph-commons versions don't have a
+    // serializable HttpHeaderMap so write the map of all headers instead.
+    if (m_aHeaders instanceof Serializable)
+      aOOS.writeObject (m_aHeaders);
+    else
+      aOOS.writeObject (m_aHeaders.getAllHeaders ());
 
     // write partnership info
     aOOS.writeObject (m_aPartnership);
@@ -32,6 +32,8 @@
  */
 package com.helger.as2lib.partner;
 
+import java.util.function.Function;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
@@ -50,6 +52,7 @@ import com.helger.commons.annotation.ELockType;
 import com.helger.commons.annotation.IsLocked;
 import com.helger.commons.annotation.OverrideOnDemand;
 import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.state.EChange;
@@ -57,7 +60,20 @@ import com.helger.commons.string.ToStringGenerator;
 
 /**
  * Abstract {@link IPartnershipFactory} implementation using
- * {@link PartnershipMap} as the underlying data storage object.
+ * {@link PartnershipMap} as the underlying data storage object.<br>
+ * Since v4.11.1 the partnerships are held as a copy-on-write snapshot: all
+ * read accesses work on the current snapshot without locking, whereas
+ * modifications create a modified copy and atomically replace the snapshot.
+ * Published snapshots are never modified. As every modification copies the
+ * snapshot, bulk modifications should use
+ * {@link #addPartnerships(Iterable)}, {@link #removePartnerships(Iterable)} or
+ * {@link #setPartnerships(PartnershipMap)} so that the copy is created only
+ * once.<br>
+ * Added partnerships are copied, and all read accesses return read-only views
+ * of the contained partnerships (see
+ * {@link Partnership#setBasePartnership(Partnership)}). Modifying a returned
+ * partnership therefore never modifies the contained partnership and never
+ * invalidates the ID indexes of the {@link PartnershipMap}.
  *
  * @author Philip Helger
  */
@@ -66,7 +82,8 @@ public abstract class AbstractPartnershipFactory extends AbstractDynamicComponen
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (AbstractPartnershipFactory.class);
 
-  private final PartnershipMap m_aPartnerships = new PartnershipMap ();
+  // Modifications happen under the write lock
+  private volatile PartnershipMap m_aPartnerships = new PartnershipMap ();
 
   /**
    * Callback method that is invoked, when this object is modified. This method
@@ -81,79 +98,188 @@ public abstract class AbstractPartnershipFactory extends AbstractDynamicComponen
   protected void markAsChanged () throws AS2Exception
   {}
 
+  @Nonnull
+  private static Partnership _getCopy (@Nonnull final Partnership aPartnership)
+  {
+    final Partnership ret = new Partnership (aPartnership.getName ());
+    ret.copyFrom (aPartnership);
+    return ret;
+  }
+
+  @Nullable
+  private static Partnership _getView (@Nullable final Partnership aPartnership)
+  {
+    if (aPartnership == null)
+      return null;
+    // Cheap, because no data is copied
+    final Partnership ret = new Partnership (aPartnership.getName ());
+    ret.setBasePartnership (aPartnership);
+    return ret;
+  }
+
   @Nonnull
   @OverridingMethodsMustInvokeSuper
   public Partnership getPartnership (@Nonnull final Partnership aPartnership) throws AS2Exception
   {
     ValueEnforcer.notNull (aPartnership, "Partnership");
 
-    return m_aRWLock.readLockedGetThrowing ( () -> {
-      Partnership aRealPartnership = m_aPartnerships.getPartnershipByName (aPartnership.getName ());
-      if (aRealPartnership == null)
-      {
-        // Found no partnership by name
-        aRealPartnership = m_aPartnerships.getPartnershipByID (aPartnership.getAllSenderIDs (), aPartnership.getAllReceiverIDs ());
-      }
+    // Lock-free access to the current snapshot
+    final PartnershipMap aPartnerships = m_aPartnerships;
+    Partnership aRealPartnership = aPartnerships.getPartnershipByName (aPartnership.getName ());
+    if (aRealPartnership == null)
+    {
+      // Found no partnership by name
+      aRealPartnership = aPartnerships.getPartnershipByID (aPartnership.getAllSenderIDs (), aPartnership.getAllReceiverIDs ());
+    }
 
-      if (aRealPartnership == null)
-        throw new AS2PartnershipNotFoundException (aPartnership);
-      return aRealPartnership;
-    });
+    if (aRealPartnership == null)
+      throw new AS2PartnershipNotFoundException (aPartnership);
+    return _getView (aRealPartnership);
   }
 
   @Nullable
   public Partnership getPartnershipByName (@Nullable final String sName)
   {
-    return m_aRWLock.readLockedGet ( () -> m_aPartnerships.getPartnershipByName (sName));
+    return _getView (m_aPartnerships.getPartnershipByName (sName));
   }
 
   @Nonnull
   @ReturnsMutableCopy
   public ICommonsSet <String> getAllPartnershipNames ()
   {
-    return m_aRWLock.readLockedGet (m_aPartnerships::getAllPartnershipNames);
+    return m_aPartnerships.getAllPartnershipNames ();
   }
 
   @Nonnull
   @ReturnsMutableCopy
   public ICommonsList <Partnership> getAllPartnerships ()
   {
-    return m_aRWLock.readLockedGet (m_aPartnerships::getAllPartnerships);
+    return m_aPartnerships.getAllPartnerships ().getAllMapped (AbstractPartnershipFactory::_getView);
   }
 
+  /**
+   * @return The current immutable snapshot of all partnerships. Later
+   *         modifications of this factory are not reflected in the returned
+   *         object. The contained partnerships are not copied and must not be
+   *         modified.
+   */
   @Nonnull
   public IPartnershipMap getPartnershipMap ()
   {
-    return m_aRWLock.readLockedGet ( () -> m_aPartnerships);
+    return m_aPartnerships;
   }
 
+  /**
+   * Replace all partnerships at once. The provided map is copied and the
+   * indexes are built only once. The contained partnerships are taken over
+   * without copying, so they must not be modified afterwards.
+   *
+   * @param aPartnerships
+   *        The new partnerships. May not be <code>null</code>.
+   * @throws AS2Exception
+   *         If {@link #markAsChanged()} fails
+   */
   protected final void setPartnerships (@Nonnull final PartnershipMap aPartnerships) throws AS2Exception
   {
+    ValueEnforcer.notNull (aPartnerships, "Partnerships");
+
+    // Copy outside of the lock
+    final PartnershipMap aNewPartnerships = aPartnerships.getClone ();
     m_aRWLock.writeLockedThrowing ( () -> {
-      m_aPartnerships.setPartnerships (aPartnerships);
+      m_aPartnerships = aNewPartnerships;
       markAsChanged ();
     });
   }
 
   @Nonnull
-  public final EChange addPartnership (@Nonnull final Partnership aPartnership) throws AS2Exception
+  private EChange _modifyPartnerships (@Nonnull final Function <PartnershipMap, EChange> aModifier) throws AS2Exception
   {
     return m_aRWLock.writeLockedGetThrowing ( () -> {
-      if (m_aPartnerships.addPartnership (aPartnership).isUnchanged ())
+      final PartnershipMap aNewPartnerships = m_aPartnerships.getClone ();
+      if (aModifier.apply (aNewPartnerships).isUnchanged ())
         return EChange.UNCHANGED;
+      m_aPartnerships = aNewPartnerships;
       markAsChanged ();
       return EChange.CHANGED;
     });
   }
 
+  @Nonnull
+  public final EChange addPartnership (@Nonnull final Partnership aPartnership) throws AS2Exception
+  {
+    ValueEnforcer.notNull (aPartnership, "Partnership");
+
+    // Avoid the copy if nothing changes
+    if (m_aPartnerships.getPartnershipByName (aPartnership.getName ()) != null)
+      return EChange.UNCHANGED;
+    final Partnership aCopy = _getCopy (aPartnership);
+    return _modifyPartnerships (x -> x.addPartnership (aCopy));
+  }
+
+  /**
+   * Add multiple partnerships at once. Other than calling
+   * {@link #addPartnership(Partnership)} for each partnership, the snapshot is
+   * copied only once and {@link #markAsChanged()} is called only once.
+   *
+   * @param aPartnerships
+   *        The partnerships to add. May not be <code>null</code>. Partnerships
+   *        with a name that is already present are ignored.
+   * @return {@link EChange#CHANGED} if at least one partnership was added.
+   * @throws AS2Exception
+   *         If {@link #markAsChanged()} fails
+   * @since 4.11.1
+   */
+  @Nonnull
+  public final EChange addPartnerships (@Nonnull final Iterable <? extends Partnership> aPartnerships) throws AS2Exception
+  {
+    ValueEnforcer.notNull (aPartnerships, "Partnerships");
+
+    // Copy outside of the lock
+    final ICommonsList <Partnership> aCopies = new CommonsArrayList <> ();
+    for (final Partnership aPartnership : aPartnerships)
+      aCopies.add (_getCopy (aPartnership));
+
+    return _modifyPartnerships (aMap -> {
+      EChange ret = EChange.UNCHANGED;
+      for (final Partnership aCopy : aCopies)
+        ret = ret.or (aMap.addPartnership (aCopy));
+      return ret;
+    });
+  }
+
   @Nonnull
   public final EChange removePartnership (@Nonnull final Partnership aPartnership) throws AS2Exception
   {
-    return m_aRWLock.writeLockedGetThrowing ( () -> {
-      if (m_aPartnerships.removePartnership (aPartnership).isUnchanged ())
-        return EChange.UNCHANGED;
-      markAsChanged ();
-      return EChange.CHANGED;
+    ValueEnforcer.notNull (aPartnership, "Partnership");
+
+    // Avoid the copy if nothing changes
+    if (m_aPartnerships.getPartnershipByName (aPartnership.getName ()) == null)
+      return EChange.UNCHANGED;
+    return _modifyPartnerships (x -> x.removePartnership (aPartnership));
+  }
+
+  /**
+   * Remove multiple partnerships at once. Other than calling
+   * {@link #removePartnership(Partnership)} for each partnership, the snapshot
+   * is copied only once and {@link #markAsChanged()} is called only once.
+   *
+   * @param aPartnerships
+   *        The partnerships to remove. May not be <code>null</code>.
+   * @return {@link EChange#CHANGED} if at least one partnership was removed.
+   * @throws AS2Exception
+   *         If {@link #markAsChanged()} fails
+   * @since 4.11.1
+   */
+  @Nonnull
+  public final EChange removePartnerships (@Nonnull final Iterable <? extends Partnership> aPartnerships) throws AS2Exception
+  {
+    ValueEnforcer.notNull (aPartnerships, "Partnerships");
+
+    return _modifyPartnerships (aMap -> {
+      EChange ret = EChange.UNCHANGED;
+      for (final Partnership aPartnership : aPartnerships)
+        ret = ret.or (aMap.removePartnership (aPartnership));
+      return ret;
     });
   }
 
@@ -167,8 +293,8 @@ public abstract class AbstractPartnershipFactory extends AbstractDynamicComponen
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Updating partnership " + aPartnership);
 
-    // Update partnership data of message with the stored ones
-    aMsg.partnership ().copyFrom (aPartnership);
+    // Update partnership data of message with the stored ones (no copy)
+    aMsg.partnership ().setBasePartnership (aPartnership);
 
     // Set attributes
     if (bOverwrite)
@@ -187,7 +313,7 @@ public abstract class AbstractPartnershipFactory extends AbstractDynamicComponen
 
     // Fill in any available partnership information
     final Partnership aPartnership = getPartnership (aMdn.partnership ());
-    aMdn.partnership ().copyFrom (aPartnership);
+    aMdn.partnership ().setBasePartnership (aPartnership);
   }
 
   @Override
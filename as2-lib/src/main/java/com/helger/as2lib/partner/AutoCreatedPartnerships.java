@@ -0,0 +1,464 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForSigned;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.as2lib.exception.AS2Exception;
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.attr.IStringMap;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.functional.IThrowingConsumer;
+import com.helger.commons.functional.IThrowingFunction;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Keeps track of the partnerships that were automatically created by a self
+ * filling partnership factory, so that they can be evicted again. Explicitly
+ * configured partnerships are never tracked and therefore never evicted.
+ * Supported are a maximum number of auto-created partnerships (least recently
+ * used ones are evicted first) and a maximum idle time. Both limits are
+ * disabled by default. Idle partnerships are evicted upon lookup and upon
+ * creation. Additionally the number of lookup hits, misses and evictions is
+ * counted.<br>
+ * Automatically created partnerships are marked with the partnership attribute
+ * {@link #PARTNERSHIP_ATTR_AUTO_CREATED}, so that persistent factories can
+ * restore the tracking upon loading via {@link #onLoaded(Iterable)}.
+ *
+ * @author Philip Helger
+ * @since 4.11.1
+ */
+@ThreadSafe
+public final class AutoCreatedPartnerships
+{
+  /**
+   * The maximum number of automatically created partnerships. If more are
+   * created, the least recently used ones are removed again.
+   */
+  public static final String ATTR_MAX_AUTO_CREATED = "maxautocreated";
+  /**
+   * The maximum time in seconds an automatically created partnership may stay
+   * unused before it is removed again.
+   */
+  public static final String ATTR_AUTO_CREATED_MAX_IDLE = "autocreatedmaxidle";
+  /**
+   * The partnership attribute marking an automatically created partnership.
+   */
+  public static final String PARTNERSHIP_ATTR_AUTO_CREATED = "autocreated";
+
+  public static final int DEFAULT_MAX_SIZE = -1;
+  public static final long DEFAULT_MAX_IDLE_MS = -1;
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  private int m_nMaxSize = DEFAULT_MAX_SIZE;
+  private long m_nMaxIdleMS = DEFAULT_MAX_IDLE_MS;
+  // Partnership name to last access millis - access ordered for LRU
+  private final Map <String, Long> m_aMap = new LinkedHashMap <> (16, 0.75f, true);
+  private final AtomicLong m_aHits = new AtomicLong (0);
+  private final AtomicLong m_aMisses = new AtomicLong (0);
+  private final AtomicLong m_aEvictions = new AtomicLong (0);
+
+  public AutoCreatedPartnerships ()
+  {}
+
+  /**
+   * Apply the limits configured in the provided attributes of a partnership
+   * factory (see {@link #ATTR_MAX_AUTO_CREATED} and
+   * {@link #ATTR_AUTO_CREATED_MAX_IDLE}). Missing attributes reset the
+   * respective limit to the default.
+   *
+   * @param aAttrs
+   *        The attributes to read. May not be <code>null</code>.
+   */
+  public void setLimits (@Nonnull final IStringMap aAttrs)
+  {
+    ValueEnforcer.notNull (aAttrs, "Attrs");
+
+    final int nMaxSize = aAttrs.getAsInt (ATTR_MAX_AUTO_CREATED, DEFAULT_MAX_SIZE);
+    final long nMaxIdleSeconds = aAttrs.getAsLong (ATTR_AUTO_CREATED_MAX_IDLE, -1);
+    m_aLock.locked ( () -> {
+      m_nMaxSize = nMaxSize;
+      m_nMaxIdleMS = nMaxIdleSeconds > 0 ? nMaxIdleSeconds * CGlobal.MILLISECONDS_PER_SECOND : DEFAULT_MAX_IDLE_MS;
+    });
+  }
+
+  /**
+   * @return The maximum number of auto-created partnerships. A value &le; 0
+   *         means unlimited.
+   */
+  @CheckForSigned
+  public int getMaxSize ()
+  {
+    return m_aLock.lockedInt ( () -> m_nMaxSize);
+  }
+
+  /**
+   * Set the maximum number of auto-created partnerships. If more partnerships
+   * are created, the least recently used ones are evicted. The new limit is
+   * applied upon the next automatic creation.
+   *
+   * @param nMaxSize
+   *        The maximum number of auto-created partnerships. A value &le; 0
+   *        means unlimited.
+   */
+  public void setMaxSize (final int nMaxSize)
+  {
+    m_aLock.locked ( () -> m_nMaxSize = nMaxSize);
+  }
+
+  /**
+   * @return The maximum time in milliseconds an auto-created partnership may
+   *         stay unused before it is evicted. A value &le; 0 means unlimited.
+   */
+  @CheckForSigned
+  public long getMaxIdleMS ()
+  {
+    return m_aLock.lockedGet ( () -> Long.valueOf (m_nMaxIdleMS)).longValue ();
+  }
+
+  /**
+   * Set the maximum time an auto-created partnership may stay unused before it
+   * is evicted.
+   *
+   * @param nMaxIdleMS
+   *        Maximum idle time in milliseconds. A value &le; 0 means unlimited.
+   */
+  public void setMaxIdleMS (final long nMaxIdleMS)
+  {
+    m_aLock.locked ( () -> m_nMaxIdleMS = nMaxIdleMS);
+  }
+
+  /**
+   * Called when an existing partnership was found. If it is an auto-created
+   * partnership, its last access time is updated.
+   *
+   * @param sName
+   *        The name of the partnership found. May not be <code>null</code>.
+   * @return The names of all auto-created partnerships that exceeded the
+   *         maximum idle time and should be evicted now. Never
+   *         <code>null</code>. Never contains the provided name.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> onHit (@Nonnull final String sName)
+  {
+    ValueEnforcer.notNull (sName, "Name");
+    m_aHits.incrementAndGet ();
+    return m_aLock.lockedGet ( () -> {
+      final long nNow = PDTFactory.getCurrentMillis ();
+      if (m_aMap.containsKey (sName))
+        m_aMap.put (sName, Long.valueOf (nNow));
+      return _removeIdle (nNow);
+    });
+  }
+
+  /**
+   * Check if the provided partnership was automatically created.
+   *
+   * @param aPartnership
+   *        The partnership to check. May not be <code>null</code>.
+   * @return <code>true</code> if the partnership carries the
+   *         {@link #PARTNERSHIP_ATTR_AUTO_CREATED} marker.
+   */
+  public static boolean isAutoCreated (@Nonnull final Partnership aPartnership)
+  {
+    return StringParser.parseBool (aPartnership.getAttribute (PARTNERSHIP_ATTR_AUTO_CREATED), false);
+  }
+
+  /**
+   * Called after a persistent factory (re-)loaded its partnerships. All loaded
+   * partnerships marked as auto-created are tracked afterwards, so that the
+   * limits also apply across restarts. The last access time of partnerships
+   * that were already tracked is kept, newly tracked ones are considered
+   * accessed now. Tracked partnerships that are no longer present or no
+   * longer marked are not tracked anymore.
+   *
+   * @param aPartnerships
+   *        All loaded partnerships. May not be <code>null</code>.
+   */
+  public void onLoaded (@Nonnull final Iterable <Partnership> aPartnerships)
+  {
+    ValueEnforcer.notNull (aPartnerships, "Partnerships");
+
+    final ICommonsList <String> aLoadedNames = new CommonsArrayList <> ();
+    for (final Partnership aPartnership : aPartnerships)
+      if (isAutoCreated (aPartnership))
+        aLoadedNames.add (aPartnership.getName ());
+
+    m_aLock.locked ( () -> {
+      final Long aNow = Long.valueOf (PDTFactory.getCurrentMillis ());
+      // Keep the access order of the already tracked ones
+      final Map <String, Long> aOld = new LinkedHashMap <> (m_aMap);
+      m_aMap.clear ();
+      for (final Map.Entry <String, Long> aEntry : aOld.entrySet ())
+        if (aLoadedNames.contains (aEntry.getKey ()))
+          m_aMap.put (aEntry.getKey (), aEntry.getValue ());
+      for (final String sName : aLoadedNames)
+        m_aMap.putIfAbsent (sName, aNow);
+    });
+  }
+
+  /**
+   * Called when no partnership was found.
+   */
+  public void onMiss ()
+  {
+    m_aMisses.incrementAndGet ();
+  }
+
+  /**
+   * Called when a partnership was automatically created.
+   *
+   * @param sName
+   *        The name of the created partnership. May not be <code>null</code>.
+   * @return The names of all auto-created partnerships that should be evicted
+   *         now. Never <code>null</code>. Never contains the provided name.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> onCreated (@Nonnull final String sName)
+  {
+    ValueEnforcer.notNull (sName, "Name");
+    return m_aLock.lockedGet ( () -> {
+      final long nNow = PDTFactory.getCurrentMillis ();
+      final ICommonsList <String> ret = _removeIdle (nNow);
+      m_aMap.put (sName, Long.valueOf (nNow));
+      if (m_nMaxSize > 0)
+      {
+        // Least recently used ones come first
+        final Iterator <String> it = m_aMap.keySet ().iterator ();
+        while (m_aMap.size () > m_nMaxSize)
+        {
+          ret.add (it.next ());
+          it.remove ();
+        }
+      }
+      return ret;
+    });
+  }
+
+  @Nonnull
+  private ICommonsList <String> _removeIdle (final long nNow)
+  {
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    if (m_nMaxIdleMS > 0)
+    {
+      // Least recently used ones come first
+      final Iterator <Map.Entry <String, Long>> it = m_aMap.entrySet ().iterator ();
+      while (it.hasNext ())
+      {
+        final Map.Entry <String, Long> aEntry = it.next ();
+        if (aEntry.getValue ().longValue () + m_nMaxIdleMS > nNow)
+          break;
+        ret.add (aEntry.getKey ());
+        it.remove ();
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Remove all auto-created partnerships that exceeded the maximum idle time
+   * from the tracking.
+   *
+   * @return The names of all auto-created partnerships that should be evicted
+   *         now. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> removeAllIdle ()
+  {
+    return m_aLock.lockedGet ( () -> _removeIdle (PDTFactory.getCurrentMillis ()));
+  }
+
+  /**
+   * Get the partnership matching the provided stub partnership, and create it
+   * if it is not existing yet. This is the shared implementation of
+   * <code>getPartnership</code> of all {@link ISelfFillingPartnershipFactory}
+   * implementations.
+   *
+   * @param aFactory
+   *        The factory to add the new partnership to. May not be
+   *        <code>null</code>.
+   * @param aPartnership
+   *        The stub partnership to resolve. May not be <code>null</code>.
+   * @param aLookup
+   *        The lookup of existing partnerships. It must throw an
+   *        {@link AS2PartnershipNotFoundException} if no partnership is found.
+   *        May not be <code>null</code>.
+   * @param aOnBeforeAdd
+   *        Invoked with the stub partnership before it is added. May not be
+   *        <code>null</code>.
+   * @return The existing or the newly created partnership. Never
+   *         <code>null</code>.
+   * @throws AS2Exception
+   *         In case of an error
+   */
+  @Nonnull
+  public Partnership getOrCreatePartnership (@Nonnull final IPartnershipFactory aFactory,
+                                             @Nonnull final Partnership aPartnership,
+                                             @Nonnull final IThrowingFunction <Partnership, Partnership, AS2Exception> aLookup,
+                                             @Nonnull final IThrowingConsumer <Partnership, AS2Exception> aOnBeforeAdd) throws AS2Exception
+  {
+    try
+    {
+      final Partnership ret = aLookup.apply (aPartnership);
+      // Evict idle auto-created partnerships
+      evict (aFactory, onHit (ret.getName ()));
+      return ret;
+    }
+    catch (final AS2PartnershipNotFoundException ex)
+    {
+      onMiss ();
+      aOnBeforeAdd.accept (aPartnership);
+      // Persisted, so that the tracking can be restored upon loading
+      aPartnership.setAttribute (PARTNERSHIP_ATTR_AUTO_CREATED, Boolean.TRUE.toString ());
+
+      // Create a new one
+      if (aFactory.addPartnership (aPartnership).isChanged ())
+      {
+        // Evict least recently used or idle auto-created partnerships
+        evict (aFactory, onCreated (aPartnership.getName ()));
+      }
+      return aPartnership;
+    }
+  }
+
+  /**
+   * Remove the provided auto-created partnerships from the provided factory.
+   *
+   * @param aFactory
+   *        The factory to remove the partnerships from. May not be
+   *        <code>null</code>.
+   * @param aNames
+   *        The names of the partnerships to evict, as returned by
+   *        {@link #onHit(String)}, {@link #onCreated(String)} or
+   *        {@link #removeAllIdle()}. May not be <code>null</code>.
+   * @return The number of partnerships effectively removed.
+   * @throws AS2Exception
+   *         In case removing fails
+   */
+  @Nonnegative
+  public int evict (@Nonnull final IPartnershipFactory aFactory, @Nonnull final Iterable <String> aNames) throws AS2Exception
+  {
+    ValueEnforcer.notNull (aFactory, "Factory");
+    ValueEnforcer.notNull (aNames, "Names");
+
+    int ret = 0;
+    for (final String sName : aNames)
+    {
+      final Partnership aPartnership = aFactory.getPartnershipByName (sName);
+      if (aPartnership != null && aFactory.removePartnership (aPartnership).isChanged ())
+      {
+        m_aEvictions.incrementAndGet ();
+        ret++;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Stop tracking the provided partnership, e.g. because it was removed
+   * manually.
+   *
+   * @param sName
+   *        The partnership name. May not be <code>null</code>.
+   */
+  public void remove (@Nonnull final String sName)
+  {
+    ValueEnforcer.notNull (sName, "Name");
+    m_aLock.locked ( () -> m_aMap.remove (sName));
+  }
+
+  /**
+   * @return The number of currently tracked auto-created partnerships.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  /**
+   * @return The number of lookups that found an existing partnership.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  /**
+   * @return The number of lookups that found no existing partnership.
+   */
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+
+  /**
+   * @return The number of evicted auto-created partnerships.
+   */
+  @Nonnegative
+  public long getEvictionCount ()
+  {
+    return m_aEvictions.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("MaxSize", getMaxSize ())
+                                       .append ("MaxIdleMS", getMaxIdleMS ())
+                                       .append ("Size", size ())
+                                       .append ("Hits", getHitCount ())
+                                       .append ("Misses", getMissCount ())
+                                       .append ("Evictions", getEvictionCount ())
+                                       .getToString ();
+  }
+}
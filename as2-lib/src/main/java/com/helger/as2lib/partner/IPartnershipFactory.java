@@ -153,4 +153,15 @@ public interface IPartnershipFactory extends IDynamicComponent
    * @see #getPartnership(Partnership)
    */
   void updatePartnership (@Nonnull IMessageMDN aMdn, boolean bOverwrite) throws AS2Exception;
+
+  /**
+   * Save all changes that were not yet saved because saving is delayed. Should
+   * be called before shutdown. The default implementation does nothing.
+   *
+   * @throws AS2Exception
+   *         In case saving fails.
+   * @since 4.11.1
+   */
+  default void savePendingChanges () throws AS2Exception
+  {}
 }
@@ -0,0 +1,78 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import com.helger.as2lib.exception.AS2Exception;
+
+/**
+ * Base interface for partnership factories that automatically add a
+ * partnership if it is not existing yet. The automatically created
+ * partnerships can be limited in number and idle time (see
+ * {@link AutoCreatedPartnerships#ATTR_MAX_AUTO_CREATED} and
+ * {@link AutoCreatedPartnerships#ATTR_AUTO_CREATED_MAX_IDLE}).
+ *
+ * @author Philip Helger
+ * @since 4.11.1
+ */
+public interface ISelfFillingPartnershipFactory extends IPartnershipFactory
+{
+  /**
+   * @return The tracking of the automatically created partnerships. Use it to
+   *         configure the maximum number and the maximum idle time of
+   *         automatically created partnerships and to read the hit, miss and
+   *         eviction counters. Explicitly added partnerships are never
+   *         evicted. Never <code>null</code>.
+   */
+  @Nonnull
+  AutoCreatedPartnerships getAutoCreatedPartnerships ();
+
+  /**
+   * Remove all automatically created partnerships that exceeded the maximum
+   * idle time. This happens implicitly upon each lookup and each automatic
+   * creation, so this method only needs to be called if idle partnerships
+   * should be removed without any messages coming in.
+   *
+   * @return The number of evicted partnerships.
+   * @throws AS2Exception
+   *         In case removing fails
+   */
+  @Nonnegative
+  default int evictIdlePartnerships () throws AS2Exception
+  {
+    final AutoCreatedPartnerships aAutoCreated = getAutoCreatedPartnerships ();
+    return aAutoCreated.evict (this, aAutoCreated.removeAllIdle ());
+  }
+}
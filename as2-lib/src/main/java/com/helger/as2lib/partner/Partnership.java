@@ -44,7 +44,6 @@ import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.attr.IStringMap;
-import com.helger.commons.collection.attr.StringMap;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.state.EChange;
 import com.helger.commons.state.ETriState;
@@ -64,9 +63,12 @@ public class Partnership implements Serializable
   public static final String DEFAULT_NAME = "auto-created-dummy";
 
   private String m_sName;
-  private final StringMap m_aSenderAttrs = new StringMap ();
-  private final StringMap m_aReceiverAttrs = new StringMap ();
-  private final StringMap m_aAttributes = new StringMap ();
+  private final PartnershipAttributeMap m_aSenderAttrs = new PartnershipAttributeMap ();
+  private final PartnershipAttributeMap m_aReceiverAttrs = new PartnershipAttributeMap ();
+  private final PartnershipAttributeMap m_aAttributes = new PartnershipAttributeMap ();
+  private Partnership m_aBasePartnership;
+  // Lazily calculated - reset on attribute modification
+  private transient volatile PartnershipSettings m_aSettings;
 
   public Partnership (@Nonnull final String sName)
   {
@@ -437,9 +439,10 @@ public class Partnership implements Serializable
   @Nonnull
   public EChange setAttribute (@Nonnull final String sKey, @Nullable final String sValue)
   {
-    if (sValue == null)
-      return m_aAttributes.removeObject (sKey);
-    return m_aAttributes.putIn (sKey, sValue);
+    final EChange eChange = sValue == null ? m_aAttributes.removeObject (sKey) : m_aAttributes.putIn (sKey, sValue);
+    if (eChange.isChanged ())
+      m_aSettings = null;
+    return eChange;
   }
 
   /**
@@ -971,6 +974,31 @@ public class Partnership implements Serializable
   public void addAllAttributes (@Nullable final Map <String, String> aAttributes)
   {
     m_aAttributes.putAllIn (aAttributes);
+    m_aSettings = null;
+  }
+
+  /**
+   * Get the typed settings of this partnership. They are calculated once and
+   * reused until an attribute of this partnership changes. If this partnership
+   * has a base partnership and no own attributes, the settings of the base
+   * partnership are used.
+   *
+   * @return The typed settings of this partnership. Never <code>null</code>.
+   * @since 4.11.1
+   */
+  @Nonnull
+  public PartnershipSettings getSettings ()
+  {
+    if (m_aBasePartnership != null && !m_aAttributes.hasOwnValues ())
+      return m_aBasePartnership.getSettings ();
+
+    PartnershipSettings ret = m_aSettings;
+    if (ret == null)
+    {
+      ret = new PartnershipSettings (this);
+      m_aSettings = ret;
+    }
+    return ret;
   }
 
   /**
@@ -986,7 +1014,8 @@ public class Partnership implements Serializable
   public boolean matches (@Nonnull final Partnership aPartnership)
   {
     ValueEnforcer.notNull (aPartnership, "Partnership");
-    return compareIDs (m_aSenderAttrs, aPartnership.m_aSenderAttrs) && compareIDs (m_aReceiverAttrs, aPartnership.m_aReceiverAttrs);
+    return compareIDs (m_aSenderAttrs.getClone (), aPartnership.m_aSenderAttrs.getClone ()) &&
+           compareIDs (m_aReceiverAttrs.getClone (), aPartnership.m_aReceiverAttrs.getClone ());
   }
 
   /**
@@ -1031,9 +1060,42 @@ public class Partnership implements Serializable
     if (aPartnership != this)
     {
       m_sName = aPartnership.getName ();
-      m_aSenderAttrs.putAllIn (aPartnership.m_aSenderAttrs);
-      m_aReceiverAttrs.putAllIn (aPartnership.m_aReceiverAttrs);
-      m_aAttributes.putAllIn (aPartnership.m_aAttributes);
+      m_aSenderAttrs.putAllIn (aPartnership.m_aSenderAttrs.getClone ());
+      m_aReceiverAttrs.putAllIn (aPartnership.m_aReceiverAttrs.getClone ());
+      m_aAttributes.putAllIn (aPartnership.m_aAttributes.getClone ());
+      m_aSettings = null;
+    }
+  }
+
+  /**
+   * Use the provided partnership as the read-only base of this partnership.
+   * This has the same effect as {@link #copyFrom(Partnership)} but without
+   * copying any data: the name is taken over and all IDs and attributes of the
+   * base are visible in this partnership, with the base values taking
+   * precedence over the values present so far. Later modifications of this
+   * partnership only affect this partnership and never the base.<br>
+   * Note: the base partnership is referenced and not copied, so it must not be
+   * modified afterwards. Partnerships stored in a partnership factory are
+   * treated as immutable for this reason.
+   *
+   * @param aPartnership
+   *        The partnership to be used as the base. May not be
+   *        <code>null</code>.
+   * @since 4.11.1
+   */
+  public void setBasePartnership (@Nonnull final Partnership aPartnership)
+  {
+    ValueEnforcer.notNull (aPartnership, "Partnership");
+
+    // Avoid doing something
+    if (aPartnership != this)
+    {
+      m_sName = aPartnership.getName ();
+      m_aSenderAttrs.setBase (aPartnership.m_aSenderAttrs);
+      m_aReceiverAttrs.setBase (aPartnership.m_aReceiverAttrs);
+      m_aAttributes.setBase (aPartnership.m_aAttributes);
+      m_aBasePartnership = aPartnership;
+      m_aSettings = null;
     }
   }
 
@@ -1041,9 +1103,9 @@ public class Partnership implements Serializable
   public String toString ()
   {
     return new ToStringGenerator (this).append ("name", m_sName)
-                                       .append ("senderIDs", m_aSenderAttrs)
-                                       .append ("receiverIDs", m_aReceiverAttrs)
-                                       .append ("attributes", m_aAttributes)
+                                       .append ("senderIDs", m_aSenderAttrs.getClone ())
+                                       .append ("receiverIDs", m_aReceiverAttrs.getClone ())
+                                       .append ("attributes", m_aAttributes.getClone ())
                                        .getToString ();
   }
 
@@ -0,0 +1,207 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.attr.StringMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A string map used inside a {@link Partnership} that may be layered on top of
+ * the respective map of a shared base partnership. Read accesses first check
+ * the own values and afterwards the base values. Write accesses only modify
+ * the own values, so the base is never altered. This avoids copying all
+ * values of the base partnership for every message.
+ *
+ * @author Philip Helger
+ * @since 4.11.1
+ */
+@NotThreadSafe
+final class PartnershipAttributeMap implements Serializable
+{
+  private final StringMap m_aOwn = new StringMap ();
+  private PartnershipAttributeMap m_aBase;
+  // Keys removed locally that may be present in the base
+  private ICommonsSet <String> m_aRemoved;
+
+  PartnershipAttributeMap ()
+  {}
+
+  private boolean _isRemoved (@Nonnull final String sKey)
+  {
+    return m_aRemoved != null && m_aRemoved.contains (sKey);
+  }
+
+  /**
+   * Set the base map. Values of the base take precedence over existing own
+   * values (like it was the case with copying), but later modifications of
+   * this map take precedence over the base.
+   *
+   * @param aBase
+   *        The new base map. May be <code>null</code>.
+   */
+  void setBase (@Nullable final PartnershipAttributeMap aBase)
+  {
+    if (aBase == this || aBase == m_aBase)
+      return;
+
+    if (m_aBase != null)
+    {
+      // Keep the effective values of the previous base
+      final StringMap aMerged = getClone ();
+      m_aOwn.clear ();
+      m_aOwn.putAllIn (aMerged);
+    }
+
+    if (aBase != null)
+      m_aOwn.entrySet ().removeIf (x -> aBase.containsKey (x.getKey ()));
+    m_aBase = aBase;
+    m_aRemoved = null;
+  }
+
+  /**
+   * @return <code>true</code> if this map contains values or removals that
+   *         differ from the base map, <code>false</code> otherwise.
+   */
+  boolean hasOwnValues ()
+  {
+    return m_aOwn.isNotEmpty () || (m_aRemoved != null && m_aRemoved.isNotEmpty ());
+  }
+
+  boolean containsKey (@Nullable final String sKey)
+  {
+    if (sKey == null)
+      return false;
+    if (m_aOwn.containsKey (sKey))
+      return true;
+    return m_aBase != null && !_isRemoved (sKey) && m_aBase.containsKey (sKey);
+  }
+
+  @Nullable
+  String getAsString (@Nullable final String sKey)
+  {
+    if (sKey == null)
+      return null;
+    final String ret = m_aOwn.getAsString (sKey);
+    if (ret != null || m_aBase == null || _isRemoved (sKey))
+      return ret;
+    return m_aBase.getAsString (sKey);
+  }
+
+  @Nullable
+  String getAsString (@Nullable final String sKey, @Nullable final String sDefault)
+  {
+    final String ret = getAsString (sKey);
+    return ret != null ? ret : sDefault;
+  }
+
+  boolean getAsBoolean (@Nullable final String sKey, final boolean bDefault)
+  {
+    return StringParser.parseBool (getAsString (sKey), bDefault);
+  }
+
+  @Nonnull
+  EChange putIn (@Nonnull final String sKey, @Nullable final String sValue)
+  {
+    if (sValue == null)
+      return removeObject (sKey);
+
+    final String sOld = getAsString (sKey);
+    m_aOwn.putIn (sKey, sValue);
+    if (m_aRemoved != null)
+      m_aRemoved.remove (sKey);
+    return EChange.valueOf (!EqualsHelper.equals (sOld, sValue));
+  }
+
+  void putAllIn (@Nullable final Map <String, String> aMap)
+  {
+    if (aMap != null)
+      for (final Map.Entry <String, String> aEntry : aMap.entrySet ())
+        putIn (aEntry.getKey (), aEntry.getValue ());
+  }
+
+  @Nonnull
+  EChange removeObject (@Nullable final String sKey)
+  {
+    if (!containsKey (sKey))
+      return EChange.UNCHANGED;
+
+    m_aOwn.removeObject (sKey);
+    if (m_aBase != null && m_aBase.containsKey (sKey))
+    {
+      if (m_aRemoved == null)
+        m_aRemoved = new CommonsHashSet <> ();
+      m_aRemoved.add (sKey);
+    }
+    return EChange.CHANGED;
+  }
+
+  /**
+   * @return A new map with all effective values. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  StringMap getClone ()
+  {
+    if (m_aBase == null)
+      return m_aOwn.getClone ();
+
+    final StringMap ret = m_aBase.getClone ();
+    if (m_aRemoved != null)
+      for (final String sKey : m_aRemoved)
+        ret.removeObject (sKey);
+    ret.putAllIn (m_aOwn);
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Own", m_aOwn)
+                                       .appendIfNotNull ("Base", m_aBase)
+                                       .appendIfNotNull ("Removed", m_aRemoved)
+                                       .getToString ();
+  }
+}
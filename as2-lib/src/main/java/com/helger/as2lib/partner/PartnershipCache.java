@@ -0,0 +1,222 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForSigned;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.datetime.PDTFactory;
+
+/**
+ * A simple in-process cache for partnerships read from an external storage
+ * like a database. Entries expire after a configurable time to live and the
+ * least recently used entries are evicted if the maximum number of entries is
+ * exceeded. The cache keeps a private copy of each partnership and hands out
+ * a separate instance upon each access, so that callers may freely modify the
+ * returned partnerships.
+ *
+ * @author Philip Helger
+ * @since 4.11.1
+ */
+@ThreadSafe
+public final class PartnershipCache
+{
+  public static final long DEFAULT_TTL_MS = 60_000;
+  public static final int DEFAULT_MAX_SIZE = 1_000;
+
+  private static final class CacheEntry
+  {
+    private final Partnership m_aPartnership;
+    private final long m_nExpirationMillis;
+
+    CacheEntry (@Nonnull final Partnership aPartnership, final long nExpirationMillis)
+    {
+      m_aPartnership = aPartnership;
+      m_nExpirationMillis = nExpirationMillis;
+    }
+  }
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  private long m_nTTLMS = DEFAULT_TTL_MS;
+  private int m_nMaxSize = DEFAULT_MAX_SIZE;
+  // Access ordered for LRU eviction
+  private final Map <String, CacheEntry> m_aMap = new LinkedHashMap <String, CacheEntry> (16, 0.75f, true)
+  {
+    @Override
+    protected boolean removeEldestEntry (final Map.Entry <String, CacheEntry> aEldest)
+    {
+      return size () > m_nMaxSize;
+    }
+  };
+
+  public PartnershipCache ()
+  {}
+
+  /**
+   * @return The time to live of a cache entry in milliseconds. A value &le; 0
+   *         means that caching is disabled.
+   */
+  @CheckForSigned
+  public long getTTLMS ()
+  {
+    return m_aLock.lockedGet ( () -> Long.valueOf (m_nTTLMS)).longValue ();
+  }
+
+  /**
+   * Set the time to live of a cache entry.
+   *
+   * @param nTTLMS
+   *        Time to live in milliseconds. A value &le; 0 disables caching and
+   *        removes all existing entries.
+   */
+  public void setTTLMS (final long nTTLMS)
+  {
+    m_aLock.locked ( () -> {
+      m_nTTLMS = nTTLMS;
+      if (nTTLMS <= 0)
+        m_aMap.clear ();
+    });
+  }
+
+  /**
+   * @return The maximum number of cached entries. Always &gt; 0.
+   */
+  @Nonnegative
+  public int getMaxSize ()
+  {
+    return m_aLock.lockedInt ( () -> m_nMaxSize);
+  }
+
+  /**
+   * Set the maximum number of cached entries. If more entries are added, the
+   * least recently used ones are removed.
+   *
+   * @param nMaxSize
+   *        The maximum number of entries. Must be &gt; 0.
+   */
+  public void setMaxSize (@Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_aLock.locked ( () -> {
+      m_nMaxSize = nMaxSize;
+      // Remove the least recently used entries
+      final Iterator <String> it = m_aMap.keySet ().iterator ();
+      while (m_aMap.size () > nMaxSize)
+      {
+        it.next ();
+        it.remove ();
+      }
+    });
+  }
+
+  /**
+   * Get a cached partnership.
+   *
+   * @param sKey
+   *        The cache key. May not be <code>null</code>.
+   * @return <code>null</code> if no such entry is cached or if it is expired.
+   *         Otherwise a new partnership instance that can be modified without
+   *         affecting the cache.
+   */
+  @Nullable
+  public Partnership get (@Nonnull final String sKey)
+  {
+    ValueEnforcer.notNull (sKey, "Key");
+    final Partnership ret = m_aLock.lockedGet ( () -> {
+      final CacheEntry aEntry = m_aMap.get (sKey);
+      if (aEntry == null)
+        return null;
+      if (aEntry.m_nExpirationMillis <= PDTFactory.getCurrentMillis ())
+      {
+        m_aMap.remove (sKey);
+        return null;
+      }
+      return aEntry.m_aPartnership;
+    });
+    if (ret == null)
+      return null;
+
+    // Cheap copy - the cached partnership is never modified
+    final Partnership aCopy = new Partnership (ret.getName ());
+    aCopy.setBasePartnership (ret);
+    return aCopy;
+  }
+
+  /**
+   * Put a partnership into the cache. If caching is disabled, nothing happens.
+   *
+   * @param sKey
+   *        The cache key. May not be <code>null</code>.
+   * @param aPartnership
+   *        The partnership to be cached. May not be <code>null</code>. A copy
+   *        is cached, so the caller may continue to modify it.
+   */
+  public void put (@Nonnull final String sKey, @Nonnull final Partnership aPartnership)
+  {
+    ValueEnforcer.notNull (sKey, "Key");
+    ValueEnforcer.notNull (aPartnership, "Partnership");
+    final Partnership aCopy = new Partnership (aPartnership.getName ());
+    aCopy.copyFrom (aPartnership);
+    m_aLock.locked ( () -> {
+      if (m_nTTLMS > 0)
+        m_aMap.put (sKey, new CacheEntry (aCopy, PDTFactory.getCurrentMillis () + m_nTTLMS));
+    });
+  }
+
+  /**
+   * Remove all cached entries.
+   */
+  public void clear ()
+  {
+    m_aLock.locked (m_aMap::clear);
+  }
+
+  /**
+   * @return The number of currently cached entries, including expired ones
+   *         that were not yet removed.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+}
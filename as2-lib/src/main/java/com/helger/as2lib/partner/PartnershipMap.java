@@ -41,15 +41,26 @@ import javax.annotation.concurrent.NotThreadSafe;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.attr.IStringMap;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
 import com.helger.commons.collection.impl.CommonsLinkedHashMap;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.commons.collection.impl.ICommonsOrderedMap;
 import com.helger.commons.collection.impl.ICommonsOrderedSet;
 import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.state.EChange;
 
 /**
- * The default implementation of {@link IPartnershipMap}.
+ * The default implementation of {@link IPartnershipMap}.<br>
+ * Since v4.11.1 secondary hash indexes on the sender and receiver AS2 IDs and
+ * on the sender and receiver email addresses are maintained, so that
+ * {@link #getPartnershipByID(IStringMap, IStringMap)} does not need to scan
+ * all partnerships. The indexes are built from the IDs at the time a
+ * partnership is added. If the IDs of a contained partnership are modified
+ * afterwards, {@link #reindex()} must be called.<br>
+ * The lists of the indexes are never modified in place but replaced upon
+ * change, so that {@link #getClone()} can share them with the clone.
  *
  * @author Philip Helger
  */
@@ -57,10 +68,94 @@ import com.helger.commons.state.EChange;
 public final class PartnershipMap implements IPartnershipMap
 {
   private final ICommonsOrderedMap <String, Partnership> m_aMap = new CommonsLinkedHashMap <> ();
+  // Index from (sender AS2 ID, receiver AS2 ID) to partnerships
+  private final ICommonsMap <String, ICommonsList <Partnership>> m_aAS2IDIndex = new CommonsHashMap <> ();
+  // Index from (sender email, receiver email) to partnerships
+  private final ICommonsMap <String, ICommonsList <Partnership>> m_aEmailIndex = new CommonsHashMap <> ();
 
   public PartnershipMap ()
   {}
 
+  @Nullable
+  private static String _getIndexKey (@Nullable final String sSenderID, @Nullable final String sReceiverID)
+  {
+    if (sSenderID == null || sReceiverID == null)
+      return null;
+    // The separator cannot be part of an AS2 ID or an email address
+    return sSenderID + '\n' + sReceiverID;
+  }
+
+  private static void _addToIndex (@Nonnull final ICommonsMap <String, ICommonsList <Partnership>> aIndex,
+                                   @Nullable final String sKey,
+                                   @Nonnull final Partnership aPartnership)
+  {
+    if (sKey != null)
+      aIndex.compute (sKey, (k, v) -> {
+        // Copy on write - the list may be shared with clones
+        final ICommonsList <Partnership> ret = v == null ? new CommonsArrayList <> (1) : v.getClone ();
+        ret.add (aPartnership);
+        return ret;
+      });
+  }
+
+  private static void _removeFromIndex (@Nonnull final ICommonsMap <String, ICommonsList <Partnership>> aIndex,
+                                        @Nullable final String sKey,
+                                        @Nonnull final Partnership aPartnership)
+  {
+    if (sKey != null)
+    {
+      aIndex.computeIfPresent (sKey, (k, v) -> {
+        // Copy on write - the list may be shared with clones
+        final ICommonsList <Partnership> ret = v.getAll (x -> x != aPartnership);
+        return ret.isEmpty () ? null : ret;
+      });
+    }
+  }
+
+  private void _index (@Nonnull final Partnership aPartnership)
+  {
+    _addToIndex (m_aAS2IDIndex, _getIndexKey (aPartnership.getSenderAS2ID (), aPartnership.getReceiverAS2ID ()), aPartnership);
+    _addToIndex (m_aEmailIndex, _getIndexKey (aPartnership.getSenderEmail (), aPartnership.getReceiverEmail ()), aPartnership);
+  }
+
+  private void _unindex (@Nonnull final Partnership aPartnership)
+  {
+    _removeFromIndex (m_aAS2IDIndex, _getIndexKey (aPartnership.getSenderAS2ID (), aPartnership.getReceiverAS2ID ()), aPartnership);
+    _removeFromIndex (m_aEmailIndex, _getIndexKey (aPartnership.getSenderEmail (), aPartnership.getReceiverEmail ()), aPartnership);
+  }
+
+  /**
+   * Rebuild all ID indexes from scratch. This must be called if the IDs of
+   * contained partnerships were modified.
+   *
+   * @since 4.11.1
+   */
+  public void reindex ()
+  {
+    m_aAS2IDIndex.clear ();
+    m_aEmailIndex.clear ();
+    // Keep the order of the main map
+    for (final Partnership aPartnership : m_aMap.values ())
+      _index (aPartnership);
+  }
+
+  /**
+   * @return A copy of this map containing the same partnership objects. The
+   *         index lists are shared with the clone until they are modified.
+   *         Never <code>null</code>.
+   * @since 4.11.1
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public PartnershipMap getClone ()
+  {
+    final PartnershipMap ret = new PartnershipMap ();
+    ret.m_aMap.putAll (m_aMap);
+    ret.m_aAS2IDIndex.putAll (m_aAS2IDIndex);
+    ret.m_aEmailIndex.putAll (m_aEmailIndex);
+    return ret;
+  }
+
   /**
    * Set all partnerships from the passed map. All existing partnerships are
    * removed.
@@ -72,6 +167,7 @@ public final class PartnershipMap implements IPartnershipMap
   {
     ValueEnforcer.notNull (aPartnerships, "Partnerships");
     m_aMap.setAll (aPartnerships.m_aMap);
+    reindex ();
   }
 
   /**
@@ -91,6 +187,7 @@ public final class PartnershipMap implements IPartnershipMap
     if (m_aMap.containsKey (sName))
       return EChange.UNCHANGED;
     m_aMap.put (sName, aPartnership);
+    _index (aPartnership);
     return EChange.CHANGED;
   }
 
@@ -105,7 +202,14 @@ public final class PartnershipMap implements IPartnershipMap
   {
     ValueEnforcer.notNull (aPartnership, "Partnership");
     // overwrite if already present
-    m_aMap.put (aPartnership.getName (), aPartnership);
+    final Partnership aOld = m_aMap.put (aPartnership.getName (), aPartnership);
+    if (aOld == null)
+      _index (aPartnership);
+    else
+    {
+      // Rebuild to keep the index order consistent with the map order
+      reindex ();
+    }
   }
 
   /**
@@ -120,7 +224,11 @@ public final class PartnershipMap implements IPartnershipMap
   public EChange removePartnership (@Nonnull final Partnership aPartnership)
   {
     ValueEnforcer.notNull (aPartnership, "Partnership");
-    return EChange.valueOf (m_aMap.remove (aPartnership.getName ()) != null);
+    final Partnership aRemoved = m_aMap.remove (aPartnership.getName ());
+    if (aRemoved == null)
+      return EChange.UNCHANGED;
+    _unindex (aRemoved);
+    return EChange.CHANGED;
   }
 
   @Nullable
@@ -154,10 +262,11 @@ public final class PartnershipMap implements IPartnershipMap
   }
 
   @Nullable
-  public Partnership getPartnershipByID (@Nonnull final IStringMap aSenderIDs, @Nonnull final IStringMap aReceiverIDs)
+  private static Partnership _findFirstMatch (@Nonnull final Iterable <Partnership> aPartnerships,
+                                              @Nonnull final IStringMap aSenderIDs,
+                                              @Nonnull final IStringMap aReceiverIDs)
   {
-    // For all partnerships
-    for (final Partnership aPartnership : m_aMap.values ())
+    for (final Partnership aPartnership : aPartnerships)
     {
       // Get all sender attributes of the current partnership
       final IStringMap aCurrentSenderIDs = aPartnership.getAllSenderIDs ();
@@ -178,6 +287,29 @@ public final class PartnershipMap implements IPartnershipMap
     return null;
   }
 
+  @Nullable
+  public Partnership getPartnershipByID (@Nonnull final IStringMap aSenderIDs, @Nonnull final IStringMap aReceiverIDs)
+  {
+    // If an ID is part of the search, only partnerships with the same ID can
+    // match, so the index lookup delivers all potential candidates
+    String sKey = _getIndexKey (aSenderIDs.getAsString (CPartnershipIDs.PID_AS2), aReceiverIDs.getAsString (CPartnershipIDs.PID_AS2));
+    if (sKey != null)
+    {
+      final ICommonsList <Partnership> aCandidates = m_aAS2IDIndex.get (sKey);
+      return aCandidates == null ? null : _findFirstMatch (aCandidates, aSenderIDs, aReceiverIDs);
+    }
+
+    sKey = _getIndexKey (aSenderIDs.getAsString (CPartnershipIDs.PID_EMAIL), aReceiverIDs.getAsString (CPartnershipIDs.PID_EMAIL));
+    if (sKey != null)
+    {
+      final ICommonsList <Partnership> aCandidates = m_aEmailIndex.get (sKey);
+      return aCandidates == null ? null : _findFirstMatch (aCandidates, aSenderIDs, aReceiverIDs);
+    }
+
+    // No indexed ID present - scan all partnerships
+    return _findFirstMatch (m_aMap.values (), aSenderIDs, aReceiverIDs);
+  }
+
   @Nonnull
   @ReturnsMutableCopy
   public ICommonsOrderedSet <String> getAllPartnershipNames ()
@@ -0,0 +1,246 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.as2lib.crypto.ECompressionType;
+import com.helger.as2lib.crypto.ECryptoAlgorithmCrypt;
+import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.state.ETriState;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The typed settings of a single {@link Partnership} revision. All values are
+ * parsed once from the partnership attributes so that the message processing
+ * does not need to parse the attribute strings over and over again. Use
+ * {@link Partnership#getSettings()} to get the settings of a partnership -
+ * they are recalculated automatically if an attribute changes.
+ *
+ * @author Philip Helger
+ * @since 4.11.1
+ */
+@Immutable
+public final class PartnershipSettings
+{
+  private final String m_sSigningAlgorithmID;
+  private final ECryptoAlgorithmSign m_eSigningAlgorithm;
+  private final String m_sEncryptAlgorithmID;
+  private final ECryptoAlgorithmCrypt m_eEncryptAlgorithm;
+  private final String m_sCompressionTypeID;
+  private final ECompressionType m_eCompressionType;
+  private final boolean m_bCompressBeforeSign;
+  private final ETriState m_eIncludeCertificateInSignedContent;
+  private final ETriState m_eVerifyUseCertificateInBodyPart;
+  private final boolean m_bForceDecrypt;
+  private final boolean m_bDisableDecrypt;
+  private final boolean m_bForceVerify;
+  private final boolean m_bDisableVerify;
+  private final boolean m_bDisableDecompress;
+  private final boolean m_bBlockErrorMDN;
+  private final boolean m_bRFC3851MICAlgs;
+  private final boolean m_bRemoveCmsAlgorithmProtect;
+
+  PartnershipSettings (@Nonnull final Partnership aPartnership)
+  {
+    ValueEnforcer.notNull (aPartnership, "Partnership");
+    m_sSigningAlgorithmID = aPartnership.getSigningAlgorithm ();
+    m_eSigningAlgorithm = ECryptoAlgorithmSign.getFromIDOrNull (m_sSigningAlgorithmID);
+    m_sEncryptAlgorithmID = aPartnership.getEncryptAlgorithm ();
+    m_eEncryptAlgorithm = ECryptoAlgorithmCrypt.getFromIDOrNull (m_sEncryptAlgorithmID);
+    m_sCompressionTypeID = aPartnership.getCompressionType ();
+    m_eCompressionType = ECompressionType.getFromIDCaseInsensitiveOrNull (m_sCompressionTypeID);
+    m_bCompressBeforeSign = aPartnership.isCompressBeforeSign ();
+    m_eIncludeCertificateInSignedContent = aPartnership.getIncludeCertificateInSignedContent ();
+    m_eVerifyUseCertificateInBodyPart = aPartnership.getVerifyUseCertificateInBodyPart ();
+    m_bForceDecrypt = aPartnership.isForceDecrypt ();
+    m_bDisableDecrypt = aPartnership.isDisableDecrypt ();
+    m_bForceVerify = aPartnership.isForceVerify ();
+    m_bDisableVerify = aPartnership.isDisableVerify ();
+    m_bDisableDecompress = aPartnership.isDisableDecompress ();
+    m_bBlockErrorMDN = aPartnership.isBlockErrorMDN ();
+    m_bRFC3851MICAlgs = aPartnership.isRFC3851MICAlgs ();
+    m_bRemoveCmsAlgorithmProtect = aPartnership.isRemoveCmsAlgorithmProtect ();
+  }
+
+  /**
+   * @return The signing algorithm ID as configured. May be <code>null</code>.
+   */
+  @Nullable
+  public String getSigningAlgorithmID ()
+  {
+    return m_sSigningAlgorithmID;
+  }
+
+  /**
+   * @return The resolved signing algorithm. May be <code>null</code> if none
+   *         is configured or if the configured ID is unknown.
+   */
+  @Nullable
+  public ECryptoAlgorithmSign getSigningAlgorithm ()
+  {
+    return m_eSigningAlgorithm;
+  }
+
+  /**
+   * @return The encryption algorithm ID as configured. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public String getEncryptAlgorithmID ()
+  {
+    return m_sEncryptAlgorithmID;
+  }
+
+  /**
+   * @return The resolved encryption algorithm. May be <code>null</code> if
+   *         none is configured or if the configured ID is unknown.
+   */
+  @Nullable
+  public ECryptoAlgorithmCrypt getEncryptAlgorithm ()
+  {
+    return m_eEncryptAlgorithm;
+  }
+
+  /**
+   * @return The compression type ID as configured. May be <code>null</code>.
+   */
+  @Nullable
+  public String getCompressionTypeID ()
+  {
+    return m_sCompressionTypeID;
+  }
+
+  /**
+   * @return The resolved compression type. May be <code>null</code> if none is
+   *         configured or if the configured ID is unknown.
+   */
+  @Nullable
+  public ECompressionType getCompressionType ()
+  {
+    return m_eCompressionType;
+  }
+
+  /**
+   * @return <code>true</code> if any of signing algorithm, encryption
+   *         algorithm or compression type is configured and therefore the
+   *         headers need to be included in the MIC.
+   */
+  public boolean isIncludeHeadersInMIC ()
+  {
+    return m_sSigningAlgorithmID != null || m_sEncryptAlgorithmID != null || m_sCompressionTypeID != null;
+  }
+
+  public boolean isCompressBeforeSign ()
+  {
+    return m_bCompressBeforeSign;
+  }
+
+  @Nonnull
+  public ETriState getIncludeCertificateInSignedContent ()
+  {
+    return m_eIncludeCertificateInSignedContent;
+  }
+
+  @Nonnull
+  public ETriState getVerifyUseCertificateInBodyPart ()
+  {
+    return m_eVerifyUseCertificateInBodyPart;
+  }
+
+  public boolean isForceDecrypt ()
+  {
+    return m_bForceDecrypt;
+  }
+
+  public boolean isDisableDecrypt ()
+  {
+    return m_bDisableDecrypt;
+  }
+
+  public boolean isForceVerify ()
+  {
+    return m_bForceVerify;
+  }
+
+  public boolean isDisableVerify ()
+  {
+    return m_bDisableVerify;
+  }
+
+  public boolean isDisableDecompress ()
+  {
+    return m_bDisableDecompress;
+  }
+
+  public boolean isBlockErrorMDN ()
+  {
+    return m_bBlockErrorMDN;
+  }
+
+  public boolean isRFC3851MICAlgs ()
+  {
+    return m_bRFC3851MICAlgs;
+  }
+
+  public boolean isRemoveCmsAlgorithmProtect ()
+  {
+    return m_bRemoveCmsAlgorithmProtect;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("SigningAlgorithmID", m_sSigningAlgorithmID)
+                                       .append ("SigningAlgorithm", m_eSigningAlgorithm)
+                                       .append ("EncryptAlgorithmID", m_sEncryptAlgorithmID)
+                                       .append ("EncryptAlgorithm", m_eEncryptAlgorithm)
+                                       .append ("CompressionTypeID", m_sCompressionTypeID)
+                                       .append ("CompressionType", m_eCompressionType)
+                                       .append ("CompressBeforeSign", m_bCompressBeforeSign)
+                                       .append ("IncludeCertificateInSignedContent", m_eIncludeCertificateInSignedContent)
+                                       .append ("VerifyUseCertificateInBodyPart", m_eVerifyUseCertificateInBodyPart)
+                                       .append ("ForceDecrypt", m_bForceDecrypt)
+                                       .append ("DisableDecrypt", m_bDisableDecrypt)
+                                       .append ("ForceVerify", m_bForceVerify)
+                                       .append ("DisableVerify", m_bDisableVerify)
+                                       .append ("DisableDecompress", m_bDisableDecompress)
+                                       .append ("BlockErrorMDN", m_bBlockErrorMDN)
+                                       .append ("RFC3851MICAlgs", m_bRFC3851MICAlgs)
+                                       .append ("RemoveCmsAlgorithmProtect", m_bRemoveCmsAlgorithmProtect)
+                                       .getToString ();
+  }
+}
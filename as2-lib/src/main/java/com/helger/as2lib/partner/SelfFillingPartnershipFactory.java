@@ -33,11 +33,14 @@
 package com.helger.as2lib.partner;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
 
 import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
 import com.helger.as2lib.exception.AS2Exception;
+import com.helger.as2lib.session.IAS2Session;
 import com.helger.commons.annotation.OverrideOnDemand;
+import com.helger.commons.collection.attr.IStringMap;
 
 /**
  * A special in-memory partnership factory that adds a partnership if it is not
@@ -45,8 +48,25 @@ import com.helger.commons.annotation.OverrideOnDemand;
  *
  * @author Philip Helger
  */
-public class SelfFillingPartnershipFactory extends AbstractPartnershipFactory
+public class SelfFillingPartnershipFactory extends AbstractPartnershipFactory implements ISelfFillingPartnershipFactory
 {
+  private final AutoCreatedPartnerships m_aAutoCreated = new AutoCreatedPartnerships ();
+
+  @Override
+  @Nonnull
+  public final AutoCreatedPartnerships getAutoCreatedPartnerships ()
+  {
+    return m_aAutoCreated;
+  }
+
+  @Override
+  public void initDynamicComponent (@Nonnull final IAS2Session session, @Nullable final IStringMap parameters) throws AS2Exception
+  {
+    super.initDynamicComponent (session, parameters);
+
+    m_aAutoCreated.setLimits (attrs ());
+  }
+
   /**
    * Ensure that a new partnership is usable. It ensure the following properties
    * present:
@@ -102,17 +122,6 @@ public class SelfFillingPartnershipFactory extends AbstractPartnershipFactory
   @Nonnull
   public final Partnership getPartnership (@Nonnull final Partnership aPartnership) throws AS2Exception
   {
-    try
-    {
-      return super.getPartnership (aPartnership);
-    }
-    catch (final AS2PartnershipNotFoundException ex)
-    {
-      onBeforeAddPartnership (aPartnership);
-
-      // Create a new one
-      addPartnership (aPartnership);
-      return aPartnership;
-    }
+    return m_aAutoCreated.getOrCreatePartnership (this, aPartnership, super::getPartnership, this::onBeforeAddPartnership);
   }
 }
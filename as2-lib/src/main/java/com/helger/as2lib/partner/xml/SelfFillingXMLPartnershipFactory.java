@@ -32,23 +32,67 @@
  */
 package com.helger.as2lib.partner.xml;
 
+import java.io.InputStream;
+
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
+import javax.annotation.WillClose;
 
 import com.helger.as2lib.exception.AS2Exception;
-import com.helger.as2lib.partner.AS2PartnershipNotFoundException;
+import com.helger.as2lib.partner.AutoCreatedPartnerships;
+import com.helger.as2lib.partner.ISelfFillingPartnershipFactory;
 import com.helger.as2lib.partner.Partnership;
 import com.helger.as2lib.partner.SelfFillingPartnershipFactory;
+import com.helger.as2lib.session.IAS2Session;
 import com.helger.commons.annotation.OverrideOnDemand;
+import com.helger.commons.collection.attr.IStringMap;
 
 /**
  * A special {@link XMLPartnershipFactory} that adds a new partnership if it is
- * not yet existing.
+ * not yet existing. All changes are stored to the file via
+ * {@link #storePartnershipDelayed()}, so that the automatically created
+ * partnerships are persisted.
  *
  * @author Philip Helger
  */
-public class SelfFillingXMLPartnershipFactory extends XMLPartnershipFactory
+public class SelfFillingXMLPartnershipFactory extends XMLPartnershipFactory implements ISelfFillingPartnershipFactory
 {
+  private final AutoCreatedPartnerships m_aAutoCreated = new AutoCreatedPartnerships ();
+
+  @Override
+  @Nonnull
+  public final AutoCreatedPartnerships getAutoCreatedPartnerships ()
+  {
+    return m_aAutoCreated;
+  }
+
+  @Override
+  public void initDynamicComponent (@Nonnull final IAS2Session session, @Nullable final IStringMap parameters) throws AS2Exception
+  {
+    super.initDynamicComponent (session, parameters);
+
+    m_aAutoCreated.setLimits (attrs ());
+  }
+
+  @Override
+  protected void load (@Nullable @WillClose final InputStream aIS) throws AS2Exception
+  {
+    super.load (aIS);
+
+    // Restore the tracking of the persisted auto-created partnerships
+    m_aAutoCreated.onLoaded (getAllPartnerships ());
+  }
+
+  @Override
+  protected void markAsChanged () throws AS2Exception
+  {
+    // Store every time something changed (optionally delayed), but not the
+    // content that was just loaded
+    if (!isLoading ())
+      storePartnershipDelayed ();
+  }
+
   /**
    * Callback method that is invoked every time a new partnership is
    * automatically added. This method is called BEFORE the main add-process is
@@ -70,17 +114,6 @@ public class SelfFillingXMLPartnershipFactory extends XMLPartnershipFactory
   @Nonnull
   public Partnership getPartnership (@Nonnull final Partnership aPartnership) throws AS2Exception
   {
-    try
-    {
-      return super.getPartnership (aPartnership);
-    }
-    catch (final AS2PartnershipNotFoundException ex)
-    {
-      onBeforeAddPartnership (aPartnership);
-
-      // Create a new one
-      addPartnership (aPartnership);
-      return aPartnership;
-    }
+    return m_aAutoCreated.getOrCreatePartnership (this, aPartnership, super::getPartnership, this::onBeforeAddPartnership);
   }
 }
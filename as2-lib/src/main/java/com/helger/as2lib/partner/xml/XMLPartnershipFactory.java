@@ -35,7 +35,11 @@ package com.helger.as2lib.partner.xml;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Comparator;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -48,17 +52,23 @@ import org.slf4j.LoggerFactory;
 import com.helger.as2lib.exception.AS2Exception;
 import com.helger.as2lib.exception.WrappedAS2Exception;
 import com.helger.as2lib.params.AS2InvalidParameterException;
+import com.helger.as2lib.partner.IPartnershipMap;
 import com.helger.as2lib.partner.IRefreshablePartnershipFactory;
 import com.helger.as2lib.partner.Partnership;
 import com.helger.as2lib.partner.PartnershipMap;
 import com.helger.as2lib.session.IAS2Session;
 import com.helger.as2lib.util.AS2IOHelper;
 import com.helger.as2lib.util.AS2XMLHelper;
+import com.helger.as2lib.util.DebouncedSave;
 import com.helger.commons.collection.attr.IStringMap;
 import com.helger.commons.collection.attr.StringMap;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.io.file.FileHelper;
 import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
 import com.helger.xml.microdom.IMicroDocument;
 import com.helger.xml.microdom.IMicroElement;
 import com.helger.xml.microdom.MicroDocument;
@@ -75,10 +85,33 @@ public class XMLPartnershipFactory extends AbstractPartnershipFactoryWithPartner
 {
   public static final String ATTR_FILENAME = "filename";
   public static final String ATTR_DISABLE_BACKUP = "disablebackup";
+  /**
+   * The maximum number of backup files to keep. Older backups are deleted.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_MAX_BACKUPS = "maxbackups";
+  /** By default all backups are kept */
+  public static final int DEFAULT_MAX_BACKUPS = -1;
+  /**
+   * The number of milliseconds by which storing changes via
+   * {@link #storePartnershipDelayed()} is delayed, so that bulk modifications
+   * result in only one write.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_STORE_DELAY_MS = "storedelay";
+  /** By default changes are stored immediately */
+  public static final long DEFAULT_STORE_DELAY_MS = 0;
 
   private static final String ATTR_PARTNER_NAME = Partner.PARTNER_NAME;
   private static final String ATTR_PARTNERSHIP_NAME = Partner.PARTNER_NAME;
   private static final Logger LOGGER = LoggerFactory.getLogger (XMLPartnershipFactory.class);
+  private static final Pattern BACKUP_INDEX = Pattern.compile ("\\.([0-9]{7,})$");
+
+  private final DebouncedSave m_aDebouncedStore = new DebouncedSave ("partnerships", this::_storePartnership);
+  // Changes while loading the file must not be stored to the same file again
+  private volatile boolean m_bLoading = false;
 
   @Nonnull
   public String getFilename () throws AS2InvalidParameterException
@@ -104,6 +137,49 @@ public class XMLPartnershipFactory extends AbstractPartnershipFactoryWithPartner
       attrs ().remove (ATTR_DISABLE_BACKUP);
   }
 
+  /**
+   * @return The maximum number of backup files to keep. Values &lt; 0 mean
+   *         that all backups are kept.
+   * @since 4.11.1
+   */
+  public int getMaxBackups ()
+  {
+    return attrs ().getAsInt (ATTR_MAX_BACKUPS, DEFAULT_MAX_BACKUPS);
+  }
+
+  /**
+   * @param nMaxBackups
+   *        The maximum number of backup files to keep. Values &lt; 0 mean that
+   *        all backups are kept.
+   * @since 4.11.1
+   */
+  public void setMaxBackups (final int nMaxBackups)
+  {
+    attrs ().putIn (ATTR_MAX_BACKUPS, nMaxBackups);
+  }
+
+  /**
+   * @return The delay in milliseconds by which storing changes is delayed.
+   *         Values &le; 0 mean that changes are stored immediately.
+   * @since 4.11.1
+   */
+  public long getStoreDelayMS ()
+  {
+    return attrs ().getAsLong (ATTR_STORE_DELAY_MS, DEFAULT_STORE_DELAY_MS);
+  }
+
+  /**
+   * @param nStoreDelayMS
+   *        The delay in milliseconds by which storing changes via
+   *        {@link #storePartnershipDelayed()} is delayed. Values &le; 0 mean
+   *        that changes are stored immediately.
+   * @since 4.11.1
+   */
+  public void setStoreDelayMS (final long nStoreDelayMS)
+  {
+    attrs ().putIn (ATTR_STORE_DELAY_MS, nStoreDelayMS);
+  }
+
   @Override
   public void initDynamicComponent (@Nonnull final IAS2Session session, @Nullable final IStringMap parameters) throws AS2Exception
   {
@@ -126,7 +202,30 @@ public class XMLPartnershipFactory extends AbstractPartnershipFactoryWithPartner
     }
   }
 
+  /**
+   * @return <code>true</code> if the partnerships are currently loaded, e.g.
+   *         so that {@link #markAsChanged()} can skip storing them.
+   * @since 4.11.1
+   */
+  protected final boolean isLoading ()
+  {
+    return m_bLoading;
+  }
+
   protected void load (@Nullable @WillClose final InputStream aIS) throws AS2Exception
+  {
+    m_bLoading = true;
+    try
+    {
+      _load (aIS);
+    }
+    finally
+    {
+      m_bLoading = false;
+    }
+  }
+
+  private void _load (@Nullable @WillClose final InputStream aIS) throws AS2Exception
   {
     final PartnerMap aNewPartners = new PartnerMap ();
     final PartnershipMap aNewPartnerships = new PartnershipMap ();
@@ -164,7 +263,73 @@ public class XMLPartnershipFactory extends AbstractPartnershipFactoryWithPartner
     }
 
     setPartners (aNewPartners);
-    setPartnerships (aNewPartnerships);
+
+    // Only replace the partnerships that really changed
+    final PartnershipMap aMergedPartnerships = getMergedPartnerships (getPartnershipMap (), aNewPartnerships);
+    if (aMergedPartnerships != null)
+      setPartnerships (aMergedPartnerships);
+  }
+
+  private static boolean _isSameContent (@Nonnull final Partnership aOld, @Nonnull final Partnership aNew)
+  {
+    return aOld.getAllSenderIDs ().equals (aNew.getAllSenderIDs ()) &&
+           aOld.getAllReceiverIDs ().equals (aNew.getAllReceiverIDs ()) &&
+           aOld.getAllAttributes ().equals (aNew.getAllAttributes ());
+  }
+
+  /**
+   * Compare the currently active partnerships with the newly loaded ones.
+   * Partnerships that did not change are reused, so that derived data (like
+   * the typed partnership settings) stays valid and only changed, added or
+   * removed partnerships are affected by a reload.
+   *
+   * @param aOldPartnerships
+   *        The currently active partnerships. May not be <code>null</code>.
+   * @param aNewPartnerships
+   *        The newly loaded partnerships. May not be <code>null</code>.
+   * @return <code>null</code> if the new partnerships are identical to the old
+   *         ones, the partnership map to be used otherwise.
+   * @since 4.11.1
+   */
+  @Nullable
+  protected static PartnershipMap getMergedPartnerships (@Nonnull final IPartnershipMap aOldPartnerships,
+                                                         @Nonnull final PartnershipMap aNewPartnerships)
+  {
+    final PartnershipMap ret = new PartnershipMap ();
+    int nAdded = 0;
+    int nChanged = 0;
+    for (final Partnership aNew : aNewPartnerships.getAllPartnerships ())
+    {
+      final Partnership aOld = aOldPartnerships.getPartnershipByName (aNew.getName ());
+      if (aOld == null)
+      {
+        ret.addPartnership (aNew);
+        nAdded++;
+      }
+      else
+        if (_isSameContent (aOld, aNew))
+          ret.addPartnership (aOld);
+        else
+        {
+          ret.addPartnership (aNew);
+          nChanged++;
+        }
+    }
+
+    final ICommonsList <String> aOldNames = aOldPartnerships.getAllPartnerships ().getAllMapped (Partnership::getName);
+    final ICommonsList <String> aNewNames = aNewPartnerships.getAllPartnerships ().getAllMapped (Partnership::getName);
+    final ICommonsSet <String> aNewNameSet = aNewPartnerships.getAllPartnershipNames ();
+    final int nRemoved = aOldNames.getCount (x -> !aNewNameSet.contains (x));
+
+    // The order is relevant for the lookup by IDs
+    if (nAdded == 0 && nChanged == 0 && nRemoved == 0 && aOldNames.equals (aNewNames))
+    {
+      LOGGER.info ("Partnerships are unchanged");
+      return null;
+    }
+
+    LOGGER.info ("Partnerships changed: " + nAdded + " added, " + nChanged + " changed, " + nRemoved + " removed");
+    return ret;
   }
 
   protected void loadPartnershipAttributes (@Nonnull final IMicroElement aNode, @Nonnull final Partnership aPartnership) throws AS2Exception
@@ -247,47 +412,92 @@ public class XMLPartnershipFactory extends AbstractPartnershipFactoryWithPartner
     return aPartnership;
   }
 
+  /**
+   * @return All existing backup files of the provided file, sorted ascending
+   *         by backup index.
+   */
   @Nonnull
-  private static File _getUniqueBackupFile (@Nonnull final String sFilename)
+  private static ICommonsList <File> _getAllBackupFiles (@Nonnull final File aFile)
   {
-    long nIndex = 0;
-    File aBackupFile;
-    do
-    {
-      aBackupFile = new File (sFilename + '.' + StringHelper.getLeadingZero (nIndex, 7));
-      nIndex++;
-    } while (aBackupFile.exists ());
-    return aBackupFile;
+    final String sPrefix = aFile.getName () + '.';
+    final ICommonsList <File> ret = new CommonsArrayList <> ();
+    final File aDir = aFile.getAbsoluteFile ().getParentFile ();
+    final File [] aFiles = aDir == null ? null : aDir.listFiles ();
+    if (aFiles != null)
+      for (final File aCandidate : aFiles)
+        if (aCandidate.getName ().startsWith (sPrefix) && BACKUP_INDEX.matcher (aCandidate.getName ()).find ())
+          ret.add (aCandidate);
+    ret.sort (Comparator.comparingLong (XMLPartnershipFactory::_getBackupIndex));
+    return ret;
+  }
+
+  private static long _getBackupIndex (@Nonnull final File aBackupFile)
+  {
+    final Matcher aMatcher = BACKUP_INDEX.matcher (aBackupFile.getName ());
+    return aMatcher.find () ? StringParser.parseLong (aMatcher.group (1), -1) : -1;
   }
 
   /**
-   * Store the current status of the partnerships to a file.
-   *
-   * @throws AS2Exception
-   *         In case of an error
+   * Create a backup of the provided file and delete the oldest backups if
+   * more than the configured maximum number of backups exist. The backup is
+   * created as a hard link if possible, so that no data needs to be copied.
    */
-  public void storePartnership () throws AS2Exception
+  private void _backup (@Nonnull final File aSourceFile)
   {
-    final String sFilename = getFilename ();
-
-    if (!isDisableBackup ())
-    {
-      final File aBackupFile = _getUniqueBackupFile (sFilename);
+    final ICommonsList <File> aBackupFiles = _getAllBackupFiles (aSourceFile);
+    final long nIndex = aBackupFiles.isEmpty () ? 0 : _getBackupIndex (aBackupFiles.getLast ()) + 1;
+    final File aBackupFile = new File (aSourceFile.getPath () + '.' + StringHelper.getLeadingZero (nIndex, 7));
 
-      if (LOGGER.isWarnEnabled ())
-        LOGGER.info ("backing up " + sFilename + " to " + aBackupFile.getName ());
+    if (LOGGER.isInfoEnabled ())
+      LOGGER.info ("backing up " + aSourceFile + " to " + aBackupFile.getName ());
 
-      final File aSourceFile = new File (sFilename);
+    try
+    {
       try
       {
-        AS2IOHelper.moveFile (aSourceFile, aBackupFile, true, true);
+        Files.createLink (aBackupFile.toPath (), aSourceFile.toPath ());
       }
-      catch (final IOException ex)
+      catch (final IOException | UnsupportedOperationException ex)
       {
-        new AS2Exception ("Failed to move file " + aSourceFile + " to " + aBackupFile, ex).terminate ();
+        Files.copy (aSourceFile.toPath (), aBackupFile.toPath ());
       }
+      aBackupFiles.add (aBackupFile);
+    }
+    catch (final IOException ex)
+    {
+      new AS2Exception ("Failed to backup file " + aSourceFile + " to " + aBackupFile, ex).terminate ();
     }
 
+    // Bounded retention
+    final int nMaxBackups = getMaxBackups ();
+    if (nMaxBackups >= 0)
+      while (aBackupFiles.size () > nMaxBackups)
+      {
+        final File aOldBackup = aBackupFiles.removeFirst ();
+        if (AS2IOHelper.getFileOperationManager ().deleteFileIfExisting (aOldBackup).isFailure ())
+          LOGGER.warn ("Failed to delete old backup file " + aOldBackup);
+      }
+  }
+
+  /**
+   * Store the current status of the partnerships to a file.
+   *
+   * @throws AS2Exception
+   *         In case of an error
+   */
+  public void storePartnership () throws AS2Exception
+  {
+    m_aDebouncedStore.saveNow ();
+  }
+
+  private void _storePartnership () throws AS2Exception
+  {
+    final String sFilename = getFilename ();
+    final File aFile = new File (sFilename);
+
+    if (!isDisableBackup () && aFile.exists ())
+      _backup (aFile);
+
     final IMicroDocument aDoc = new MicroDocument ();
     final IMicroElement eRoot = aDoc.appendElement ("partnerships");
     for (final IPartner aPartner : getAllPartners ())
@@ -313,7 +523,58 @@ public class XMLPartnershipFactory extends AbstractPartnershipFactoryWithPartner
       for (final Map.Entry <String, String> aAttr : aPartnership.getAllAttributes ().entrySet ())
         ePartnership.appendElement ("attribute").setAttribute ("name", aAttr.getKey ()).setAttribute ("value", aAttr.getValue ());
     }
-    if (MicroWriter.writeToFile (aDoc, new File (sFilename)).isFailure ())
-      throw new AS2Exception ("Failed to write to file " + sFilename);
+    try
+    {
+      // Write to a temporary file and rename it afterwards
+      AS2IOHelper.writeFileAtomic (aFile, aOS -> {
+        if (MicroWriter.writeToStream (aDoc, aOS).isFailure ())
+          throw new IOException ("Failed to serialize partnerships");
+      });
+    }
+    catch (final IOException ex)
+    {
+      throw new AS2Exception ("Failed to write to file " + sFilename, ex);
+    }
+  }
+
+  /**
+   * Store the current status of the partnerships to a file after the
+   * configured store delay. All changes within the delay are stored with a
+   * single write. If no delay is configured, the partnerships are stored
+   * immediately.
+   *
+   * @throws AS2Exception
+   *         In case of an error storing immediately
+   * @see #getStoreDelayMS()
+   * @since 4.11.1
+   */
+  public void storePartnershipDelayed () throws AS2Exception
+  {
+    m_aDebouncedStore.requestSave (getStoreDelayMS ());
+  }
+
+  /**
+   * @return <code>true</code> if a delayed store is pending, <code>false</code>
+   *         if not.
+   * @since 4.11.1
+   */
+  public boolean isStorePending ()
+  {
+    return m_aDebouncedStore.isPending ();
+  }
+
+  /**
+   * Store pending changes now, if there are any, and release the thread used
+   * for delayed storing. Should be called before shutdown if a store delay is
+   * configured.
+   *
+   * @throws AS2Exception
+   *         In case storing fails.
+   * @since 4.11.1
+   */
+  @Override
+  public void savePendingChanges () throws AS2Exception
+  {
+    m_aDebouncedStore.shutdown ();
   }
 }
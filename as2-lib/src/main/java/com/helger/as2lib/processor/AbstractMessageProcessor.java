@@ -33,10 +33,18 @@
 package com.helger.as2lib.processor;
 
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,24 +54,136 @@ import com.helger.as2lib.exception.AS2Exception;
 import com.helger.as2lib.message.IMessage;
 import com.helger.as2lib.processor.module.IProcessorActiveModule;
 import com.helger.as2lib.processor.module.IProcessorModule;
+import com.helger.as2lib.processor.storage.IProcessorStorageModule;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.state.EChange;
+import com.helger.commons.state.EHandled;
+import com.helger.commons.string.StringHelper;
 
 /**
  * Abstract empty implementation of {@link IMessageProcessor}. It provides all
  * methods except
- * {@link #handle(String, com.helger.as2lib.message.IMessage, java.util.Map)}.
+ * {@link #handle(String, com.helger.as2lib.message.IMessage, java.util.Map)}.<br>
+ * Since v4.11.1 the modules are held in an immutable index by supported
+ * action (see {@link IProcessorModule#getAllSupportedActions()}), that is
+ * rebuilt when a module is added or removed. Executing an action only
+ * considers the modules that may handle it.<br>
+ * Since v4.11.1 selected actions (see {@link #ATTR_PARALLEL_ACTIONS}) can be
+ * executed concurrently by all modules able to handle them, so that e.g. the
+ * latency of multiple storage modules is bounded by the slowest one instead of
+ * the sum. As messages are not thread-safe, only the modules that don't modify
+ * the message (see {@link IProcessorModule#isParallelSafe()}) are executed
+ * concurrently. All other modules are executed sequentially afterwards.
  *
  * @author Philip Helger
  */
 public abstract class AbstractMessageProcessor extends AbstractDynamicComponent implements IMessageProcessor
 {
+  /**
+   * Comma separated list of actions that are executed concurrently by all
+   * modules able to handle them. By default all actions are executed
+   * sequentially.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_PARALLEL_ACTIONS = "parallelactions";
+  /**
+   * The minimum number of modules that must succeed for a parallel action. By
+   * default all modules must succeed.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_PARALLEL_QUORUM = "parallelquorum";
+  /**
+   * The maximum number of threads used to execute parallel actions. If all
+   * threads are busy, the calling thread executes the module itself.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_PARALLEL_MAX_THREADS = "parallelmaxthreads";
+  /** By default all modules must succeed */
+  public static final int DEFAULT_PARALLEL_QUORUM = -1;
+  public static final int DEFAULT_PARALLEL_MAX_THREADS = 16;
+  public static final long DEFAULT_PARALLEL_KEEP_ALIVE_SECONDS = 60;
+
   private static final Logger LOGGER = LoggerFactory.getLogger (AbstractMessageProcessor.class);
+  private static final AtomicInteger THREAD_INDEX = new AtomicInteger (0);
+
+  /**
+   * Immutable snapshot of all modules, indexed by the actions they support.
+   */
+  private static final class ModuleIndex
+  {
+    private final ICommonsList <IProcessorModule> m_aModules;
+    // Modules supporting any action
+    private final ICommonsList <IProcessorModule> m_aAnyActionModules;
+    private final ICommonsMap <String, ICommonsList <IProcessorModule>> m_aModulesPerAction = new CommonsHashMap <> ();
+
+    ModuleIndex (@Nonnull final ICommonsList <IProcessorModule> aModules)
+    {
+      m_aModules = aModules;
+      m_aAnyActionModules = aModules.getAll (x -> x.getAllSupportedActions () == null);
+
+      // Keep the registration order per action
+      for (final IProcessorModule aModule : aModules)
+      {
+        final ICommonsSet <String> aActions = aModule.getAllSupportedActions ();
+        if (aActions != null)
+          for (final String sAction : aActions)
+            m_aModulesPerAction.computeIfAbsent (sAction, k -> new CommonsArrayList <> ());
+      }
+      for (final Map.Entry <String, ICommonsList <IProcessorModule>> aEntry : m_aModulesPerAction.entrySet ())
+        for (final IProcessorModule aModule : aModules)
+        {
+          final ICommonsSet <String> aActions = aModule.getAllSupportedActions ();
+          if (aActions == null || aActions.contains (aEntry.getKey ()))
+            aEntry.getValue ().add (aModule);
+        }
+    }
 
-  private final ICommonsList <IProcessorModule> m_aModules = new CommonsArrayList <> ();
+    @Nonnull
+    ICommonsList <IProcessorModule> getAllModulesForAction (@Nonnull final String sAction)
+    {
+      final ICommonsList <IProcessorModule> ret = m_aModulesPerAction.get (sAction);
+      return ret != null ? ret : m_aAnyActionModules;
+    }
+  }
+
+  /**
+   * The parsed value of {@link AbstractMessageProcessor#ATTR_PARALLEL_ACTIONS}
+   * together with the attribute value it was parsed from.
+   */
+  private static final class ParallelActions
+  {
+    private final String m_sSource;
+    private final ICommonsSet <String> m_aActions = new CommonsHashSet <> ();
+
+    ParallelActions (@Nullable final String sSource)
+    {
+      m_sSource = sSource;
+      if (StringHelper.hasText (sSource))
+        for (final String sAction : StringHelper.getExploded (',', sSource))
+          if (StringHelper.hasText (sAction.trim ()))
+            m_aActions.add (sAction.trim ());
+    }
+  }
+
+  // Modifications happen under the write lock
+  private volatile ModuleIndex m_aModuleIndex = new ModuleIndex (new CommonsArrayList <> ());
+  // Created on demand for parallel actions
+  @GuardedBy ("m_aRWLock")
+  private ThreadPoolExecutor m_aParallelExecutor;
+  // Only re-parsed if the attribute value changes
+  private volatile ParallelActions m_aParallelActions = new ParallelActions (null);
 
   protected AbstractMessageProcessor ()
   {}
@@ -71,7 +191,11 @@ public abstract class AbstractMessageProcessor extends AbstractDynamicComponent
   public void addModule (@Nonnull final IProcessorModule aModule)
   {
     ValueEnforcer.notNull (aModule, "Module");
-    m_aModules.add (aModule);
+    m_aRWLock.writeLocked ( () -> {
+      final ICommonsList <IProcessorModule> aModules = m_aModuleIndex.m_aModules.getClone ();
+      aModules.add (aModule);
+      m_aModuleIndex = new ModuleIndex (aModules);
+    });
   }
 
   @Nonnull
@@ -79,27 +203,33 @@ public abstract class AbstractMessageProcessor extends AbstractDynamicComponent
   {
     if (aModule == null)
       return EChange.UNCHANGED;
-    return m_aModules.removeObject (aModule);
+    return m_aRWLock.writeLockedGet ( () -> {
+      final ICommonsList <IProcessorModule> aModules = m_aModuleIndex.m_aModules.getClone ();
+      if (aModules.removeObject (aModule).isUnchanged ())
+        return EChange.UNCHANGED;
+      m_aModuleIndex = new ModuleIndex (aModules);
+      return EChange.CHANGED;
+    });
   }
 
   @Nonnegative
   public int getModuleCount ()
   {
-    return m_aModules.size ();
+    return m_aModuleIndex.m_aModules.size ();
   }
 
   @Nonnull
   @ReturnsMutableCopy
   public ICommonsList <IProcessorModule> getAllModules ()
   {
-    return m_aModules.getClone ();
+    return m_aModuleIndex.m_aModules.getClone ();
   }
 
   @Nullable
   public <T extends IProcessorModule> T getModuleOfClass (@Nonnull final Class <T> aClass)
   {
     ValueEnforcer.notNull (aClass, "Class");
-    return m_aModules.findFirstMapped (x -> aClass.isAssignableFrom (x.getClass ()), aClass::cast);
+    return m_aModuleIndex.m_aModules.findFirstMapped (x -> aClass.isAssignableFrom (x.getClass ()), aClass::cast);
   }
 
   @Nonnull
@@ -107,14 +237,14 @@ public abstract class AbstractMessageProcessor extends AbstractDynamicComponent
   public <T extends IProcessorModule> ICommonsList <T> getAllModulesOfClass (@Nonnull final Class <T> aClass)
   {
     ValueEnforcer.notNull (aClass, "Class");
-    return m_aModules.getAllInstanceOf (aClass);
+    return m_aModuleIndex.m_aModules.getAllInstanceOf (aClass);
   }
 
   @Nonnull
   @ReturnsMutableCopy
   public ICommonsList <IProcessorActiveModule> getAllActiveModules ()
   {
-    return m_aModules.getAllInstanceOf (IProcessorActiveModule.class);
+    return m_aModuleIndex.m_aModules.getAllInstanceOf (IProcessorActiveModule.class);
   }
 
   public void startActiveModules ()
@@ -141,6 +271,15 @@ public abstract class AbstractMessageProcessor extends AbstractDynamicComponent
       {
         ex.terminate ();
       }
+
+    // Release the threads for parallel actions
+    final ThreadPoolExecutor aExecutor = m_aRWLock.writeLockedGet ( () -> {
+      final ThreadPoolExecutor ret = m_aParallelExecutor;
+      m_aParallelExecutor = null;
+      return ret;
+    });
+    if (aExecutor != null)
+      aExecutor.shutdown ();
   }
 
   /**
@@ -159,14 +298,45 @@ public abstract class AbstractMessageProcessor extends AbstractDynamicComponent
                                       @Nonnull final IMessage aMsg,
                                       @Nullable final Map <String, Object> aOptions) throws AS2Exception
   {
-    final ICommonsList <AS2Exception> aCauses = new CommonsArrayList <> ();
+    if (executeActionIfPossible (sAction, aMsg, aOptions).isUnhandled ())
+      throw new AS2NoModuleException (sAction, aMsg, aOptions);
+  }
+
+  /**
+   * Execution the provided action with the registered modules. Other than
+   * {@link #executeAction(String, IMessage, Map)} this method does not throw
+   * an exception if no module handled the action.
+   *
+   * @param sAction
+   *        Action to execute. Never <code>null</code>.
+   * @param aMsg
+   *        Message it is about. Never <code>null</code>.
+   * @param aOptions
+   *        Optional options map to be used. May be <code>null</code>.
+   * @return {@link EHandled#HANDLED} if at least one module handled the
+   *         action, {@link EHandled#UNHANDLED} if no module is able to handle
+   *         it.
+   * @throws AS2Exception
+   *         In case of error
+   * @since 4.11.1
+   */
+  @Nonnull
+  protected final EHandled executeActionIfPossible (@Nonnull final String sAction,
+                                                    @Nonnull final IMessage aMsg,
+                                                    @Nullable final Map <String, Object> aOptions) throws AS2Exception
+  {
+    ICommonsList <AS2Exception> aCauses = null;
     final ICommonsList <IProcessorModule> aModulesFound = new CommonsArrayList <> ();
 
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("  handling action '" + sAction + "' on message '" + aMsg.getMessageID () + "' with options " + aOptions);
 
-    final ICommonsList <IProcessorModule> aAllModules = getAllModules ();
-    for (final IProcessorModule aModule : aAllModules)
+    // Only the modules that may handle the action
+    final ICommonsList <IProcessorModule> aCandidateModules = m_aModuleIndex.getAllModulesForAction (sAction);
+    if (aCandidateModules.size () > 1 && isParallelAction (sAction))
+      return _executeActionParallel (sAction, aMsg, aOptions, aCandidateModules);
+
+    for (final IProcessorModule aModule : aCandidateModules)
       if (aModule.canHandle (sAction, aMsg, aOptions))
       {
         if (LOGGER.isDebugEnabled ())
@@ -179,6 +349,8 @@ public abstract class AbstractMessageProcessor extends AbstractDynamicComponent
         }
         catch (final AS2Exception ex)
         {
+          if (aCauses == null)
+            aCauses = new CommonsArrayList <> ();
           aCauses.add (ex);
         }
       }
@@ -191,7 +363,7 @@ public abstract class AbstractMessageProcessor extends AbstractDynamicComponent
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("  action '" + sAction + "' was handled by modules: " + aModulesFound);
 
-    if (aCauses.isNotEmpty ())
+    if (aCauses != null)
     {
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("  action '" + sAction + "' was handled but failed: " + aCauses);
@@ -201,9 +373,288 @@ public abstract class AbstractMessageProcessor extends AbstractDynamicComponent
     if (aModulesFound.isEmpty ())
     {
       if (LOGGER.isDebugEnabled ())
-        LOGGER.debug ("  no modules found for '" + sAction + "'; modules are: " + aAllModules);
-      throw new AS2NoModuleException (sAction, aMsg, aOptions);
+        LOGGER.debug ("  no modules found for '" + sAction + "'; modules are: " + getAllModules ());
+      return EHandled.UNHANDLED;
+    }
+    return EHandled.HANDLED;
+  }
+
+  /**
+   * Check if at least one registered module is able to handle the provided
+   * action.
+   *
+   * @param sAction
+   *        Action to check. Never <code>null</code>.
+   * @param aMsg
+   *        Message it is about. Never <code>null</code>.
+   * @param aOptions
+   *        Optional options map to be used. May be <code>null</code>.
+   * @return <code>true</code> if at least one module can handle the action.
+   * @since 4.11.1
+   */
+  protected final boolean isAnyModuleAbleToHandle (@Nonnull final String sAction,
+                                                   @Nonnull final IMessage aMsg,
+                                                   @Nullable final Map <String, Object> aOptions)
+  {
+    return m_aModuleIndex.getAllModulesForAction (sAction).containsAny (x -> x.canHandle (sAction, aMsg, aOptions));
+  }
+
+  @Nonnull
+  private static Thread _createParallelThread (@Nonnull final Runnable aRunnable)
+  {
+    final Thread ret = new Thread (aRunnable, "AS2-ParallelAction-" + THREAD_INDEX.incrementAndGet ());
+    ret.setDaemon (true);
+    ret.setUncaughtExceptionHandler (BasicThreadFactory.getDefaultUncaughtExceptionHandler ());
+    return ret;
+  }
+
+  @Nonnull
+  private ThreadPoolExecutor _getOrCreateParallelExecutor ()
+  {
+    ThreadPoolExecutor ret = m_aRWLock.readLockedGet ( () -> m_aParallelExecutor);
+    if (ret == null)
+    {
+      ret = m_aRWLock.writeLockedGet ( () -> {
+        if (m_aParallelExecutor == null)
+        {
+          // Bounded - if all threads are busy, the module is executed in the
+          // calling thread
+          final int nMaxThreads = getParallelMaxThreads ();
+          final ThreadPoolExecutor aExecutor = new ThreadPoolExecutor (nMaxThreads,
+                                                                       nMaxThreads,
+                                                                       DEFAULT_PARALLEL_KEEP_ALIVE_SECONDS,
+                                                                       TimeUnit.SECONDS,
+                                                                       new SynchronousQueue <> (),
+                                                                       AbstractMessageProcessor::_createParallelThread,
+                                                                       new ThreadPoolExecutor.CallerRunsPolicy ());
+          aExecutor.allowCoreThreadTimeOut (true);
+          m_aParallelExecutor = aExecutor;
+        }
+        return m_aParallelExecutor;
+      });
+    }
+    return ret;
+  }
+
+  private static void _handleCollectingCauses (@Nonnull final IProcessorModule aModule,
+                                               @Nonnull final String sAction,
+                                               @Nonnull final IMessage aMsg,
+                                               @Nullable final Map <String, Object> aOptions,
+                                               @Nonnull final ICommonsList <AS2Exception> aCauses)
+  {
+    try
+    {
+      aModule.handle (sAction, aMsg, aOptions);
+    }
+    catch (final AS2Exception ex)
+    {
+      aCauses.add (ex);
+    }
+    catch (final RuntimeException ex)
+    {
+      aCauses.add (new AS2Exception (ex));
+    }
+  }
+
+  @Nonnull
+  private EHandled _executeActionParallel (@Nonnull final String sAction,
+                                           @Nonnull final IMessage aMsg,
+                                           @Nullable final Map <String, Object> aOptions,
+                                           @Nonnull final ICommonsList <IProcessorModule> aCandidateModules) throws AS2Exception
+  {
+    // The check is performed in the calling thread
+    final ICommonsList <IProcessorModule> aModulesFound = aCandidateModules.getAll (x -> x.canHandle (sAction, aMsg, aOptions));
+    if (aModulesFound.isEmpty ())
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("  no modules found for '" + sAction + "'; modules are: " + getAllModules ());
+      return EHandled.UNHANDLED;
+    }
+
+    // Modules modifying the message must not run concurrently
+    final ICommonsList <IProcessorModule> aParallelModules = new CommonsArrayList <> ();
+    final ICommonsList <IProcessorModule> aSequentialModules = new CommonsArrayList <> ();
+    for (final IProcessorModule aModule : aModulesFound)
+      if (aModule.isParallelSafe ())
+        aParallelModules.add (aModule);
+      else
+        aSequentialModules.add (aModule);
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("  handling action '" +
+                    sAction +
+                    "' in parallel with modules: " +
+                    aParallelModules +
+                    " and sequentially with modules: " +
+                    aSequentialModules);
+
+    final ICommonsList <AS2Exception> aCauses = new CommonsArrayList <> ();
+    if (aParallelModules.isNotEmpty ())
+    {
+      // Submit all but the first module - the first one is executed in the
+      // calling thread
+      final ThreadPoolExecutor aExecutor = aParallelModules.size () > 1 ? _getOrCreateParallelExecutor () : null;
+      final ICommonsList <Future <Consumer <? super IMessage>>> aFutures = new CommonsArrayList <> (aParallelModules.size ());
+      for (final IProcessorModule aModule : aParallelModules.subList (1, aParallelModules.size ()))
+        aFutures.add (aExecutor.submit ( () -> aModule.handleParallel (sAction, aMsg, aOptions)));
+
+      // The deferred message modifications in module order
+      final ICommonsList <Consumer <? super IMessage>> aModifications = new CommonsArrayList <> ();
+      try
+      {
+        aModifications.add (aParallelModules.getFirst ().handleParallel (sAction, aMsg, aOptions));
+      }
+      catch (final AS2Exception ex)
+      {
+        aCauses.add (ex);
+      }
+      catch (final RuntimeException ex)
+      {
+        aCauses.add (new AS2Exception (ex));
+      }
+
+      // Wait for all modules, before the message may be modified
+      for (final Future <Consumer <? super IMessage>> aFuture : aFutures)
+        try
+        {
+          aModifications.add (aFuture.get ());
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+          aCauses.add (new AS2Exception ("Interrupted while waiting for action '" + sAction + "'", ex));
+        }
+        catch (final ExecutionException ex)
+        {
+          final Throwable aCause = ex.getCause ();
+          aCauses.add (aCause instanceof AS2Exception ? (AS2Exception) aCause : new AS2Exception (aCause));
+        }
+
+      for (final Consumer <? super IMessage> aModification : aModifications)
+        if (aModification != null)
+          aModification.accept (aMsg);
+    }
+
+    for (final IProcessorModule aModule : aSequentialModules)
+      _handleCollectingCauses (aModule, sAction, aMsg, aOptions, aCauses);
+
+    if (aCauses.isNotEmpty ())
+    {
+      final int nQuorum = getParallelQuorum ();
+      final int nSucceeded = aModulesFound.size () - aCauses.size ();
+      if (nQuorum <= 0 || nSucceeded < Math.min (nQuorum, aModulesFound.size ()))
+      {
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("  action '" + sAction + "' was handled but failed: " + aCauses);
+        throw new AS2ProcessorException (this, aCauses);
+      }
+
+      if (LOGGER.isWarnEnabled ())
+        LOGGER.warn ("  action '" +
+                     sAction +
+                     "' succeeded with " +
+                     nSucceeded +
+                     " of " +
+                     aModulesFound.size () +
+                     " modules (quorum " +
+                     nQuorum +
+                     "); ignoring failures: " +
+                     aCauses);
     }
+    return EHandled.HANDLED;
+  }
+
+  /**
+   * Check if the provided action is executed concurrently by all modules able
+   * to handle it.
+   *
+   * @param sAction
+   *        The action to check. May be <code>null</code>.
+   * @return <code>true</code> if the action is contained in
+   *         {@link #ATTR_PARALLEL_ACTIONS}.
+   * @since 4.11.1
+   */
+  public boolean isParallelAction (@Nullable final String sAction)
+  {
+    if (StringHelper.hasNoText (sAction))
+      return false;
+
+    final String sParallelActions = attrs ().getAsString (ATTR_PARALLEL_ACTIONS);
+    ParallelActions aParallelActions = m_aParallelActions;
+    if (!EqualsHelper.equals (aParallelActions.m_sSource, sParallelActions))
+    {
+      aParallelActions = new ParallelActions (sParallelActions);
+      m_aParallelActions = aParallelActions;
+    }
+    return aParallelActions.m_aActions.contains (sAction);
+  }
+
+  /**
+   * Set the actions that are executed concurrently by all modules able to
+   * handle them, e.g. {@link IProcessorStorageModule#DO_STORE}. Only use this
+   * for modules that are independent of each other.
+   *
+   * @param aActions
+   *        The actions to execute in parallel. May be <code>null</code> or
+   *        empty to execute all actions sequentially.
+   * @since 4.11.1
+   */
+  public void setParallelActions (@Nullable final Iterable <String> aActions)
+  {
+    final String sParallelActions = StringHelper.getImploded (',', aActions);
+    if (StringHelper.hasNoText (sParallelActions))
+      attrs ().remove (ATTR_PARALLEL_ACTIONS);
+    else
+      attrs ().putIn (ATTR_PARALLEL_ACTIONS, sParallelActions);
+  }
+
+  /**
+   * @return The minimum number of modules that must succeed for a parallel
+   *         action. A value &le; 0 means all modules must succeed.
+   * @since 4.11.1
+   */
+  public int getParallelQuorum ()
+  {
+    return attrs ().getAsInt (ATTR_PARALLEL_QUORUM, DEFAULT_PARALLEL_QUORUM);
+  }
+
+  /**
+   * @return The maximum number of threads used to execute parallel actions.
+   *         Always &gt; 0.
+   * @since 4.11.1
+   */
+  public int getParallelMaxThreads ()
+  {
+    final int ret = attrs ().getAsInt (ATTR_PARALLEL_MAX_THREADS, DEFAULT_PARALLEL_MAX_THREADS);
+    return ret > 0 ? ret : DEFAULT_PARALLEL_MAX_THREADS;
+  }
+
+  /**
+   * Set the maximum number of threads used to execute parallel actions. Only
+   * effective before the first parallel action was executed.
+   *
+   * @param nMaxThreads
+   *        The maximum number of threads. Must be &gt; 0.
+   * @since 4.11.1
+   */
+  public void setParallelMaxThreads (@Nonnegative final int nMaxThreads)
+  {
+    ValueEnforcer.isGT0 (nMaxThreads, "MaxThreads");
+    attrs ().putIn (ATTR_PARALLEL_MAX_THREADS, nMaxThreads);
+  }
+
+  /**
+   * Set the minimum number of modules that must succeed for a parallel action.
+   * If at least this many modules succeeded, the failures of the other modules
+   * are only logged.
+   *
+   * @param nQuorum
+   *        The quorum to use. A value &le; 0 means all modules must succeed.
+   * @since 4.11.1
+   */
+  public void setParallelQuorum (final int nQuorum)
+  {
+    attrs ().putIn (ATTR_PARALLEL_QUORUM, nQuorum);
   }
 
   @Override
@@ -0,0 +1,616 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.util.AS2IOHelper;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.CommonsTreeMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.collection.impl.ICommonsSortedMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringParser;
+
+/**
+ * A persistent, append-only journal for the actions queued in an
+ * {@link AsyncMessageProcessor}. Each action is appended before it is queued
+ * and marked as done after it was executed. Upon opening, all actions that
+ * were not marked as done are available via
+ * {@link #getAllRecoveredEntries()}.<br>
+ * The journal consists of multiple segment files. A new segment is started if
+ * the current one exceeds the maximum segment size, and older segments are
+ * deleted as soon as all of their actions are done. Appended actions are
+ * forced to disk before {@link #append(String, IMessage, Map)} returns.
+ * Concurrent appends share a single <code>fsync</code> (group commit).
+ * Marking an action as done is not forced to disk, so after a crash an action
+ * may be executed twice but is never lost.
+ *
+ * @author Philip Helger
+ * @since 4.11.1
+ */
+@ThreadSafe
+public final class AsyncMessageJournal implements Closeable
+{
+  /** The default maximum size of a single segment file */
+  public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+  /**
+   * A single journal entry.
+   *
+   * @author Philip Helger
+   */
+  public static final class Entry
+  {
+    private final long m_nID;
+    private final String m_sAction;
+    private final Map <String, Object> m_aOptions;
+    private final IMessage m_aMsg;
+
+    Entry (final long nID, @Nonnull final String sAction, @Nullable final Map <String, Object> aOptions, @Nonnull final IMessage aMsg)
+    {
+      m_nID = nID;
+      m_sAction = sAction;
+      m_aOptions = aOptions;
+      m_aMsg = aMsg;
+    }
+
+    public long getID ()
+    {
+      return m_nID;
+    }
+
+    @Nonnull
+    public String getAction ()
+    {
+      return m_sAction;
+    }
+
+    @Nullable
+    public Map <String, Object> getOptions ()
+    {
+      return m_aOptions;
+    }
+
+    @Nonnull
+    public IMessage getMessage ()
+    {
+      return m_aMsg;
+    }
+  }
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AsyncMessageJournal.class);
+
+  private static final byte RECORD_ADD = 1;
+  private static final byte RECORD_DONE = 2;
+  private static final String SEGMENT_PREFIX = "journal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final Pattern SEGMENT_NAME = Pattern.compile (Pattern.quote (SEGMENT_PREFIX) + "([0-9]+)" + Pattern.quote (SEGMENT_SUFFIX));
+
+  private final File m_aDir;
+  private final long m_nMaxSegmentSize;
+  private final ICommonsList <Entry> m_aRecoveredEntries = new CommonsArrayList <> ();
+
+  // Everything below is guarded by m_aWriteLock
+  private final SimpleLock m_aWriteLock = new SimpleLock ();
+  private FileChannel m_aChannel;
+  private long m_nSegmentNumber;
+  private long m_nSegmentSize;
+  private long m_nNextID;
+  // Total number of bytes written over all segments
+  private long m_nWrittenBytes = 0;
+  // ID to segment number of all pending actions
+  private final ICommonsMap <Long, Long> m_aPendingIDs = new CommonsHashMap <> ();
+  // Segment number to number of pending actions
+  private final ICommonsSortedMap <Long, Integer> m_aPendingPerSegment = new CommonsTreeMap <> ();
+
+  // Guards the fsync - lock order is m_aSyncLock before m_aWriteLock
+  private final SimpleLock m_aSyncLock = new SimpleLock ();
+  private long m_nSyncedBytes = 0;
+
+  /**
+   * Open the journal in the provided directory and recover all pending
+   * actions. All pending actions are re-written to a new segment and the old
+   * segments are deleted.
+   *
+   * @param aDir
+   *        The journal directory. Is created if it does not exist. May not be
+   *        <code>null</code>.
+   * @param nMaxSegmentSize
+   *        The maximum size of a segment file in bytes. Must be &gt; 0.
+   * @throws IOException
+   *         In case of an error
+   */
+  public AsyncMessageJournal (@Nonnull final File aDir, @Nonnegative final long nMaxSegmentSize) throws IOException
+  {
+    ValueEnforcer.notNull (aDir, "Dir");
+    ValueEnforcer.isGT0 (nMaxSegmentSize, "MaxSegmentSize");
+    m_aDir = AS2IOHelper.getDirectoryFile (aDir.getAbsolutePath ());
+    m_nMaxSegmentSize = nMaxSegmentSize;
+
+    // Read all existing segments in order
+    final ICommonsSortedMap <Long, File> aSegments = new CommonsTreeMap <> ();
+    final File [] aFiles = m_aDir.listFiles ();
+    if (aFiles != null)
+      for (final File aFile : aFiles)
+      {
+        final Matcher aMatcher = SEGMENT_NAME.matcher (aFile.getName ());
+        if (aMatcher.matches () && aFile.isFile ())
+          aSegments.put (Long.valueOf (StringParser.parseLong (aMatcher.group (1), 0)), aFile);
+      }
+
+    final ICommonsOrderedMap <Long, byte []> aPending = new CommonsLinkedHashMap <> ();
+    long nMaxID = 0;
+    for (final File aSegment : aSegments.values ())
+      nMaxID = Math.max (nMaxID, _readSegment (aSegment, aPending));
+
+    m_nNextID = nMaxID + 1;
+    m_nSegmentNumber = aSegments.isEmpty () ? 1 : aSegments.lastKey ().longValue () + 1;
+    _openSegment ();
+
+    // Re-write all pending entries into the new segment
+    for (final byte [] aPayload : aPending.values ())
+    {
+      final long nID = m_nNextID++;
+      try
+      {
+        final Entry aEntry = _deserialize (nID, aPayload);
+        _write (_createAddRecord (nID, aPayload));
+        _addPending (nID);
+        m_aRecoveredEntries.add (aEntry);
+      }
+      catch (final IOException | ClassNotFoundException ex)
+      {
+        LOGGER.error ("Dropping unreadable journal entry", ex);
+      }
+    }
+    m_aChannel.force (false);
+    m_nSyncedBytes = m_nWrittenBytes;
+
+    // Old segments are no longer needed
+    for (final File aSegment : aSegments.values ())
+      AS2IOHelper.getFileOperationManager ().deleteFileIfExisting (aSegment);
+
+    if (LOGGER.isInfoEnabled ())
+      LOGGER.info ("Opened journal in '" + m_aDir.getAbsolutePath () + "' with " + m_aRecoveredEntries.size () + " recovered entries");
+  }
+
+  /**
+   * Read a single segment.
+   *
+   * @return The maximum ID found.
+   */
+  private static long _readSegment (@Nonnull final File aSegment, @Nonnull final ICommonsOrderedMap <Long, byte []> aPending) throws IOException
+  {
+    long nMaxID = 0;
+    try (final DataInputStream aDIS = new DataInputStream (StreamHelper.getBuffered (new FileInputStream (aSegment))))
+    {
+      while (true)
+      {
+        final int nType = aDIS.read ();
+        if (nType < 0)
+          break;
+        final long nID = aDIS.readLong ();
+        if (nType == RECORD_ADD)
+        {
+          final int nLength = aDIS.readInt ();
+          if (nLength < 0)
+            throw new IOException ("Invalid record length " + nLength);
+          final byte [] aPayload = new byte [nLength];
+          aDIS.readFully (aPayload);
+          if (aDIS.readLong () != _getChecksum (aPayload))
+            throw new IOException ("Checksum mismatch for record " + nID);
+          aPending.put (Long.valueOf (nID), aPayload);
+        }
+        else
+          if (nType == RECORD_DONE)
+            aPending.remove (Long.valueOf (nID));
+          else
+            throw new IOException ("Invalid record type " + nType);
+        nMaxID = Math.max (nMaxID, nID);
+      }
+    }
+    catch (final EOFException ex)
+    {
+      // Incomplete last record - was never confirmed
+      LOGGER.warn ("Journal segment '" + aSegment.getAbsolutePath () + "' ends with an incomplete record");
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Journal segment '" + aSegment.getAbsolutePath () + "' is corrupt - ignoring the rest of it", ex);
+    }
+    return nMaxID;
+  }
+
+  private static long _getChecksum (@Nonnull final byte [] aPayload)
+  {
+    final CRC32 aCRC = new CRC32 ();
+    aCRC.update (aPayload, 0, aPayload.length);
+    return aCRC.getValue ();
+  }
+
+  @Nonnull
+  static byte [] serialize (@Nonnull final String sAction,
+                            @Nullable final Map <String, Object> aOptions,
+                            @Nonnull final IMessage aMsg) throws IOException
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      try (final ObjectOutputStream aOOS = new ObjectOutputStream (aBAOS))
+      {
+        aOOS.writeObject (sAction);
+        aOOS.writeObject (aOptions == null ? null : new CommonsHashMap <> (aOptions));
+        aOOS.writeObject (aMsg);
+      }
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Nonnull
+  @SuppressWarnings ("unchecked")
+  static Entry deserialize (final long nID, @Nonnull final ObjectInputStream aOIS) throws IOException, ClassNotFoundException
+  {
+    final String sAction = (String) aOIS.readObject ();
+    final Map <String, Object> aOptions = (Map <String, Object>) aOIS.readObject ();
+    final IMessage aMsg = (IMessage) aOIS.readObject ();
+    return new Entry (nID, sAction, aOptions, aMsg);
+  }
+
+  @Nonnull
+  private static Entry _deserialize (final long nID, @Nonnull final byte [] aPayload) throws IOException, ClassNotFoundException
+  {
+    try (final ObjectInputStream aOIS = new ObjectInputStream (new NonBlockingByteArrayInputStream (aPayload)))
+    {
+      return deserialize (nID, aOIS);
+    }
+  }
+
+  @Nonnull
+  private static byte [] _createAddRecord (final long nID, @Nonnull final byte [] aPayload) throws IOException
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (aPayload.length + 21);
+         final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      aDOS.writeByte (RECORD_ADD);
+      aDOS.writeLong (nID);
+      aDOS.writeInt (aPayload.length);
+      aDOS.write (aPayload);
+      aDOS.writeLong (_getChecksum (aPayload));
+      aDOS.flush ();
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Nonnull
+  private static byte [] _createDoneRecord (final long nID)
+  {
+    final ByteBuffer aBB = ByteBuffer.allocate (9);
+    aBB.put (RECORD_DONE);
+    aBB.putLong (nID);
+    return aBB.array ();
+  }
+
+  @Nonnull
+  private File _getSegmentFile (final long nSegmentNumber)
+  {
+    return new File (m_aDir, SEGMENT_PREFIX + String.format ("%012d", Long.valueOf (nSegmentNumber)) + SEGMENT_SUFFIX);
+  }
+
+  private void _openSegment () throws IOException
+  {
+    m_aChannel = FileChannel.open (_getSegmentFile (m_nSegmentNumber).toPath (),
+                                   StandardOpenOption.CREATE_NEW,
+                                   StandardOpenOption.WRITE);
+    m_nSegmentSize = 0;
+  }
+
+  /**
+   * Write a record to the current segment. Must be called with the write lock.
+   */
+  private void _write (@Nonnull final byte [] aRecord) throws IOException
+  {
+    final ByteBuffer aBB = ByteBuffer.wrap (aRecord);
+    while (aBB.hasRemaining ())
+      m_aChannel.write (aBB);
+    m_nSegmentSize += aRecord.length;
+    m_nWrittenBytes += aRecord.length;
+  }
+
+  private void _addPending (final long nID)
+  {
+    final Long aSegment = Long.valueOf (m_nSegmentNumber);
+    m_aPendingIDs.put (Long.valueOf (nID), aSegment);
+    m_aPendingPerSegment.merge (aSegment, Integer.valueOf (1), (a, b) -> Integer.valueOf (a.intValue () + b.intValue ()));
+  }
+
+  /**
+   * Make sure everything up to the provided position is on disk. Concurrent
+   * callers share one fsync.
+   */
+  private void _sync (final long nPosition) throws IOException
+  {
+    try
+    {
+      m_aSyncLock.lockInterruptibly ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new IOException ("Interrupted while syncing journal", ex);
+    }
+    try
+    {
+      if (m_nSyncedBytes >= nPosition)
+      {
+        // Somebody else did the job
+        return;
+      }
+
+      final FileChannel aChannel;
+      final long nTarget;
+      m_aWriteLock.lock ();
+      try
+      {
+        aChannel = m_aChannel;
+        nTarget = m_nWrittenBytes;
+      }
+      finally
+      {
+        m_aWriteLock.unlock ();
+      }
+      // Force outside the write lock so that others can continue appending
+      aChannel.force (false);
+      m_nSyncedBytes = nTarget;
+    }
+    finally
+    {
+      m_aSyncLock.unlock ();
+    }
+  }
+
+  /**
+   * Start a new segment if the current one is too large. Rolling holds the
+   * sync lock, so that no fsync happens on a closed channel.
+   */
+  private void _rollIfNecessary () throws IOException
+  {
+    m_aSyncLock.lock ();
+    try
+    {
+      m_aWriteLock.lock ();
+      try
+      {
+        if (m_nSegmentSize < m_nMaxSegmentSize)
+          return;
+
+        m_aChannel.force (false);
+        m_aChannel.close ();
+        m_nSyncedBytes = m_nWrittenBytes;
+
+        final long nOldSegmentNumber = m_nSegmentNumber;
+        m_nSegmentNumber++;
+        _openSegment ();
+        _deleteSegmentIfUnused (nOldSegmentNumber);
+      }
+      finally
+      {
+        m_aWriteLock.unlock ();
+      }
+    }
+    finally
+    {
+      m_aSyncLock.unlock ();
+    }
+  }
+
+  /**
+   * Must be called with the write lock.
+   */
+  private void _deleteSegmentIfUnused (final long nSegmentNumber)
+  {
+    if (nSegmentNumber != m_nSegmentNumber && !m_aPendingPerSegment.containsKey (Long.valueOf (nSegmentNumber)))
+    {
+      final File aSegmentFile = _getSegmentFile (nSegmentNumber);
+      if (AS2IOHelper.getFileOperationManager ().deleteFileIfExisting (aSegmentFile).isFailure ())
+        LOGGER.warn ("Failed to delete journal segment '" + aSegmentFile.getAbsolutePath () + "'");
+    }
+  }
+
+  /**
+   * @return All entries that were pending when the journal was opened. These
+   *         entries are already re-written to the journal and must be marked
+   *         as done after they were processed. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <Entry> getAllRecoveredEntries ()
+  {
+    return m_aRecoveredEntries.getClone ();
+  }
+
+  /**
+   * Append a new action to the journal. When this method returns, the action
+   * is on disk.
+   *
+   * @param sAction
+   *        Action to be executed. May not be <code>null</code>.
+   * @param aMsg
+   *        The message the action is about. Must be serializable. May not be
+   *        <code>null</code>.
+   * @param aOptions
+   *        Optional options. All values must be serializable. May be
+   *        <code>null</code>.
+   * @return The ID of the journal entry, to be passed to
+   *         {@link #markDone(long)}.
+   * @throws IOException
+   *         In case the action could not be serialized or written.
+   */
+  public long append (@Nonnull final String sAction,
+                      @Nonnull final IMessage aMsg,
+                      @Nullable final Map <String, Object> aOptions) throws IOException
+  {
+    ValueEnforcer.notNull (sAction, "Action");
+    ValueEnforcer.notNull (aMsg, "Msg");
+
+    // Serialize outside the lock
+    final byte [] aPayload = serialize (sAction, aOptions, aMsg);
+
+    final long nID;
+    final long nPosition;
+    final boolean bRoll;
+    m_aWriteLock.lock ();
+    try
+    {
+      nID = m_nNextID++;
+      _write (_createAddRecord (nID, aPayload));
+      _addPending (nID);
+      nPosition = m_nWrittenBytes;
+      bRoll = m_nSegmentSize >= m_nMaxSegmentSize;
+    }
+    finally
+    {
+      m_aWriteLock.unlock ();
+    }
+
+    if (bRoll)
+      _rollIfNecessary ();
+    _sync (nPosition);
+    return nID;
+  }
+
+  /**
+   * Mark an action as done. This is not forced to disk.
+   *
+   * @param nID
+   *        The ID returned by {@link #append(String, IMessage, Map)} or
+   *        contained in a recovered entry.
+   * @throws IOException
+   *         In case of a write error
+   */
+  public void markDone (final long nID) throws IOException
+  {
+    boolean bRoll = false;
+    m_aWriteLock.lock ();
+    try
+    {
+      final Long aSegment = m_aPendingIDs.remove (Long.valueOf (nID));
+      if (aSegment != null)
+      {
+        _write (_createDoneRecord (nID));
+        final int nLeft = m_aPendingPerSegment.get (aSegment).intValue () - 1;
+        if (nLeft == 0)
+        {
+          m_aPendingPerSegment.remove (aSegment);
+          _deleteSegmentIfUnused (aSegment.longValue ());
+        }
+        else
+          m_aPendingPerSegment.put (aSegment, Integer.valueOf (nLeft));
+        bRoll = m_nSegmentSize >= m_nMaxSegmentSize;
+      }
+    }
+    finally
+    {
+      m_aWriteLock.unlock ();
+    }
+    if (bRoll)
+      _rollIfNecessary ();
+  }
+
+  /**
+   * @return The number of actions that were appended but not yet marked as
+   *         done.
+   */
+  @Nonnegative
+  public int getPendingCount ()
+  {
+    return m_aWriteLock.lockedInt (m_aPendingIDs::size);
+  }
+
+  public void close () throws IOException
+  {
+    m_aSyncLock.lock ();
+    try
+    {
+      m_aWriteLock.lock ();
+      try
+      {
+        if (m_aChannel.isOpen ())
+        {
+          m_aChannel.force (false);
+          m_aChannel.close ();
+        }
+      }
+      finally
+      {
+        m_aWriteLock.unlock ();
+      }
+    }
+    finally
+    {
+      m_aSyncLock.unlock ();
+    }
+  }
+}
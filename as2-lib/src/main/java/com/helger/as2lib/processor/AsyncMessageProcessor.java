@@ -32,72 +32,258 @@
  */
 package com.helger.as2lib.processor;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
+import javax.annotation.CheckForSigned;
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.as2lib.exception.AS2Exception;
 import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.util.AS2IOHelper;
+import com.helger.as2lib.util.AS2ResourceHelper;
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.CodingStyleguideUnaware;
+import com.helger.commons.annotation.OverrideOnDemand;
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.callback.CallbackList;
 import com.helger.commons.callback.exception.IExceptionCallback;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.EHandled;
+import com.helger.commons.string.StringParser;
 
 /**
- * An implementation of {@link AbstractMessageProcessor} that uses a separate
- * thread for performing the main actions.
+ * An implementation of {@link AbstractMessageProcessor} that uses separate
+ * worker threads for performing the main actions.<br>
+ * Since v4.11.1 the number of worker threads is configurable (see
+ * {@link #ATTR_WORKER_COUNT}). Each action is assigned to a worker based on an
+ * ordering key, which is the partnership by default. All actions with the same
+ * key are executed in the order they were handed in, whereas actions with
+ * different keys may be executed in parallel. The worker threads are started
+ * upon the first action.<br>
+ * Since v4.11.1 the number of queued actions and the estimated size of the
+ * queued messages can be limited (see {@link #ATTR_QUEUE_CAPACITY} and
+ * {@link #ATTR_QUEUE_MAX_BYTES}). What happens if the limit is reached is
+ * defined by the {@link EAsyncQueueOverflowPolicy}.<br>
+ * Since v4.11.1 the actions can be backed by a persistent journal (see
+ * {@link #ATTR_JOURNAL_DIRECTORY}), so that queued actions survive a restart.
+ * The journal is opened and recovered actions are queued in
+ * {@link #startActiveModules()} or upon the first action, whatever comes
+ * first. Only successfully executed actions are removed from the journal, so
+ * failed actions are executed again upon the next start (at-least-once
+ * delivery).<br>
+ * {@link #stopActiveModules()} stops the worker threads and closes the
+ * journal. Actions that are still queued at that time are discarded, but
+ * remain in the journal if one is used.
  *
  * @author Philip Helger
  */
-@NotThreadSafe
+@ThreadSafe
 public class AsyncMessageProcessor extends AbstractMessageProcessor
 {
+  /**
+   * The number of worker threads.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_WORKER_COUNT = "workers";
+  /** By default only one worker thread is used */
+  public static final int DEFAULT_WORKER_COUNT = 1;
+  /**
+   * The maximum number of actions that are queued or in progress.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_QUEUE_CAPACITY = "queuecapacity";
+  /** By default the number of actions is unlimited */
+  public static final int DEFAULT_QUEUE_CAPACITY = -1;
+  /**
+   * The maximum estimated number of bytes of all messages that are queued or
+   * in progress.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_QUEUE_MAX_BYTES = "queuemaxbytes";
+  /** By default the number of bytes is unlimited */
+  public static final long DEFAULT_QUEUE_MAX_BYTES = -1;
+  /**
+   * The ID of the {@link EAsyncQueueOverflowPolicy} to use.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_OVERFLOW_POLICY = "overflowpolicy";
+  public static final EAsyncQueueOverflowPolicy DEFAULT_OVERFLOW_POLICY = EAsyncQueueOverflowPolicy.BLOCK;
+  /**
+   * The directory where actions are written to with
+   * {@link EAsyncQueueOverflowPolicy#SPILL}. Defaults to the temporary
+   * directory.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_SPILL_DIRECTORY = "spilldirectory";
+  /**
+   * The directory of the persistent journal. If set, every action is written
+   * to the journal before it is queued, and all actions not executed before a
+   * shutdown are executed again upon the next start. See
+   * {@link AsyncMessageJournal}. Actions that failed are kept in the journal
+   * as well and are therefore executed again upon the next start.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_JOURNAL_DIRECTORY = "journaldirectory";
+  /**
+   * The maximum size of a single journal segment file in bytes.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_JOURNAL_SEGMENT_SIZE = "journalsegmentsize";
+  /** The maximum time to wait for a worker thread to stop */
+  public static final long DEFAULT_WORKER_STOP_TIMEOUT_MS = 5_000;
+
+  private static final long NO_JOURNAL_ID = -1;
+
   private static final class HandleObject
   {
+    // Wakes up a worker that is waiting for the next object
+    private static final HandleObject STOP = new HandleObject ();
+
     private final String m_sAction;
     private final IMessage m_aMsg;
     @CodingStyleguideUnaware
     private final Map <String, Object> m_aOptions;
+    private final long m_nBytes;
+    private final File m_aSpillFile;
+    private final long m_nJournalID;
 
-    public HandleObject (@Nonnull final String sAction, @Nonnull final IMessage aMsg, @Nullable final Map <String, Object> aOptions)
+    public HandleObject (@Nonnull final String sAction,
+                         @Nonnull final IMessage aMsg,
+                         @Nullable final Map <String, Object> aOptions,
+                         @Nonnegative final long nBytes,
+                         final long nJournalID)
     {
       m_sAction = sAction;
       m_aMsg = aMsg;
       m_aOptions = aOptions;
+      m_nBytes = nBytes;
+      m_aSpillFile = null;
+      m_nJournalID = nJournalID;
     }
-  }
 
-  private static final Logger LOGGER = LoggerFactory.getLogger (AsyncMessageProcessor.class);
+    private HandleObject ()
+    {
+      m_sAction = null;
+      m_aMsg = null;
+      m_aOptions = null;
+      m_nBytes = 0;
+      m_aSpillFile = null;
+      m_nJournalID = NO_JOURNAL_ID;
+    }
 
-  private final BlockingQueue <HandleObject> m_aQueue = new LinkedBlockingQueue <> ();
-  private final CallbackList <IExceptionCallback <Throwable>> m_aExceptionCallbacks = new CallbackList <> ();
-  private final Thread m_aProcessorThread;
+    public HandleObject (@Nonnull final File aSpillFile, final long nJournalID)
+    {
+      m_sAction = null;
+      m_aMsg = null;
+      m_aOptions = null;
+      m_nBytes = 0;
+      m_aSpillFile = aSpillFile;
+      m_nJournalID = nJournalID;
+    }
+  }
 
-  public AsyncMessageProcessor ()
+  private final class Worker implements Runnable
   {
-    final Runnable aRunnable = () -> {
-      // The temporary list that contains all objects to be delivered
-      while (true)
+    private final BlockingQueue <HandleObject> m_aQueue = new LinkedBlockingQueue <> ();
+    private final Thread m_aThread;
+    // Guards m_bStopped and adding to the queue, so that nothing can be added
+    // after the queue was drained upon stop
+    private final SimpleLock m_aQueueLock = new SimpleLock ();
+    private volatile boolean m_bStopped = false;
+
+    Worker (@Nonnegative final int nIndex)
+    {
+      m_aThread = new Thread (this, "AS2-AsyncMessageProcessor-" + nIndex);
+      m_aThread.setDaemon (true);
+    }
+
+    /**
+     * Queue the provided object.
+     *
+     * @param aObject
+     *        The object to queue. May not be <code>null</code>.
+     * @return <code>false</code> if the worker was already stopped and the
+     *         object was not queued.
+     */
+    boolean enqueue (@Nonnull final HandleObject aObject)
+    {
+      return m_aQueueLock.lockedBoolean ( () -> {
+        if (m_bStopped)
+          return false;
+        m_aQueue.add (aObject);
+        return true;
+      });
+    }
+
+    /**
+     * Stop accepting objects, discard all queued objects and tell the thread
+     * to stop after the current object.
+     */
+    void stop ()
+    {
+      m_aQueueLock.locked ( () -> {
+        m_bStopped = true;
+        _discardQueued ();
+        m_aQueue.add (HandleObject.STOP);
+      });
+    }
+
+    public void run ()
+    {
+      while (!m_bStopped)
       {
+        HandleObject aCurrentObject = null;
+        boolean bSuccess = false;
         try
         {
-          // Block until the first object is in the queue
-          final HandleObject aCurrentObject = m_aQueue.poll (1, TimeUnit.SECONDS);
-          if (aCurrentObject != null)
-            AsyncMessageProcessor.this.executeAction (aCurrentObject.m_sAction, aCurrentObject.m_aMsg, aCurrentObject.m_aOptions);
+          // Block until the next object is in the queue
+          aCurrentObject = m_aQueue.take ();
+          if (aCurrentObject == HandleObject.STOP)
+          {
+            aCurrentObject = null;
+            break;
+          }
+          if (aCurrentObject.m_aSpillFile != null)
+            _readSpilled (aCurrentObject.m_aSpillFile);
+          else
+            executeAction (aCurrentObject.m_sAction, aCurrentObject.m_aMsg, aCurrentObject.m_aOptions);
+          bSuccess = true;
         }
         catch (final InterruptedException ex)
         {
           Thread.currentThread ().interrupt ();
-          LOGGER.error ("Error taking elements from queue - queue has been interrupted!!!");
+          if (!m_bStopped)
+            LOGGER.error ("Error taking elements from queue - queue has been interrupted!!!");
           break;
         }
         catch (final AS2NoModuleException ex)
@@ -112,17 +298,593 @@ public class AsyncMessageProcessor extends AbstractMessageProcessor
           else
             LOGGER.error ("Error executing action", ex);
         }
+        finally
+        {
+          if (aCurrentObject != null)
+          {
+            if (aCurrentObject.m_aSpillFile == null)
+              _release (aCurrentObject.m_nBytes);
+            // Failed actions stay in the journal and are retried upon the next
+            // start
+            if (bSuccess && aCurrentObject.m_nJournalID != NO_JOURNAL_ID)
+              _markJournalDone (aCurrentObject.m_nJournalID);
+          }
+        }
+      }
+    }
+
+    private void _discardQueued ()
+    {
+      final ICommonsList <HandleObject> aRemaining = new CommonsArrayList <> ();
+      m_aQueue.drainTo (aRemaining);
+      aRemaining.removeObject (HandleObject.STOP);
+      for (final HandleObject aObject : aRemaining)
+        if (aObject.m_aSpillFile == null)
+          _release (aObject.m_nBytes);
+        else
+          AS2IOHelper.getFileOperationManager ().deleteFileIfExisting (aObject.m_aSpillFile);
+      if (aRemaining.isNotEmpty ())
+        LOGGER.warn ("Discarded " + aRemaining.size () + " queued action(s) of stopped worker " + m_aThread.getName ());
+    }
+  }
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AsyncMessageProcessor.class);
+
+  private final CallbackList <IExceptionCallback <Throwable>> m_aExceptionCallbacks = new CallbackList <> ();
+  private final SimpleLock m_aWorkerLock = new SimpleLock ();
+  // Created lazily upon the first action
+  private volatile Worker [] m_aWorkers;
+  private volatile Function <? super IMessage, String> m_aOrderingKeyProvider = AsyncMessageProcessor::getPartnershipOrderingKey;
+
+  // Capacity handling - the limits are determined upon the first action
+  private final ReentrantLock m_aCapacityLock = new ReentrantLock ();
+  private final Condition m_aCapacityAvailable = m_aCapacityLock.newCondition ();
+  private int m_nQueueCapacity;
+  private long m_nQueueMaxBytes;
+  private EAsyncQueueOverflowPolicy m_eOverflowPolicy;
+  private int m_nQueuedCount = 0;
+  private long m_nQueuedBytes = 0;
+  // Determined upon the first action
+  private volatile AsyncMessageJournal m_aJournal;
+
+  public AsyncMessageProcessor ()
+  {}
+
+  /**
+   * Constructor
+   *
+   * @param nWorkerCount
+   *        The number of worker threads to use. Must be &gt; 0.
+   * @since 4.11.1
+   */
+  public AsyncMessageProcessor (@Nonnegative final int nWorkerCount)
+  {
+    setWorkerCount (nWorkerCount);
+  }
+
+  /**
+   * The default ordering key provider. It uses the partnership name, or the
+   * sender and receiver AS2 ID if the partnership was not yet resolved.
+   *
+   * @param aMsg
+   *        The message to get the key from. Never <code>null</code>.
+   * @return The ordering key. Never <code>null</code>.
+   * @since 4.11.1
+   */
+  @Nonnull
+  public static String getPartnershipOrderingKey (@Nonnull final IMessage aMsg)
+  {
+    final Partnership aPartnership = aMsg.partnership ();
+    final String sName = aPartnership.getName ();
+    if (!Partnership.DEFAULT_NAME.equals (sName))
+      return sName;
+    return aPartnership.getSenderAS2ID () + "-" + aPartnership.getReceiverAS2ID ();
+  }
+
+  @Nonnull
+  private Worker [] _getWorkers () throws AS2Exception
+  {
+    final Worker [] ret = m_aWorkers;
+    if (ret != null)
+      return ret;
+
+    m_aWorkerLock.lock ();
+    try
+    {
+      Worker [] aWorkers = m_aWorkers;
+      if (aWorkers == null)
+      {
+        // Published by the volatile write of m_aWorkers below
+        m_nQueueCapacity = getQueueCapacity ();
+        m_nQueueMaxBytes = getQueueMaxBytes ();
+        m_eOverflowPolicy = getOverflowPolicy ();
+
+        final String sJournalDir = attrs ().getAsString (ATTR_JOURNAL_DIRECTORY);
+        if (sJournalDir != null)
+        {
+          try
+          {
+            m_aJournal = new AsyncMessageJournal (new File (sJournalDir),
+                                                  attrs ().getAsLong (ATTR_JOURNAL_SEGMENT_SIZE,
+                                                                      AsyncMessageJournal.DEFAULT_MAX_SEGMENT_SIZE));
+          }
+          catch (final IOException ex)
+          {
+            throw new AS2Exception ("Failed to open journal in '" + sJournalDir + "'", ex);
+          }
+        }
+
+        aWorkers = new Worker [getWorkerCount ()];
+        for (int i = 0; i < aWorkers.length; ++i)
+        {
+          aWorkers[i] = new Worker (i);
+          aWorkers[i].m_aThread.start ();
+        }
+
+        if (m_aJournal != null)
+        {
+          // Execute all actions that were not executed before
+          for (final AsyncMessageJournal.Entry aEntry : m_aJournal.getAllRecoveredEntries ())
+          {
+            final IMessage aMsg = aEntry.getMessage ();
+            final long nBytes = m_nQueueMaxBytes > 0 ? getEstimatedSize (aMsg) : 0;
+            _reserveForced (nBytes);
+            // The new workers are not yet stopped
+            _getWorker (aWorkers, aMsg).enqueue (new HandleObject (aEntry.getAction (), aMsg, aEntry.getOptions (), nBytes, aEntry.getID ()));
+          }
+        }
+        m_aWorkers = aWorkers;
       }
-    };
-    m_aProcessorThread = new Thread (aRunnable, "AS2-AsyncMessageProcessor");
-    m_aProcessorThread.setDaemon (true);
-    m_aProcessorThread.start ();
+      return aWorkers;
+    }
+    finally
+    {
+      m_aWorkerLock.unlock ();
+    }
+  }
+
+  @Nonnull
+  private Worker _getWorker (@Nonnull final Worker [] aWorkers, @Nonnull final IMessage aMsg)
+  {
+    // Same key, same worker
+    if (aWorkers.length == 1)
+      return aWorkers[0];
+    return aWorkers[Math.floorMod (m_aOrderingKeyProvider.apply (aMsg).hashCode (), aWorkers.length)];
   }
 
+  /**
+   * @return The thread of the first worker. Never <code>null</code>.
+   */
   @Nonnull
   protected final Thread getProcessortThread ()
   {
-    return m_aProcessorThread;
+    try
+    {
+      return _getWorkers ()[0].m_aThread;
+    }
+    catch (final AS2Exception ex)
+    {
+      throw new IllegalStateException ("Failed to start workers", ex);
+    }
+  }
+
+  /**
+   * {@inheritDoc}<br>
+   * Additionally the worker threads are started and all actions recovered
+   * from the journal are queued.
+   */
+  @Override
+  public void startActiveModules ()
+  {
+    super.startActiveModules ();
+    try
+    {
+      _getWorkers ();
+    }
+    catch (final AS2Exception ex)
+    {
+      ex.terminate ();
+    }
+  }
+
+  /**
+   * {@inheritDoc}<br>
+   * Additionally the worker threads are stopped and the journal is closed
+   * after all worker threads ended. Actions handed in concurrently are
+   * rejected with an exception. The next action starts new worker threads and
+   * re-opens the journal.
+   */
+  @Override
+  public void stopActiveModules ()
+  {
+    super.stopActiveModules ();
+
+    m_aWorkerLock.lock ();
+    try
+    {
+      final Worker [] aWorkers = m_aWorkers;
+      if (aWorkers != null)
+      {
+        m_aWorkers = null;
+        _stopWorkers (aWorkers);
+      }
+
+      // All workers are done - nobody uses the journal anymore
+      final AsyncMessageJournal aJournal = m_aJournal;
+      if (aJournal != null)
+      {
+        m_aJournal = null;
+        try
+        {
+          aJournal.close ();
+        }
+        catch (final IOException ex)
+        {
+          LOGGER.error ("Failed to close the journal", ex);
+        }
+      }
+    }
+    finally
+    {
+      m_aWorkerLock.unlock ();
+    }
+  }
+
+  /**
+   * Stop the provided workers. Queued actions are discarded and their capacity
+   * is released. Actions in progress may finish within
+   * {@link #DEFAULT_WORKER_STOP_TIMEOUT_MS}. Afterwards the worker threads are
+   * interrupted and waited for again.
+   *
+   * @param aWorkers
+   *        The workers to stop. May not be <code>null</code>.
+   */
+  private static void _stopWorkers (@Nonnull final Worker [] aWorkers)
+  {
+    for (final Worker aWorker : aWorkers)
+      aWorker.stop ();
+    try
+    {
+      for (final Worker aWorker : aWorkers)
+      {
+        aWorker.m_aThread.join (DEFAULT_WORKER_STOP_TIMEOUT_MS);
+        if (aWorker.m_aThread.isAlive ())
+        {
+          LOGGER.warn ("Worker " + aWorker.m_aThread.getName () + " did not stop in time - interrupting it");
+          aWorker.m_aThread.interrupt ();
+          aWorker.m_aThread.join (DEFAULT_WORKER_STOP_TIMEOUT_MS);
+          if (aWorker.m_aThread.isAlive ())
+            LOGGER.error ("Worker " + aWorker.m_aThread.getName () + " did not stop after being interrupted");
+        }
+      }
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+    }
+  }
+
+  /**
+   * @return The number of worker threads. Always &gt; 0.
+   * @since 4.11.1
+   */
+  @Nonnegative
+  public int getWorkerCount ()
+  {
+    final Worker [] aWorkers = m_aWorkers;
+    if (aWorkers != null)
+      return aWorkers.length;
+    return attrs ().getAsInt (ATTR_WORKER_COUNT, DEFAULT_WORKER_COUNT);
+  }
+
+  /**
+   * Set the number of worker threads. This only has an effect, if no action
+   * was handled so far.
+   *
+   * @param nWorkerCount
+   *        The number of worker threads to use. Must be &gt; 0.
+   * @since 4.11.1
+   */
+  public void setWorkerCount (@Nonnegative final int nWorkerCount)
+  {
+    ValueEnforcer.isGT0 (nWorkerCount, "WorkerCount");
+    attrs ().putIn (ATTR_WORKER_COUNT, nWorkerCount);
+  }
+
+  /**
+   * @return The maximum number of actions that are queued or in progress. A
+   *         value &le; 0 means unlimited.
+   * @since 4.11.1
+   */
+  @CheckForSigned
+  public int getQueueCapacity ()
+  {
+    return attrs ().getAsInt (ATTR_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * Set the maximum number of actions that are queued or in progress. This
+   * only has an effect, if no action was handled so far.
+   *
+   * @param nQueueCapacity
+   *        The maximum number of actions. A value &le; 0 means unlimited.
+   * @since 4.11.1
+   */
+  public void setQueueCapacity (final int nQueueCapacity)
+  {
+    attrs ().putIn (ATTR_QUEUE_CAPACITY, nQueueCapacity);
+  }
+
+  /**
+   * @return The maximum estimated number of bytes of all messages that are
+   *         queued or in progress. A value &le; 0 means unlimited.
+   * @since 4.11.1
+   */
+  @CheckForSigned
+  public long getQueueMaxBytes ()
+  {
+    return attrs ().getAsLong (ATTR_QUEUE_MAX_BYTES, DEFAULT_QUEUE_MAX_BYTES);
+  }
+
+  /**
+   * Set the maximum estimated number of bytes of all messages that are queued
+   * or in progress. A single message exceeding this limit is accepted if
+   * nothing else is queued. This only has an effect, if no action was handled
+   * so far.
+   *
+   * @param nQueueMaxBytes
+   *        The maximum number of bytes. A value &le; 0 means unlimited.
+   * @since 4.11.1
+   */
+  public void setQueueMaxBytes (final long nQueueMaxBytes)
+  {
+    attrs ().putIn (ATTR_QUEUE_MAX_BYTES, nQueueMaxBytes);
+  }
+
+  /**
+   * @return The policy to apply if the queue capacity is exhausted. Never
+   *         <code>null</code>.
+   * @since 4.11.1
+   */
+  @Nonnull
+  public EAsyncQueueOverflowPolicy getOverflowPolicy ()
+  {
+    return EAsyncQueueOverflowPolicy.getFromIDCaseInsensitiveOrDefault (attrs ().getAsString (ATTR_OVERFLOW_POLICY),
+                                                                       DEFAULT_OVERFLOW_POLICY);
+  }
+
+  /**
+   * Set the policy to apply if the queue capacity is exhausted. This only has
+   * an effect, if no action was handled so far.
+   *
+   * @param eOverflowPolicy
+   *        The policy to use. May not be <code>null</code>.
+   * @since 4.11.1
+   */
+  public void setOverflowPolicy (@Nonnull final EAsyncQueueOverflowPolicy eOverflowPolicy)
+  {
+    ValueEnforcer.notNull (eOverflowPolicy, "OverflowPolicy");
+    attrs ().putIn (ATTR_OVERFLOW_POLICY, eOverflowPolicy.getID ());
+  }
+
+  /**
+   * @return The function that determines the ordering key of a message.
+   *         Actions for messages with the same key are executed in order.
+   *         Never <code>null</code>.
+   * @since 4.11.1
+   */
+  @Nonnull
+  public final Function <? super IMessage, String> getOrderingKeyProvider ()
+  {
+    return m_aOrderingKeyProvider;
+  }
+
+  /**
+   * Set the function that determines the ordering key of a message. Actions
+   * for messages with the same key are executed in the order they were handed
+   * in.
+   *
+   * @param aOrderingKeyProvider
+   *        The function to use. May not be <code>null</code>. The function may
+   *        not return <code>null</code>.
+   * @since 4.11.1
+   */
+  public final void setOrderingKeyProvider (@Nonnull final Function <? super IMessage, String> aOrderingKeyProvider)
+  {
+    ValueEnforcer.notNull (aOrderingKeyProvider, "OrderingKeyProvider");
+    m_aOrderingKeyProvider = aOrderingKeyProvider;
+  }
+
+  /**
+   * @return The number of actions that are queued but not yet taken by a
+   *         worker thread. This includes spilled actions.
+   * @since 4.11.1
+   */
+  @Nonnegative
+  public int getQueueDepth ()
+  {
+    final Worker [] aWorkers = m_aWorkers;
+    int ret = 0;
+    if (aWorkers != null)
+      for (final Worker aWorker : aWorkers)
+        ret += aWorker.m_aQueue.size ();
+    return ret;
+  }
+
+  /**
+   * @return The estimated number of bytes of all messages held in memory that
+   *         are queued or in progress.
+   * @since 4.11.1
+   */
+  @Nonnegative
+  public long getQueuedBytes ()
+  {
+    m_aCapacityLock.lock ();
+    try
+    {
+      return m_nQueuedBytes;
+    }
+    finally
+    {
+      m_aCapacityLock.unlock ();
+    }
+  }
+
+  /**
+   * Estimate the number of bytes the provided message occupies in memory. This
+   * is only used for the capacity check. By default the size of the MIME body
+   * part or the HTTP Content-Length is used.
+   *
+   * @param aMsg
+   *        The message to estimate. Never <code>null</code>.
+   * @return The estimated number of bytes. Must be &ge; 0.
+   * @since 4.11.1
+   */
+  @OverrideOnDemand
+  @Nonnegative
+  protected long getEstimatedSize (@Nonnull final IMessage aMsg)
+  {
+    final MimeBodyPart aData = aMsg.getData ();
+    if (aData != null)
+      try
+      {
+        final int nSize = aData.getSize ();
+        if (nSize > 0)
+          return nSize;
+      }
+      catch (final MessagingException ex)
+      {
+        // Fall through
+      }
+    return Math.max (StringParser.parseLong (aMsg.getHeader (CHttpHeader.CONTENT_LENGTH), 0), 0);
+  }
+
+  private boolean _isCapacityAvailable (@Nonnegative final long nBytes)
+  {
+    // Always accept something if nothing is queued, even if it exceeds the
+    // byte limit
+    if (m_nQueuedCount == 0)
+      return true;
+    if (m_nQueueCapacity > 0 && m_nQueuedCount >= m_nQueueCapacity)
+      return false;
+    if (m_nQueueMaxBytes > 0 && m_nQueuedBytes + nBytes > m_nQueueMaxBytes)
+      return false;
+    return true;
+  }
+
+  private boolean _reserve (@Nonnegative final long nBytes, final boolean bBlock) throws InterruptedException
+  {
+    m_aCapacityLock.lockInterruptibly ();
+    try
+    {
+      while (!_isCapacityAvailable (nBytes))
+      {
+        if (!bBlock)
+          return false;
+        m_aCapacityAvailable.await ();
+      }
+      m_nQueuedCount++;
+      m_nQueuedBytes += nBytes;
+      return true;
+    }
+    finally
+    {
+      m_aCapacityLock.unlock ();
+    }
+  }
+
+  private void _reserveForced (@Nonnegative final long nBytes)
+  {
+    m_aCapacityLock.lock ();
+    try
+    {
+      m_nQueuedCount++;
+      m_nQueuedBytes += nBytes;
+    }
+    finally
+    {
+      m_aCapacityLock.unlock ();
+    }
+  }
+
+  private void _release (@Nonnegative final long nBytes)
+  {
+    m_aCapacityLock.lock ();
+    try
+    {
+      m_nQueuedCount--;
+      m_nQueuedBytes -= nBytes;
+      m_aCapacityAvailable.signalAll ();
+    }
+    finally
+    {
+      m_aCapacityLock.unlock ();
+    }
+  }
+
+  @Nonnull
+  private File _spill (@Nonnull final String sAction,
+                       @Nonnull final IMessage aMsg,
+                       @Nullable final Map <String, Object> aOptions) throws AS2Exception
+  {
+    final String sSpillDir = attrs ().getAsString (ATTR_SPILL_DIRECTORY);
+    final File aSpillDir = sSpillDir != null ? AS2IOHelper.getDirectoryFile (sSpillDir) : AS2ResourceHelper.getTempDir ();
+    File aSpillFile = null;
+    try
+    {
+      final byte [] aBytes = AsyncMessageJournal.serialize (sAction, aOptions, aMsg);
+      aSpillFile = File.createTempFile ("as2-spill-", ".ser", aSpillDir);
+      try (final FileOutputStream aFOS = new FileOutputStream (aSpillFile))
+      {
+        aFOS.write (aBytes);
+      }
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Spilled action '" + sAction + "' to " + aSpillFile.getAbsolutePath () + aMsg.getLoggingText ());
+      return aSpillFile;
+    }
+    catch (final IOException ex)
+    {
+      if (aSpillFile != null)
+        AS2IOHelper.getFileOperationManager ().deleteFileIfExisting (aSpillFile);
+      throw new AS2QueueFullException ("Queue is full and action '" + sAction + "' could not be spilled to disk", ex);
+    }
+  }
+
+  private void _readSpilled (@Nonnull final File aSpillFile) throws AS2Exception
+  {
+    final AsyncMessageJournal.Entry aEntry;
+    try (final FileInputStream aFIS = new FileInputStream (aSpillFile);
+         final ObjectInputStream aOIS = new ObjectInputStream (StreamHelper.getBuffered (aFIS)))
+    {
+      aEntry = AsyncMessageJournal.deserialize (NO_JOURNAL_ID, aOIS);
+    }
+    catch (final IOException | ClassNotFoundException ex)
+    {
+      throw new AS2Exception ("Failed to read spilled action from " + aSpillFile.getAbsolutePath (), ex);
+    }
+    finally
+    {
+      AS2IOHelper.getFileOperationManager ().deleteFileIfExisting (aSpillFile);
+    }
+    executeAction (aEntry.getAction (), aEntry.getMessage (), aEntry.getOptions ());
+  }
+
+  private void _markJournalDone (final long nJournalID)
+  {
+    final AsyncMessageJournal aJournal = m_aJournal;
+    if (aJournal == null)
+    {
+      // Already closed - the action is executed again upon the next start
+      return;
+    }
+    try
+    {
+      aJournal.markDone (nJournalID);
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Failed to mark journal entry " + nJournalID + " as done", ex);
+    }
   }
 
   @Nonnull
@@ -139,9 +901,56 @@ public class AsyncMessageProcessor extends AbstractMessageProcessor
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("AsyncMessageProcessor.handle (" + sAction + "," + aMsg + "," + aOptions + ")");
 
+    final Worker [] aWorkers = _getWorkers ();
+    final Worker aWorker = _getWorker (aWorkers, aMsg);
     try
     {
-      m_aQueue.put (new HandleObject (sAction, aMsg, aOptions));
+      final long nBytes = m_nQueueMaxBytes > 0 ? getEstimatedSize (aMsg) : 0;
+      final boolean bReserved = _reserve (nBytes, m_eOverflowPolicy == EAsyncQueueOverflowPolicy.BLOCK);
+      if (!bReserved && m_eOverflowPolicy != EAsyncQueueOverflowPolicy.SPILL)
+        throw new AS2QueueFullException ("Queue is full - cannot accept action '" + sAction + "'" + aMsg.getLoggingText ());
+
+      // Make it durable before it is queued
+      long nJournalID = NO_JOURNAL_ID;
+      final AsyncMessageJournal aJournal = m_aJournal;
+      if (aJournal != null)
+        try
+        {
+          nJournalID = aJournal.append (sAction, aMsg, aOptions);
+        }
+        catch (final IOException ex)
+        {
+          if (bReserved)
+            _release (nBytes);
+          throw new AS2Exception ("Failed to write action '" + sAction + "' to the journal", ex);
+        }
+
+      final HandleObject aObject;
+      if (bReserved)
+        aObject = new HandleObject (sAction, aMsg, aOptions, nBytes, nJournalID);
+      else
+        try
+        {
+          aObject = new HandleObject (_spill (sAction, aMsg, aOptions), nJournalID);
+        }
+        catch (final AS2Exception ex)
+        {
+          if (nJournalID != NO_JOURNAL_ID)
+            _markJournalDone (nJournalID);
+          throw ex;
+        }
+
+      if (!aWorker.enqueue (aObject))
+      {
+        // Stopped in the meantime - undo everything
+        if (bReserved)
+          _release (nBytes);
+        else
+          AS2IOHelper.getFileOperationManager ().deleteFileIfExisting (aObject.m_aSpillFile);
+        if (nJournalID != NO_JOURNAL_ID)
+          _markJournalDone (nJournalID);
+        throw new AS2Exception ("Processor was stopped - cannot accept action '" + sAction + "'" + aMsg.getLoggingText ());
+      }
     }
     catch (final InterruptedException ex)
     {
@@ -150,6 +959,23 @@ public class AsyncMessageProcessor extends AbstractMessageProcessor
     }
   }
 
+  /**
+   * {@inheritDoc}<br>
+   * The check, whether a module is able to handle the action, happens
+   * synchronously, whereas the action itself is executed asynchronously.
+   */
+  @Override
+  @Nonnull
+  public EHandled handleIfPossible (@Nonnull final String sAction,
+                                    @Nonnull final IMessage aMsg,
+                                    @Nullable final Map <String, Object> aOptions) throws AS2Exception
+  {
+    if (!isAnyModuleAbleToHandle (sAction, aMsg, aOptions))
+      return EHandled.UNHANDLED;
+    handle (sAction, aMsg, aOptions);
+    return EHandled.HANDLED;
+  }
+
   @Override
   public boolean equals (final Object o)
   {
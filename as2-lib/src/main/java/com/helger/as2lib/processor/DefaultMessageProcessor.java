@@ -43,6 +43,7 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.as2lib.exception.AS2Exception;
 import com.helger.as2lib.message.IMessage;
+import com.helger.commons.state.EHandled;
 
 /**
  * This is the default implementation of {@link IMessageProcessor}. It handles
@@ -64,4 +65,16 @@ public class DefaultMessageProcessor extends AbstractMessageProcessor
 
     executeAction (sAction, aMsg, aOptions);
   }
+
+  @Override
+  @Nonnull
+  public EHandled handleIfPossible (@Nonnull final String sAction,
+                                    @Nonnull final IMessage aMsg,
+                                    @Nullable final Map <String, Object> aOptions) throws AS2Exception
+  {
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("DefaultMessageProcessor.handleIfPossible (" + sAction + "," + aMsg + "," + aOptions + ")");
+
+    return executeActionIfPossible (sAction, aMsg, aOptions);
+  }
 }
@@ -48,6 +48,7 @@ import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.state.EChange;
+import com.helger.commons.state.EHandled;
 
 /**
  * Process incoming messages.
@@ -113,6 +114,41 @@ public interface IMessageProcessor extends IDynamicComponent
 
   void handle (@Nonnull String sAction, @Nonnull IMessage aMsg, @Nullable Map <String, Object> aOptions) throws AS2Exception;
 
+  /**
+   * Handle the provided action, if at least one module is able to handle it.
+   * Other than {@link #handle(String, IMessage, Map)} no
+   * {@link AS2NoModuleException} is thrown if no module is able to handle the
+   * action. Use this for optional actions, like validation or storage.
+   *
+   * @param sAction
+   *        Action to execute. May not be <code>null</code>.
+   * @param aMsg
+   *        Message it is about. May not be <code>null</code>.
+   * @param aOptions
+   *        Optional options map to be used. May be <code>null</code>.
+   * @return {@link EHandled#HANDLED} if the action was handled (or queued for
+   *         handling), {@link EHandled#UNHANDLED} if no module is able to
+   *         handle it.
+   * @throws AS2Exception
+   *         In case of error
+   * @since 4.11.1
+   */
+  @Nonnull
+  default EHandled handleIfPossible (@Nonnull final String sAction,
+                                     @Nonnull final IMessage aMsg,
+                                     @Nullable final Map <String, Object> aOptions) throws AS2Exception
+  {
+    try
+    {
+      handle (sAction, aMsg, aOptions);
+      return EHandled.HANDLED;
+    }
+    catch (final AS2NoModuleException ex)
+    {
+      return EHandled.UNHANDLED;
+    }
+  }
+
   void addModule (@Nonnull IProcessorModule aModule);
 
   @Nonnull
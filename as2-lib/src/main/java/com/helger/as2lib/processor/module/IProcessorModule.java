@@ -33,6 +33,7 @@
 package com.helger.as2lib.processor.module;
 
 import java.util.Map;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -41,6 +42,7 @@ import com.helger.as2lib.IDynamicComponent;
 import com.helger.as2lib.exception.AS2Exception;
 import com.helger.as2lib.message.IMessage;
 import com.helger.as2lib.processor.IMessageProcessor;
+import com.helger.commons.collection.impl.ICommonsSet;
 
 /**
  * A processor module is a module that is to be used within an
@@ -52,5 +54,70 @@ public interface IProcessorModule extends IDynamicComponent
 {
   boolean canHandle (@Nonnull String sAction, @Nonnull IMessage aMsg, @Nullable Map <String, Object> aOptions);
 
+  /**
+   * Get all actions this module may handle. This is used by the message
+   * processor to only ask the relevant modules via
+   * {@link #canHandle(String, IMessage, Map)}. The result must not change
+   * after the module was added to a message processor.
+   *
+   * @return The set of all actions this module may handle. May be
+   *         <code>null</code> to indicate that any action may be handled, which
+   *         is the default for backwards compatibility.
+   * @since 4.11.1
+   */
+  @Nullable
+  default ICommonsSet <String> getAllSupportedActions ()
+  {
+    return null;
+  }
+
+  /**
+   * Check if this module may be executed concurrently with other modules on
+   * the same message (see
+   * {@link com.helger.as2lib.processor.AbstractMessageProcessor#ATTR_PARALLEL_ACTIONS}).
+   * Messages are not thread-safe, so this is only allowed for modules that
+   * don't modify the message in any way (attributes, headers, partnership,
+   * data or MDN) while being executed. Modifications can be deferred via
+   * {@link #handleParallel(String, IMessage, Map)}.
+   *
+   * @return <code>true</code> if this module only reads the message. The
+   *         default is <code>false</code> so that the module is executed
+   *         sequentially.
+   * @since 4.11.1
+   */
+  default boolean isParallelSafe ()
+  {
+    return false;
+  }
+
   void handle (@Nonnull String sAction, @Nonnull IMessage aMsg, @Nullable Map <String, Object> aOptions) throws AS2Exception;
+
+  /**
+   * Handle the action concurrently with other modules. This is only called for
+   * modules that are {@link #isParallelSafe()}. The message must only be read.
+   * Modifications of the message must be returned instead, and are applied in
+   * the calling thread after all concurrently executed modules finished.
+   *
+   * @param sAction
+   *        The action to handle. May not be <code>null</code>.
+   * @param aMsg
+   *        The message to handle. May not be <code>null</code>.
+   * @param aOptions
+   *        Optional options. May be <code>null</code>.
+   * @return The optional modification of the message. May be
+   *         <code>null</code>. The default implementation calls
+   *         {@link #handle(String, IMessage, Map)} and returns
+   *         <code>null</code>.
+   * @throws AS2Exception
+   *         In case of error
+   * @since 4.11.1
+   */
+  @Nullable
+  default Consumer <? super IMessage> handleParallel (@Nonnull final String sAction,
+                                                      @Nonnull final IMessage aMsg,
+                                                      @Nullable final Map <String, Object> aOptions) throws AS2Exception
+  {
+    handle (sAction, aMsg, aOptions);
+    return null;
+  }
 }
@@ -32,9 +32,22 @@
  */
 package com.helger.as2lib.processor.receiver;
 
+import javax.annotation.Nonnull;
+
 import com.helger.as2lib.processor.module.AbstractActiveModule;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsSet;
 
 public abstract class AbstractActiveReceiverModule extends AbstractActiveModule implements IProcessorReceiverModule
 {
-  /* empty */
+  /**
+   * {@inheritDoc}<br>
+   * Receiver modules don't handle any action by default.
+   */
+  @Override
+  @Nonnull
+  public ICommonsSet <String> getAllSupportedActions ()
+  {
+    return new CommonsHashSet <> ();
+  }
 }
@@ -52,6 +52,7 @@ import com.helger.as2lib.params.AS2InvalidParameterException;
 import com.helger.as2lib.params.CompositeParameters;
 import com.helger.as2lib.params.DateParameters;
 import com.helger.as2lib.params.MessageParameters;
+import com.helger.as2lib.processor.AS2QueueFullException;
 import com.helger.as2lib.processor.CFileAttribute;
 import com.helger.as2lib.processor.sender.IProcessorSenderModule;
 import com.helger.as2lib.session.IAS2Session;
@@ -276,6 +277,13 @@ public abstract class AbstractDirectoryPollingModule extends AbstractActivePolli
           LOGGER.info ("Deleted file '" + aFile.getAbsolutePath () + "'" + aMsg.getLoggingText ());
       }
     }
+    catch (final AS2QueueFullException ex)
+    {
+      // Leave the file where it is so that it is picked up again by a later
+      // poll
+      if (LOGGER.isWarnEnabled ())
+        LOGGER.warn ("Message processor is busy - '" + aFile.getAbsolutePath () + "' will be retried" + aMsg.getLoggingText ());
+    }
     catch (final AS2Exception ex)
     {
       ex.terminate (aFile, aMsg);
@@ -59,7 +59,6 @@ import com.helger.as2lib.exception.WrappedAS2Exception;
 import com.helger.as2lib.message.AS2Message;
 import com.helger.as2lib.message.AS2MessageMDN;
 import com.helger.as2lib.message.IMessageMDN;
-import com.helger.as2lib.processor.AS2NoModuleException;
 import com.helger.as2lib.processor.receiver.AS2MDNReceiverModule;
 import com.helger.as2lib.processor.receiver.AbstractActiveNetModule;
 import com.helger.as2lib.processor.storage.IProcessorStorageModule;
@@ -425,7 +424,12 @@ public class AS2MDNReceiverHandler extends AbstractReceiverHandler
         bUseCertificateInBodyPart = getModule ().getSession ().isCryptoVerifyUseCertificateInBodyPart ();
       }
 
-      AS2Helper.parseMDN (aMsg, aSenderCert, bUseCertificateInBodyPart, getVerificationCertificateConsumer (), aResHelper);
+      AS2Helper.parseMDN (aMsg,
+                          aSenderCert,
+                          bUseCertificateInBodyPart,
+                          getVerificationCertificateConsumer (),
+                          aCertFactory,
+                          aResHelper);
 
       // in order to name & save the mdn with the original AS2-From + AS2-To +
       // Message id.,
@@ -436,12 +440,12 @@ public class AS2MDNReceiverHandler extends AbstractReceiverHandler
       aMsg.setMessageID (aMDN.attrs ().getAsString (AS2MessageMDN.MDNA_ORIG_MESSAGEID));
       try
       {
-        getModule ().getSession ().getMessageProcessor ().handle (IProcessorStorageModule.DO_STOREMDN, aMsg, null);
+        // Storing the MDN is optional
+        getModule ().getSession ().getMessageProcessor ().handleIfPossible (IProcessorStorageModule.DO_STOREMDN, aMsg, null);
       }
-      catch (final AS2ComponentNotFoundException | AS2NoModuleException ex)
+      catch (final AS2ComponentNotFoundException ex)
       {
         // No message processor found
-        // Or no module found in message processor
       }
 
       // check if the mic (message integrity check) is correct
@@ -55,6 +55,7 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.as2lib.cert.ECertificatePartnershipType;
 import com.helger.as2lib.cert.ICertificateFactory;
+import com.helger.as2lib.crypto.CryptoOffloadExecutor;
 import com.helger.as2lib.crypto.ICryptoHelper;
 import com.helger.as2lib.disposition.AS2DispositionException;
 import com.helger.as2lib.disposition.DispositionType;
@@ -64,8 +65,8 @@ import com.helger.as2lib.message.AS2Message;
 import com.helger.as2lib.message.IMessage;
 import com.helger.as2lib.message.IMessageMDN;
 import com.helger.as2lib.params.MessageParameters;
-import com.helger.as2lib.processor.AS2NoModuleException;
 import com.helger.as2lib.processor.AS2ProcessorException;
+import com.helger.as2lib.processor.AS2QueueFullException;
 import com.helger.as2lib.processor.CNetAttribute;
 import com.helger.as2lib.processor.receiver.AS2ReceiverModule;
 import com.helger.as2lib.processor.receiver.AbstractActiveNetModule;
@@ -96,7 +97,6 @@ import com.helger.commons.string.StringHelper;
 import com.helger.commons.timing.StopWatch;
 import com.helger.commons.wrapper.Wrapper;
 import com.helger.mail.datasource.ByteArrayDataSource;
-import com.helger.security.certificate.CertificateHelper;
 
 /**
  * The main handler for receiving AS2 messages.
@@ -215,9 +215,9 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
 
     try
     {
-      final boolean bDisableDecrypt = aMsg.partnership ().isDisableDecrypt ();
+      final boolean bDisableDecrypt = aMsg.partnership ().getSettings ().isDisableDecrypt ();
       final boolean bMsgIsEncrypted = aCryptoHelper.isEncrypted (aMsg.getData ());
-      final boolean bForceDecrypt = aMsg.partnership ().isForceDecrypt ();
+      final boolean bForceDecrypt = aMsg.partnership ().getSettings ().isForceDecrypt ();
       if (bMsgIsEncrypted && bDisableDecrypt)
       {
         if (LOGGER.isInfoEnabled ())
@@ -238,11 +238,11 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
 
           final X509Certificate aReceiverCert = aCertFactory.getCertificate (aMsg, ECertificatePartnershipType.RECEIVER);
           final PrivateKey aReceiverKey = aCertFactory.getPrivateKey (aReceiverCert);
-          final MimeBodyPart aDecryptedData = aCryptoHelper.decrypt (aMsg.getData (),
-                                                                     aReceiverCert,
-                                                                     aReceiverKey,
-                                                                     bForceDecrypt,
-                                                                     aResHelper);
+          final MimeBodyPart aDecryptedData = CryptoOffloadExecutor.execute ( () -> aCryptoHelper.decrypt (aMsg.getData (),
+                                                                                                          aReceiverCert,
+                                                                                                          aReceiverKey,
+                                                                                                          bForceDecrypt,
+                                                                                                          aResHelper));
           aMsg.setData (aDecryptedData);
           // Remember that message was encrypted
           aMsg.attrs ().putIn (AS2Message.ATTRIBUTE_RECEIVED_ENCRYPTED, true);
@@ -274,9 +274,9 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
 
     try
     {
-      final boolean bDisableVerify = aMsg.partnership ().isDisableVerify ();
+      final boolean bDisableVerify = aMsg.partnership ().getSettings ().isDisableVerify ();
       final boolean bMsgIsSigned = aCryptoHelper.isSigned (aMsg.getData ());
-      final boolean bForceVerify = aMsg.partnership ().isForceVerify ();
+      final boolean bForceVerify = aMsg.partnership ().getSettings ().isForceVerify ();
       if (bMsgIsSigned && bDisableVerify)
       {
         if (LOGGER.isInfoEnabled ())
@@ -295,8 +295,8 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
               LOGGER.debug ("Verifying signature" + aMsg.getLoggingText ());
 
           final X509Certificate aSenderCert = aCertFactory.getCertificateOrNull (aMsg, ECertificatePartnershipType.SENDER);
-          boolean bUseCertificateInBodyPart;
-          final ETriState eUseCertificateInBodyPart = aMsg.partnership ().getVerifyUseCertificateInBodyPart ();
+          final boolean bUseCertificateInBodyPart;
+          final ETriState eUseCertificateInBodyPart = aMsg.partnership ().getSettings ().getVerifyUseCertificateInBodyPart ();
           if (eUseCertificateInBodyPart.isDefined ())
           {
             // Use per partnership
@@ -309,12 +309,14 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
           }
 
           final Wrapper <X509Certificate> aCertHolder = new Wrapper <> ();
-          final MimeBodyPart aVerifiedData = aCryptoHelper.verify (aMsg.getData (),
-                                                                   aSenderCert,
-                                                                   bUseCertificateInBodyPart,
-                                                                   bForceVerify,
-                                                                   aCertHolder::set,
-                                                                   aResHelper);
+          final MimeBodyPart aVerifiedData = CryptoOffloadExecutor.execute ( () -> aCryptoHelper.verify (aMsg.getData (),
+                                                                                                        aSenderCert,
+                                                                                                        bUseCertificateInBodyPart,
+                                                                                                        bForceVerify,
+                                                                                                        aCertHolder::set,
+                                                                                                        aResHelper));
+          // The certificate may be taken from the body part
+          aCertFactory.checkRevocation (aCertHolder.get ());
           final Consumer <X509Certificate> aExternalConsumer = getVerificationCertificateConsumer ();
           if (aExternalConsumer != null)
             aExternalConsumer.accept (aCertHolder.get ());
@@ -325,7 +327,8 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
           // Remember the PEM encoded version of the X509 certificate that was
           // used for verification
           aMsg.attrs ()
-              .putIn (AS2Message.ATTRIBUTE_RECEIVED_SIGNATURE_CERTIFICATE, CertificateHelper.getPEMEncodedCertificate (aCertHolder.get ()));
+              .putIn (AS2Message.ATTRIBUTE_RECEIVED_SIGNATURE_CERTIFICATE,
+                     AS2Helper.getCertificateCheckCache ().getPEMEncodedCertificate (aCertHolder.get ()));
 
           if (LOGGER.isInfoEnabled ())
             LOGGER.info ("Successfully verified signature of incoming AS2 message" + aMsg.getLoggingText ());
@@ -346,7 +349,7 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
   {
     try
     {
-      if (aMsg.partnership ().isDisableDecompress ())
+      if (aMsg.partnership ().getSettings ().isDisableDecompress ())
       {
         if (LOGGER.isInfoEnabled ())
           LOGGER.info ("Message claims to be compressed but decompression is disabled" + aMsg.getLoggingText ());
@@ -406,7 +409,7 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
                           @Nonnull final String sText,
                           @Nonnull final ESuccess eSuccess)
   {
-    final boolean bAllowErrorMDN = !aMsg.partnership ().isBlockErrorMDN ();
+    final boolean bAllowErrorMDN = !aMsg.partnership ().getSettings ().isBlockErrorMDN ();
     if (eSuccess.isSuccess () || bAllowErrorMDN)
     {
       try
@@ -453,12 +456,12 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
           // Save sent MDN for later examination
           try
           {
-            aSession.getMessageProcessor ().handle (IProcessorStorageModule.DO_STOREMDN, aMsg, null);
+            // Storing the MDN is optional
+            aSession.getMessageProcessor ().handleIfPossible (IProcessorStorageModule.DO_STOREMDN, aMsg, null);
           }
-          catch (final AS2ComponentNotFoundException | AS2NoModuleException ex)
+          catch (final AS2ComponentNotFoundException ex)
           {
             // No message processor found
-            // or No module found in message processor
           }
           if (LOGGER.isInfoEnabled ())
             LOGGER.info ("sent MDN [" + aDisposition.getAsString () + "] " + sClientInfo + aMsg.getLoggingText ());
@@ -625,11 +628,8 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
         // Validate the received message before storing
         try
         {
-          aSession.getMessageProcessor ().handle (IProcessorStorageModule.DO_VALIDATE_BEFORE_STORE, aMsg, null);
-        }
-        catch (final AS2NoModuleException ex)
-        {
-          // No module installed - ignore
+          // Ignored if no module is installed
+          aSession.getMessageProcessor ().handleIfPossible (IProcessorStorageModule.DO_VALIDATE_BEFORE_STORE, aMsg, null);
         }
         catch (final AS2Exception ex)
         {
@@ -644,11 +644,22 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
         // Store the received message
         try
         {
-          aSession.getMessageProcessor ().handle (IProcessorStorageModule.DO_STORE, aMsg, null);
+          // Ignored if no module is installed
+          aSession.getMessageProcessor ().handleIfPossible (IProcessorStorageModule.DO_STORE, aMsg, null);
         }
-        catch (final AS2NoModuleException ex)
+        catch (final AS2QueueFullException ex)
         {
-          // No module installed - ignore
+          // Temporary condition - let the sender retry instead of sending a
+          // negative MDN
+          try
+          {
+            HTTPHelper.sendSimpleHTTPResponse (aResponseHandler, CHttp.HTTP_SERVICE_UNAVAILABLE);
+          }
+          catch (final IOException ex2)
+          {
+            ex.addSuppressed (ex2);
+          }
+          throw ex;
         }
         catch (final AS2Exception ex)
         {
@@ -663,11 +674,8 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
         // Validate the received message after storing
         try
         {
-          aSession.getMessageProcessor ().handle (IProcessorStorageModule.DO_VALIDATE_AFTER_STORE, aMsg, null);
-        }
-        catch (final AS2NoModuleException ex)
-        {
-          // No module installed - ignore
+          // Ignored if no module is installed
+          aSession.getMessageProcessor ().handleIfPossible (IProcessorStorageModule.DO_VALIDATE_AFTER_STORE, aMsg, null);
         }
         catch (final AS2Exception ex)
         {
@@ -34,17 +34,25 @@ package com.helger.as2lib.processor.resender;
 
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.helger.as2lib.exception.AS2Exception;
+import com.helger.as2lib.message.IMessage;
 import com.helger.as2lib.params.AS2InvalidParameterException;
 import com.helger.as2lib.processor.module.AbstractActiveModule;
 import com.helger.as2lib.session.IAS2Session;
 import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.OverrideOnDemand;
 import com.helger.commons.collection.attr.IStringMap;
 
 /**
@@ -62,10 +70,58 @@ public abstract class AbstractActiveResenderModule extends AbstractActiveModule
 
   /** The default resend delay in milliseconds (15 minutes) */
   public static final long DEFAULT_RESEND_DELAY_MS = 15 * CGlobal.MILLISECONDS_PER_MINUTE;
+  /**
+   * The factor by which the resend delay grows with each attempt. A value of 1
+   * means a fixed delay.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_RESEND_BACKOFF_MULTIPLIER = "resendbackoffmultiplier";
+  /** By default the resend delay is fixed */
+  public static final double DEFAULT_RESEND_BACKOFF_MULTIPLIER = 1;
+  /**
+   * The maximum resend delay in seconds when using a backoff multiplier.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_RESEND_MAX_DELAY_SECONDS = "resendmaxdelay";
+  /** The default maximum resend delay in milliseconds (24 hours) */
+  public static final long DEFAULT_RESEND_MAX_DELAY_MS = 24 * CGlobal.MILLISECONDS_PER_HOUR;
+  /**
+   * If <code>true</code> the effective resend delay is chosen randomly between
+   * 0 and the calculated delay ("full jitter"), so that messages failed at the
+   * same time are not resent in lockstep.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_RESEND_JITTER = "resendjitter";
+  public static final boolean DEFAULT_RESEND_JITTER = false;
 
   /** The timer default polling interval of 30 seconds. */
   public static final long DEFAULT_POLLING_MS = 30 * CGlobal.MILLISECONDS_PER_SECOND;
 
+  /**
+   * The number of threads used to resend due items. With more than one thread
+   * the items are resent in parallel.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_RESEND_THREADS = "resendthreads";
+  /** By default due items are resent sequentially */
+  public static final int DEFAULT_RESEND_THREADS = 1;
+  /**
+   * The maximum number of concurrent resends to the same destination (see
+   * {@link #getResendDestination(IMessage)}). Only relevant if more than one
+   * resend thread is used.
+   *
+   * @since 4.11.1
+   */
+  public static final String ATTR_MAX_RESENDS_PER_DESTINATION = "maxresendsperdestination";
+  /** By default the resends per destination are only limited by the threads */
+  public static final int DEFAULT_MAX_RESENDS_PER_DESTINATION = -1;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AbstractActiveResenderModule.class);
+
   private class ResendPollTask extends TimerTask
   {
     @Override
@@ -77,6 +133,8 @@ public abstract class AbstractActiveResenderModule extends AbstractActiveModule
   }
 
   private Timer m_aTimer;
+  // Only present if more than one resend thread is configured
+  private volatile ResendWorkerPool m_aWorkerPool;
 
   /** The timer polling interval in milliseconds. Defaults to 30 seconds. */
   private long m_nPollingMS = DEFAULT_POLLING_MS;
@@ -108,8 +166,165 @@ public abstract class AbstractActiveResenderModule extends AbstractActiveModule
     return getAttributeAsIntRequired (ATTR_RESEND_DELAY_SECONDS) * CGlobal.MILLISECONDS_PER_SECOND;
   }
 
+  /**
+   * Calculate the exponential backoff delay without jitter.
+   *
+   * @param nBaseDelayMS
+   *        The delay of the first attempt in milliseconds. Must be &ge; 0.
+   * @param dMultiplier
+   *        The factor by which the delay grows with each attempt. Values &le; 1
+   *        mean a fixed delay.
+   * @param nMaxDelayMS
+   *        The maximum delay in milliseconds. Values &le; 0 mean unlimited.
+   *        The base delay is never reduced by this value.
+   * @param nAttempt
+   *        The 1-based number of the resend attempt.
+   * @return The delay in milliseconds. Always &ge; 0.
+   * @since 4.11.1
+   */
+  @Nonnegative
+  public static long getBackoffDelayMS (@Nonnegative final long nBaseDelayMS,
+                                        final double dMultiplier,
+                                        final long nMaxDelayMS,
+                                        final int nAttempt)
+  {
+    ValueEnforcer.isGE0 (nBaseDelayMS, "BaseDelayMS");
+    double dDelay = nBaseDelayMS;
+    if (dMultiplier > 1 && nAttempt > 1)
+      dDelay *= Math.pow (dMultiplier, nAttempt - 1d);
+    // The base delay is never reduced
+    final long nRealMaxDelayMS = Math.max (nMaxDelayMS, nBaseDelayMS);
+    if (nMaxDelayMS > 0 && dDelay > nRealMaxDelayMS)
+      return nRealMaxDelayMS;
+    // Also handles infinity
+    return dDelay >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) dDelay;
+  }
+
+  /**
+   * Get the delay until the next resend of the provided message, considering
+   * the backoff multiplier, the maximum delay and jitter. The attempt count is
+   * stored in the message attribute
+   * {@link IProcessorResenderModule#MA_RESEND_ATTEMPT} and incremented by this
+   * method.
+   *
+   * @param aMsg
+   *        The message to be resent. May not be <code>null</code>.
+   * @return The delay in milliseconds. Always &ge; 0.
+   * @throws AS2InvalidParameterException
+   *         If an invalid value is configured.
+   * @since 4.11.1
+   */
+  @Nonnegative
+  protected final long getResendDelayMS (@Nonnull final IMessage aMsg) throws AS2InvalidParameterException
+  {
+    final int nAttempt = Math.max (0, aMsg.attrs ().getAsInt (MA_RESEND_ATTEMPT, 0)) + 1;
+    aMsg.attrs ().putIn (MA_RESEND_ATTEMPT, nAttempt);
+
+    final double dMultiplier = attrs ().getAsDouble (ATTR_RESEND_BACKOFF_MULTIPLIER, DEFAULT_RESEND_BACKOFF_MULTIPLIER);
+    final long nMaxDelayMS = attrs ().containsKey (ATTR_RESEND_MAX_DELAY_SECONDS) ? attrs ().getAsLong (ATTR_RESEND_MAX_DELAY_SECONDS) *
+                                                                                   CGlobal.MILLISECONDS_PER_SECOND
+                                                                                 : DEFAULT_RESEND_MAX_DELAY_MS;
+    final long nDelayMS = getBackoffDelayMS (getResendDelayMS (), dMultiplier, nMaxDelayMS, nAttempt);
+    if (nDelayMS > 0 && attrs ().getAsBoolean (ATTR_RESEND_JITTER, DEFAULT_RESEND_JITTER))
+      return ThreadLocalRandom.current ().nextLong (Math.min (nDelayMS, Long.MAX_VALUE - 1) + 1);
+    return nDelayMS;
+  }
+
   public abstract void resend ();
 
+  /**
+   * @return The number of threads used to resend due items. Always &gt; 0.
+   * @since 4.11.1
+   */
+  @Nonnegative
+  public int getResendThreads ()
+  {
+    return Math.max (1, attrs ().getAsInt (ATTR_RESEND_THREADS, DEFAULT_RESEND_THREADS));
+  }
+
+  /**
+   * @return The maximum number of concurrent resends to the same destination.
+   *         A value &le; 0 means unlimited.
+   * @since 4.11.1
+   */
+  public int getMaxResendsPerDestination ()
+  {
+    return attrs ().getAsInt (ATTR_MAX_RESENDS_PER_DESTINATION, DEFAULT_MAX_RESENDS_PER_DESTINATION);
+  }
+
+  /**
+   * Get the destination of a message to be resent. All messages with the same
+   * destination are subject to {@link #ATTR_MAX_RESENDS_PER_DESTINATION}. By
+   * default this is the AS2 URL of the partnership, falling back to the
+   * receiver AS2 ID.
+   *
+   * @param aMsg
+   *        The message to be resent. May not be <code>null</code>.
+   * @return The destination key. May be <code>null</code> if unknown.
+   * @since 4.11.1
+   */
+  @Nullable
+  @OverrideOnDemand
+  protected String getResendDestination (@Nonnull final IMessage aMsg)
+  {
+    final String ret = aMsg.partnership ().getAS2URL ();
+    return ret != null ? ret : aMsg.partnership ().getReceiverAS2ID ();
+  }
+
+  /**
+   * Execute a resend. If only one resend thread is configured, the resend is
+   * executed directly in the calling thread. Otherwise it is executed in the
+   * resend worker pool, considering the maximum number of concurrent resends
+   * per destination.
+   *
+   * @param aDestinationSupplier
+   *        The supplier for the destination. Only invoked if the worker pool
+   *        is used. May not be <code>null</code>.
+   * @param aResend
+   *        The resend to be executed. Must take care of error handling itself.
+   *        May not be <code>null</code>.
+   * @return <code>true</code> if the resend was executed or submitted,
+   *         <code>false</code> if the module was stopped concurrently and the
+   *         resend is not executed. In the latter case the caller must keep
+   *         the item for later.
+   * @since 4.11.1
+   */
+  protected final boolean executeResend (@Nonnull final Supplier <String> aDestinationSupplier, @Nonnull final Runnable aResend)
+  {
+    final ResendWorkerPool aWorkerPool = m_aWorkerPool;
+    if (aWorkerPool == null)
+    {
+      aResend.run ();
+      return true;
+    }
+    return aWorkerPool.submit (aDestinationSupplier.get (), aResend);
+  }
+
+  /**
+   * @return The number of resends that are waiting for a resend worker thread.
+   *         Always 0 if only one resend thread is configured.
+   * @since 4.11.1
+   */
+  @Nonnegative
+  public int getPendingResendCount ()
+  {
+    final ResendWorkerPool aWorkerPool = m_aWorkerPool;
+    return aWorkerPool == null ? 0 : aWorkerPool.getPendingCount ();
+  }
+
+  /**
+   * @return <code>true</code> if {@link #resend()} should be called
+   *         periodically by a timer using the configured polling interval,
+   *         <code>false</code> if the implementation takes care of timely
+   *         resending itself. The default is <code>true</code>.
+   * @since 4.11.1
+   */
+  @OverrideOnDemand
+  protected boolean isPollingRequired ()
+  {
+    return true;
+  }
+
   @Override
   @OverridingMethodsMustInvokeSuper
   public void doStart () throws AS2Exception
@@ -117,8 +332,15 @@ public abstract class AbstractActiveResenderModule extends AbstractActiveModule
     if (m_aTimer != null)
       throw new IllegalStateException ("Resending timer is already running!");
 
-    m_aTimer = new Timer ("Resender", true);
-    m_aTimer.scheduleAtFixedRate (new ResendPollTask (), 0, m_nPollingMS);
+    final int nResendThreads = getResendThreads ();
+    if (nResendThreads > 1)
+      m_aWorkerPool = new ResendWorkerPool (nResendThreads, getMaxResendsPerDestination ());
+
+    if (isPollingRequired ())
+    {
+      m_aTimer = new Timer ("Resender", true);
+      m_aTimer.scheduleAtFixedRate (new ResendPollTask (), 0, m_nPollingMS);
+    }
   }
 
   @Override
@@ -130,6 +352,15 @@ public abstract class AbstractActiveResenderModule extends AbstractActiveModule
       m_aTimer.cancel ();
       m_aTimer = null;
     }
+    final ResendWorkerPool aWorkerPool = m_aWorkerPool;
+    if (aWorkerPool != null)
+    {
+      // Running resends are finished, waiting ones are discarded
+      final int nDiscarded = aWorkerPool.shutdown ();
+      m_aWorkerPool = null;
+      if (nDiscarded > 0 && LOGGER.isWarnEnabled ())
+        LOGGER.warn ("Discarded " + nDiscarded + " waiting resends upon stopping");
+    }
   }
 
   @Override
@@ -0,0 +1,546 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor.resender;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+
+import com.helger.as2lib.message.AbstractMessage;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.message.IMessageMDN;
+import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.util.AS2IOHelper;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.attr.IStringMap;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringParser;
+
+/**
+ * A single resend item as persisted by the {@link DirectoryResenderModule}.
+ * Each item consists of a compact, versioned binary record file and an
+ * optional raw payload file containing the MIME body part.<br>
+ * The record file name starts with the due time in epoch milliseconds, so that
+ * the due time index can be rebuilt from a directory listing without reading
+ * the files.<br>
+ * Record layout (version 1):
+ * <ul>
+ * <li>int: magic number</li>
+ * <li>byte: version</li>
+ * <li>long: due time in epoch milliseconds</li>
+ * <li>string: resend action</li>
+ * <li>int: remaining retries</li>
+ * <li>byte: message format - either compact (class name, attributes, headers,
+ * partnership and optional serialized MDN) or the Java serialized
+ * message</li>
+ * <li>byte: 1 if a payload file is present, 0 otherwise</li>
+ * </ul>
+ *
+ * @author Philip Helger
+ * @since 4.11.1
+ */
+@Immutable
+final class DirectoryResendRecord
+{
+  /** "AS2R" */
+  static final int MAGIC = 0x41533252;
+  static final byte VERSION = 1;
+  static final String RECORD_EXTENSION = ".as2r";
+  static final String PAYLOAD_EXTENSION = ".payload";
+
+  private static final byte MESSAGE_COMPACT = 1;
+  private static final byte MESSAGE_SERIALIZED = 2;
+  private static final char DUE_SEPARATOR = '-';
+
+  private final long m_nDueMillis;
+  private final String m_sResendAction;
+  private final int m_nRetries;
+  private final IMessage m_aMsg;
+
+  private DirectoryResendRecord (final long nDueMillis,
+                                 @Nonnull @Nonempty final String sResendAction,
+                                 final int nRetries,
+                                 @Nonnull final IMessage aMsg)
+  {
+    m_nDueMillis = nDueMillis;
+    m_sResendAction = sResendAction;
+    m_nRetries = nRetries;
+    m_aMsg = aMsg;
+  }
+
+  /**
+   * @return The due time in epoch milliseconds.
+   */
+  public long getDueMillis ()
+  {
+    return m_nDueMillis;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getResendAction ()
+  {
+    return m_sResendAction;
+  }
+
+  /**
+   * @return The number of remaining retries as provided to
+   *         {@link #write(File, long, String, int, IMessage)}.
+   */
+  public int getRetries ()
+  {
+    return m_nRetries;
+  }
+
+  @Nonnull
+  public IMessage getMessage ()
+  {
+    return m_aMsg;
+  }
+
+  /**
+   * Create a new unique record filename for the provided due time.
+   *
+   * @param nDueMillis
+   *        Due time in epoch milliseconds.
+   * @return The filename, including {@link #RECORD_EXTENSION}.
+   */
+  @Nonnull
+  @Nonempty
+  static String createRecordFilename (@Nonnegative final long nDueMillis)
+  {
+    // Zero padded so that the natural filename order matches the due order
+    return String.format ("%013d", Long.valueOf (nDueMillis)) + DUE_SEPARATOR + UUID.randomUUID ().toString () + RECORD_EXTENSION;
+  }
+
+  static boolean isRecordFilename (@Nonnull final String sFilename)
+  {
+    return sFilename.endsWith (RECORD_EXTENSION);
+  }
+
+  /**
+   * Get the due time encoded in a record filename.
+   *
+   * @param sFilename
+   *        The record filename. May not be <code>null</code>.
+   * @return The due time in epoch milliseconds or -1 if the filename is not a
+   *         valid record filename.
+   */
+  static long getDueMillisFromFilename (@Nonnull final String sFilename)
+  {
+    final int nIndex = sFilename.indexOf (DUE_SEPARATOR);
+    if (nIndex <= 0 || !isRecordFilename (sFilename))
+      return -1;
+    return StringParser.parseLong (sFilename.substring (0, nIndex), -1);
+  }
+
+  @Nonnull
+  static File getPayloadFile (@Nonnull final File aRecordFile)
+  {
+    final String sName = aRecordFile.getName ();
+    final String sBaseName = isRecordFilename (sName) ? sName.substring (0, sName.length () - RECORD_EXTENSION.length ()) : sName;
+    return new File (aRecordFile.getParentFile (), sBaseName + PAYLOAD_EXTENSION);
+  }
+
+  /**
+   * Check if the provided file starts with the magic number of a record. This
+   * is used to distinguish records from files written by previous versions.
+   *
+   * @param aFile
+   *        The file to check. May not be <code>null</code>.
+   * @return <code>true</code> if it is a record file.
+   */
+  static boolean isRecordFile (@Nonnull final File aFile)
+  {
+    try (final DataInputStream aDIS = new DataInputStream (new FileInputStream (aFile)))
+    {
+      return aDIS.readInt () == MAGIC;
+    }
+    catch (final IOException ex)
+    {
+      return false;
+    }
+  }
+
+  private static void _writeString (@Nonnull final DataOutputStream aDOS, @Nullable final String s) throws IOException
+  {
+    if (s == null)
+      aDOS.writeInt (-1);
+    else
+    {
+      // writeUTF is limited to 64KB
+      final byte [] aBytes = s.getBytes (StandardCharsets.UTF_8);
+      aDOS.writeInt (aBytes.length);
+      aDOS.write (aBytes);
+    }
+  }
+
+  @Nullable
+  private static String _readString (@Nonnull final DataInputStream aDIS) throws IOException
+  {
+    final int nLength = aDIS.readInt ();
+    if (nLength < 0)
+      return null;
+    final byte [] aBytes = new byte [nLength];
+    aDIS.readFully (aBytes);
+    return new String (aBytes, StandardCharsets.UTF_8);
+  }
+
+  private static void _writeMap (@Nonnull final DataOutputStream aDOS, @Nonnull final IStringMap aMap) throws IOException
+  {
+    aDOS.writeInt (aMap.size ());
+    for (final String sKey : aMap.keySet ())
+    {
+      _writeString (aDOS, sKey);
+      _writeString (aDOS, aMap.getAsString (sKey));
+    }
+  }
+
+  private static void _readMap (@Nonnull final DataInputStream aDIS, @Nonnull final BiConsumer <String, String> aConsumer) throws IOException
+  {
+    final int nCount = aDIS.readInt ();
+    for (int i = 0; i < nCount; ++i)
+    {
+      final String sKey = _readString (aDIS);
+      final String sValue = _readString (aDIS);
+      if (sKey != null && sValue != null)
+        aConsumer.accept (sKey, sValue);
+    }
+  }
+
+  private static void _writeBytes (@Nonnull final DataOutputStream aDOS, @Nullable final byte [] aBytes) throws IOException
+  {
+    if (aBytes == null)
+      aDOS.writeInt (-1);
+    else
+    {
+      aDOS.writeInt (aBytes.length);
+      aDOS.write (aBytes);
+    }
+  }
+
+  @Nullable
+  private static byte [] _readBytes (@Nonnull final DataInputStream aDIS) throws IOException
+  {
+    final int nLength = aDIS.readInt ();
+    if (nLength < 0)
+      return null;
+    final byte [] ret = new byte [nLength];
+    aDIS.readFully (ret);
+    return ret;
+  }
+
+  @Nullable
+  private static byte [] _serialize (@Nullable final Object aObj) throws IOException
+  {
+    if (aObj == null)
+      return null;
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      try (final ObjectOutputStream aOOS = new ObjectOutputStream (aBAOS))
+      {
+        aOOS.writeObject (aObj);
+      }
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Nullable
+  private static Object _deserialize (@Nullable final byte [] aBytes) throws IOException, ClassNotFoundException
+  {
+    if (aBytes == null)
+      return null;
+    try (final ObjectInputStream aOIS = new ObjectInputStream (new NonBlockingByteArrayInputStream (aBytes)))
+    {
+      return aOIS.readObject ();
+    }
+  }
+
+  private static boolean _isCompactSupported (@Nonnull final IMessage aMsg)
+  {
+    if (!(aMsg instanceof AbstractMessage))
+      return false;
+    try
+    {
+      // Required for reading
+      aMsg.getClass ().getConstructor ();
+      return true;
+    }
+    catch (final NoSuchMethodException ex)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * Write a new record and the optional payload file.
+   *
+   * @param aRecordFile
+   *        The record file to write. Should be created by
+   *        {@link #createRecordFilename(long)}. May not be <code>null</code>.
+   * @param nDueMillis
+   *        The due time in epoch milliseconds.
+   * @param sResendAction
+   *        The resend action. May neither be <code>null</code> nor empty.
+   * @param nRetries
+   *        The number of remaining retries.
+   * @param aMsg
+   *        The message to persist. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of an error
+   */
+  static void write (@Nonnull final File aRecordFile,
+                     final long nDueMillis,
+                     @Nonnull @Nonempty final String sResendAction,
+                     final int nRetries,
+                     @Nonnull final IMessage aMsg) throws IOException
+  {
+    ValueEnforcer.notNull (aRecordFile, "RecordFile");
+    ValueEnforcer.notEmpty (sResendAction, "ResendAction");
+    ValueEnforcer.notNull (aMsg, "Msg");
+
+    final boolean bCompact = _isCompactSupported (aMsg);
+    final MimeBodyPart aData = bCompact ? aMsg.getData () : null;
+    if (aData != null)
+    {
+      // Write the payload first, so that a record never exists without it
+      AS2IOHelper.writeFileAtomic (getPayloadFile (aRecordFile), aOS -> {
+        try
+        {
+          aData.writeTo (aOS);
+        }
+        catch (final MessagingException ex)
+        {
+          throw new IOException ("Failed to write MIME payload", ex);
+        }
+      });
+    }
+
+    AS2IOHelper.writeFileAtomic (aRecordFile, aOS -> {
+      final DataOutputStream aDOS = new DataOutputStream (StreamHelper.getBuffered (aOS));
+      aDOS.writeInt (MAGIC);
+      aDOS.writeByte (VERSION);
+      aDOS.writeLong (nDueMillis);
+      _writeString (aDOS, sResendAction);
+      aDOS.writeInt (nRetries);
+      if (bCompact)
+      {
+        aDOS.writeByte (MESSAGE_COMPACT);
+        _writeString (aDOS, aMsg.getClass ().getName ());
+        _writeMap (aDOS, aMsg.attrs ());
+
+        final ICommonsList <String> aHeaders = new CommonsArrayList <> ();
+        aMsg.headers ().forEachSingleHeader ( (n, v) -> {
+          aHeaders.add (n);
+          aHeaders.add (v);
+        }, false);
+        aDOS.writeInt (aHeaders.size () / 2);
+        for (final String s : aHeaders)
+          _writeString (aDOS, s);
+
+        final Partnership aPartnership = aMsg.partnership ();
+        _writeString (aDOS, aPartnership.getName ());
+        _writeMap (aDOS, aPartnership.getAllSenderIDs ());
+        _writeMap (aDOS, aPartnership.getAllReceiverIDs ());
+        _writeMap (aDOS, aPartnership.getAllAttributes ());
+
+        _writeBytes (aDOS, _serialize (aMsg.getMDN ()));
+      }
+      else
+      {
+        aDOS.writeByte (MESSAGE_SERIALIZED);
+        _writeBytes (aDOS, _serialize (aMsg));
+      }
+      aDOS.writeByte (aData != null ? 1 : 0);
+      aDOS.flush ();
+    });
+  }
+
+  @Nonnull
+  private static IMessage _readCompactMessage (@Nonnull final DataInputStream aDIS) throws IOException, ClassNotFoundException
+  {
+    final String sClassName = _readString (aDIS);
+    final AbstractMessage aMsg;
+    try
+    {
+      aMsg = (AbstractMessage) Class.forName (sClassName).getConstructor ().newInstance ();
+    }
+    catch (final ReflectiveOperationException | ClassCastException ex)
+    {
+      throw new IOException ("Failed to create message of class '" + sClassName + "'", ex);
+    }
+
+    _readMap (aDIS, aMsg.attrs ()::putIn);
+    final int nHeaders = aDIS.readInt ();
+    for (int i = 0; i < nHeaders; ++i)
+    {
+      final String sName = _readString (aDIS);
+      final String sValue = _readString (aDIS);
+      aMsg.headers ().addHeader (sName, sValue);
+    }
+
+    final Partnership aPartnership = new Partnership (_readString (aDIS));
+    _readMap (aDIS, aPartnership::setSenderID);
+    _readMap (aDIS, aPartnership::setReceiverID);
+    _readMap (aDIS, aPartnership::setAttribute);
+    aMsg.setPartnership (aPartnership);
+
+    final IMessageMDN aMDN = (IMessageMDN) _deserialize (_readBytes (aDIS));
+    if (aMDN != null)
+    {
+      aMDN.setMessage (aMsg);
+      aMsg.setMDN (aMDN);
+    }
+    return aMsg;
+  }
+
+  /**
+   * Read a record and the optional payload file.
+   *
+   * @param aRecordFile
+   *        The record file to read. May not be <code>null</code>.
+   * @return The read record. Never <code>null</code>.
+   * @throws IOException
+   *         In case the file cannot be read or is not a valid record
+   * @throws ClassNotFoundException
+   *         In case a serialized class cannot be found
+   */
+  @Nonnull
+  static DirectoryResendRecord read (@Nonnull final File aRecordFile) throws IOException, ClassNotFoundException
+  {
+    return _read (aRecordFile, true);
+  }
+
+  /**
+   * Read a record without the payload file. This is e.g. sufficient to
+   * determine the partnership of the message.
+   *
+   * @param aRecordFile
+   *        The record file to read. May not be <code>null</code>.
+   * @return The read record without the message data. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         In case the file cannot be read or is not a valid record
+   * @throws ClassNotFoundException
+   *         In case a serialized class cannot be found
+   */
+  @Nonnull
+  static DirectoryResendRecord readWithoutPayload (@Nonnull final File aRecordFile) throws IOException, ClassNotFoundException
+  {
+    return _read (aRecordFile, false);
+  }
+
+  @Nonnull
+  private static DirectoryResendRecord _read (@Nonnull final File aRecordFile, final boolean bLoadPayload) throws IOException,
+                                                                                                             ClassNotFoundException
+  {
+    ValueEnforcer.notNull (aRecordFile, "RecordFile");
+
+    final long nDueMillis;
+    final String sResendAction;
+    final int nRetries;
+    final IMessage aMsg;
+    final boolean bHasPayload;
+    try (final DataInputStream aDIS = new DataInputStream (StreamHelper.getBuffered (new FileInputStream (aRecordFile))))
+    {
+      if (aDIS.readInt () != MAGIC)
+        throw new IOException ("Not a resend record: " + aRecordFile.getAbsolutePath ());
+      final byte nVersion = aDIS.readByte ();
+      if (nVersion != VERSION)
+        throw new IOException ("Unsupported resend record version " + nVersion + ": " + aRecordFile.getAbsolutePath ());
+      nDueMillis = aDIS.readLong ();
+      sResendAction = _readString (aDIS);
+      nRetries = aDIS.readInt ();
+      final byte nFormat = aDIS.readByte ();
+      switch (nFormat)
+      {
+        case MESSAGE_COMPACT:
+          aMsg = _readCompactMessage (aDIS);
+          break;
+        case MESSAGE_SERIALIZED:
+          aMsg = (IMessage) _deserialize (_readBytes (aDIS));
+          break;
+        default:
+          throw new IOException ("Unsupported message format " + nFormat + ": " + aRecordFile.getAbsolutePath ());
+      }
+      bHasPayload = aDIS.readByte () == 1;
+    }
+
+    if (sResendAction == null || aMsg == null)
+      throw new IOException ("Incomplete resend record: " + aRecordFile.getAbsolutePath ());
+
+    if (bHasPayload && bLoadPayload)
+    {
+      // Keep the headers as they were, as setData modifies them
+      final ICommonsList <String> aHeaders = new CommonsArrayList <> ();
+      aMsg.headers ().forEachSingleHeader ( (n, v) -> {
+        aHeaders.add (n);
+        aHeaders.add (v);
+      }, false);
+
+      try (final InputStream aIS = StreamHelper.getBuffered (new FileInputStream (getPayloadFile (aRecordFile))))
+      {
+        aMsg.setData (new MimeBodyPart (aIS));
+      }
+      catch (final MessagingException ex)
+      {
+        throw new IOException ("Failed to read MIME payload", ex);
+      }
+
+      aMsg.headers ().removeAll ();
+      for (int i = 0; i < aHeaders.size (); i += 2)
+        aMsg.headers ().addHeader (aHeaders.get (i), aHeaders.get (i + 1));
+    }
+    return new DirectoryResendRecord (nDueMillis, sResendAction, nRetries, aMsg);
+  }
+}
@@ -34,17 +34,18 @@ package com.helger.as2lib.processor.resender;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.StringTokenizer;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,8 +64,12 @@ import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.attr.IStringMap;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.datetime.PDTConfig;
 import com.helger.commons.datetime.PDTFactory;
 import com.helger.commons.string.StringHelper;
 
@@ -73,7 +78,14 @@ import com.helger.commons.string.StringHelper;
  * {@link #handle(String, IMessage, Map)} it writes the document into a file and
  * there is a background poller task that checks for resending (see
  * {@link #resend()}). If re-sending fails, the document is moved into an error
- * folder.
+ * folder.<br>
+ * Since v4.11.1 each document is stored as a compact, versioned binary record
+ * with the MIME payload in a separate raw file (see
+ * {@link DirectoryResendRecord}). The record filenames start with the due time,
+ * so an in-memory due time index is built from a single directory listing and
+ * each poll only reads the documents that are due. Therefore the resend
+ * directory must not be shared with other resender instances. Files written by
+ * previous versions are still resent.
  *
  * @author OpenAS2
  * @author Philip Helger
@@ -95,6 +107,34 @@ public class DirectoryResenderModule extends AbstractActiveResenderModule
 
   private static final Logger LOGGER = LoggerFactory.getLogger (DirectoryResenderModule.class);
 
+  /**
+   * A single entry of the due time index.
+   */
+  private static final class IndexEntry implements Comparable <IndexEntry>
+  {
+    private final long m_nDueMillis;
+    private final File m_aFile;
+
+    IndexEntry (final long nDueMillis, @Nonnull final File aFile)
+    {
+      m_nDueMillis = nDueMillis;
+      m_aFile = aFile;
+    }
+
+    public int compareTo (@Nonnull final IndexEntry aOther)
+    {
+      return Long.compare (m_nDueMillis, aOther.m_nDueMillis);
+    }
+  }
+
+  private final SimpleLock m_aIndexLock = new SimpleLock ();
+  // Built on demand from the directory content
+  @GuardedBy ("m_aIndexLock")
+  private PriorityQueue <IndexEntry> m_aIndex;
+  // The names of all files in the index, to avoid duplicate entries
+  @GuardedBy ("m_aIndexLock")
+  private final ICommonsSet <String> m_aIndexedNames = new CommonsHashSet <> ();
+
   @Override
   public void initDynamicComponent (@Nonnull final IAS2Session aSession, @Nullable final IStringMap aOptions) throws AS2Exception
   {
@@ -109,6 +149,13 @@ public class DirectoryResenderModule extends AbstractActiveResenderModule
     return sAction.equals (IProcessorResenderModule.DO_RESEND);
   }
 
+  @Override
+  @Nonnull
+  public ICommonsSet <String> getAllSupportedActions ()
+  {
+    return new CommonsHashSet <> (IProcessorResenderModule.DO_RESEND);
+  }
+
   /**
    * Build the filename for re-sending. The filename consists of the date and
    * time when the document is to be re-send.
@@ -116,8 +163,11 @@ public class DirectoryResenderModule extends AbstractActiveResenderModule
    * @return The filename and never <code>null</code>.
    * @throws AS2InvalidParameterException
    *         Only theoretically
+   * @deprecated Since v4.11.1 the records are named by their due time in
+   *             epoch milliseconds. This method is no longer used.
    */
   @Nonnull
+  @Deprecated
   protected String getFilename () throws AS2InvalidParameterException
   {
     final long nResendDelayMS = getResendDelayMS ();
@@ -129,31 +179,34 @@ public class DirectoryResenderModule extends AbstractActiveResenderModule
                       @Nonnull final IMessage aMsg,
                       @Nullable final Map <String, Object> aOptions) throws AS2Exception
   {
+    String sResendAction = aOptions == null ? null : (String) aOptions.get (IProcessorResenderModule.OPTION_RESEND_ACTION);
+    if (sResendAction == null)
+    {
+      LOGGER.warn ("The resending method is missing - default to message sending!");
+      sResendAction = IProcessorSenderModule.DO_SEND;
+    }
+
+    final String sRetries = aOptions == null ? null : (String) aOptions.get (IProcessorResenderModule.OPTION_RETRIES);
+    int nRetries;
+    if (sRetries != null)
+      nRetries = Integer.parseInt (sRetries);
+    else
+    {
+      nRetries = IProcessorResenderModule.DEFAULT_RETRIES;
+      if (LOGGER.isWarnEnabled ())
+        LOGGER.warn ("The resending retry count is missing - default to " + nRetries + "!");
+    }
+
     try
     {
       final File aResendDir = AS2IOHelper.getDirectoryFile (getAttributeAsStringRequired (ATTR_RESEND_DIRECTORY));
-      final File aResendFile = AS2IOHelper.getUniqueFile (aResendDir, getFilename ());
-      try (final FileOutputStream aFOS = new FileOutputStream (aResendFile); final ObjectOutputStream aOOS = new ObjectOutputStream (aFOS))
-      {
-        String sResendAction = aOptions == null ? null : (String) aOptions.get (IProcessorResenderModule.OPTION_RESEND_ACTION);
-        if (sResendAction == null)
-        {
-          LOGGER.warn ("The resending method is missing - default to message sending!");
-          sResendAction = IProcessorSenderModule.DO_SEND;
-        }
+      final long nDueMillis = System.currentTimeMillis () + getResendDelayMS (aMsg);
+      final File aResendFile = new File (aResendDir, DirectoryResendRecord.createRecordFilename (nDueMillis));
+      DirectoryResendRecord.write (aResendFile, nDueMillis, sResendAction, nRetries, aMsg);
 
-        String sRetries = aOptions == null ? null : (String) aOptions.get (IProcessorResenderModule.OPTION_RETRIES);
-        if (sRetries == null)
-        {
-          if (LOGGER.isWarnEnabled ())
-            LOGGER.warn ("The resending retry count is missing - default to " + IProcessorResenderModule.DEFAULT_RETRIES + "!");
-          sRetries = Integer.toString (IProcessorResenderModule.DEFAULT_RETRIES);
-        }
-
-        aOOS.writeObject (sResendAction);
-        aOOS.writeObject (sRetries);
-        aOOS.writeObject (aMsg);
-      }
+      // Only add it, if the index was already built - otherwise it is found
+      // upon building
+      m_aIndexLock.locked ( () -> _addToIndex (nDueMillis, aResendFile));
 
       LOGGER.info ("Message put in resend queue" + aMsg.getLoggingText ());
     }
@@ -165,6 +218,10 @@ public class DirectoryResenderModule extends AbstractActiveResenderModule
 
   protected boolean isTimeToSend (@Nonnull final File aCurrentFile)
   {
+    final String sName = aCurrentFile.getName ();
+    if (DirectoryResendRecord.isRecordFilename (sName))
+      return DirectoryResendRecord.getDueMillisFromFilename (sName) <= System.currentTimeMillis ();
+
     try
     {
       final StringTokenizer aFileTokens = new StringTokenizer (aCurrentFile.getName (), ".", false);
@@ -177,12 +234,100 @@ public class DirectoryResenderModule extends AbstractActiveResenderModule
     }
   }
 
+  /**
+   * Get the due time of a file written by a version prior to 4.11.1, where the
+   * filename contains the due date.
+   *
+   * @param aFile
+   *        The file to check. May not be <code>null</code>.
+   * @return The due time in epoch milliseconds. 0 if the filename cannot be
+   *         parsed, so that it is resent immediately.
+   */
+  private static long _getLegacyDueMillis (@Nonnull final File aFile)
+  {
+    try
+    {
+      final StringTokenizer aFileTokens = new StringTokenizer (aFile.getName (), ".", false);
+      final LocalDateTime aTimestamp = AS2DateHelper.parseDate (FILENAME_DATE_FORMAT, aFileTokens.nextToken ());
+      return aTimestamp.atZone (PDTConfig.getDefaultZoneId ()).toInstant ().toEpochMilli ();
+    }
+    catch (final Exception ex)
+    {
+      return 0;
+    }
+  }
+
   protected void resendFile (@Nonnull final File aFile) throws AS2Exception
   {
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Processing " + aFile.getAbsolutePath ());
 
+    if (DirectoryResendRecord.isRecordFile (aFile))
+      _resendRecordFile (aFile);
+    else
+      _resendLegacyFile (aFile);
+  }
+
+  private void _handleResendError (@Nonnull final File aFile, @Nullable final IMessage aMsg, @Nonnull final AS2Exception ex) throws AS2Exception
+  {
+    ex.terminate (aFile, aMsg);
+
     final CompositeParameters aParams = new CompositeParameters (false).add ("date", new DateParameters ());
+    final String sErrorDirectory = aParams.format (getAttributeAsStringRequired (ATTR_ERROR_DIRECTORY));
+    // Use the source name as the default
+    final String sErrorFilename = StringHelper.getNotEmpty (aParams.format (attrs ().getAsString (ATTR_STORED_ERROR_FILENAME)),
+                                                            aFile.getName ());
+    final File aPayloadFile = DirectoryResendRecord.getPayloadFile (aFile);
+    AS2IOHelper.handleError (aFile, sErrorDirectory, sErrorFilename);
+    if (aPayloadFile.exists ())
+      AS2IOHelper.handleError (aPayloadFile, sErrorDirectory, sErrorFilename + DirectoryResendRecord.PAYLOAD_EXTENSION);
+  }
+
+  private void _resendRecordFile (@Nonnull final File aFile) throws AS2Exception
+  {
+    IMessage aMsg = null;
+    try
+    {
+      try
+      {
+        final DirectoryResendRecord aRecord = DirectoryResendRecord.read (aFile);
+        aMsg = aRecord.getMessage ();
+
+        // Transmit the message
+        if (LOGGER.isInfoEnabled ())
+          LOGGER.info ("loaded message for resend." + aMsg.getLoggingText ());
+
+        // Decrement retries
+        final ICommonsMap <String, Object> aOptions = new CommonsHashMap <> ();
+        aOptions.put (IProcessorResenderModule.OPTION_RETRIES, Integer.toString (aRecord.getRetries () - 1));
+        getSession ().getMessageProcessor ().handle (aRecord.getResendAction (), aMsg, aOptions);
+
+        // Delete the record first, so that an orphaned payload is never resent
+        if (AS2IOHelper.getFileOperationManager ().deleteFile (aFile).isFailure ())
+        {
+          // Delete the file, sender will re-queue if the transmission fails
+          // again
+          throw new AS2Exception ("File was successfully sent but not deleted: " + aFile.getAbsolutePath ());
+        }
+        AS2IOHelper.getFileOperationManager ().deleteFileIfExisting (DirectoryResendRecord.getPayloadFile (aFile));
+
+        if (LOGGER.isInfoEnabled ())
+          LOGGER.info ("deleted " + aFile.getAbsolutePath () + aMsg.getLoggingText ());
+      }
+      catch (final IOException | ClassNotFoundException ex)
+      {
+        // caught 3 lines below
+        throw WrappedAS2Exception.wrap (ex);
+      }
+    }
+    catch (final AS2Exception ex)
+    {
+      _handleResendError (aFile, aMsg, ex);
+    }
+  }
+
+  private void _resendLegacyFile (@Nonnull final File aFile) throws AS2Exception
+  {
     IMessage aMsg = null;
     try
     {
@@ -226,24 +371,49 @@ public class DirectoryResenderModule extends AbstractActiveResenderModule
     }
     catch (final AS2Exception ex)
     {
-      ex.terminate (aFile, aMsg);
+      _handleResendError (aFile, aMsg, ex);
+    }
+  }
 
-      final String sErrorDirectory = aParams.format (getAttributeAsStringRequired (ATTR_ERROR_DIRECTORY));
-      // Use the source name as the default
-      final String sErrorFilename = StringHelper.getNotEmpty (aParams.format (attrs ().getAsString (ATTR_STORED_ERROR_FILENAME)),
-                                                              aFile.getName ());
-      AS2IOHelper.handleError (aFile, sErrorDirectory, sErrorFilename);
+  @Nullable
+  private String _getResendDestination (@Nonnull final File aFile)
+  {
+    if (!DirectoryResendRecord.isRecordFilename (aFile.getName ()))
+    {
+      // Reading a file of a previous version is too expensive
+      return null;
+    }
+    try
+    {
+      // The payload is loaded in the worker thread
+      return getResendDestination (DirectoryResendRecord.readWithoutPayload (aFile).getMessage ());
+    }
+    catch (final IOException | ClassNotFoundException ex)
+    {
+      // Fails again upon resending
+      return null;
     }
   }
 
   /**
-   * @return A list with all files that are ready to be resend.
-   * @throws AS2InvalidParameterException
-   *         In case the directory listing fails
+   * Add a file to the due time index, if the index was already built and the
+   * file is not yet contained.
+   *
+   * @param nDueMillis
+   *        The due time in epoch milliseconds.
+   * @param aFile
+   *        The file to add. May not be <code>null</code>.
    */
-  @Nonnull
-  @ReturnsMutableCopy
-  protected ICommonsList <File> scanDirectory () throws AS2InvalidParameterException
+  @GuardedBy ("m_aIndexLock")
+  private void _addToIndex (final long nDueMillis, @Nonnull final File aFile)
+  {
+    // A file written during the initial build may already be contained
+    if (m_aIndex != null && m_aIndexedNames.add (aFile.getName ()))
+      m_aIndex.add (new IndexEntry (nDueMillis, aFile));
+  }
+
+  @GuardedBy ("m_aIndexLock")
+  private void _buildIndex () throws AS2InvalidParameterException
   {
     final File aResendDir = AS2IOHelper.getDirectoryFile (getAttributeAsStringRequired (ATTR_RESEND_DIRECTORY));
 
@@ -256,14 +426,101 @@ public class DirectoryResenderModule extends AbstractActiveResenderModule
                                               aResendDir.getAbsolutePath ());
     }
 
+    m_aIndex = new PriorityQueue <> (Math.max (aFiles.length, 1));
+    m_aIndexedNames.clear ();
+    for (final File aCurrentFile : aFiles)
+      if (aCurrentFile.isFile ())
+      {
+        final String sName = aCurrentFile.getName ();
+        if (DirectoryResendRecord.isRecordFilename (sName))
+        {
+          final long nDueMillis = DirectoryResendRecord.getDueMillisFromFilename (sName);
+          _addToIndex (nDueMillis < 0 ? 0 : nDueMillis, aCurrentFile);
+        }
+        else
+          if (!sName.endsWith (DirectoryResendRecord.PAYLOAD_EXTENSION) && !sName.endsWith (".tmp"))
+          {
+            // Written by a previous version
+            _addToIndex (_getLegacyDueMillis (aCurrentFile), aCurrentFile);
+          }
+      }
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Built resend index with " + m_aIndex.size () + " entries from " + aResendDir.getAbsolutePath ());
+  }
+
+  /**
+   * Get all files that are ready to be resent and remove them from the due
+   * time index. Only the due entries of the index are touched.
+   *
+   * @return A list with all files that are ready to be resend, ordered by due
+   *         time.
+   * @throws AS2InvalidParameterException
+   *         In case the directory listing fails
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  protected ICommonsList <File> scanDirectory () throws AS2InvalidParameterException
+  {
+    final long nNow = System.currentTimeMillis ();
     final ICommonsList <File> ret = new CommonsArrayList <> ();
-    if (aFiles.length > 0)
-      for (final File aCurrentFile : aFiles)
-        if (aCurrentFile.exists () && aCurrentFile.isFile () && aCurrentFile.canWrite () && isTimeToSend (aCurrentFile))
-          ret.add (aCurrentFile);
+    m_aIndexLock.lock ();
+    try
+    {
+      if (m_aIndex == null)
+        _buildIndex ();
+
+      IndexEntry aEntry;
+      while ((aEntry = m_aIndex.peek ()) != null && aEntry.m_nDueMillis <= nNow)
+      {
+        m_aIndex.poll ();
+        final File aFile = aEntry.m_aFile;
+        m_aIndexedNames.remove (aFile.getName ());
+        if (aFile.exists () && aFile.isFile () && aFile.canWrite ())
+          ret.add (aFile);
+      }
+    }
+    finally
+    {
+      m_aIndexLock.unlock ();
+    }
     return ret;
   }
 
+  /**
+   * @return The number of documents in the due time index. The index is built
+   *         if necessary.
+   * @throws AS2InvalidParameterException
+   *         In case the directory listing fails
+   * @since 4.11.1
+   */
+  @Nonnegative
+  public int getResendItemCount () throws AS2InvalidParameterException
+  {
+    m_aIndexLock.lock ();
+    try
+    {
+      if (m_aIndex == null)
+        _buildIndex ();
+      return m_aIndex.size ();
+    }
+    finally
+    {
+      m_aIndexLock.unlock ();
+    }
+  }
+
+  @Override
+  public void doStop () throws AS2Exception
+  {
+    // Rebuild the index from the directory upon the next start
+    m_aIndexLock.locked ( () -> {
+      m_aIndex = null;
+      m_aIndexedNames.clear ();
+    });
+    super.doStop ();
+  }
+
   @Override
   public void resend ()
   {
@@ -274,7 +531,24 @@ public class DirectoryResenderModule extends AbstractActiveResenderModule
 
       // iterator through and send each file
       for (final File aCurrentFile : aSendFiles)
-        resendFile (aCurrentFile);
+      {
+        final boolean bExecuted = executeResend ( () -> _getResendDestination (aCurrentFile), () -> {
+          try
+          {
+            resendFile (aCurrentFile);
+          }
+          catch (final AS2Exception ex)
+          {
+            ex.terminate ();
+            forceStop (ex);
+          }
+        });
+        if (!bExecuted)
+        {
+          // Stopped concurrently - the file stays in the resend directory
+          m_aIndexLock.locked ( () -> _addToIndex (0, aCurrentFile));
+        }
+      }
     }
     catch (final AS2Exception ex)
     {
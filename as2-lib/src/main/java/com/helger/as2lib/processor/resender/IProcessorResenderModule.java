@@ -57,4 +57,11 @@ public interface IProcessorResenderModule extends IProcessorModule
   String OPTION_RETRIES = "retries";
   /** Default retries: 0. All values &le; 0 mean: no retry */
   int DEFAULT_RETRIES = 0;
+  /**
+   * Message attribute containing the number of resend attempts scheduled so
+   * far. Used to calculate the backoff delay.
+   *
+   * @since 4.11.1
+   */
+  String MA_RESEND_ATTEMPT = "resend_attempt";
 }
@@ -43,6 +43,8 @@ import org.slf4j.LoggerFactory;
 import com.helger.as2lib.exception.AS2Exception;
 import com.helger.as2lib.message.IMessage;
 import com.helger.as2lib.processor.sender.IProcessorSenderModule;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsSet;
 
 /**
  * A synchronous, in-memory resender module that has no delay.
@@ -60,6 +62,13 @@ public class ImmediateResenderModule extends AbstractResenderModule
     return sAction.equals (IProcessorResenderModule.DO_RESEND);
   }
 
+  @Override
+  @Nonnull
+  public ICommonsSet <String> getAllSupportedActions ()
+  {
+    return new CommonsHashSet <> (IProcessorResenderModule.DO_RESEND);
+  }
+
   @Override
   public void handle (@Nonnull final String sAction,
                       @Nonnull final IMessage aMsg,
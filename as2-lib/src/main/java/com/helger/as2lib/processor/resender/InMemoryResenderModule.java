@@ -33,11 +33,11 @@
 package com.helger.as2lib.processor.resender;
 
 import java.util.Map;
+import java.util.concurrent.DelayQueue;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,14 +48,19 @@ import com.helger.as2lib.processor.sender.IProcessorSenderModule;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
 
 /**
- * An asynchronous, in-memory, polling based resender module. Upon
+ * An asynchronous, in-memory resender module. Upon
  * {@link #handle(String, IMessage, Map)} the document is added to a queue there
  * is a background poller task that checks for resending (see {@link #resend()}
- * ). If resending fails an exception is thrown.
+ * ). If resending fails an exception is thrown.<br>
+ * Since v4.11.1 the items are kept in a {@link DelayQueue} ordered by their
+ * resend time, and a dedicated thread wakes up exactly when the next item is
+ * due. The polling interval is therefore ignored by this module.
  *
  * @author Philip Helger
  * @since 2.2.0
@@ -64,8 +69,8 @@ public class InMemoryResenderModule extends AbstractActiveResenderModule
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (InMemoryResenderModule.class);
 
-  @GuardedBy ("m_aRWLock")
-  private final ICommonsList <ResendItem> m_aItems = new CommonsArrayList <> ();
+  private final DelayQueue <ResendItem> m_aItems = new DelayQueue <> ();
+  private Thread m_aResendThread;
 
   @Override
   public boolean canHandle (@Nonnull final String sAction, @Nonnull final IMessage aMsg, @Nullable final Map <String, Object> aOptions)
@@ -73,6 +78,13 @@ public class InMemoryResenderModule extends AbstractActiveResenderModule
     return sAction.equals (IProcessorResenderModule.DO_RESEND);
   }
 
+  @Override
+  @Nonnull
+  public ICommonsSet <String> getAllSupportedActions ()
+  {
+    return new CommonsHashSet <> (IProcessorResenderModule.DO_RESEND);
+  }
+
   @Override
   public void handle (@Nonnull final String sAction,
                       @Nonnull final IMessage aMsg,
@@ -99,8 +111,8 @@ public class InMemoryResenderModule extends AbstractActiveResenderModule
     }
 
     // Build the item and add it to the vector
-    final ResendItem aItem = new ResendItem (sResendAction, nRetries, aMsg, getResendDelayMS ());
-    m_aRWLock.writeLockedBoolean ( () -> m_aItems.add (aItem));
+    final ResendItem aItem = new ResendItem (sResendAction, nRetries, aMsg, getResendDelayMS (aMsg));
+    m_aItems.add (aItem);
 
     LOGGER.info ("Message put in resend queue" + aMsg.getLoggingText ());
   }
@@ -124,40 +136,81 @@ public class InMemoryResenderModule extends AbstractActiveResenderModule
       final ICommonsMap <String, Object> aOptions = new CommonsHashMap <> ();
       aOptions.put (IProcessorResenderModule.OPTION_RETRIES, sRemainingRetries);
       getSession ().getMessageProcessor ().handle (sResendAction, aMsg, aOptions);
-
-      // Finally remove from list
-      m_aRWLock.writeLockedBoolean ( () -> m_aItems.remove (aItem));
     }
     catch (final AS2Exception ex)
     {
+      // Keep the item, as it was already taken from the queue, but don't retry
+      // it before the next resend delay
+      m_aItems.add (new ResendItem (aItem.getResendAction (),
+                                    aItem.getRetries (),
+                                    aItem.getMessage (),
+                                    getResendDelayMS (aItem.getMessage ())));
       throw ex.setSourceMsg (aMsg);
     }
   }
 
-  @Override
-  public void resend ()
+  /**
+   * Resend the provided item.
+   *
+   * @param aItem
+   *        The due item. May not be <code>null</code>.
+   * @return <code>true</code> if the item was resent or submitted for
+   *         resending, <code>false</code> if the module was stopped
+   *         concurrently. In the latter case the item is put back into the
+   *         queue instead of being rejected.
+   */
+  private boolean _executeResendItem (@Nonnull final ResendItem aItem)
   {
-    try
+    final boolean bExecuted = executeResend ( () -> getResendDestination (aItem.getMessage ()), () -> {
+      try
+      {
+        resendItem (aItem);
+      }
+      catch (final AS2Exception ex)
+      {
+        ex.terminate ();
+        forceStop (ex);
+      }
+    });
+    if (!bExecuted)
     {
-      // Determine all items to be re-send
-      final ICommonsList <ResendItem> aResendItems = new CommonsArrayList <> ();
-      m_aRWLock.readLocked ( () -> m_aItems.findAll (ResendItem::isTimeToSend, aResendItems::add));
-
-      // Resend all selected items
-      for (final ResendItem aResendItem : aResendItems)
-        resendItem (aResendItem);
-    }
-    catch (final AS2Exception ex)
-    {
-      ex.terminate ();
-      forceStop (ex);
+      // Stopped concurrently
+      m_aItems.add (aItem);
     }
+    return bExecuted;
+  }
+
+  private void _resendDueItems ()
+  {
+    while (!Thread.currentThread ().isInterrupted ())
+      try
+      {
+        // Blocks until the next item is due
+        final ResendItem aItem = m_aItems.take ();
+        if (!_executeResendItem (aItem))
+          break;
+      }
+      catch (final InterruptedException ex)
+      {
+        // Module is stopped
+        Thread.currentThread ().interrupt ();
+      }
+  }
+
+  @Override
+  public void resend ()
+  {
+    // Resend all items that are due - the earliest comes first
+    ResendItem aResendItem;
+    while ((aResendItem = m_aItems.poll ()) != null)
+      if (!_executeResendItem (aResendItem))
+        break;
   }
 
   @Nonnegative
   public int getResendItemCount ()
   {
-    return m_aRWLock.readLockedInt (m_aItems::size);
+    return m_aItems.size ();
   }
 
   /**
@@ -168,7 +221,7 @@ public class InMemoryResenderModule extends AbstractActiveResenderModule
     final int nItems = getResendItemCount ();
     if (nItems > 0)
     {
-      m_aRWLock.writeLocked (m_aItems::clear);
+      m_aItems.clear ();
       if (LOGGER.isInfoEnabled ())
         LOGGER.info ("Removed " + nItems + " items from InMemoryResenderModule");
     }
@@ -178,12 +231,38 @@ public class InMemoryResenderModule extends AbstractActiveResenderModule
   @ReturnsMutableCopy
   public ICommonsList <ResendItem> getAllResendItems ()
   {
-    return m_aRWLock.readLockedGet (m_aItems::getClone);
+    return new CommonsArrayList <> (m_aItems);
+  }
+
+  @Override
+  protected boolean isPollingRequired ()
+  {
+    // The resend thread wakes up when the next item is due
+    return false;
+  }
+
+  @Override
+  public void doStart () throws AS2Exception
+  {
+    super.doStart ();
+
+    if (m_aResendThread != null)
+      throw new IllegalStateException ("Resending thread is already running!");
+
+    m_aResendThread = new Thread (this::_resendDueItems, "AS2-InMemoryResender");
+    m_aResendThread.setDaemon (true);
+    m_aResendThread.start ();
   }
 
   @Override
   public void doStop () throws AS2Exception
   {
+    if (m_aResendThread != null)
+    {
+      m_aResendThread.interrupt ();
+      m_aResendThread = null;
+    }
+
     final int nRemainingItems = getResendItemCount ();
     if (nRemainingItems > 0)
     {
@@ -34,6 +34,8 @@ package com.helger.as2lib.processor.resender;
 
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -51,12 +53,14 @@ import com.helger.commons.datetime.PDTFactory;
  * @since 2.2.0
  */
 @Immutable
-public class ResendItem
+public class ResendItem implements Delayed
 {
   private final String m_sResendAction;
   private final int m_nRetries;
   private final IMessage m_aMsg;
   private final LocalDateTime m_aEarliestResendDT;
+  // Based on System.nanoTime so that it is not affected by clock changes
+  private final long m_nEarliestResendNanos;
 
   public ResendItem (@Nonnull @Nonempty final String sResendAction,
                      @Nonnegative final int nRetries,
@@ -68,6 +72,7 @@ public class ResendItem
     m_aMsg = ValueEnforcer.notNull (aMsg, "Message");
     ValueEnforcer.isGE0 (nResendDelayMS, "ResendDelayMS");
     m_aEarliestResendDT = PDTFactory.getCurrentLocalDateTime ().plus (nResendDelayMS, ChronoUnit.MILLIS);
+    m_nEarliestResendNanos = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (nResendDelayMS);
   }
 
   /**
@@ -115,4 +120,37 @@ public class ResendItem
   {
     return m_aEarliestResendDT.compareTo (PDTFactory.getCurrentLocalDateTime ()) <= 0;
   }
+
+  /**
+   * Get the remaining time until this item can be resend. This is the basis
+   * for using resend items in a {@link java.util.concurrent.DelayQueue}.
+   *
+   * @param eUnit
+   *        The time unit to use. May not be <code>null</code>.
+   * @return The remaining delay. Zero or negative if this item can be resend
+   *         now.
+   * @since 4.11.1
+   */
+  public long getDelay (@Nonnull final TimeUnit eUnit)
+  {
+    return eUnit.convert (m_nEarliestResendNanos - System.nanoTime (), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Order by the earliest resend time, so that the item that is due next comes
+   * first.
+   *
+   * @since 4.11.1
+   */
+  public int compareTo (@Nonnull final Delayed aOther)
+  {
+    if (aOther == this)
+      return 0;
+    if (aOther instanceof ResendItem)
+    {
+      // Compare the difference to be overflow safe
+      return Long.signum (m_nEarliestResendNanos - ((ResendItem) aOther).m_nEarliestResendNanos);
+    }
+    return Long.compare (getDelay (TimeUnit.NANOSECONDS), aOther.getDelay (TimeUnit.NANOSECONDS));
+  }
 }
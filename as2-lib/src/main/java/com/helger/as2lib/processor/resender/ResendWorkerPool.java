@@ -0,0 +1,266 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor.resender;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.SimpleLock;
+
+/**
+ * A bounded pool of resend worker threads, that limits the number of
+ * concurrent resends per destination. Resends exceeding the limit of a
+ * destination are parked without occupying a worker thread, and are started
+ * as soon as a resend to the same destination finishes. The number of resends
+ * waiting for a worker thread is bounded - if the limit is reached, the resend
+ * is executed in the submitting thread, which slows down the submitter.
+ *
+ * @author Philip Helger
+ * @since 4.11.1
+ */
+@ThreadSafe
+final class ResendWorkerPool
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (ResendWorkerPool.class);
+  private static final AtomicInteger THREAD_INDEX = new AtomicInteger (0);
+  /** The maximum number of resends waiting for a worker thread per thread */
+  static final int QUEUE_CAPACITY_PER_THREAD = 100;
+
+  /**
+   * The state per destination.
+   */
+  private static final class Destination
+  {
+    private int m_nRunning;
+    private final Deque <Runnable> m_aPending = new ArrayDeque <> ();
+  }
+
+  private final ThreadPoolExecutor m_aExecutor;
+  private final int m_nMaxPerDestination;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsMap <String, Destination> m_aDestinations = new CommonsHashMap <> ();
+  @GuardedBy ("m_aLock")
+  private boolean m_bShutdown = false;
+
+  /**
+   * Constructor
+   *
+   * @param nThreads
+   *        The number of worker threads. Must be &gt; 0.
+   * @param nMaxPerDestination
+   *        The maximum number of concurrent resends per destination. A value
+   *        &le; 0 means only limited by the number of threads.
+   */
+  ResendWorkerPool (@Nonnegative final int nThreads, final int nMaxPerDestination)
+  {
+    ValueEnforcer.isGT0 (nThreads, "Threads");
+    m_aExecutor = new ThreadPoolExecutor (nThreads,
+                                          nThreads,
+                                          60,
+                                          TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue <> (nThreads * QUEUE_CAPACITY_PER_THREAD),
+                                          ResendWorkerPool::_createThread);
+    // Don't keep idle threads forever
+    m_aExecutor.allowCoreThreadTimeOut (true);
+    m_nMaxPerDestination = nMaxPerDestination;
+  }
+
+  @Nonnull
+  private static Thread _createThread (@Nonnull final Runnable aRunnable)
+  {
+    final Thread ret = new Thread (aRunnable, "AS2-Resender-" + THREAD_INDEX.incrementAndGet ());
+    ret.setDaemon (true);
+    ret.setUncaughtExceptionHandler (BasicThreadFactory.getDefaultUncaughtExceptionHandler ());
+    return ret;
+  }
+
+  @Nonnull
+  private Runnable _wrap (@Nonnull final String sDestination, @Nonnull final Destination aDestination, @Nonnull final Runnable aTask)
+  {
+    return () -> {
+      Runnable aCurrent = aTask;
+      while (aCurrent != null)
+      {
+        try
+        {
+          aCurrent.run ();
+        }
+        catch (final RuntimeException ex)
+        {
+          LOGGER.error ("Error resending to '" + sDestination + "'", ex);
+        }
+
+        // Continue with the next parked resend of this destination in the same
+        // thread, so that it is not rejected after shutdown
+        aCurrent = m_aLock.lockedGet ( () -> {
+          final Runnable ret = aDestination.m_aPending.pollFirst ();
+          if (ret == null)
+          {
+            aDestination.m_nRunning--;
+            if (aDestination.m_nRunning == 0)
+              m_aDestinations.remove (sDestination);
+          }
+          return ret;
+        });
+      }
+    };
+  }
+
+  private boolean _execute (@Nonnull final Runnable aTask)
+  {
+    try
+    {
+      m_aExecutor.execute (aTask);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      if (m_aExecutor.isShutdown ())
+        return false;
+      // All worker threads are busy and the queue is full
+      aTask.run ();
+    }
+    return true;
+  }
+
+  /**
+   * Submit a resend.
+   *
+   * @param sDestination
+   *        The destination of the resend. May be <code>null</code> if unknown,
+   *        in which case the per destination limit does not apply.
+   * @param aTask
+   *        The resend to execute. May not be <code>null</code>.
+   * @return <code>true</code> if the resend was accepted, <code>false</code>
+   *         if the pool was already shut down and the resend is not executed.
+   */
+  boolean submit (@Nullable final String sDestination, @Nonnull final Runnable aTask)
+  {
+    ValueEnforcer.notNull (aTask, "Task");
+
+    if (m_nMaxPerDestination <= 0 || sDestination == null)
+      return _execute (aTask);
+
+    final Destination aDestination;
+    m_aLock.lock ();
+    try
+    {
+      if (m_bShutdown)
+        return false;
+      aDestination = m_aDestinations.computeIfAbsent (sDestination, k -> new Destination ());
+      if (aDestination.m_nRunning >= m_nMaxPerDestination)
+      {
+        // Park it - it is started by a running resend of this destination
+        aDestination.m_aPending.addLast (aTask);
+        return true;
+      }
+      aDestination.m_nRunning++;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+
+    if (_execute (_wrap (sDestination, aDestination, aTask)))
+      return true;
+
+    m_aLock.locked ( () -> {
+      aDestination.m_nRunning--;
+      if (aDestination.m_nRunning == 0)
+        m_aDestinations.remove (sDestination);
+    });
+    return false;
+  }
+
+  /**
+   * @return The number of resends waiting for a worker thread or for their
+   *         destination limit.
+   */
+  @Nonnegative
+  int getPendingCount ()
+  {
+    final int nParked = m_aLock.lockedInt ( () -> {
+      int ret = 0;
+      for (final Destination aDestination : m_aDestinations.values ())
+        ret += aDestination.m_aPending.size ();
+      return ret;
+    });
+    return m_aExecutor.getQueue ().size () + nParked;
+  }
+
+  /**
+   * Stop accepting new resends. Running resends are finished, but resends that
+   * are still waiting for a worker thread or for their destination limit are
+   * discarded.
+   *
+   * @return The number of discarded resends.
+   */
+  @Nonnegative
+  int shutdown ()
+  {
+    final int nParked = m_aLock.lockedInt ( () -> {
+      m_bShutdown = true;
+      int ret = 0;
+      for (final Destination aDestination : m_aDestinations.values ())
+      {
+        ret += aDestination.m_aPending.size ();
+        aDestination.m_aPending.clear ();
+      }
+      return ret;
+    });
+    m_aExecutor.shutdown ();
+    final ICommonsList <Runnable> aQueued = new CommonsArrayList <> ();
+    m_aExecutor.getQueue ().drainTo (aQueued);
+    return nParked + aQueued.size ();
+  }
+}
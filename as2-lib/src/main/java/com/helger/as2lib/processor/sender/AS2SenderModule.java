@@ -55,6 +55,7 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.as2lib.cert.ECertificatePartnershipType;
 import com.helger.as2lib.cert.ICertificateFactory;
+import com.helger.as2lib.crypto.CryptoOffloadExecutor;
 import com.helger.as2lib.crypto.ECompressionType;
 import com.helger.as2lib.crypto.ECryptoAlgorithmCrypt;
 import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
@@ -72,7 +73,7 @@ import com.helger.as2lib.message.IMessageMDN;
 import com.helger.as2lib.params.AS2InvalidParameterException;
 import com.helger.as2lib.partner.CPartnershipIDs;
 import com.helger.as2lib.partner.Partnership;
-import com.helger.as2lib.processor.AS2NoModuleException;
+import com.helger.as2lib.partner.PartnershipSettings;
 import com.helger.as2lib.processor.CFileAttribute;
 import com.helger.as2lib.processor.CNetAttribute;
 import com.helger.as2lib.processor.storage.IProcessorStorageModule;
@@ -91,6 +92,8 @@ import com.helger.as2lib.util.http.IAS2IncomingMDNCallback;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.OverrideOnDemand;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.http.CHttpHeader;
 import com.helger.commons.http.EHttpMethod;
 import com.helger.commons.http.HttpHeaderMap;
@@ -202,6 +205,13 @@ public class AS2SenderModule extends AbstractHttpSenderModule
     return IProcessorSenderModule.DO_SEND.equals (sAction) && aMsg instanceof AS2Message;
   }
 
+  @Override
+  @Nonnull
+  public ICommonsSet <String> getAllSupportedActions ()
+  {
+    return new CommonsHashSet <> (IProcessorSenderModule.DO_SEND);
+  }
+
   protected void checkRequired (@Nonnull final AS2Message aMsg) throws AS2InvalidParameterException
   {
     final Partnership aPartnership = aMsg.partnership ();
@@ -368,20 +378,19 @@ public class AS2SenderModule extends AbstractHttpSenderModule
   protected MIC calculateAndStoreMIC (@Nonnull final AS2Message aMsg) throws Exception
   {
     final Partnership aPartnership = aMsg.partnership ();
+    final PartnershipSettings aSettings = aPartnership.getSettings ();
 
     // Calculate and get the original mic
-    final boolean bIncludeHeadersInMIC = aPartnership.getSigningAlgorithm () != null ||
-                                         aPartnership.getEncryptAlgorithm () != null ||
-                                         aPartnership.getCompressionType () != null;
+    final boolean bIncludeHeadersInMIC = aSettings.isIncludeHeadersInMIC ();
 
     // For sending, we need to use the Signing algorithm defined in the
     // partnership
-    final String sSigningAlgorithm = aPartnership.getSigningAlgorithm ();
-    ECryptoAlgorithmSign eSigningAlgorithm = ECryptoAlgorithmSign.getFromIDOrNull (sSigningAlgorithm);
+    final String sSigningAlgorithm = aSettings.getSigningAlgorithmID ();
+    ECryptoAlgorithmSign eSigningAlgorithm = aSettings.getSigningAlgorithm ();
     if (eSigningAlgorithm == null)
     {
       // If no valid algorithm is defined, fall back to the defaults
-      final boolean bUseRFC3851MICAlg = aPartnership.isRFC3851MICAlgs ();
+      final boolean bUseRFC3851MICAlg = aSettings.isRFC3851MICAlgs ();
       eSigningAlgorithm = bUseRFC3851MICAlg ? ECryptoAlgorithmSign.DEFAULT_RFC_3851 : ECryptoAlgorithmSign.DEFAULT_RFC_5751;
 
       if (LOGGER.isWarnEnabled ())
@@ -503,15 +512,16 @@ public class AS2SenderModule extends AbstractHttpSenderModule
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("Signing outbound message...");
 
-      aDataBP = AS2Helper.getCryptoHelper ()
-                         .sign (aDataBP,
-                                aSenderCert,
-                                aSenderKey,
-                                eSignAlgorithm,
-                                bIncludeCertificateInSignedContent,
-                                bUseRFC3851MICAlg,
-                                bRemoveCmsAlgorithmProtect,
-                                eCTE);
+      final MimeBodyPart aToBeSigned = aDataBP;
+      aDataBP = CryptoOffloadExecutor.execute ( () -> AS2Helper.getCryptoHelper ()
+                                                               .sign (aToBeSigned,
+                                                                      aSenderCert,
+                                                                      aSenderKey,
+                                                                      eSignAlgorithm,
+                                                                      bIncludeCertificateInSignedContent,
+                                                                      bUseRFC3851MICAlg,
+                                                                      bRemoveCmsAlgorithmProtect,
+                                                                      eCTE));
       _logMimeBodyPart (aDataBP, "signed");
 
       if (LOGGER.isInfoEnabled ())
@@ -534,7 +544,9 @@ public class AS2SenderModule extends AbstractHttpSenderModule
     {
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("Encrypting outbound message...");
-      aDataBP = AS2Helper.getCryptoHelper ().encrypt (aDataBP, aReceiverCert, eCryptAlgorithm, eCTE);
+      final MimeBodyPart aToBeEncrypted = aDataBP;
+      aDataBP = CryptoOffloadExecutor.execute ( () -> AS2Helper.getCryptoHelper ()
+                                                               .encrypt (aToBeEncrypted, aReceiverCert, eCryptAlgorithm, eCTE));
       _logMimeBodyPart (aDataBP, "encrypted");
 
       if (LOGGER.isInfoEnabled ())
@@ -547,7 +559,7 @@ public class AS2SenderModule extends AbstractHttpSenderModule
   @Nonnull
   protected MimeBodyPart secure (@Nonnull final IMessage aMsg, @Nonnull final EContentTransferEncoding eCTE) throws Exception
   {
-    final Partnership aPartnership = aMsg.partnership ();
+    final PartnershipSettings aSettings = aMsg.partnership ().getSettings ();
     final ICertificateFactory aCertFactory = getSession ().getCertificateFactory ();
 
     // Get compression parameters
@@ -556,14 +568,14 @@ public class AS2SenderModule extends AbstractHttpSenderModule
     boolean bCompressBeforeSign = true;
     Consumer <MimeBodyPart> aCompressBeforeSignCallback = null;
     {
-      final String sCompressionType = aPartnership.getCompressionType ();
+      final String sCompressionType = aSettings.getCompressionTypeID ();
       if (sCompressionType != null)
       {
-        eCompressionType = ECompressionType.getFromIDCaseInsensitiveOrNull (sCompressionType);
+        eCompressionType = aSettings.getCompressionType ();
         if (eCompressionType == null)
           throw new AS2Exception ("The compression type '" + sCompressionType + "' is not supported!");
 
-        bCompressBeforeSign = aPartnership.isCompressBeforeSign ();
+        bCompressBeforeSign = aSettings.isCompressBeforeSign ();
 
         if (bCompressBeforeSign)
         {
@@ -581,17 +593,17 @@ public class AS2SenderModule extends AbstractHttpSenderModule
     boolean bUseRFC3851MICAlg = false;
     boolean bRemoveCmsAlgorithmProtect = false;
     {
-      final String sSignAlgorithm = aPartnership.getSigningAlgorithm ();
+      final String sSignAlgorithm = aSettings.getSigningAlgorithmID ();
       if (sSignAlgorithm != null)
       {
         aSenderCert = aCertFactory.getCertificate (aMsg, ECertificatePartnershipType.SENDER);
         aSenderKey = aCertFactory.getPrivateKey (aSenderCert);
-        eSignAlgorithm = ECryptoAlgorithmSign.getFromIDOrNull (sSignAlgorithm);
+        eSignAlgorithm = aSettings.getSigningAlgorithm ();
         if (eSignAlgorithm == null)
           throw new AS2Exception ("The signing algorithm '" + sSignAlgorithm + "' is not supported!");
 
         // Include certificate in signed content?
-        final ETriState eIncludeCertificateInSignedContent = aMsg.partnership ().getIncludeCertificateInSignedContent ();
+        final ETriState eIncludeCertificateInSignedContent = aSettings.getIncludeCertificateInSignedContent ();
         if (eIncludeCertificateInSignedContent.isDefined ())
         {
           // Use per partnership
@@ -604,10 +616,10 @@ public class AS2SenderModule extends AbstractHttpSenderModule
         }
 
         // Use old MIC algorithms?
-        bUseRFC3851MICAlg = aPartnership.isRFC3851MICAlgs ();
+        bUseRFC3851MICAlg = aSettings.isRFC3851MICAlgs ();
 
         // Remove CMS attributes?
-        bRemoveCmsAlgorithmProtect = aPartnership.isRemoveCmsAlgorithmProtect ();
+        bRemoveCmsAlgorithmProtect = aSettings.isRemoveCmsAlgorithmProtect ();
       }
     }
 
@@ -615,11 +627,11 @@ public class AS2SenderModule extends AbstractHttpSenderModule
     ECryptoAlgorithmCrypt eCryptAlgorithm = null;
     X509Certificate aReceiverCert = null;
     {
-      final String sCryptAlgorithm = aPartnership.getEncryptAlgorithm ();
+      final String sCryptAlgorithm = aSettings.getEncryptAlgorithmID ();
       if (sCryptAlgorithm != null)
       {
         aReceiverCert = aCertFactory.getCertificate (aMsg, ECertificatePartnershipType.RECEIVER);
-        eCryptAlgorithm = ECryptoAlgorithmCrypt.getFromIDOrNull (sCryptAlgorithm);
+        eCryptAlgorithm = aSettings.getEncryptAlgorithm ();
         if (eCryptAlgorithm == null)
           throw new AS2Exception ("The crypting algorithm '" + sCryptAlgorithm + "' is not supported!");
       }
@@ -784,7 +796,7 @@ public class AS2SenderModule extends AbstractHttpSenderModule
       final X509Certificate aSenderCert = aCertFactory.getCertificate (aMDN, ECertificatePartnershipType.SENDER);
 
       boolean bUseCertificateInBodyPart;
-      final ETriState eUseCertificateInBodyPart = aMsg.partnership ().getVerifyUseCertificateInBodyPart ();
+      final ETriState eUseCertificateInBodyPart = aMsg.partnership ().getSettings ().getVerifyUseCertificateInBodyPart ();
       if (eUseCertificateInBodyPart.isDefined ())
       {
         // Use per partnership
@@ -796,16 +808,16 @@ public class AS2SenderModule extends AbstractHttpSenderModule
         bUseCertificateInBodyPart = getSession ().isCryptoVerifyUseCertificateInBodyPart ();
       }
 
-      AS2Helper.parseMDN (aMsg, aSenderCert, bUseCertificateInBodyPart, m_aVerificationCertificateConsumer, aResHelper);
+      AS2Helper.parseMDN (aMsg, aSenderCert, bUseCertificateInBodyPart, m_aVerificationCertificateConsumer, aCertFactory, aResHelper);
 
       try
       {
-        getSession ().getMessageProcessor ().handle (IProcessorStorageModule.DO_STOREMDN, aMsg, null);
+        // Storing the MDN is optional
+        getSession ().getMessageProcessor ().handleIfPossible (IProcessorStorageModule.DO_STOREMDN, aMsg, null);
       }
-      catch (final AS2ComponentNotFoundException | AS2NoModuleException ex)
+      catch (final AS2ComponentNotFoundException ex)
       {
         // No message processor found
-        // Or no module found in message processor
       }
 
       final String sDisposition = aMDN.attrs ().getAsString (AS2MessageMDN.MDNA_DISPOSITION);
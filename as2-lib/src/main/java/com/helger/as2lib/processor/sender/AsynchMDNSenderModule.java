@@ -50,7 +50,6 @@ import com.helger.as2lib.exception.WrappedAS2Exception;
 import com.helger.as2lib.message.AS2Message;
 import com.helger.as2lib.message.IMessage;
 import com.helger.as2lib.message.IMessageMDN;
-import com.helger.as2lib.processor.AS2NoModuleException;
 import com.helger.as2lib.processor.CNetAttribute;
 import com.helger.as2lib.processor.storage.IProcessorStorageModule;
 import com.helger.as2lib.session.AS2ComponentNotFoundException;
@@ -60,6 +59,8 @@ import com.helger.as2lib.util.CAS2Header;
 import com.helger.as2lib.util.dump.IHTTPOutgoingDumper;
 import com.helger.as2lib.util.http.AS2HttpClient;
 import com.helger.as2lib.util.http.AS2HttpHeaderSetter;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.http.CHttpHeader;
 import com.helger.commons.http.EHttpMethod;
 import com.helger.commons.http.HttpHeaderMap;
@@ -83,6 +84,13 @@ public class AsynchMDNSenderModule extends AbstractHttpSenderModule
     return sAction.equals (IProcessorSenderModule.DO_SEND_ASYNC_MDN) && aMsg instanceof AS2Message;
   }
 
+  @Override
+  @Nonnull
+  public ICommonsSet <String> getAllSupportedActions ()
+  {
+    return new CommonsHashSet <> (IProcessorSenderModule.DO_SEND_ASYNC_MDN);
+  }
+
   private void _sendViaHTTP (@Nonnull final AS2Message aMsg,
                              @Nonnull final DispositionType aDisposition,
                              @Nullable final IHTTPOutgoingDumper aOutgoingDumper,
@@ -161,12 +169,12 @@ public class AsynchMDNSenderModule extends AbstractHttpSenderModule
       // log & store mdn into backup folder.
       try
       {
-        getSession ().getMessageProcessor ().handle (IProcessorStorageModule.DO_STOREMDN, aMsg, null);
+        // Storing the MDN is optional
+        getSession ().getMessageProcessor ().handleIfPossible (IProcessorStorageModule.DO_STOREMDN, aMsg, null);
       }
-      catch (final AS2ComponentNotFoundException | AS2NoModuleException ex)
+      catch (final AS2ComponentNotFoundException ex)
       {
         // No message processor found
-        // Or no module found in message processor
       }
     }
     finally
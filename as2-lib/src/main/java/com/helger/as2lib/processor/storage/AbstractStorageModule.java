@@ -54,6 +54,8 @@ import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.OverrideOnDemand;
 import com.helger.commons.charset.CharsetHelper;
 import com.helger.commons.collection.attr.IStringMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.io.file.FilenameHelper;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.system.SystemHelper;
@@ -153,6 +155,13 @@ public abstract class AbstractStorageModule extends AbstractProcessorModule impl
     return sModProtocol.equals (aMsg.getProtocol ());
   }
 
+  @Override
+  @Nonnull
+  public final ICommonsSet <String> getAllSupportedActions ()
+  {
+    return new CommonsHashSet <> (m_sModuleAction);
+  }
+
   @Override
   public final void initDynamicComponent (@Nonnull final IAS2Session aSession, @Nullable final IStringMap aOptions) throws AS2Exception
   {
@@ -68,6 +68,15 @@ public class MDNFileModule extends AbstractStorageModule
     super (DO_STOREMDN);
   }
 
+  /**
+   * The MDN is only read.
+   */
+  @Override
+  public boolean isParallelSafe ()
+  {
+    return true;
+  }
+
   public void handle (@Nonnull final String sAction,
                       @Nonnull final IMessage aMsg,
                       @Nullable final Map <String, Object> aOptions) throws AS2Exception
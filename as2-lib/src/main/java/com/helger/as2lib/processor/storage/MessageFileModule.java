@@ -37,6 +37,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -54,11 +55,16 @@ import com.helger.as2lib.params.CompositeParameters;
 import com.helger.as2lib.params.DateParameters;
 import com.helger.as2lib.params.MessageParameters;
 import com.helger.as2lib.processor.receiver.AbstractActiveNetModule;
+import com.helger.commons.collection.attr.StringMap;
 import com.helger.commons.http.CHttp;
 import com.helger.commons.io.stream.StringInputStream;
 
 /**
- * Store message content and optionally message headers and attributes to a file
+ * Store message content and optionally message headers and attributes to a file.
+ * <br>
+ * The name of the stored file is put into the message attributes (see
+ * {@link MessageParameters#ATTR_STORED_FILE_NAME}). When executed concurrently
+ * with other modules, this happens after all modules finished.
  *
  * @author Philip Helger
  */
@@ -87,11 +93,31 @@ public class MessageFileModule extends AbstractStorageModule
       attrs ().putIn (ATTR_HEADER, sHeaderFilename);
   }
 
+  /**
+   * The message is only read while storing - the name of the stored file is
+   * set afterwards.
+   */
+  @Override
+  public boolean isParallelSafe ()
+  {
+    return true;
+  }
+
   public void handle (@Nonnull final String sAction,
                       @Nonnull final IMessage aMsg,
                       @Nullable final Map <String, Object> aOptions) throws AS2Exception
+  {
+    handleParallel (sAction, aMsg, aOptions).accept (aMsg);
+  }
+
+  @Override
+  @Nonnull
+  public Consumer <? super IMessage> handleParallel (@Nonnull final String sAction,
+                                                     @Nonnull final IMessage aMsg,
+                                                     @Nullable final Map <String, Object> aOptions) throws AS2Exception
   {
     // store message content
+    final String sStoredFilename;
     try
     {
       final File aMsgFile = getFile (aMsg, getAttributeAsStringRequired (ATTR_FILENAME));
@@ -99,8 +125,8 @@ public class MessageFileModule extends AbstractStorageModule
       {
         store (aMsgFile, aIS);
       }
-      aMsg.attrs ().put (MessageParameters.ATTR_STORED_FILE_NAME, aMsgFile.getAbsolutePath ());
-      LOGGER.info ("stored message to " + aMsgFile.getAbsolutePath () + aMsg.getLoggingText ());
+      sStoredFilename = aMsgFile.getAbsolutePath ();
+      LOGGER.info ("stored message to " + sStoredFilename + aMsg.getLoggingText ());
     }
     catch (final AS2DispositionException ex)
     {
@@ -121,7 +147,10 @@ public class MessageFileModule extends AbstractStorageModule
       try
       {
         final File aHeaderFile = getFile (aMsg, sHeaderFilename);
-        try (final InputStream aIS = getHeaderStream (aMsg, getCharset ()))
+        // The attributes as they are after this module finished
+        final StringMap aAttrs = new StringMap (aMsg.attrs ());
+        aAttrs.put (MessageParameters.ATTR_STORED_FILE_NAME, sStoredFilename);
+        try (final InputStream aIS = _getHeaderStream (aMsg, aAttrs, getCharset ()))
         {
           store (aHeaderFile, aIS);
         }
@@ -132,6 +161,8 @@ public class MessageFileModule extends AbstractStorageModule
         throw WrappedAS2Exception.wrap (ex);
       }
     }
+
+    return x -> x.attrs ().put (MessageParameters.ATTR_STORED_FILE_NAME, sStoredFilename);
   }
 
   @Override
@@ -145,6 +176,14 @@ public class MessageFileModule extends AbstractStorageModule
 
   @Nonnull
   protected static InputStream getHeaderStream (@Nonnull final IMessage aMsg, @Nonnull final Charset aCharset)
+  {
+    return _getHeaderStream (aMsg, aMsg.attrs (), aCharset);
+  }
+
+  @Nonnull
+  private static InputStream _getHeaderStream (@Nonnull final IMessage aMsg,
+                                               @Nonnull final Map <String, String> aAttrs,
+                                               @Nonnull final Charset aCharset)
   {
     final StringBuilder aSB = new StringBuilder ();
 
@@ -157,7 +196,7 @@ public class MessageFileModule extends AbstractStorageModule
 
     // write attributes to the string buffer
     aSB.append ("Attributes:").append (CHttp.EOL);
-    for (final Map.Entry <String, String> aEntry : aMsg.attrs ().entrySet ())
+    for (final Map.Entry <String, String> aEntry : aAttrs.entrySet ())
     {
       aSB.append (aEntry.getKey ()).append (": ").append (aEntry.getValue ()).append (CHttp.EOL);
     }
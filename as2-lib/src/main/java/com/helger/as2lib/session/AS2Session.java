@@ -43,6 +43,8 @@ import javax.annotation.concurrent.NotThreadSafe;
 
 import com.helger.as2lib.IDynamicComponent;
 import com.helger.as2lib.cert.ICertificateFactory;
+import com.helger.as2lib.cert.IStorableCertificateFactory;
+import com.helger.as2lib.exception.AS2Exception;
 import com.helger.as2lib.partner.IPartnershipFactory;
 import com.helger.as2lib.processor.IMessageProcessor;
 import com.helger.as2lib.util.CAS2Header;
@@ -154,6 +156,24 @@ public class AS2Session implements IAS2Session
     return m_aComponents.getClone ();
   }
 
+  /**
+   * Save all changes of the components of this session that were not yet
+   * persisted because saving is delayed. Should be called before shutdown.
+   *
+   * @throws AS2Exception
+   *         In case saving fails.
+   * @since 4.11.1
+   */
+  public void savePendingChanges () throws AS2Exception
+  {
+    for (final IDynamicComponent aComponent : m_aComponents.values ())
+      if (aComponent instanceof IStorableCertificateFactory)
+        ((IStorableCertificateFactory) aComponent).savePendingChanges ();
+      else
+        if (aComponent instanceof IPartnershipFactory)
+          ((IPartnershipFactory) aComponent).savePendingChanges ();
+  }
+
   @Nonnull
   public final ICertificateFactory getCertificateFactory () throws AS2ComponentNotFoundException
   {
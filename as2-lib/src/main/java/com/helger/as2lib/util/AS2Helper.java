@@ -55,6 +55,7 @@ import com.helger.as2lib.cert.AS2KeyNotFoundException;
 import com.helger.as2lib.cert.ECertificatePartnershipType;
 import com.helger.as2lib.cert.ICertificateFactory;
 import com.helger.as2lib.crypto.BCCryptoHelper;
+import com.helger.as2lib.crypto.CertificateCheckCache;
 import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
 import com.helger.as2lib.crypto.ICryptoHelper;
 import com.helger.as2lib.crypto.MIC;
@@ -67,6 +68,7 @@ import com.helger.as2lib.message.IMessageMDN;
 import com.helger.as2lib.params.MessageParameters;
 import com.helger.as2lib.partner.AS2PartnershipNotFoundException;
 import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.partner.PartnershipSettings;
 import com.helger.as2lib.processor.CNetAttribute;
 import com.helger.as2lib.session.IAS2Session;
 import com.helger.commons.ValueEnforcer;
@@ -77,7 +79,6 @@ import com.helger.commons.regex.RegExHelper;
 import com.helger.commons.state.ETriState;
 import com.helger.commons.wrapper.Wrapper;
 import com.helger.mail.cte.EContentTransferEncoding;
-import com.helger.security.certificate.CertificateHelper;
 
 @Immutable
 public final class AS2Helper
@@ -104,6 +105,17 @@ public final class AS2Helper
     return SingletonHolder.INSTANCE;
   }
 
+  /**
+   * @return The certificate check cache of the default crypto helper. Never
+   *         <code>null</code>.
+   * @since 4.11.1
+   */
+  @Nonnull
+  public static CertificateCheckCache getCertificateCheckCache ()
+  {
+    return SingletonHolder.INSTANCE.getCertificateCheckCache ();
+  }
+
   /**
    * Create and fill the MDN parameter
    *
@@ -256,6 +268,7 @@ public final class AS2Helper
     ValueEnforcer.notNull (sText, "Text");
 
     final Partnership aPartnership = aMsg.partnership ();
+    final PartnershipSettings aSettings = aPartnership.getSettings ();
 
     final AS2MessageMDN aMDN = new AS2MessageMDN (aMsg);
     aMDN.headers ().setHeader (CHttpHeader.AS2_VERSION, aSession.getAS2VersionID ());
@@ -317,8 +330,8 @@ public final class AS2Helper
     if (eSigningAlgorithm == null)
     {
       // Try from partnership (#93)
-      final String sSigningAlgorithm = aPartnership.getSigningAlgorithm ();
-      eSigningAlgorithm = ECryptoAlgorithmSign.getFromIDOrNull (sSigningAlgorithm);
+      final String sSigningAlgorithm = aSettings.getSigningAlgorithmID ();
+      eSigningAlgorithm = aSettings.getSigningAlgorithm ();
       if (eSigningAlgorithm == null)
       {
         if (LOGGER.isWarnEnabled ())
@@ -331,9 +344,7 @@ public final class AS2Helper
     {
       // If the source message was signed or encrypted, include the headers -
       // see message sending for details
-      final boolean bIncludeHeadersInMIC = aPartnership.getSigningAlgorithm () != null ||
-                                           aPartnership.getEncryptAlgorithm () != null ||
-                                           aPartnership.getCompressionType () != null;
+      final boolean bIncludeHeadersInMIC = aSettings.isIncludeHeadersInMIC ();
 
       aMIC = getCryptoHelper ().calculateMIC (aMsg.getData (), eSigningAlgorithm, bIncludeHeadersInMIC);
     }
@@ -350,7 +361,7 @@ public final class AS2Helper
         bSignMDN = true;
 
         // Include certificate in signed content?
-        final ETriState eIncludeCertificateInSignedContent = aPartnership.getIncludeCertificateInSignedContent ();
+        final ETriState eIncludeCertificateInSignedContent = aSettings.getIncludeCertificateInSignedContent ();
         if (eIncludeCertificateInSignedContent.isDefined ())
         {
           // Use per partnership
@@ -364,8 +375,8 @@ public final class AS2Helper
       }
     }
 
-    final boolean bUseOldRFC3851MicAlgs = aPartnership.isRFC3851MICAlgs ();
-    final boolean bRemoveCmsAlgorithmProtect = aPartnership.isRemoveCmsAlgorithmProtect ();
+    final boolean bUseOldRFC3851MicAlgs = aSettings.isRFC3851MICAlgs ();
+    final boolean bRemoveCmsAlgorithmProtect = aSettings.isRemoveCmsAlgorithmProtect ();
 
     createMDNData (aSession,
                    aMDN,
@@ -389,6 +400,39 @@ public final class AS2Helper
                                final boolean bUseCertificateInBodyPart,
                                @Nullable final Consumer <? super X509Certificate> aEffectiveCertificateConsumer,
                                @Nonnull final AS2ResourceHelper aResHelper) throws Exception
+  {
+    parseMDN (aMsg, aReceiverCert, bUseCertificateInBodyPart, aEffectiveCertificateConsumer, null, aResHelper);
+  }
+
+  /**
+   * Parse the MDN of the provided message and verify its signature.
+   *
+   * @param aMsg
+   *        The message containing the MDN. May not be <code>null</code>.
+   * @param aReceiverCert
+   *        The certificate to verify the signature with. May be
+   *        <code>null</code>.
+   * @param bUseCertificateInBodyPart
+   *        <code>true</code> to use the certificate contained in the body part
+   * @param aEffectiveCertificateConsumer
+   *        Optional consumer for the certificate effectively used for
+   *        verification. May be <code>null</code>.
+   * @param aCertFactory
+   *        Optional certificate factory to check the revocation state of the
+   *        certificate effectively used for verification. May be
+   *        <code>null</code>.
+   * @param aResHelper
+   *        The resource helper to use. May not be <code>null</code>.
+   * @throws Exception
+   *         In case of error
+   * @since 4.11.1
+   */
+  public static void parseMDN (@Nonnull final IMessage aMsg,
+                               @Nullable final X509Certificate aReceiverCert,
+                               final boolean bUseCertificateInBodyPart,
+                               @Nullable final Consumer <? super X509Certificate> aEffectiveCertificateConsumer,
+                               @Nullable final ICertificateFactory aCertFactory,
+                               @Nonnull final AS2ResourceHelper aResHelper) throws Exception
   {
     final String sLoggingText = aMsg.getLoggingText ();
     LOGGER.info ("Start parsing MDN of" + sLoggingText);
@@ -397,9 +441,9 @@ public final class AS2Helper
     MimeBodyPart aMainPart = aMDN.getData ();
     final ICryptoHelper aCryptoHelper = getCryptoHelper ();
 
-    final boolean bDisableVerify = aMsg.partnership ().isDisableVerify ();
+    final boolean bDisableVerify = aMsg.partnership ().getSettings ().isDisableVerify ();
     final boolean bMsgIsSigned = aCryptoHelper.isSigned (aMainPart);
-    final boolean bForceVerify = aMsg.partnership ().isForceVerify ();
+    final boolean bForceVerify = aMsg.partnership ().getSettings ().isForceVerify ();
     if (bMsgIsSigned && bDisableVerify)
     {
       LOGGER.info ("Message claims to be signed but signature validation is disabled" + sLoggingText);
@@ -415,6 +459,8 @@ public final class AS2Helper
 
         final Wrapper <X509Certificate> aCertHolder = new Wrapper <> ();
         aMainPart = aCryptoHelper.verify (aMainPart, aReceiverCert, bUseCertificateInBodyPart, bForceVerify, aCertHolder::set, aResHelper);
+        if (aCertFactory != null && aCertHolder.isSet ())
+          aCertFactory.checkRevocation (aCertHolder.get ());
         if (aEffectiveCertificateConsumer != null)
           aEffectiveCertificateConsumer.accept (aCertHolder.get ());
 
@@ -424,7 +470,8 @@ public final class AS2Helper
         // used for verification
         if (aCertHolder.isSet ())
           aMsg.attrs ()
-              .putIn (AS2Message.ATTRIBUTE_RECEIVED_SIGNATURE_CERTIFICATE, CertificateHelper.getPEMEncodedCertificate (aCertHolder.get ()));
+              .putIn (AS2Message.ATTRIBUTE_RECEIVED_SIGNATURE_CERTIFICATE,
+                     getCertificateCheckCache ().getPEMEncodedCertificate (aCertHolder.get ()));
 
         if (LOGGER.isInfoEnabled ())
           LOGGER.info ("Successfully verified signature of MDN of message" + sLoggingText);
@@ -33,9 +33,14 @@
 package com.helger.as2lib.util;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -46,16 +51,19 @@ import javax.mail.internet.MimeUtility;
 import com.helger.as2lib.exception.AS2Exception;
 import com.helger.as2lib.processor.receiver.AS2InvalidMessageException;
 import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.base64.Base64;
 import com.helger.commons.base64.Base64InputStream;
 import com.helger.commons.base64.Base64OutputStream;
+import com.helger.commons.functional.IThrowingConsumer;
 import com.helger.commons.http.CHttp;
 import com.helger.commons.io.file.FileIOError;
 import com.helger.commons.io.file.FileOperationManager;
 import com.helger.commons.io.file.FilenameHelper;
 import com.helger.commons.io.file.LoggingFileOperationCallback;
+import com.helger.commons.io.stream.NonClosingOutputStream;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.timing.StopWatch;
 import com.sun.mail.util.QPDecoderStream;
@@ -231,6 +239,106 @@ public final class AS2IOHelper
     return aRealDestFile;
   }
 
+  /**
+   * An output stream that flushes the data to the physical device before it
+   * is closed.
+   */
+  private static final class SyncOnCloseOutputStream extends FilterOutputStream
+  {
+    private final FileOutputStream m_aFOS;
+    private boolean m_bClosed = false;
+
+    SyncOnCloseOutputStream (@Nonnull final FileOutputStream aFOS)
+    {
+      super (aFOS);
+      m_aFOS = aFOS;
+    }
+
+    @Override
+    public void write (final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      // Avoid the byte-by-byte default implementation
+      out.write (aBuf, nOfs, nLen);
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      if (!m_bClosed)
+      {
+        m_bClosed = true;
+        try
+        {
+          flush ();
+          m_aFOS.getFD ().sync ();
+        }
+        finally
+        {
+          m_aFOS.close ();
+        }
+      }
+    }
+  }
+
+  /**
+   * Write a file atomically. The content is first written to a temporary file
+   * in the same directory, which is synced to disk and afterwards renamed to
+   * the destination file. So readers either see the old or the new file, but
+   * never a partially written file.
+   *
+   * @param aDestFile
+   *        The destination file. May not be <code>null</code>.
+   * @param aWriter
+   *        The callback that writes the content. The passed stream may be
+   *        closed by the callback. May not be <code>null</code>.
+   * @throws IOException
+   *         In case writing, syncing or renaming fails
+   * @throws EX
+   *         If the writer throws it
+   * @param <EX>
+   *        Exception type the writer may throw
+   * @since 4.11.1
+   */
+  public static <EX extends Exception> void writeFileAtomic (@Nonnull final File aDestFile,
+                                                             @Nonnull final IThrowingConsumer <? super OutputStream, EX> aWriter) throws IOException,
+                                                                                                                                    EX
+  {
+    ValueEnforcer.notNull (aDestFile, "DestFile");
+    ValueEnforcer.notNull (aWriter, "Writer");
+
+    final File aDir = aDestFile.getAbsoluteFile ().getParentFile ();
+    if (aDir != null)
+      FOM.createDirRecursiveIfNotExisting (aDir);
+    final File aTempFile = File.createTempFile (aDestFile.getName () + ".", ".tmp", aDir);
+    boolean bSuccess = false;
+    try
+    {
+      try (final SyncOnCloseOutputStream aOS = new SyncOnCloseOutputStream (new FileOutputStream (aTempFile)))
+      {
+        // Closing by the writer is ignored, so that errors when flushing and
+        // syncing are propagated by the close of this block and never go
+        // unnoticed before the rename
+        aWriter.accept (new NonClosingOutputStream (aOS));
+      }
+
+      try
+      {
+        Files.move (aTempFile.toPath (), aDestFile.toPath (), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (final AtomicMoveNotSupportedException ex)
+      {
+        // E.g. on some network file systems
+        Files.move (aTempFile.toPath (), aDestFile.toPath (), StandardCopyOption.REPLACE_EXISTING);
+      }
+      bSuccess = true;
+    }
+    finally
+    {
+      if (!bSuccess)
+        FOM.deleteFileIfExisting (aTempFile);
+    }
+  }
+
   @Nullable
   public static String getFilenameFromMessageID (@Nonnull final String sMessageID)
   {
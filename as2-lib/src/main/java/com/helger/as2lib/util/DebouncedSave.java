@@ -0,0 +1,204 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.util;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.exception.AS2Exception;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.callback.IThrowingRunnable;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Debounces save operations: all save requests within a configurable delay
+ * are persisted with a single save that is executed in the background. Each
+ * instance uses its own daemon thread, that is created on demand and
+ * terminates when idle. Upon shutdown {@link #shutdown()} should be called,
+ * to execute pending saves and to release the thread.
+ *
+ * @author Philip Helger
+ * @since 4.11.1
+ */
+@ThreadSafe
+public final class DebouncedSave
+{
+  /** The time after which an idle background thread terminates */
+  public static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 10;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (DebouncedSave.class);
+
+  private final String m_sDisplayName;
+  private final IThrowingRunnable <AS2Exception> m_aSaver;
+  private final AtomicBoolean m_aPending = new AtomicBoolean (false);
+  // Avoid concurrent writes of immediate and delayed saves
+  private final SimpleLock m_aSaveLock = new SimpleLock ();
+  private final SimpleLock m_aSchedulerLock = new SimpleLock ();
+  @GuardedBy ("m_aSchedulerLock")
+  private ScheduledThreadPoolExecutor m_aScheduler;
+
+  /**
+   * Constructor
+   *
+   * @param sDisplayName
+   *        The name of the saved object used in log messages. May neither be
+   *        <code>null</code> nor empty.
+   * @param aSaver
+   *        The action that performs the save. May not be <code>null</code>.
+   */
+  public DebouncedSave (@Nonnull @Nonempty final String sDisplayName, @Nonnull final IThrowingRunnable <AS2Exception> aSaver)
+  {
+    ValueEnforcer.notEmpty (sDisplayName, "DisplayName");
+    ValueEnforcer.notNull (aSaver, "Saver");
+    m_sDisplayName = sDisplayName;
+    m_aSaver = aSaver;
+  }
+
+  /**
+   * @return <code>true</code> if a delayed save is pending, <code>false</code>
+   *         if not.
+   */
+  public boolean isPending ()
+  {
+    return m_aPending.get ();
+  }
+
+  /**
+   * Request a save. If the delay is &le; 0 the save happens immediately in
+   * the calling thread. Otherwise a background save is scheduled, unless a
+   * save is already pending, which then also covers this request.
+   *
+   * @param nDelayMS
+   *        The delay in milliseconds.
+   * @throws AS2Exception
+   *         In case of an error saving immediately
+   */
+  public void requestSave (final long nDelayMS) throws AS2Exception
+  {
+    if (nDelayMS <= 0)
+      saveNow ();
+    else
+      if (m_aPending.compareAndSet (false, true))
+        m_aSchedulerLock.locked ( () -> {
+          if (m_aScheduler == null)
+          {
+            // Created on demand, e.g. again after shutdown
+            m_aScheduler = new ScheduledThreadPoolExecutor (1, r -> {
+              final Thread ret = new Thread (r, "AS2-DelayedSave-" + m_sDisplayName);
+              ret.setDaemon (true);
+              return ret;
+            });
+            m_aScheduler.setKeepAliveTime (IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            m_aScheduler.allowCoreThreadTimeOut (true);
+            // The pending save is executed by shutdown itself
+            m_aScheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy (false);
+          }
+          m_aScheduler.schedule (this::_savePendingInBackground, nDelayMS, TimeUnit.MILLISECONDS);
+        });
+  }
+
+  /**
+   * Save now, if a delayed save is pending.
+   *
+   * @throws AS2Exception
+   *         In case saving fails.
+   */
+  public void savePending () throws AS2Exception
+  {
+    m_aSaveLock.lockedThrowing ( () -> {
+      if (m_aPending.getAndSet (false))
+        m_aSaver.run ();
+    });
+  }
+
+  /**
+   * Save now. This also covers a pending delayed save.
+   *
+   * @throws AS2Exception
+   *         In case saving fails.
+   */
+  public void saveNow () throws AS2Exception
+  {
+    m_aSaveLock.lockedThrowing ( () -> {
+      m_aPending.set (false);
+      m_aSaver.run ();
+    });
+  }
+
+  /**
+   * Save now, if a delayed save is pending, and release the background thread.
+   * A later delayed save request creates a new background thread.
+   *
+   * @throws AS2Exception
+   *         In case saving fails.
+   */
+  public void shutdown () throws AS2Exception
+  {
+    final ScheduledThreadPoolExecutor aScheduler = m_aSchedulerLock.lockedGet ( () -> {
+      final ScheduledThreadPoolExecutor ret = m_aScheduler;
+      m_aScheduler = null;
+      return ret;
+    });
+    if (aScheduler != null)
+      aScheduler.shutdown ();
+    savePending ();
+  }
+
+  private void _savePendingInBackground ()
+  {
+    try
+    {
+      savePending ();
+    }
+    catch (final AS2Exception ex)
+    {
+      LOGGER.error ("Failed to save pending changes of " + m_sDisplayName, ex);
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("DisplayName", m_sDisplayName).append ("Pending", m_aPending.get ()).getToString ();
+  }
+}
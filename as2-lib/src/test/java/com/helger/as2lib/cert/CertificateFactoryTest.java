@@ -0,0 +1,210 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.cert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import javax.annotation.Nonnull;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.as2lib.exception.AS2Exception;
+import com.helger.as2lib.util.cert.AS2KeyStoreHelper;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.io.file.FileHelper;
+
+/**
+ * Test class for class {@link CertificateFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class CertificateFactoryTest
+{
+  private static final String PASSWORD = "test";
+
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Nonnull
+  private static CertificateFactory _createCF (@Nonnull final File aFile, final long nSaveDelayMS) throws Exception
+  {
+    // Start with an empty key store file
+    final KeyStore aKeyStore = KeyStore.getInstance ("PKCS12");
+    aKeyStore.load (null, null);
+    try (final OutputStream aOS = FileHelper.getOutputStream (aFile))
+    {
+      aKeyStore.store (aOS, PASSWORD.toCharArray ());
+    }
+
+    final CertificateFactory ret = new CertificateFactory ();
+    ret.setFilename (aFile.getAbsolutePath ());
+    ret.setPassword (PASSWORD);
+    ret.reinitKeyStore ();
+    ret.setSaveChangesToFile (true);
+    ret.setSaveDelayMS (nSaveDelayMS);
+    return ret;
+  }
+
+  private static int _getCertificateCount (@Nonnull final File aFile) throws Exception
+  {
+    final CertificateFactory aCF = new CertificateFactory ();
+    aCF.setFilename (aFile.getAbsolutePath ());
+    aCF.setPassword (PASSWORD);
+    aCF.reinitKeyStore ();
+    return aCF.getCertificates ().size ();
+  }
+
+  @Test
+  public void testSaveImmediately () throws Exception
+  {
+    final File aFile = new File (m_aTempFolder.getRoot (), "keys.p12");
+    final X509Certificate aCert = AS2KeyStoreHelper.readX509Certificate ("src/test/resources/mendelson/key4.cer");
+
+    final CertificateFactory aCF = _createCF (aFile, 0);
+    aCF.addCertificate ("a", aCert, false);
+    assertFalse (aCF.isSavePending ());
+    assertEquals (1, _getCertificateCount (aFile));
+
+    // No temporary files are left over
+    assertEquals (1, m_aTempFolder.getRoot ().listFiles ().length);
+  }
+
+  @Test
+  public void testDelayedSaveOnRequest () throws Exception
+  {
+    final File aFile = new File (m_aTempFolder.getRoot (), "keys.p12");
+    final X509Certificate aCert = AS2KeyStoreHelper.readX509Certificate ("src/test/resources/mendelson/key4.cer");
+
+    final CertificateFactory aCF = _createCF (aFile, 60_000);
+    aCF.addCertificate ("a", aCert, false);
+    aCF.addCertificate ("b", aCert, false);
+    assertTrue (aCF.isSavePending ());
+    assertEquals (0, _getCertificateCount (aFile));
+
+    // E.g. on shutdown
+    aCF.savePendingChanges ();
+    assertFalse (aCF.isSavePending ());
+    assertEquals (2, _getCertificateCount (aFile));
+  }
+
+  @Test
+  public void testDelayedSaveInBackground () throws Exception
+  {
+    final File aFile = new File (m_aTempFolder.getRoot (), "keys.p12");
+    final X509Certificate aCert = AS2KeyStoreHelper.readX509Certificate ("src/test/resources/mendelson/key4.cer");
+
+    final CertificateFactory aCF = _createCF (aFile, 100);
+    aCF.addCertificate ("a", aCert, false);
+    aCF.addCertificate ("b", aCert, false);
+    assertTrue (aCF.isSavePending ());
+
+    // Both changes are saved at once in the background
+    int nCount = 0;
+    for (int i = 0; i < 100 && nCount == 0; ++i)
+    {
+      ThreadHelper.sleep (50);
+      nCount = _getCertificateCount (aFile);
+    }
+    assertEquals (2, nCount);
+    assertFalse (aCF.isSavePending ());
+  }
+
+  private static void _writeCRL (@Nonnull final File aFile, @Nonnull final X509Certificate aRevokedCert) throws Exception
+  {
+    // The CRL signature is not checked, so any key is fine
+    final KeyPairGenerator aKPG = KeyPairGenerator.getInstance ("RSA");
+    aKPG.initialize (2048);
+    final X509v2CRLBuilder aBuilder = new X509v2CRLBuilder (X500Name.getInstance (aRevokedCert.getIssuerX500Principal ()
+                                                                                              .getEncoded ()),
+                                                            new Date ());
+    aBuilder.addCRLEntry (aRevokedCert.getSerialNumber (), new Date (), CRLReason.keyCompromise);
+    final byte [] aEncoded = aBuilder.build (new JcaContentSignerBuilder ("SHA256withRSA").build (aKPG.generateKeyPair ()
+                                                                                                      .getPrivate ()))
+                                     .getEncoded ();
+    try (final OutputStream aOS = FileHelper.getOutputStream (aFile))
+    {
+      aOS.write (aEncoded);
+    }
+  }
+
+  @Test
+  public void testRevocationIsPerFactory () throws Exception
+  {
+    final X509Certificate aCert = AS2KeyStoreHelper.readX509Certificate ("src/test/resources/mendelson/key4.cer");
+    final File aCRLFile = new File (m_aTempFolder.getRoot (), "revoked.crl");
+    _writeCRL (aCRLFile, aCert);
+
+    final CertificateFactory aCF1 = _createCF (new File (m_aTempFolder.getRoot (), "keys1.p12"), 0);
+    aCF1.getCertificateCheckCache ().setCRLFile (aCRLFile);
+    aCF1.addCertificate ("a", aCert, false);
+    final CertificateFactory aCF2 = _createCF (new File (m_aTempFolder.getRoot (), "keys2.p12"), 0);
+    aCF2.addCertificate ("a", aCert, false);
+    assertNotSame (aCF1.getCertificateCheckCache (), aCF2.getCertificateCheckCache ());
+
+    // Only the factory with the CRL file rejects the certificate
+    try
+    {
+      aCF1.internalGetCertificate ("a", ECertificatePartnershipType.SENDER);
+      fail ();
+    }
+    catch (final AS2Exception ex)
+    {
+      // expected
+    }
+    assertSame (aCert, aCF2.internalGetCertificate ("a", ECertificatePartnershipType.SENDER));
+    assertEquals (1, aCF2.getCertificateCheckCache ().getCachedCertificateCount ());
+
+    // Modifying one key store does not clear the cache of the other factory
+    aCF1.removeCertificate ("a");
+    assertEquals (0, aCF1.getCertificateCheckCache ().getCachedCertificateCount ());
+    assertEquals (1, aCF2.getCertificateCheckCache ().getCachedCertificateCount ());
+  }
+}
@@ -50,6 +50,7 @@ import org.junit.Test;
 
 import com.helger.as2lib.util.AS2Helper;
 import com.helger.as2lib.util.AS2HttpHelper;
+import com.helger.as2lib.util.AS2ResourceHelper;
 import com.helger.as2lib.util.cert.AS2KeyStoreHelper;
 import com.helger.commons.exception.InitializationException;
 import com.helger.commons.http.CHttpHeader;
@@ -331,9 +332,58 @@ public final class BCCryptoHelperTest
       final MimeBodyPart aEncrypted = AS2Helper.getCryptoHelper ().encrypt (aPart, CERT_ENCRYPT, eAlgo, EContentTransferEncoding.BASE64);
       assertNotNull (aEncrypted);
 
-      assertArrayEquals (new String [] { "application/pkcs7-mime; name=\"smime.p7m\"; smime-type=enveloped-data" },
+      final String sSmimeType = eAlgo.isAuthEnveloped () ? "authEnveloped-data" : "enveloped-data";
+      assertArrayEquals (new String [] { "application/pkcs7-mime; name=\"smime.p7m\"; smime-type=" + sSmimeType },
                          aEncrypted.getHeader (CHttpHeader.CONTENT_TYPE));
       assertArrayEquals (new String [] { "attachment; filename=\"smime.p7m\"" }, aEncrypted.getHeader (CHttpHeader.CONTENT_DISPOSITION));
+      assertTrue (AS2Helper.getCryptoHelper ().isEncrypted (aEncrypted));
+    }
+  }
+
+  @Test
+  public void testEncryptDecryptWithJDKProviders () throws Exception
+  {
+    final MimeBodyPart aPart = new MimeBodyPart ();
+    aPart.setText ("Hello world");
+
+    final BCCryptoHelper aCryptoHelper = new BCCryptoHelper ().setDigestProviderName ("SUN")
+                                                              .setCipherProviderName ("SunJCE")
+                                                              .setAsymmetricProviderName ("SunJCE");
+    assertNotNull (aCryptoHelper.calculateMIC (aPart, ECryptoAlgorithmSign.DIGEST_SHA_256, true));
+
+    final X509Certificate aCert = (X509Certificate) PKE.getCertificate ();
+    final MimeBodyPart aEncrypted = aCryptoHelper.encrypt (aPart, aCert, ECryptoAlgorithmCrypt.CRYPT_AES128_CBC, EContentTransferEncoding.BASE64);
+    assertNotNull (aEncrypted);
+
+    // Decrypt with the default providers
+    try (final AS2ResourceHelper aResHelper = new AS2ResourceHelper ())
+    {
+      final MimeBodyPart aDecrypted = AS2Helper.getCryptoHelper ().decrypt (aEncrypted, aCert, PKE.getPrivateKey (), false, aResHelper);
+      assertEquals ("Hello world", aDecrypted.getContent ());
+    }
+  }
+
+  @Test
+  public void testEncryptDecryptAuthEnveloped () throws Exception
+  {
+    final MimeBodyPart aPart = new MimeBodyPart ();
+    aPart.setText ("Hello world");
+
+    final X509Certificate aCert = (X509Certificate) PKE.getCertificate ();
+    for (final ECryptoAlgorithmCrypt eAlgo : new ECryptoAlgorithmCrypt [] { ECryptoAlgorithmCrypt.CRYPT_AES128_GCM_AUTHENVELOPED,
+                                                                            ECryptoAlgorithmCrypt.CRYPT_AES256_GCM_AUTHENVELOPED,
+                                                                            ECryptoAlgorithmCrypt.CRYPT_AES256_GCM })
+    {
+      final MimeBodyPart aEncrypted = AS2Helper.getCryptoHelper ().encrypt (aPart, aCert, eAlgo, EContentTransferEncoding.BASE64);
+      assertNotNull (aEncrypted);
+
+      try (final AS2ResourceHelper aResHelper = new AS2ResourceHelper ())
+      {
+        final MimeBodyPart aDecrypted = AS2Helper.getCryptoHelper ()
+                                                 .decrypt (aEncrypted, aCert, PKE.getPrivateKey (), false, aResHelper);
+        assertNotNull (aDecrypted);
+        assertEquals ("Hello world", aDecrypted.getContent ());
+      }
     }
   }
 
@@ -352,6 +402,7 @@ public final class BCCryptoHelperTest
       assertArrayEquals (new String [] { "application/pkcs7-mime; name=\"smime.p7m\"; smime-type=enveloped-data" },
                          aEncrypted.getHeader (CHttpHeader.CONTENT_TYPE));
       assertArrayEquals (new String [] { "attachment; filename=\"smime.p7m\"" }, aEncrypted.getHeader (CHttpHeader.CONTENT_DISPOSITION));
+      assertTrue (AS2Helper.getCryptoHelper ().isEncrypted (aEncrypted));
     }
   }
 
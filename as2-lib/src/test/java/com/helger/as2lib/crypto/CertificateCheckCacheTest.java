@@ -0,0 +1,140 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.security.cert.X509Certificate;
+
+import org.junit.Test;
+
+import com.helger.as2lib.util.cert.AS2KeyStoreHelper;
+import com.helger.security.certificate.CertificateHelper;
+
+/**
+ * Test class for class {@link CertificateCheckCache}.
+ *
+ * @author Philip Helger
+ */
+public final class CertificateCheckCacheTest
+{
+  @Test
+  public void testBasic () throws Exception
+  {
+    final X509Certificate aCert = AS2KeyStoreHelper.readX509Certificate ("src/test/resources/mendelson/key4.cer");
+    final CertificateCheckCache aCache = new CertificateCheckCache ();
+    assertEquals (0, aCache.getCachedCertificateCount ());
+
+    final CertificateCheckCache.CertificateCheckEntry aEntry = aCache.getEntry (aCert);
+    assertNotNull (aEntry);
+    assertSame (aEntry, aCache.getEntry (aCert));
+    assertEquals (1, aCache.getCachedCertificateCount ());
+
+    assertEquals (aCert.getNotBefore ().getTime (), aEntry.getNotBeforeMillis ());
+    assertEquals (aCert.getNotAfter ().getTime (), aEntry.getNotAfterMillis ());
+    assertTrue (aEntry.isValidAt (aEntry.getNotAfterMillis ()));
+
+    assertEquals (CertificateHelper.getPEMEncodedCertificate (aCert), aCache.getPEMEncodedCertificate (aCert));
+    assertSame (aEntry.getPEMEncoded (), aEntry.getPEMEncoded ());
+    assertEquals (64, aEntry.getFingerprintSHA256 ().length ());
+
+    aCache.clearCache ();
+    assertEquals (0, aCache.getCachedCertificateCount ());
+  }
+
+  @Test
+  public void testMaxSizeEvictsLeastRecentlyUsed () throws Exception
+  {
+    final X509Certificate aCert1 = AS2KeyStoreHelper.readX509Certificate ("src/test/resources/mendelson/key4.cer");
+    final X509Certificate aCert2 = AS2KeyStoreHelper.readX509Certificate ("src/test/resources/mendelson/old/key2.cer");
+    final CertificateCheckCache aCache = new CertificateCheckCache ().setMaxSize (1);
+    assertEquals (1, aCache.getMaxSize ());
+
+    final CertificateCheckCache.CertificateCheckEntry aEntry1 = aCache.getEntry (aCert1);
+    aCache.getEntry (aCert2);
+    assertEquals (1, aCache.getCachedCertificateCount ());
+    assertSame (aCert2, aCache.getAllEntries ().getFirst ().getCertificate ());
+
+    // The first entry was evicted and is re-created
+    assertNotSame (aEntry1, aCache.getEntry (aCert1));
+    assertEquals (1, aCache.getCachedCertificateCount ());
+
+    // Shrinking keeps the most recently used entries
+    aCache.setMaxSize (2);
+    aCache.getEntry (aCert2);
+    assertEquals (2, aCache.getCachedCertificateCount ());
+    aCache.setMaxSize (1);
+    assertEquals (1, aCache.getCachedCertificateCount ());
+    assertSame (aCert2, aCache.getAllEntries ().getFirst ().getCertificate ());
+  }
+
+  @Test
+  public void testTTLExpiry () throws Exception
+  {
+    final X509Certificate aCert = AS2KeyStoreHelper.readX509Certificate ("src/test/resources/mendelson/key4.cer");
+    final CertificateCheckCache aCache = new CertificateCheckCache ();
+    final CertificateCheckCache.CertificateCheckEntry aEntry = aCache.getEntry (aCert);
+    assertSame (aEntry, aCache.getEntry (aCert));
+
+    aCache.setTTLMS (1);
+    assertEquals (1, aCache.getTTLMS ());
+    Thread.sleep (5);
+
+    // Expired entries are re-created
+    final CertificateCheckCache.CertificateCheckEntry aEntry2 = aCache.getEntry (aCert);
+    assertNotSame (aEntry, aEntry2);
+    assertEquals (1, aCache.getCachedCertificateCount ());
+  }
+
+  @Test
+  public void testRevocationStateFollowsCRLFile () throws Exception
+  {
+    final X509Certificate aCert = AS2KeyStoreHelper.readX509Certificate ("src/test/resources/mendelson/key4.cer");
+    final CertificateCheckCache aCache = new CertificateCheckCache ();
+    assertFalse (aCache.isRevoked (aCert));
+
+    // A non-existing CRL file revokes nothing
+    aCache.setCRLFile (new File ("target/does-not-exist.crl"));
+    assertFalse (aCache.isRevoked (aCert));
+    assertEquals (1, aCache.getCachedCertificateCount ());
+
+    aCache.setCRLFile (null);
+    assertFalse (aCache.isRevoked (aCert));
+  }
+}
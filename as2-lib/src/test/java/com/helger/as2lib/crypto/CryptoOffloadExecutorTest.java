@@ -0,0 +1,220 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyStore;
+import java.security.KeyStore.PrivateKeyEntry;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+import javax.mail.internet.MimeBodyPart;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.helger.as2lib.util.AS2Helper;
+import com.helger.as2lib.util.AS2ResourceHelper;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.mail.cte.EContentTransferEncoding;
+import com.helger.security.keystore.EKeyStoreType;
+import com.helger.security.keystore.KeyStoreHelper;
+
+/**
+ * Test class for class {@link CryptoOffloadExecutor}.
+ *
+ * @author Philip Helger
+ */
+public final class CryptoOffloadExecutorTest
+{
+  private static final String PATH = "src/test/resources/mendelson/key3.pfx";
+  private static final KeyStore KS = KeyStoreHelper.loadKeyStore (EKeyStoreType.PKCS12, PATH, "test").getKeyStore ();
+  private static final PrivateKeyEntry PKE = KeyStoreHelper.loadPrivateKey (KS, PATH, "key3", "test".toCharArray ()).getKeyEntry ();
+
+  @After
+  public void after ()
+  {
+    CryptoOffloadExecutor.setEnabled (false);
+    CryptoOffloadExecutor.setMaxThreads (Runtime.getRuntime ().availableProcessors ());
+    CryptoOffloadExecutor.setQueueSize (-1);
+    CryptoOffloadExecutor.shutdown ();
+  }
+
+  @Nonnull
+  private static MimeBodyPart _sign (@Nonnull final MimeBodyPart aPart) throws Exception
+  {
+    return AS2Helper.getCryptoHelper ()
+                    .sign (aPart,
+                           (X509Certificate) PKE.getCertificate (),
+                           PKE.getPrivateKey (),
+                           ECryptoAlgorithmSign.DIGEST_SHA_256,
+                           true,
+                           false,
+                           false,
+                           EContentTransferEncoding.BASE64);
+  }
+
+  @Nonnull
+  private static MimeBodyPart _verify (@Nonnull final MimeBodyPart aSigned, @Nonnull final AS2ResourceHelper aResHelper) throws Exception
+  {
+    return AS2Helper.getCryptoHelper ().verify (aSigned, (X509Certificate) PKE.getCertificate (), false, false, null, aResHelper);
+  }
+
+  @Nonnull
+  private static String _getMIC (@Nonnull final MimeBodyPart aPart) throws Exception
+  {
+    return AS2Helper.getCryptoHelper ().calculateMIC (aPart, ECryptoAlgorithmSign.DIGEST_SHA_256, true).getAsAS2String ();
+  }
+
+  @Test
+  public void testSignVerifyMatchesInline () throws Exception
+  {
+    final MimeBodyPart aPart = new MimeBodyPart ();
+    aPart.setText ("Hello world");
+
+    final MimeBodyPart aSignedInline = _sign (aPart);
+    CryptoOffloadExecutor.setEnabled (true);
+    assertTrue (CryptoOffloadExecutor.execute ( () -> Thread.currentThread ().getName ()).startsWith ("AS2-Crypto-"));
+    final MimeBodyPart aSignedOffloaded = CryptoOffloadExecutor.execute ( () -> _sign (aPart));
+
+    try (final AS2ResourceHelper aResHelper = new AS2ResourceHelper ())
+    {
+      // Each signature can be verified inline and offloaded with the same
+      // result
+      final String sExpectedMIC = _getMIC (_verify (aSignedInline, aResHelper));
+      for (final MimeBodyPart aSigned : new MimeBodyPart [] { aSignedInline, aSignedOffloaded })
+      {
+        assertEquals (sExpectedMIC, _getMIC (CryptoOffloadExecutor.execute ( () -> _verify (aSigned, aResHelper))));
+        assertEquals (sExpectedMIC, _getMIC (_verify (aSigned, aResHelper)));
+      }
+    }
+  }
+
+  @Test
+  public void testRunInCallerIfQueueIsFull () throws Exception
+  {
+    CryptoOffloadExecutor.setEnabled (true);
+    CryptoOffloadExecutor.setMaxThreads (1);
+    CryptoOffloadExecutor.setQueueSize (1);
+
+    // Occupy the only thread
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final Thread aBlocker = new Thread ( () -> {
+      try
+      {
+        CryptoOffloadExecutor.execute ( () -> {
+          aStarted.countDown ();
+          ThreadHelper.sleep (500);
+          return null;
+        });
+      }
+      catch (final Exception ex)
+      {
+        throw new IllegalStateException (ex);
+      }
+    });
+    aBlocker.start ();
+    assertTrue (aStarted.await (10, TimeUnit.SECONDS));
+
+    // Fill the queue
+    final Thread aQueued = new Thread ( () -> {
+      try
+      {
+        CryptoOffloadExecutor.execute ( () -> null);
+      }
+      catch (final Exception ex)
+      {
+        throw new IllegalStateException (ex);
+      }
+    });
+    aQueued.start ();
+    ThreadHelper.sleep (100);
+
+    // Executed directly in the calling thread
+    final String sThreadName = CryptoOffloadExecutor.execute ( () -> Thread.currentThread ().getName ());
+    assertEquals (Thread.currentThread ().getName (), sThreadName);
+
+    aBlocker.join ();
+    aQueued.join ();
+    assertFalse (aQueued.isAlive ());
+  }
+
+  @Test
+  public void testCancelIfCallerIsInterrupted () throws Exception
+  {
+    CryptoOffloadExecutor.setEnabled (true);
+
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aTaskInterrupted = new CountDownLatch (1);
+    final AtomicBoolean aCallerInterrupted = new AtomicBoolean (false);
+    final Thread aCaller = new Thread ( () -> {
+      try
+      {
+        CryptoOffloadExecutor.execute ( () -> {
+          aStarted.countDown ();
+          try
+          {
+            Thread.sleep (10_000);
+          }
+          catch (final InterruptedException ex)
+          {
+            aTaskInterrupted.countDown ();
+          }
+          return null;
+        });
+      }
+      catch (final InterruptedException ex)
+      {
+        aCallerInterrupted.set (true);
+      }
+      catch (final Exception ex)
+      {
+        throw new IllegalStateException (ex);
+      }
+    });
+    aCaller.start ();
+    assertTrue (aStarted.await (10, TimeUnit.SECONDS));
+
+    aCaller.interrupt ();
+    aCaller.join ();
+    assertTrue (aCallerInterrupted.get ());
+    // The running operation was cancelled
+    assertTrue (aTaskInterrupted.await (10, TimeUnit.SECONDS));
+  }
+}
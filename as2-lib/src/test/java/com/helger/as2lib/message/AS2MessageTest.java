@@ -0,0 +1,64 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.message;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.serialize.SerializationHelper;
+
+/**
+ * Test class for class {@link AS2Message}.
+ *
+ * @author Philip Helger
+ */
+public final class AS2MessageTest
+{
+  @Test
+  public void testSerializeHeaders ()
+  {
+    final AS2Message aMsg = new AS2Message ();
+    aMsg.headers ().addHeader ("Content-Type", "text/plain");
+    aMsg.headers ().addHeader ("X-Multi", "a");
+    aMsg.headers ().addHeader ("X-Multi", "b");
+    aMsg.attrs ().putIn ("attr", "value");
+
+    final byte [] aBytes = SerializationHelper.getSerializedByteArray (aMsg);
+    final AS2Message aRead = SerializationHelper.getDeserializedObject (aBytes);
+    assertEquals ("text/plain", aRead.getHeader ("Content-Type"));
+    assertEquals (new CommonsArrayList <> ("a", "b"), aRead.headers ().getAllHeaderValues ("X-Multi"));
+    assertEquals ("value", aRead.attrs ().getAsString ("attr"));
+  }
+}
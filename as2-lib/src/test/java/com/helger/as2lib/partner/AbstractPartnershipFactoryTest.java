@@ -0,0 +1,171 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.as2lib.exception.AS2Exception;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.state.EChange;
+
+/**
+ * Test class for class {@link AbstractPartnershipFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class AbstractPartnershipFactoryTest
+{
+  private static final class CountingPartnershipFactory extends AbstractPartnershipFactory
+  {
+    private final AtomicInteger m_aChangeCount = new AtomicInteger (0);
+
+    @Override
+    protected void markAsChanged () throws AS2Exception
+    {
+      m_aChangeCount.incrementAndGet ();
+    }
+  }
+
+  @Nonnull
+  private static Partnership _create (final int nIndex)
+  {
+    final Partnership ret = new Partnership ("p" + nIndex);
+    ret.setSenderAS2ID ("s" + nIndex);
+    ret.setReceiverAS2ID ("r" + nIndex);
+    return ret;
+  }
+
+  @Test
+  public void testBatchModifications () throws Exception
+  {
+    final CountingPartnershipFactory aPF = new CountingPartnershipFactory ();
+    final ICommonsList <Partnership> aPartnerships = new CommonsArrayList <> ();
+    for (int i = 0; i < 10; ++i)
+      aPartnerships.add (_create (i));
+
+    // One change for all partnerships
+    assertEquals (EChange.CHANGED, aPF.addPartnerships (aPartnerships));
+    assertEquals (1, aPF.m_aChangeCount.get ());
+    assertEquals (10, aPF.getAllPartnerships ().size ());
+    assertEquals ("p3",
+                  aPF.getPartnershipMap ()
+                     .getPartnershipByID (aPartnerships.get (3).getAllSenderIDs (), aPartnerships.get (3).getAllReceiverIDs ())
+                     .getName ());
+
+    // Already present
+    assertEquals (EChange.UNCHANGED, aPF.addPartnerships (aPartnerships.subList (0, 5)));
+    assertEquals (1, aPF.m_aChangeCount.get ());
+
+    assertEquals (EChange.CHANGED, aPF.removePartnerships (aPartnerships.subList (0, 5)));
+    assertEquals (2, aPF.m_aChangeCount.get ());
+    assertEquals (5, aPF.getAllPartnerships ().size ());
+    assertNull (aPF.getPartnershipByName ("p0"));
+    assertNotNull (aPF.getPartnershipByName ("p5"));
+
+    assertEquals (EChange.UNCHANGED, aPF.removePartnerships (aPartnerships.subList (0, 5)));
+    assertEquals (2, aPF.m_aChangeCount.get ());
+  }
+
+  @Test
+  public void testSnapshotUnaffectedByConcurrentAdd () throws Exception
+  {
+    final CountingPartnershipFactory aPF = new CountingPartnershipFactory ();
+    for (int i = 0; i < 10; ++i)
+      aPF.addPartnership (_create (i));
+
+    final IPartnershipMap aSnapshot = aPF.getPartnershipMap ();
+    final Thread aWriter = new Thread ( () -> {
+      try
+      {
+        for (int i = 10; i < 1000; ++i)
+          aPF.addPartnership (_create (i));
+      }
+      catch (final AS2Exception ex)
+      {
+        throw new IllegalStateException (ex);
+      }
+    });
+    aWriter.start ();
+
+    // Read the snapshot while it is modified
+    final Partnership aLast = _create (999);
+    while (aWriter.isAlive ())
+    {
+      assertEquals (10, aSnapshot.getAllPartnerships ().size ());
+      assertNull (aSnapshot.getPartnershipByName ("p999"));
+      assertNull (aSnapshot.getPartnershipByID (aLast.getAllSenderIDs (), aLast.getAllReceiverIDs ()));
+    }
+    aWriter.join ();
+
+    assertEquals (10, aSnapshot.getAllPartnershipNames ().size ());
+    assertEquals (1000, aPF.getAllPartnershipNames ().size ());
+    assertNotNull (aPF.getPartnershipMap ().getPartnershipByID (aLast.getAllSenderIDs (), aLast.getAllReceiverIDs ()));
+  }
+
+  @Test
+  public void testModificationsDoNotAffectIndexes () throws Exception
+  {
+    final CountingPartnershipFactory aPF = new CountingPartnershipFactory ();
+    final Partnership aAdded = _create (1);
+    aPF.addPartnership (aAdded);
+    final Partnership aLookup = _create (1);
+
+    // Modifying the added partnership has no effect
+    aAdded.setSenderAS2ID ("other");
+    assertEquals ("s1", aPF.getPartnershipByName ("p1").getSenderAS2ID ());
+
+    // Modifying a returned partnership has no effect
+    final Partnership aReturned = aPF.getPartnershipByName ("p1");
+    assertNotSame (aReturned, aPF.getPartnershipByName ("p1"));
+    aReturned.setSenderAS2ID ("other");
+    aPF.getAllPartnerships ().getFirst ().setReceiverAS2ID ("other");
+    assertEquals ("s1", aPF.getPartnershipByName ("p1").getSenderAS2ID ());
+    assertEquals ("r1", aPF.getPartnershipByName ("p1").getReceiverAS2ID ());
+
+    // The ID lookup still works
+    assertEquals ("p1", aPF.getPartnershipMap ().getPartnershipByID (aLookup.getAllSenderIDs (), aLookup.getAllReceiverIDs ()).getName ());
+    aLookup.setName ("unknown");
+    assertEquals ("p1", aPF.getPartnership (aLookup).getName ());
+    assertNull (aPF.getPartnershipMap ().getPartnershipByID (aReturned.getAllSenderIDs (), aLookup.getAllReceiverIDs ()));
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ThreadHelper;
+
+/**
+ * Test class for class {@link PartnershipCache}.
+ *
+ * @author Philip Helger
+ */
+public final class PartnershipCacheTest
+{
+  @Test
+  public void testSizeAndTTL ()
+  {
+    final PartnershipCache aCache = new PartnershipCache ();
+    aCache.setMaxSize (2);
+    final Partnership p1 = new Partnership ("p1");
+    final Partnership p2 = new Partnership ("p2");
+    final Partnership p3 = new Partnership ("p3");
+    aCache.put ("a", p1);
+    aCache.put ("b", p2);
+    // Access "a" so that "b" is the least recently used one
+    assertEquals ("p1", aCache.get ("a").getName ());
+    aCache.put ("c", p3);
+    assertEquals (2, aCache.size ());
+    assertEquals ("p1", aCache.get ("a").getName ());
+    assertNull (aCache.get ("b"));
+    assertEquals ("p3", aCache.get ("c").getName ());
+
+    aCache.clear ();
+    assertEquals (0, aCache.size ());
+
+    // Expiration
+    aCache.setTTLMS (1);
+    aCache.put ("a", p1);
+    ThreadHelper.sleep (20);
+    assertNull (aCache.get ("a"));
+
+    // Disabled
+    aCache.setTTLMS (0);
+    aCache.put ("a", p1);
+    assertNull (aCache.get ("a"));
+  }
+
+  @Test
+  public void testCachedPartnershipsAreNotShared ()
+  {
+    final PartnershipCache aCache = new PartnershipCache ();
+    final Partnership p1 = new Partnership ("p1");
+    p1.setSenderAS2ID ("s");
+    aCache.put ("a", p1);
+
+    // Modifying the original does not modify the cache
+    p1.setSenderAS2ID ("changed");
+    final Partnership aCached = aCache.get ("a");
+    assertEquals ("s", aCached.getSenderAS2ID ());
+
+    // Modifying the returned instance does not modify the cache
+    aCached.setSenderAS2ID ("changed");
+    aCached.setAttribute ("x", "y");
+    final Partnership aCached2 = aCache.get ("a");
+    assertNotSame (aCached, aCached2);
+    assertEquals ("s", aCached2.getSenderAS2ID ());
+    assertNull (aCached2.getAttribute ("x"));
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.attr.StringMap;
+
+/**
+ * Test class for class {@link PartnershipMap}.
+ *
+ * @author Philip Helger
+ */
+public final class PartnershipMapTest
+{
+  private static StringMap _map (final String sKey, final String sValue)
+  {
+    final StringMap ret = new StringMap ();
+    ret.putIn (sKey, sValue);
+    return ret;
+  }
+
+  @Test
+  public void testGetByID ()
+  {
+    final PartnershipMap aMap = new PartnershipMap ();
+
+    final Partnership p1 = new Partnership ("p1");
+    p1.setSenderAS2ID ("s1");
+    p1.setReceiverAS2ID ("r1");
+    p1.setSenderEmail ("s1@example.org");
+    p1.setReceiverEmail ("r1@example.org");
+    assertTrue (aMap.addPartnership (p1).isChanged ());
+
+    final Partnership p2 = new Partnership ("p2");
+    p2.setSenderAS2ID ("s1");
+    p2.setReceiverAS2ID ("r1");
+    p2.setSenderX509Alias ("alias2");
+    assertTrue (aMap.addPartnership (p2).isChanged ());
+
+    final Partnership p3 = new Partnership ("p3");
+    p3.setSenderX509Alias ("alias3");
+    p3.setReceiverX509Alias ("alias3r");
+    assertTrue (aMap.addPartnership (p3).isChanged ());
+
+    // AS2 ID index - first match wins
+    assertSame (p1, aMap.getPartnershipByID (_map (CPartnershipIDs.PID_AS2, "s1"), _map (CPartnershipIDs.PID_AS2, "r1")));
+    // Additional IDs must match as well
+    final StringMap aSender = _map (CPartnershipIDs.PID_AS2, "s1");
+    aSender.putIn (CPartnershipIDs.PID_X509_ALIAS, "alias2");
+    assertSame (p2, aMap.getPartnershipByID (aSender, _map (CPartnershipIDs.PID_AS2, "r1")));
+    assertNull (aMap.getPartnershipByID (_map (CPartnershipIDs.PID_AS2, "s1"), _map (CPartnershipIDs.PID_AS2, "r2")));
+
+    // Email index
+    assertSame (p1,
+                aMap.getPartnershipByID (_map (CPartnershipIDs.PID_EMAIL, "s1@example.org"),
+                                         _map (CPartnershipIDs.PID_EMAIL, "r1@example.org")));
+
+    // Not indexed
+    assertSame (p3,
+                aMap.getPartnershipByID (_map (CPartnershipIDs.PID_X509_ALIAS, "alias3"),
+                                         _map (CPartnershipIDs.PID_X509_ALIAS, "alias3r")));
+
+    // Remove
+    assertTrue (aMap.removePartnership (p1).isChanged ());
+    assertSame (p2, aMap.getPartnershipByID (_map (CPartnershipIDs.PID_AS2, "s1"), _map (CPartnershipIDs.PID_AS2, "r1")));
+    assertNull (aMap.getPartnershipByID (_map (CPartnershipIDs.PID_EMAIL, "s1@example.org"),
+                                         _map (CPartnershipIDs.PID_EMAIL, "r1@example.org")));
+
+    // Modify IDs in place
+    p2.setReceiverAS2ID ("r2");
+    aMap.reindex ();
+    assertSame (p2, aMap.getPartnershipByID (_map (CPartnershipIDs.PID_AS2, "s1"), _map (CPartnershipIDs.PID_AS2, "r2")));
+  }
+
+  @Test
+  public void testCloneIndexesAreIndependent ()
+  {
+    final PartnershipMap aMap = new PartnershipMap ();
+    final Partnership p1 = new Partnership ("p1");
+    p1.setSenderAS2ID ("s1");
+    p1.setReceiverAS2ID ("r1");
+    aMap.addPartnership (p1);
+
+    final PartnershipMap aClone = aMap.getClone ();
+
+    // Same index key in the original
+    final Partnership p2 = new Partnership ("p2");
+    p2.setSenderAS2ID ("s1");
+    p2.setReceiverAS2ID ("r1");
+    aMap.addPartnership (p2);
+    aMap.removePartnership (p1);
+    assertSame (p2, aMap.getPartnershipByID (_map (CPartnershipIDs.PID_AS2, "s1"), _map (CPartnershipIDs.PID_AS2, "r1")));
+
+    // Clone is unaffected
+    assertSame (p1, aClone.getPartnershipByID (_map (CPartnershipIDs.PID_AS2, "s1"), _map (CPartnershipIDs.PID_AS2, "r1")));
+    assertNull (aClone.getPartnershipByName ("p2"));
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.helger.as2lib.crypto.ECompressionType;
+import com.helger.as2lib.crypto.ECryptoAlgorithmCrypt;
+import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
+import com.helger.commons.state.ETriState;
+
+/**
+ * Test class for class {@link Partnership}.
+ *
+ * @author Philip Helger
+ */
+public final class PartnershipTest
+{
+  @Test
+  public void testSetBasePartnership ()
+  {
+    final Partnership aBase = new Partnership ("base");
+    aBase.setSenderAS2ID ("s1");
+    aBase.setReceiverAS2ID ("r1");
+    aBase.setAttribute (CPartnershipIDs.PA_SUBJECT, "subject");
+    aBase.setAttribute (CPartnershipIDs.PA_PROTOCOL, "as2");
+
+    final Partnership aMsg = Partnership.createPlaceholderPartnership ();
+    aMsg.setSenderAS2ID ("other");
+    aMsg.setAttribute ("own", "value");
+    aMsg.setBasePartnership (aBase);
+
+    // Base values take precedence, like with copyFrom
+    assertEquals ("base", aMsg.getName ());
+    assertEquals ("s1", aMsg.getSenderAS2ID ());
+    assertEquals ("r1", aMsg.getReceiverAS2ID ());
+    assertEquals ("subject", aMsg.getSubject ());
+    assertEquals ("value", aMsg.getAttribute ("own"));
+    assertEquals (3, aMsg.getAllAttributes ().size ());
+    assertTrue (aMsg.matches (aBase));
+
+    // Modifications don't touch the base
+    aMsg.setSubject ("new");
+    assertTrue (aMsg.setAttribute (CPartnershipIDs.PA_PROTOCOL, null).isChanged ());
+    assertFalse (aMsg.setAttribute (CPartnershipIDs.PA_PROTOCOL, null).isChanged ());
+    assertEquals ("new", aMsg.getSubject ());
+    assertNull (aMsg.getAttribute (CPartnershipIDs.PA_PROTOCOL));
+    assertFalse (aMsg.getAllAttributes ().containsKey (CPartnershipIDs.PA_PROTOCOL));
+    assertEquals ("subject", aBase.getSubject ());
+    assertEquals ("as2", aBase.getAttribute (CPartnershipIDs.PA_PROTOCOL));
+    assertEquals (2, aBase.getAllAttributes ().size ());
+
+    // Same result as copying
+    final Partnership aCopy = Partnership.createPlaceholderPartnership ();
+    aCopy.setSenderAS2ID ("other");
+    aCopy.setAttribute ("own", "value");
+    aCopy.copyFrom (aBase);
+    final Partnership aOverlay = Partnership.createPlaceholderPartnership ();
+    aOverlay.setSenderAS2ID ("other");
+    aOverlay.setAttribute ("own", "value");
+    aOverlay.setBasePartnership (aBase);
+    assertEquals (aCopy.getAllSenderIDs (), aOverlay.getAllSenderIDs ());
+    assertEquals (aCopy.getAllReceiverIDs (), aOverlay.getAllReceiverIDs ());
+    assertEquals (aCopy.getAllAttributes (), aOverlay.getAllAttributes ());
+  }
+
+  @Test
+  public void testSettings ()
+  {
+    final Partnership aBase = new Partnership ("base");
+    aBase.setSigningAlgorithm (ECryptoAlgorithmSign.DIGEST_SHA_256);
+    aBase.setEncryptAlgorithm (ECryptoAlgorithmCrypt.CRYPT_AES128_CBC);
+    aBase.setCompressionType ("unknown");
+    aBase.setDisableVerify (true);
+    aBase.setIncludeCertificateInSignedContent (ETriState.FALSE);
+
+    final PartnershipSettings aSettings = aBase.getSettings ();
+    assertSame (aSettings, aBase.getSettings ());
+    assertEquals (ECryptoAlgorithmSign.DIGEST_SHA_256, aSettings.getSigningAlgorithm ());
+    assertEquals (ECryptoAlgorithmCrypt.CRYPT_AES128_CBC, aSettings.getEncryptAlgorithm ());
+    assertEquals ("unknown", aSettings.getCompressionTypeID ());
+    assertNull (aSettings.getCompressionType ());
+    assertTrue (aSettings.isIncludeHeadersInMIC ());
+    assertTrue (aSettings.isDisableVerify ());
+    assertFalse (aSettings.isForceVerify ());
+    assertEquals (ETriState.FALSE, aSettings.getIncludeCertificateInSignedContent ());
+    assertEquals (ETriState.UNDEFINED, aSettings.getVerifyUseCertificateInBodyPart ());
+
+    // Overlay without own attributes shares the settings
+    final Partnership aMsg = Partnership.createPlaceholderPartnership ();
+    aMsg.setSenderAS2ID ("s1");
+    aMsg.setBasePartnership (aBase);
+    assertSame (aSettings, aMsg.getSettings ());
+
+    // Own attributes create own settings
+    aMsg.setCompressionType (ECompressionType.ZLIB);
+    final PartnershipSettings aMsgSettings = aMsg.getSettings ();
+    assertNotSame (aSettings, aMsgSettings);
+    assertEquals (ECompressionType.ZLIB, aMsgSettings.getCompressionType ());
+    assertSame (aSettings, aBase.getSettings ());
+
+    // Modification invalidates
+    aBase.setDisableVerify (false);
+    assertNotSame (aSettings, aBase.getSettings ());
+    assertFalse (aBase.getSettings ().isDisableVerify ());
+  }
+}
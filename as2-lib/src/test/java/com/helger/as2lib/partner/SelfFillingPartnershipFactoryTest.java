@@ -0,0 +1,156 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.as2lib.session.AS2Session;
+import com.helger.commons.collection.attr.StringMap;
+import com.helger.commons.concurrent.ThreadHelper;
+
+/**
+ * Test class for class {@link SelfFillingPartnershipFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class SelfFillingPartnershipFactoryTest
+{
+  @Nonnull
+  private static Partnership _createStub (final String sSender, final String sReceiver)
+  {
+    final Partnership ret = new Partnership (Partnership.DEFAULT_NAME);
+    ret.setSenderAS2ID (sSender);
+    ret.setReceiverAS2ID (sReceiver);
+    return ret;
+  }
+
+  @Test
+  public void testMaxSize () throws Exception
+  {
+    final SelfFillingPartnershipFactory aPF = new SelfFillingPartnershipFactory ();
+    final AutoCreatedPartnerships aAutoCreated = aPF.getAutoCreatedPartnerships ();
+    aAutoCreated.setMaxSize (2);
+
+    // Configured partnership is pinned
+    final Partnership aConfigured = new Partnership ("configured");
+    aConfigured.setSenderAS2ID ("cs");
+    aConfigured.setReceiverAS2ID ("cr");
+    aPF.addPartnership (aConfigured);
+
+    aPF.getPartnership (_createStub ("a", "x"));
+    aPF.getPartnership (_createStub ("b", "x"));
+    // Touch "a-x" so that "b-x" is the least recently used one
+    aPF.getPartnership (_createStub ("a", "x"));
+    aPF.getPartnership (_createStub ("c", "x"));
+
+    assertEquals (3, aPF.getAllPartnershipNames ().size ());
+    assertNotNull (aPF.getPartnershipByName ("configured"));
+    assertNotNull (aPF.getPartnershipByName ("a-x"));
+    assertNull (aPF.getPartnershipByName ("b-x"));
+    assertNotNull (aPF.getPartnershipByName ("c-x"));
+
+    assertEquals (1, aAutoCreated.getHitCount ());
+    assertEquals (3, aAutoCreated.getMissCount ());
+    assertEquals (1, aAutoCreated.getEvictionCount ());
+    assertEquals (2, aAutoCreated.size ());
+  }
+
+  @Test
+  public void testMaxIdle () throws Exception
+  {
+    final SelfFillingPartnershipFactory aPF = new SelfFillingPartnershipFactory ();
+    final AutoCreatedPartnerships aAutoCreated = aPF.getAutoCreatedPartnerships ();
+    aAutoCreated.setMaxIdleMS (50);
+
+    aPF.getPartnership (_createStub ("a", "x"));
+    assertEquals (0, aPF.evictIdlePartnerships ());
+    ThreadHelper.sleep (100);
+    aPF.getPartnership (_createStub ("b", "x"));
+
+    assertNull (aPF.getPartnershipByName ("a-x"));
+    assertNotNull (aPF.getPartnershipByName ("b-x"));
+    assertEquals (1, aAutoCreated.getEvictionCount ());
+
+    ThreadHelper.sleep (100);
+    assertEquals (1, aPF.evictIdlePartnerships ());
+    assertEquals (0, aPF.getAllPartnershipNames ().size ());
+    assertEquals (2, aAutoCreated.getEvictionCount ());
+  }
+
+  @Test
+  public void testMaxIdleOnLookup () throws Exception
+  {
+    final SelfFillingPartnershipFactory aPF = new SelfFillingPartnershipFactory ();
+    final AutoCreatedPartnerships aAutoCreated = aPF.getAutoCreatedPartnerships ();
+    aAutoCreated.setMaxIdleMS (50);
+
+    aPF.getPartnership (_createStub ("a", "x"));
+    aPF.getPartnership (_createStub ("b", "x"));
+    ThreadHelper.sleep (100);
+
+    // A lookup of an existing partnership also evicts the idle ones
+    aPF.getPartnership (_createStub ("b", "x"));
+    assertNull (aPF.getPartnershipByName ("a-x"));
+    assertNotNull (aPF.getPartnershipByName ("b-x"));
+    assertEquals (1, aAutoCreated.getHitCount ());
+    assertEquals (1, aAutoCreated.getEvictionCount ());
+    assertEquals (1, aAutoCreated.size ());
+  }
+
+  @Test
+  public void testLimitsFromAttributes () throws Exception
+  {
+    final SelfFillingPartnershipFactory aPF = new SelfFillingPartnershipFactory ();
+    final StringMap aAttrs = new StringMap ();
+    aAttrs.putIn (AutoCreatedPartnerships.ATTR_MAX_AUTO_CREATED, 5);
+    aAttrs.putIn (AutoCreatedPartnerships.ATTR_AUTO_CREATED_MAX_IDLE, 30);
+    aPF.initDynamicComponent (new AS2Session (), aAttrs);
+
+    final AutoCreatedPartnerships aAutoCreated = aPF.getAutoCreatedPartnerships ();
+    assertEquals (5, aAutoCreated.getMaxSize ());
+    // Configured in seconds
+    assertEquals (30_000, aAutoCreated.getMaxIdleMS ());
+
+    // Missing attributes use the defaults
+    final SelfFillingPartnershipFactory aPF2 = new SelfFillingPartnershipFactory ();
+    aPF2.initDynamicComponent (new AS2Session (), null);
+    assertEquals (AutoCreatedPartnerships.DEFAULT_MAX_SIZE, aPF2.getAutoCreatedPartnerships ().getMaxSize ());
+    assertEquals (AutoCreatedPartnerships.DEFAULT_MAX_IDLE_MS, aPF2.getAutoCreatedPartnerships ().getMaxIdleMS ());
+  }
+}
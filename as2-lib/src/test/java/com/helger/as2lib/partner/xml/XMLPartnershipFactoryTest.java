@@ -0,0 +1,239 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.as2lib.exception.AS2Exception;
+import com.helger.as2lib.partner.AutoCreatedPartnerships;
+import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.partner.PartnershipMap;
+import com.helger.as2lib.session.AS2Session;
+
+/**
+ * Test class for class {@link XMLPartnershipFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class XMLPartnershipFactoryTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Nonnull
+  private static Partnership _create (@Nonnull final String sName, @Nonnull final String sSubject)
+  {
+    final Partnership ret = new Partnership (sName);
+    ret.setSenderAS2ID (sName + "-s");
+    ret.setReceiverAS2ID (sName + "-r");
+    ret.setSubject (sSubject);
+    return ret;
+  }
+
+  @Test
+  public void testGetMergedPartnerships ()
+  {
+    final PartnershipMap aOld = new PartnershipMap ();
+    final Partnership p1 = _create ("p1", "s1");
+    final Partnership p2 = _create ("p2", "s2");
+    final Partnership p3 = _create ("p3", "s3");
+    aOld.addPartnership (p1);
+    aOld.addPartnership (p2);
+    aOld.addPartnership (p3);
+
+    // Identical content
+    PartnershipMap aNew = new PartnershipMap ();
+    aNew.addPartnership (_create ("p1", "s1"));
+    aNew.addPartnership (_create ("p2", "s2"));
+    aNew.addPartnership (_create ("p3", "s3"));
+    assertNull (XMLPartnershipFactory.getMergedPartnerships (aOld, aNew));
+
+    // p2 changed, p3 removed, p4 added
+    aNew = new PartnershipMap ();
+    aNew.addPartnership (_create ("p1", "s1"));
+    final Partnership p2New = _create ("p2", "s2-new");
+    aNew.addPartnership (p2New);
+    final Partnership p4 = _create ("p4", "s4");
+    aNew.addPartnership (p4);
+    final PartnershipMap aMerged = XMLPartnershipFactory.getMergedPartnerships (aOld, aNew);
+    assertNotNull (aMerged);
+    assertSame (p1, aMerged.getPartnershipByName ("p1"));
+    assertSame (p2New, aMerged.getPartnershipByName ("p2"));
+    assertNotSame (p2, aMerged.getPartnershipByName ("p2"));
+    assertNull (aMerged.getPartnershipByName ("p3"));
+    assertSame (p4, aMerged.getPartnershipByName ("p4"));
+  }
+
+  @Test
+  public void testStoreWithBoundedBackups () throws Exception
+  {
+    final File aFile = new File (m_aTempFolder.getRoot (), "partnerships.xml");
+    final XMLPartnershipFactory aPF = new XMLPartnershipFactory ();
+    aPF.setFilename (aFile.getAbsolutePath ());
+    aPF.setMaxBackups (2);
+    for (int i = 0; i < 5; ++i)
+    {
+      aPF.addPartnership (_create ("p" + i, "s" + i));
+      aPF.storePartnership ();
+    }
+    assertTrue (aFile.exists ());
+    final String [] aBackups = m_aTempFolder.getRoot ().list ( (d, n) -> n.startsWith ("partnerships.xml."));
+    assertNotNull (aBackups);
+    assertEquals (2, aBackups.length);
+
+    // Read it back
+    final XMLPartnershipFactory aPF2 = new XMLPartnershipFactory ();
+    aPF2.setFilename (aFile.getAbsolutePath ());
+    aPF2.refreshPartnershipFactory ();
+    assertEquals (5, aPF2.getAllPartnershipNames ().size ());
+  }
+
+  @Test
+  public void testStoreDelayed () throws AS2Exception
+  {
+    final File aFile = new File (m_aTempFolder.getRoot (), "delayed.xml");
+    final XMLPartnershipFactory aPF = new XMLPartnershipFactory ();
+    aPF.setFilename (aFile.getAbsolutePath ());
+    aPF.setStoreDelayMS (60_000);
+    aPF.addPartnership (_create ("p1", "s1"));
+    aPF.storePartnershipDelayed ();
+    aPF.storePartnershipDelayed ();
+    assertTrue (aPF.isStorePending ());
+    assertFalse (aFile.exists ());
+
+    aPF.savePendingChanges ();
+    assertFalse (aPF.isStorePending ());
+    assertTrue (aFile.exists ());
+  }
+
+  @Test
+  public void testStoreDelayedOnSessionShutdown () throws AS2Exception
+  {
+    final File aFile = new File (m_aTempFolder.getRoot (), "delayed.xml");
+    final XMLPartnershipFactory aPF = new XMLPartnershipFactory ();
+    aPF.setFilename (aFile.getAbsolutePath ());
+    aPF.setStoreDelayMS (60_000);
+    final AS2Session aSession = new AS2Session ();
+    aSession.setPartnershipFactory (aPF);
+
+    aPF.addPartnership (_create ("p1", "s1"));
+    aPF.storePartnershipDelayed ();
+    assertTrue (aPF.isStorePending ());
+    assertFalse (aFile.exists ());
+
+    aSession.savePendingChanges ();
+    assertFalse (aPF.isStorePending ());
+    assertTrue (aFile.exists ());
+  }
+
+  @Test
+  public void testSelfFillingStoresCreatedPartnerships () throws AS2Exception
+  {
+    final File aFile = new File (m_aTempFolder.getRoot (), "selffilling.xml");
+    final XMLPartnershipFactory aInitialPF = new XMLPartnershipFactory ();
+    aInitialPF.setFilename (aFile.getAbsolutePath ());
+    aInitialPF.addPartnership (_create ("p1", "s1"));
+    aInitialPF.storePartnership ();
+
+    final SelfFillingXMLPartnershipFactory aPF = new SelfFillingXMLPartnershipFactory ();
+    aPF.setFilename (aFile.getAbsolutePath ());
+    aPF.setStoreDelayMS (60_000);
+    aPF.refreshPartnershipFactory ();
+    // Loading does not store
+    assertFalse (aPF.isStorePending ());
+    assertEquals (1, aPF.getAllPartnershipNames ().size ());
+
+    // Automatically created
+    aPF.getPartnership (_create ("p2", "s2"));
+    assertTrue (aPF.isStorePending ());
+    aPF.savePendingChanges ();
+    assertFalse (aPF.isStorePending ());
+
+    final XMLPartnershipFactory aPF2 = new XMLPartnershipFactory ();
+    aPF2.setFilename (aFile.getAbsolutePath ());
+    aPF2.refreshPartnershipFactory ();
+    assertEquals (2, aPF2.getAllPartnershipNames ().size ());
+  }
+
+  @Test
+  public void testAutoCreatedTrackingSurvivesReload () throws AS2Exception
+  {
+    final File aFile = new File (m_aTempFolder.getRoot (), "autocreated.xml");
+    final XMLPartnershipFactory aInitialPF = new XMLPartnershipFactory ();
+    aInitialPF.setFilename (aFile.getAbsolutePath ());
+    aInitialPF.addPartnership (_create ("p1", "s1"));
+    aInitialPF.storePartnership ();
+
+    final SelfFillingXMLPartnershipFactory aPF = new SelfFillingXMLPartnershipFactory ();
+    aPF.setFilename (aFile.getAbsolutePath ());
+    aPF.setStoreDelayMS (60_000);
+    aPF.refreshPartnershipFactory ();
+    aPF.getPartnership (_create ("p2", "s2"));
+    aPF.savePendingChanges ();
+
+    // Configured partnerships are not marked
+    assertFalse (AutoCreatedPartnerships.isAutoCreated (aPF.getPartnershipByName ("p1")));
+    assertTrue (AutoCreatedPartnerships.isAutoCreated (aPF.getPartnershipByName ("p2")));
+
+    // "Restart"
+    final SelfFillingXMLPartnershipFactory aPF2 = new SelfFillingXMLPartnershipFactory ();
+    aPF2.setFilename (aFile.getAbsolutePath ());
+    aPF2.setStoreDelayMS (60_000);
+    aPF2.refreshPartnershipFactory ();
+    final AutoCreatedPartnerships aAutoCreated = aPF2.getAutoCreatedPartnerships ();
+    assertEquals (1, aAutoCreated.size ());
+
+    // The limit also covers the partnership created before the restart
+    aAutoCreated.setMaxSize (1);
+    aPF2.getPartnership (_create ("p3", "s3"));
+    assertNotNull (aPF2.getPartnershipByName ("p1"));
+    assertNull (aPF2.getPartnershipByName ("p2"));
+    assertNotNull (aPF2.getPartnershipByName ("p3"));
+    assertEquals (1, aAutoCreated.getEvictionCount ());
+    aPF2.savePendingChanges ();
+  }
+}
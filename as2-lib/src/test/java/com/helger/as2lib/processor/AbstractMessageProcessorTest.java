@@ -0,0 +1,440 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.mail.internet.MimeBodyPart;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.as2lib.exception.AS2Exception;
+import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.params.MessageParameters;
+import com.helger.as2lib.processor.module.AbstractActiveModule;
+import com.helger.as2lib.processor.module.AbstractProcessorModule;
+import com.helger.as2lib.processor.receiver.AS2ReceiverModule;
+import com.helger.as2lib.processor.resender.IProcessorResenderModule;
+import com.helger.as2lib.processor.resender.InMemoryResenderModule;
+import com.helger.as2lib.processor.storage.IProcessorStorageModule;
+import com.helger.as2lib.processor.storage.MessageFileModule;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.state.EHandled;
+
+/**
+ * Test class for class {@link AbstractMessageProcessor}.
+ *
+ * @author Philip Helger
+ */
+public final class AbstractMessageProcessorTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  private static class CountingModule extends AbstractProcessorModule
+  {
+    private final ICommonsSet <String> m_aActions;
+    private final AtomicInteger m_aCanHandleCount = new AtomicInteger (0);
+    private final AtomicInteger m_aHandleCount = new AtomicInteger (0);
+
+    CountingModule (@Nullable final ICommonsSet <String> aActions)
+    {
+      m_aActions = aActions;
+    }
+
+    public boolean canHandle (@Nonnull final String sAction, @Nonnull final IMessage aMsg, @Nullable final Map <String, Object> aOptions)
+    {
+      m_aCanHandleCount.incrementAndGet ();
+      return m_aActions == null || m_aActions.contains (sAction);
+    }
+
+    @Override
+    @Nullable
+    public ICommonsSet <String> getAllSupportedActions ()
+    {
+      return m_aActions;
+    }
+
+    public void handle (@Nonnull final String sAction,
+                        @Nonnull final IMessage aMsg,
+                        @Nullable final Map <String, Object> aOptions) throws AS2Exception
+    {
+      m_aHandleCount.incrementAndGet ();
+    }
+  }
+
+  @Test
+  public void testDispatchByAction () throws Exception
+  {
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    final CountingModule aA = new CountingModule (new CommonsHashSet <> ("a"));
+    final CountingModule aB = new CountingModule (new CommonsHashSet <> ("b"));
+    final CountingModule aAny = new CountingModule (null);
+    aMP.addModule (aA);
+    aMP.addModule (aB);
+    aMP.addModule (aAny);
+    assertEquals (3, aMP.getModuleCount ());
+
+    final AS2Message aMsg = new AS2Message ();
+    aMP.handle ("a", aMsg, null);
+    assertEquals (1, aA.m_aCanHandleCount.get ());
+    assertEquals (0, aB.m_aCanHandleCount.get ());
+    assertEquals (1, aAny.m_aCanHandleCount.get ());
+    assertEquals (1, aA.m_aHandleCount.get ());
+    assertEquals (1, aAny.m_aHandleCount.get ());
+
+    // Only the module for any action is asked
+    aMP.handle ("c", aMsg, null);
+    assertEquals (1, aA.m_aCanHandleCount.get ());
+    assertEquals (0, aB.m_aCanHandleCount.get ());
+    assertEquals (2, aAny.m_aCanHandleCount.get ());
+
+    // Index is rebuilt upon removal
+    aMP.removeModule (aAny);
+    try
+    {
+      aMP.handle ("c", aMsg, null);
+      fail ();
+    }
+    catch (final AS2NoModuleException ex)
+    {
+      // expected
+    }
+    aMP.handle ("b", aMsg, null);
+    assertEquals (1, aB.m_aHandleCount.get ());
+  }
+
+  @Test
+  public void testHandleIfPossible () throws Exception
+  {
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    final CountingModule aA = new CountingModule (new CommonsHashSet <> ("a"));
+    aMP.addModule (aA);
+
+    final AS2Message aMsg = new AS2Message ();
+    assertEquals (EHandled.HANDLED, aMP.handleIfPossible ("a", aMsg, null));
+    assertEquals (1, aA.m_aHandleCount.get ());
+
+    // No exception if no module is present
+    assertEquals (EHandled.UNHANDLED, aMP.handleIfPossible ("b", aMsg, null));
+    assertEquals (1, aA.m_aHandleCount.get ());
+  }
+
+  private static final class LatchModule extends AbstractProcessorModule
+  {
+    private final CountDownLatch m_aLatch;
+    private final boolean m_bFail;
+
+    LatchModule (@Nonnull final CountDownLatch aLatch, final boolean bFail)
+    {
+      m_aLatch = aLatch;
+      m_bFail = bFail;
+    }
+
+    public boolean canHandle (@Nonnull final String sAction, @Nonnull final IMessage aMsg, @Nullable final Map <String, Object> aOptions)
+    {
+      return true;
+    }
+
+    @Override
+    public boolean isParallelSafe ()
+    {
+      return true;
+    }
+
+    public void handle (@Nonnull final String sAction,
+                        @Nonnull final IMessage aMsg,
+                        @Nullable final Map <String, Object> aOptions) throws AS2Exception
+    {
+      // Only succeeds if all modules run concurrently
+      m_aLatch.countDown ();
+      try
+      {
+        if (!m_aLatch.await (5, TimeUnit.SECONDS))
+          throw new AS2Exception ("Modules are not executed in parallel");
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new AS2Exception (ex);
+      }
+      if (m_bFail)
+        throw new AS2Exception ("Failure");
+    }
+  }
+
+  @Test
+  public void testParallelAction () throws Exception
+  {
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    assertFalse (aMP.isParallelAction ("a"));
+    aMP.setParallelActions (new CommonsArrayList <> ("a", "b"));
+    assertTrue (aMP.isParallelAction ("a"));
+    assertTrue (aMP.isParallelAction ("b"));
+    assertFalse (aMP.isParallelAction ("c"));
+
+    final CountDownLatch aLatch = new CountDownLatch (3);
+    for (int i = 0; i < 3; ++i)
+      aMP.addModule (new LatchModule (aLatch, false));
+    try
+    {
+      assertEquals (EHandled.HANDLED, aMP.handleIfPossible ("a", new AS2Message (), null));
+    }
+    finally
+    {
+      aMP.stopActiveModules ();
+    }
+  }
+
+  @Test
+  public void testParallelActionsAttributeChange ()
+  {
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    aMP.attrs ().putIn (AbstractMessageProcessor.ATTR_PARALLEL_ACTIONS, " a , ,b");
+    assertTrue (aMP.isParallelAction ("a"));
+    assertTrue (aMP.isParallelAction ("b"));
+    assertFalse (aMP.isParallelAction (""));
+
+    // Direct attribute modifications are considered as well
+    aMP.attrs ().putIn (AbstractMessageProcessor.ATTR_PARALLEL_ACTIONS, "c");
+    assertFalse (aMP.isParallelAction ("a"));
+    assertTrue (aMP.isParallelAction ("c"));
+    aMP.attrs ().remove (AbstractMessageProcessor.ATTR_PARALLEL_ACTIONS);
+    assertFalse (aMP.isParallelAction ("c"));
+  }
+
+  @Test
+  public void testParallelMessageFileModules () throws Exception
+  {
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    aMP.setParallelActions (new CommonsArrayList <> (IProcessorStorageModule.DO_STORE));
+    final ICommonsList <File> aFiles = new CommonsArrayList <> ();
+    for (int i = 0; i < 2; ++i)
+    {
+      final File aFile = new File (m_aTempFolder.getRoot (), "msg" + i + ".txt");
+      aFiles.add (aFile);
+      final MessageFileModule aModule = new MessageFileModule ();
+      aModule.setProtocol (AS2Message.PROTOCOL_AS2);
+      aModule.setFilename (aFile.getAbsolutePath ());
+      aModule.setHeaderFilename (new File (m_aTempFolder.getRoot (), "header" + i + ".txt").getAbsolutePath ());
+      assertTrue (aModule.isParallelSafe ());
+      aMP.addModule (aModule);
+    }
+    try
+    {
+      final AS2Message aMsg = new AS2Message ();
+      final MimeBodyPart aData = new MimeBodyPart ();
+      aData.setText ("payload");
+      aMsg.setData (aData);
+      aMP.handle (IProcessorStorageModule.DO_STORE, aMsg, null);
+
+      // The stored file name is set after all modules finished
+      final String sStoredFilename = aMsg.attrs ().getAsString (MessageParameters.ATTR_STORED_FILE_NAME);
+      assertEquals (aFiles.getLast ().getAbsolutePath (), sStoredFilename);
+      for (int i = 0; i < 2; ++i)
+      {
+        assertEquals ("payload", SimpleFileIO.getFileAsString (aFiles.get (i), StandardCharsets.UTF_8));
+        // Each header file contains the name of its own stored file
+        final String sHeader = SimpleFileIO.getFileAsString (new File (m_aTempFolder.getRoot (), "header" + i + ".txt"),
+                                                            StandardCharsets.UTF_8);
+        assertTrue (sHeader.contains (MessageParameters.ATTR_STORED_FILE_NAME + ": " + aFiles.get (i).getAbsolutePath ()));
+      }
+    }
+    finally
+    {
+      aMP.stopActiveModules ();
+    }
+  }
+
+  @Test
+  public void testParallelQuorum () throws Exception
+  {
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    aMP.setParallelActions (new CommonsArrayList <> ("a"));
+    final CountDownLatch aLatch = new CountDownLatch (3);
+    aMP.addModule (new LatchModule (aLatch, false));
+    aMP.addModule (new LatchModule (aLatch, true));
+    aMP.addModule (new LatchModule (aLatch, false));
+    try
+    {
+      // All must succeed
+      try
+      {
+        aMP.handle ("a", new AS2Message (), null);
+        fail ();
+      }
+      catch (final AS2ProcessorException ex)
+      {
+        assertEquals (1, ex.getAllCauses ().size ());
+      }
+
+      // Two out of three is enough
+      aMP.setParallelQuorum (2);
+      aMP.handle ("a", new AS2Message (), null);
+    }
+    finally
+    {
+      aMP.stopActiveModules ();
+    }
+  }
+
+  private static final class ModifyingModule extends AbstractProcessorModule
+  {
+    private final CountDownLatch m_aLatch;
+    private volatile Thread m_aThread;
+
+    ModifyingModule (@Nonnull final CountDownLatch aLatch)
+    {
+      m_aLatch = aLatch;
+    }
+
+    public boolean canHandle (@Nonnull final String sAction, @Nonnull final IMessage aMsg, @Nullable final Map <String, Object> aOptions)
+    {
+      return true;
+    }
+
+    public void handle (@Nonnull final String sAction,
+                        @Nonnull final IMessage aMsg,
+                        @Nullable final Map <String, Object> aOptions) throws AS2Exception
+    {
+      // The parallel modules must be finished already
+      if (m_aLatch.getCount () != 0)
+        throw new AS2Exception ("Executed concurrently to the other modules");
+      m_aThread = Thread.currentThread ();
+      aMsg.attrs ().putIn ("modified", true);
+    }
+  }
+
+  @Test
+  public void testParallelActionWithModifyingModule () throws Exception
+  {
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    aMP.setParallelActions (new CommonsArrayList <> ("a"));
+    final CountDownLatch aLatch = new CountDownLatch (2);
+    final ModifyingModule aModifying = new ModifyingModule (aLatch);
+    // Registered first, but executed after the parallel modules
+    aMP.addModule (aModifying);
+    aMP.addModule (new LatchModule (aLatch, false));
+    aMP.addModule (new LatchModule (aLatch, false));
+    try
+    {
+      final AS2Message aMsg = new AS2Message ();
+      aMP.handle ("a", aMsg, null);
+      assertSame (Thread.currentThread (), aModifying.m_aThread);
+      assertTrue (aMsg.attrs ().getAsBoolean ("modified"));
+    }
+    finally
+    {
+      aMP.stopActiveModules ();
+    }
+  }
+
+  @Test
+  public void testParallelMaxThreads () throws Exception
+  {
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    assertEquals (AbstractMessageProcessor.DEFAULT_PARALLEL_MAX_THREADS, aMP.getParallelMaxThreads ());
+    aMP.setParallelActions (new CommonsArrayList <> ("a"));
+    aMP.setParallelMaxThreads (1);
+    assertEquals (1, aMP.getParallelMaxThreads ());
+
+    final ICommonsList <CountingModule> aModules = new CommonsArrayList <> ();
+    for (int i = 0; i < 5; ++i)
+    {
+      final CountingModule aModule = new CountingModule (null)
+      {
+        @Override
+        public boolean isParallelSafe ()
+        {
+          return true;
+        }
+      };
+      aModules.add (aModule);
+      aMP.addModule (aModule);
+    }
+    try
+    {
+      // If the single thread is busy, the calling thread handles the module
+      for (int i = 0; i < 10; ++i)
+        aMP.handle ("a", new AS2Message (), null);
+      for (final CountingModule aModule : aModules)
+        assertEquals (10, aModule.m_aHandleCount.get ());
+    }
+    finally
+    {
+      aMP.stopActiveModules ();
+    }
+  }
+
+  @Test
+  public void testActiveModuleSupportedActions ()
+  {
+    // Receivers don't handle any action
+    assertTrue (new AS2ReceiverModule ().getAllSupportedActions ().isEmpty ());
+    // Resenders declare their action
+    assertEquals (new CommonsHashSet <> (IProcessorResenderModule.DO_RESEND),
+                  new InMemoryResenderModule ().getAllSupportedActions ());
+    // Unknown active modules may handle any action
+    assertNull (new AbstractActiveModule ()
+    {
+      @Override
+      public void doStart ()
+      {}
+
+      @Override
+      public void doStop ()
+      {}
+    }.getAllSupportedActions ());
+  }
+}
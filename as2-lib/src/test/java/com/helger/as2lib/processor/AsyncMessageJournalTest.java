@@ -0,0 +1,142 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.message.IMessage;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+
+/**
+ * Test class for class {@link AsyncMessageJournal}.
+ *
+ * @author Philip Helger
+ */
+public final class AsyncMessageJournalTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Nonnull
+  private static IMessage _createMsg (@Nonnull final String sMessageID)
+  {
+    final AS2Message ret = new AS2Message ();
+    ret.setMessageID (sMessageID);
+    ret.partnership ().setName ("p");
+    return ret;
+  }
+
+  @Test
+  public void testRecovery () throws Exception
+  {
+    final File aDir = m_aTempFolder.getRoot ();
+    final ICommonsMap <String, Object> aOptions = new CommonsHashMap <> ();
+    aOptions.put ("key", "value");
+
+    try (final AsyncMessageJournal aJournal = new AsyncMessageJournal (aDir, AsyncMessageJournal.DEFAULT_MAX_SEGMENT_SIZE))
+    {
+      assertTrue (aJournal.getAllRecoveredEntries ().isEmpty ());
+      final long nID1 = aJournal.append ("a1", _createMsg ("m1"), null);
+      aJournal.append ("a2", _createMsg ("m2"), aOptions);
+      aJournal.append ("a3", _createMsg ("m3"), null);
+      aJournal.markDone (nID1);
+      assertEquals (2, aJournal.getPendingCount ());
+    }
+
+    // Simulate a torn write at the end
+    final File [] aSegments = aDir.listFiles ();
+    assertEquals (1, aSegments.length);
+    try (final FileOutputStream aFOS = new FileOutputStream (aSegments[0], true))
+    {
+      aFOS.write (new byte [] { 1, 0, 0, 0 });
+    }
+
+    try (final AsyncMessageJournal aJournal = new AsyncMessageJournal (aDir, AsyncMessageJournal.DEFAULT_MAX_SEGMENT_SIZE))
+    {
+      final ICommonsList <AsyncMessageJournal.Entry> aEntries = aJournal.getAllRecoveredEntries ();
+      assertEquals (2, aEntries.size ());
+      assertEquals ("a2", aEntries.get (0).getAction ());
+      assertEquals ("m2", aEntries.get (0).getMessage ().getMessageID ());
+      assertEquals ("value", aEntries.get (0).getOptions ().get ("key"));
+      assertEquals ("a3", aEntries.get (1).getAction ());
+      assertNull (aEntries.get (1).getOptions ());
+      assertEquals (2, aJournal.getPendingCount ());
+
+      for (final AsyncMessageJournal.Entry aEntry : aEntries)
+        aJournal.markDone (aEntry.getID ());
+      assertEquals (0, aJournal.getPendingCount ());
+    }
+
+    try (final AsyncMessageJournal aJournal = new AsyncMessageJournal (aDir, AsyncMessageJournal.DEFAULT_MAX_SEGMENT_SIZE))
+    {
+      assertTrue (aJournal.getAllRecoveredEntries ().isEmpty ());
+    }
+  }
+
+  @Test
+  public void testSegmentRolling () throws Exception
+  {
+    final File aDir = m_aTempFolder.getRoot ();
+    try (final AsyncMessageJournal aJournal = new AsyncMessageJournal (aDir, 1))
+    {
+      // Each record starts a new segment
+      final long nID1 = aJournal.append ("a1", _createMsg ("m1"), null);
+      final long nID2 = aJournal.append ("a2", _createMsg ("m2"), null);
+      assertEquals (3, aDir.listFiles ().length);
+
+      // Fully processed segments are deleted
+      aJournal.markDone (nID1);
+      aJournal.markDone (nID2);
+      assertTrue (aDir.listFiles ().length <= 2);
+    }
+
+    try (final AsyncMessageJournal aJournal = new AsyncMessageJournal (aDir, 1))
+    {
+      assertTrue (aJournal.getAllRecoveredEntries ().isEmpty ());
+    }
+  }
+}
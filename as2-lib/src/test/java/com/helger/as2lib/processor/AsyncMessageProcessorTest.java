@@ -0,0 +1,457 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.as2lib.exception.AS2Exception;
+import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.processor.module.AbstractProcessorModule;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.ThreadHelper;
+
+/**
+ * Test class for class {@link AsyncMessageProcessor}.
+ *
+ * @author Philip Helger
+ */
+public final class AsyncMessageProcessorTest
+{
+  private static final String ACTION = "test";
+
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Nonnull
+  private static IMessage _createMsg (@Nonnull final String sPartnershipName, final int nIndex)
+  {
+    final AS2Message ret = new AS2Message ();
+    ret.partnership ().setName (sPartnershipName);
+    ret.attrs ().putIn ("index", nIndex);
+    return ret;
+  }
+
+  @Test
+  public void testOrderingPerPartnership () throws Exception
+  {
+    final int nPartnerships = 5;
+    final int nMessages = 50;
+    final ICommonsMap <String, ICommonsList <Integer>> aExecuted = new CommonsHashMap <> ();
+    final CountDownLatch aDone = new CountDownLatch (nPartnerships * nMessages);
+
+    final AsyncMessageProcessor aMP = new AsyncMessageProcessor (3);
+    aMP.addModule (new AbstractProcessorModule ()
+    {
+      public boolean canHandle (@Nonnull final String sAction, @Nonnull final IMessage aMsg, @Nullable final Map <String, Object> aOptions)
+      {
+        return true;
+      }
+
+      public void handle (@Nonnull final String sAction,
+                          @Nonnull final IMessage aMsg,
+                          @Nullable final Map <String, Object> aOptions) throws AS2Exception
+      {
+        synchronized (aExecuted)
+        {
+          aExecuted.computeIfAbsent (aMsg.partnership ().getName (), k -> new CommonsArrayList <> ())
+                   .add (Integer.valueOf (aMsg.attrs ().getAsInt ("index")));
+        }
+        aDone.countDown ();
+      }
+    });
+    assertEquals (3, aMP.getWorkerCount ());
+
+    for (int i = 0; i < nMessages; ++i)
+      for (int j = 0; j < nPartnerships; ++j)
+        aMP.handle (ACTION, _createMsg ("p" + j, i), null);
+
+    assertTrue (aDone.await (10, TimeUnit.SECONDS));
+    assertEquals (0, aMP.getQueueDepth ());
+    assertEquals (nPartnerships, aExecuted.size ());
+    for (final ICommonsList <Integer> aList : aExecuted.values ())
+    {
+      assertEquals (nMessages, aList.size ());
+      for (int i = 0; i < nMessages; ++i)
+        assertEquals (i, aList.get (i).intValue ());
+    }
+  }
+
+  @Test
+  public void testSlowPartnershipDoesNotBlockOthers () throws Exception
+  {
+    final CountDownLatch aSlowRelease = new CountDownLatch (1);
+    final CountDownLatch aFastDone = new CountDownLatch (1);
+
+    // "0" and "1" are assigned to different workers
+    final AsyncMessageProcessor aMP = new AsyncMessageProcessor (2);
+    aMP.addModule (new AbstractProcessorModule ()
+    {
+      public boolean canHandle (@Nonnull final String sAction, @Nonnull final IMessage aMsg, @Nullable final Map <String, Object> aOptions)
+      {
+        return true;
+      }
+
+      public void handle (@Nonnull final String sAction,
+                          @Nonnull final IMessage aMsg,
+                          @Nullable final Map <String, Object> aOptions) throws AS2Exception
+      {
+        if (aMsg.partnership ().getName ().equals ("0"))
+        {
+          try
+          {
+            aSlowRelease.await ();
+          }
+          catch (final InterruptedException ex)
+          {
+            Thread.currentThread ().interrupt ();
+          }
+        }
+        else
+          aFastDone.countDown ();
+      }
+    });
+
+    aMP.handle (ACTION, _createMsg ("0", 0), null);
+    aMP.handle (ACTION, _createMsg ("0", 1), null);
+    aMP.handle (ACTION, _createMsg ("1", 0), null);
+    try
+    {
+      // Would time out if "1" is blocked by "0"
+      assertTrue (aFastDone.await (10, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      aSlowRelease.countDown ();
+    }
+  }
+
+  @Nonnull
+  private static AbstractProcessorModule _createBlockingModule (@Nonnull final CountDownLatch aRelease,
+                                                                @Nonnull final ICommonsList <Integer> aExecuted)
+  {
+    return new AbstractProcessorModule ()
+    {
+      public boolean canHandle (@Nonnull final String sAction, @Nonnull final IMessage aMsg, @Nullable final Map <String, Object> aOptions)
+      {
+        return true;
+      }
+
+      public void handle (@Nonnull final String sAction,
+                          @Nonnull final IMessage aMsg,
+                          @Nullable final Map <String, Object> aOptions) throws AS2Exception
+      {
+        try
+        {
+          aRelease.await ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+        synchronized (aExecuted)
+        {
+          aExecuted.add (Integer.valueOf (aMsg.attrs ().getAsInt ("index")));
+        }
+      }
+    };
+  }
+
+  private static int _getSize (@Nonnull final ICommonsList <Integer> aList)
+  {
+    synchronized (aList)
+    {
+      return aList.size ();
+    }
+  }
+
+  @Test
+  public void testRejectIfFull () throws Exception
+  {
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final ICommonsList <Integer> aExecuted = new CommonsArrayList <> ();
+
+    final AsyncMessageProcessor aMP = new AsyncMessageProcessor ();
+    aMP.setQueueCapacity (1);
+    aMP.setOverflowPolicy (EAsyncQueueOverflowPolicy.REJECT);
+    aMP.addModule (_createBlockingModule (aRelease, aExecuted));
+
+    try
+    {
+      aMP.handle (ACTION, _createMsg ("p", 0), null);
+      try
+      {
+        aMP.handle (ACTION, _createMsg ("p", 1), null);
+        fail ();
+      }
+      catch (final AS2QueueFullException ex)
+      {
+        // expected
+      }
+    }
+    finally
+    {
+      aRelease.countDown ();
+    }
+  }
+
+  @Test
+  public void testSpillIfFull () throws Exception
+  {
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final ICommonsList <Integer> aExecuted = new CommonsArrayList <> ();
+
+    final AsyncMessageProcessor aMP = new AsyncMessageProcessor ();
+    aMP.setQueueCapacity (1);
+    aMP.setOverflowPolicy (EAsyncQueueOverflowPolicy.SPILL);
+    aMP.attrs ().putIn (AsyncMessageProcessor.ATTR_SPILL_DIRECTORY, m_aTempFolder.getRoot ().getAbsolutePath ());
+    aMP.addModule (_createBlockingModule (aRelease, aExecuted));
+
+    for (int i = 0; i < 5; ++i)
+      aMP.handle (ACTION, _createMsg ("p", i), null);
+    // Everything except the first one was spilled
+    assertEquals (4, m_aTempFolder.getRoot ().listFiles ().length);
+
+    aRelease.countDown ();
+    for (int i = 0; i < 200 && _getSize (aExecuted) < 5; ++i)
+      ThreadHelper.sleep (50);
+    synchronized (aExecuted)
+    {
+      assertEquals (5, aExecuted.size ());
+      for (int i = 0; i < 5; ++i)
+        assertEquals (i, aExecuted.get (i).intValue ());
+    }
+    assertEquals (0, m_aTempFolder.getRoot ().listFiles ().length);
+  }
+
+  @Nonnull
+  private static AbstractProcessorModule _createFailingModule (final int nFailingIndex,
+                                                               @Nonnull final CountDownLatch aDone,
+                                                               @Nonnull final ICommonsList <Integer> aExecuted)
+  {
+    return new AbstractProcessorModule ()
+    {
+      public boolean canHandle (@Nonnull final String sAction, @Nonnull final IMessage aMsg, @Nullable final Map <String, Object> aOptions)
+      {
+        return true;
+      }
+
+      public void handle (@Nonnull final String sAction,
+                          @Nonnull final IMessage aMsg,
+                          @Nullable final Map <String, Object> aOptions) throws AS2Exception
+      {
+        final int nIndex = aMsg.attrs ().getAsInt ("index");
+        synchronized (aExecuted)
+        {
+          aExecuted.add (Integer.valueOf (nIndex));
+        }
+        aDone.countDown ();
+        if (nIndex == nFailingIndex)
+          throw new AS2Exception ("Failure");
+      }
+    };
+  }
+
+  @Test
+  public void testFailedActionsStayInJournal () throws Exception
+  {
+    final File aJournalDir = m_aTempFolder.newFolder ("journal");
+    final CountDownLatch aDone = new CountDownLatch (3);
+    final ICommonsList <Integer> aExecuted = new CommonsArrayList <> ();
+
+    final AsyncMessageProcessor aMP = new AsyncMessageProcessor ();
+    aMP.attrs ().putIn (AsyncMessageProcessor.ATTR_JOURNAL_DIRECTORY, aJournalDir.getAbsolutePath ());
+    aMP.addModule (_createFailingModule (1, aDone, aExecuted));
+    aMP.exceptionCallbacks ().add (ex -> {
+      // ignore
+    });
+    aMP.startActiveModules ();
+    for (int i = 0; i < 3; ++i)
+      aMP.handle (ACTION, _createMsg ("p", i), null);
+    assertTrue (aDone.await (10, TimeUnit.SECONDS));
+
+    // Waits for the current action, stops the workers and closes the journal
+    aMP.stopActiveModules ();
+
+    // Only the failed action is recovered
+    final CountDownLatch aDone2 = new CountDownLatch (1);
+    final ICommonsList <Integer> aExecuted2 = new CommonsArrayList <> ();
+    final AsyncMessageProcessor aMP2 = new AsyncMessageProcessor ();
+    aMP2.attrs ().putIn (AsyncMessageProcessor.ATTR_JOURNAL_DIRECTORY, aJournalDir.getAbsolutePath ());
+    aMP2.addModule (_createFailingModule (-1, aDone2, aExecuted2));
+    aMP2.startActiveModules ();
+    try
+    {
+      assertTrue (aDone2.await (10, TimeUnit.SECONDS));
+      synchronized (aExecuted2)
+      {
+        assertEquals (1, aExecuted2.size ());
+        assertEquals (1, aExecuted2.getFirst ().intValue ());
+      }
+    }
+    finally
+    {
+      aMP2.stopActiveModules ();
+    }
+
+    // Nothing left after successful execution
+    try (final AsyncMessageJournal aJournal = new AsyncMessageJournal (aJournalDir, AsyncMessageJournal.DEFAULT_MAX_SEGMENT_SIZE))
+    {
+      assertEquals (0, aJournal.getAllRecoveredEntries ().size ());
+    }
+  }
+
+  @Test
+  public void testStopWorkers () throws Exception
+  {
+    final CountDownLatch aDone = new CountDownLatch (1);
+    final ICommonsList <Integer> aExecuted = new CommonsArrayList <> ();
+
+    final AsyncMessageProcessor aMP = new AsyncMessageProcessor ();
+    aMP.addModule (_createFailingModule (-1, aDone, aExecuted));
+    aMP.startActiveModules ();
+    final Thread aThread = aMP.getProcessortThread ();
+    assertTrue (aThread.isAlive ());
+
+    aMP.stopActiveModules ();
+    assertFalse (aThread.isAlive ());
+
+    // Restarted upon the next action
+    aMP.handle (ACTION, _createMsg ("p", 0), null);
+    try
+    {
+      assertTrue (aDone.await (10, TimeUnit.SECONDS));
+      assertNotSame (aThread, aMP.getProcessortThread ());
+    }
+    finally
+    {
+      aMP.stopActiveModules ();
+    }
+  }
+
+  @Nonnull
+  private static IMessage _createMsg (@Nonnull final String sPartnershipName, final int nIndex, final int nBytes)
+  {
+    final IMessage ret = _createMsg (sPartnershipName, nIndex);
+    ret.headers ().setContentLength (nBytes);
+    return ret;
+  }
+
+  @Test
+  public void testStopDiscardsQueuedAndReleasesCapacity () throws Exception
+  {
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final ICommonsList <Integer> aExecuted = new CommonsArrayList <> ();
+
+    // All per-key workers share the same stop logic
+    final AsyncMessageProcessor aMP = new AsyncMessageProcessor (3);
+    aMP.setQueueMaxBytes (1_000_000);
+    aMP.addModule (_createBlockingModule (aRelease, aExecuted));
+    for (int i = 0; i < 5; ++i)
+      for (int j = 0; j < 3; ++j)
+        aMP.handle (ACTION, _createMsg ("p" + j, i, 100), null);
+    assertEquals (1_500, aMP.getQueuedBytes ());
+
+    // Let the action in progress finish while stopping
+    final Thread aReleaser = new Thread ( () -> {
+      ThreadHelper.sleep (200);
+      aRelease.countDown ();
+    });
+    aReleaser.start ();
+    aMP.stopActiveModules ();
+    aReleaser.join ();
+
+    assertEquals (0, aMP.getQueueDepth ());
+    assertEquals (0, aMP.getQueuedBytes ());
+    synchronized (aExecuted)
+    {
+      // At most the actions in progress were executed
+      assertTrue (aExecuted.size () <= 3);
+      for (final Integer aIndex : aExecuted)
+        assertEquals (0, aIndex.intValue ());
+    }
+  }
+
+  @Test
+  public void testConcurrentHandleAndStop () throws Exception
+  {
+    final CountDownLatch aDone = new CountDownLatch (1);
+    final ICommonsList <Integer> aExecuted = new CommonsArrayList <> ();
+
+    final AsyncMessageProcessor aMP = new AsyncMessageProcessor (2);
+    aMP.setQueueMaxBytes (1_000_000);
+    aMP.addModule (_createFailingModule (-1, aDone, aExecuted));
+
+    final Thread aProducer = new Thread ( () -> {
+      for (int i = 0; i < 2_000; ++i)
+        try
+        {
+          aMP.handle (ACTION, _createMsg ("p" + (i % 7), i, 10), null);
+        }
+        catch (final AS2Exception ex)
+        {
+          // Rejected because of a concurrent stop
+        }
+    });
+    aProducer.start ();
+    while (aProducer.isAlive ())
+    {
+      aMP.stopActiveModules ();
+      ThreadHelper.sleep (1);
+    }
+    aMP.stopActiveModules ();
+
+    // Nothing may be left over
+    assertEquals (0, aMP.getQueueDepth ());
+    assertEquals (0, aMP.getQueuedBytes ());
+  }
+}
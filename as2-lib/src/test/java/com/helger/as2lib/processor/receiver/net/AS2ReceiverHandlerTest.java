@@ -0,0 +1,139 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor.receiver.net;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import com.helger.as2lib.cert.CertificateFactory;
+import com.helger.as2lib.exception.AS2Exception;
+import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.partner.SelfFillingPartnershipFactory;
+import com.helger.as2lib.processor.AsyncMessageProcessor;
+import com.helger.as2lib.processor.EAsyncQueueOverflowPolicy;
+import com.helger.as2lib.processor.module.AbstractProcessorModule;
+import com.helger.as2lib.processor.receiver.AS2ReceiverModule;
+import com.helger.as2lib.processor.storage.IProcessorStorageModule;
+import com.helger.as2lib.session.AS2Session;
+import com.helger.commons.http.CHttp;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.mail.datasource.ByteArrayDataSource;
+
+/**
+ * Test class for class {@link AS2ReceiverHandler}.
+ *
+ * @author Philip Helger
+ */
+public final class AS2ReceiverHandlerTest
+{
+  @Nonnull
+  private static AS2Message _createMsg (@Nonnull final String sMessageID)
+  {
+    final AS2Message ret = new AS2Message ();
+    ret.setMessageID (sMessageID);
+    ret.headers ().setHeader (CHttpHeader.AS2_FROM, "sender");
+    ret.headers ().setHeader (CHttpHeader.AS2_TO, "receiver");
+    ret.headers ().setHeader (CHttpHeader.CONTENT_TYPE, "text/plain");
+    return ret;
+  }
+
+  @Test
+  public void testQueueFullSendsServiceUnavailable () throws Exception
+  {
+    final CountDownLatch aRelease = new CountDownLatch (1);
+
+    final AS2Session aSession = new AS2Session ();
+    aSession.setCertificateFactory (new CertificateFactory ());
+    final SelfFillingPartnershipFactory aPartnershipFactory = new SelfFillingPartnershipFactory ();
+    aPartnershipFactory.initDynamicComponent (aSession, null);
+    aSession.setPartnershipFactory (aPartnershipFactory);
+
+    final AsyncMessageProcessor aMP = new AsyncMessageProcessor ();
+    aMP.setQueueCapacity (1);
+    aMP.setOverflowPolicy (EAsyncQueueOverflowPolicy.REJECT);
+    aMP.addModule (new AbstractProcessorModule ()
+    {
+      public boolean canHandle (@Nonnull final String sAction, @Nonnull final IMessage aMsg, @Nullable final Map <String, Object> aOptions)
+      {
+        return IProcessorStorageModule.DO_STORE.equals (sAction);
+      }
+
+      public void handle (@Nonnull final String sAction,
+                          @Nonnull final IMessage aMsg,
+                          @Nullable final Map <String, Object> aOptions) throws AS2Exception
+      {
+        try
+        {
+          aRelease.await ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+      }
+    });
+    aSession.setMessageProcessor (aMP);
+
+    final AS2ReceiverModule aReceiver = new AS2ReceiverModule ();
+    aReceiver.initDynamicComponent (aSession, null);
+
+    try
+    {
+      // Occupy the only queue slot
+      aMP.handle (IProcessorStorageModule.DO_STORE, _createMsg ("first"), null);
+
+      final AtomicInteger aResponseCode = new AtomicInteger (-1);
+      new AS2ReceiverHandler (aReceiver).handleIncomingMessage ("test",
+                                                                new ByteArrayDataSource ("Hello world".getBytes (StandardCharsets.ISO_8859_1),
+                                                                                         "text/plain",
+                                                                                         null),
+                                                                _createMsg ("second"),
+                                                                (nHttpResponseCode, aHeaders, aData) -> aResponseCode.set (nHttpResponseCode));
+      assertEquals (CHttp.HTTP_SERVICE_UNAVAILABLE, aResponseCode.get ());
+    }
+    finally
+    {
+      aRelease.countDown ();
+    }
+  }
+}
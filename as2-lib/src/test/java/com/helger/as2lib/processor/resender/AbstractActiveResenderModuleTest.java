@@ -0,0 +1,68 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor.resender;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link AbstractActiveResenderModule}.
+ *
+ * @author Philip Helger
+ */
+public final class AbstractActiveResenderModuleTest
+{
+  @Test
+  public void testBackoffDelay ()
+  {
+    // Fixed delay
+    assertEquals (1000, AbstractActiveResenderModule.getBackoffDelayMS (1000, 1, 5000, 1));
+    assertEquals (1000, AbstractActiveResenderModule.getBackoffDelayMS (1000, 1, 5000, 10));
+
+    // Exponential
+    assertEquals (1000, AbstractActiveResenderModule.getBackoffDelayMS (1000, 2, 5000, 1));
+    assertEquals (2000, AbstractActiveResenderModule.getBackoffDelayMS (1000, 2, 5000, 2));
+    assertEquals (4000, AbstractActiveResenderModule.getBackoffDelayMS (1000, 2, 5000, 3));
+    assertEquals (5000, AbstractActiveResenderModule.getBackoffDelayMS (1000, 2, 5000, 4));
+    assertEquals (5000, AbstractActiveResenderModule.getBackoffDelayMS (1000, 2, 5000, 1000));
+
+    // Unlimited
+    assertEquals (8000, AbstractActiveResenderModule.getBackoffDelayMS (1000, 2, 0, 4));
+    assertEquals (Long.MAX_VALUE, AbstractActiveResenderModule.getBackoffDelayMS (1000, 2, 0, 10_000));
+
+    // The base delay is never reduced
+    assertEquals (10_000, AbstractActiveResenderModule.getBackoffDelayMS (10_000, 2, 5000, 1));
+    assertEquals (10_000, AbstractActiveResenderModule.getBackoffDelayMS (10_000, 2, 5000, 3));
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor.resender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import javax.mail.internet.MimeBodyPart;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.processor.sender.IProcessorSenderModule;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.CMimeType;
+
+/**
+ * Test class for class {@link DirectoryResendRecord}.
+ *
+ * @author Philip Helger
+ */
+public final class DirectoryResendRecordTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Test
+  public void testFilename ()
+  {
+    final String sFilename = DirectoryResendRecord.createRecordFilename (1234);
+    assertTrue (sFilename.startsWith ("0000000001234-"));
+    assertTrue (DirectoryResendRecord.isRecordFilename (sFilename));
+    assertEquals (1234, DirectoryResendRecord.getDueMillisFromFilename (sFilename));
+    assertEquals (-1, DirectoryResendRecord.getDueMillisFromFilename ("01-02-20-10-11-12"));
+    assertEquals (-1, DirectoryResendRecord.getDueMillisFromFilename ("abc-def" + DirectoryResendRecord.RECORD_EXTENSION));
+  }
+
+  @Test
+  public void testWriteAndRead () throws Exception
+  {
+    final AS2Message aMsg = new AS2Message ();
+    aMsg.setMessageID ("<msg@as2>");
+    aMsg.attrs ().putIn ("attr", "value");
+    aMsg.partnership ().setName ("partnership");
+    aMsg.partnership ().setSenderAS2ID ("sender");
+    aMsg.partnership ().setReceiverAS2ID ("receiver");
+    aMsg.partnership ().setAS2URL ("http://localhost:8080/as2");
+    final MimeBodyPart aPart = new MimeBodyPart ();
+    aPart.setContent ("Hello AS2", CMimeType.TEXT_PLAIN.getAsString ());
+    aMsg.setData (aPart);
+    aMsg.headers ().setHeader ("X-Test", "x");
+
+    final File aFile = new File (m_aTempFolder.getRoot (), DirectoryResendRecord.createRecordFilename (4711));
+    DirectoryResendRecord.write (aFile, 4711, IProcessorSenderModule.DO_SEND, 3, aMsg);
+    assertTrue (aFile.exists ());
+    assertTrue (DirectoryResendRecord.getPayloadFile (aFile).exists ());
+    assertTrue (DirectoryResendRecord.isRecordFile (aFile));
+    assertFalse (DirectoryResendRecord.isRecordFile (DirectoryResendRecord.getPayloadFile (aFile)));
+
+    final DirectoryResendRecord aRecord = DirectoryResendRecord.read (aFile);
+    assertEquals (4711, aRecord.getDueMillis ());
+    assertEquals (IProcessorSenderModule.DO_SEND, aRecord.getResendAction ());
+    assertEquals (3, aRecord.getRetries ());
+
+    final IMessage aRead = aRecord.getMessage ();
+    assertEquals ("<msg@as2>", aRead.getMessageID ());
+    assertEquals ("value", aRead.attrs ().getAsString ("attr"));
+    assertEquals ("x", aRead.getHeader ("X-Test"));
+    assertEquals ("partnership", aRead.partnership ().getName ());
+    assertEquals ("sender", aRead.partnership ().getSenderAS2ID ());
+    assertEquals ("receiver", aRead.partnership ().getReceiverAS2ID ());
+    assertEquals ("http://localhost:8080/as2", aRead.partnership ().getAS2URL ());
+    assertNull (aRead.getMDN ());
+    assertEquals ("Hello AS2",
+                  StreamHelper.getAllBytesAsString (aRead.getData ().getInputStream (), StandardCharsets.ISO_8859_1));
+  }
+}
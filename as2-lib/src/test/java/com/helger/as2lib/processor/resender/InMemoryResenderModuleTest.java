@@ -0,0 +1,83 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor.resender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.processor.DefaultMessageProcessor;
+import com.helger.as2lib.processor.sender.IProcessorSenderModule;
+import com.helger.as2lib.session.AS2Session;
+import com.helger.commons.collection.attr.StringMap;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.ThreadHelper;
+
+/**
+ * Test class for class {@link InMemoryResenderModule}.
+ *
+ * @author Philip Helger
+ */
+public final class InMemoryResenderModuleTest
+{
+  @Test
+  public void testFailedResendKeepsDelay () throws Exception
+  {
+    final AS2Session aSession = new AS2Session ();
+    // No module can handle the resend action
+    aSession.setMessageProcessor (new DefaultMessageProcessor ());
+
+    final InMemoryResenderModule aModule = new InMemoryResenderModule ();
+    final StringMap aAttrs = new StringMap ();
+    aAttrs.putIn (AbstractActiveResenderModule.ATTR_RESEND_DELAY_SECONDS, 1);
+    aModule.initDynamicComponent (aSession, aAttrs);
+
+    final ICommonsMap <String, Object> aOptions = new CommonsHashMap <> ();
+    aOptions.put (IProcessorResenderModule.OPTION_RESEND_ACTION, IProcessorSenderModule.DO_SEND);
+    aOptions.put (IProcessorResenderModule.OPTION_RETRIES, "3");
+    aModule.handle (IProcessorResenderModule.DO_RESEND, new AS2Message (), aOptions);
+    assertEquals (1, aModule.getResendItemCount ());
+
+    ThreadHelper.sleep (1_100);
+    aModule.resend ();
+
+    // The failed item is kept, but is not due right away
+    assertEquals (1, aModule.getResendItemCount ());
+    assertTrue (aModule.getAllResendItems ().getFirst ().getDelay (TimeUnit.MILLISECONDS) > 0);
+  }
+}
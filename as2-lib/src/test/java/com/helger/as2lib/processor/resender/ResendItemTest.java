@@ -0,0 +1,80 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor.resender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.processor.sender.IProcessorSenderModule;
+
+/**
+ * Test class for class {@link ResendItem}.
+ *
+ * @author Philip Helger
+ */
+public final class ResendItemTest
+{
+  @Test
+  public void testDelayOrder () throws Exception
+  {
+    final ResendItem aLate = new ResendItem (IProcessorSenderModule.DO_SEND, 1, new AS2Message (), 60_000);
+    final ResendItem aNow = new ResendItem (IProcessorSenderModule.DO_SEND, 1, new AS2Message (), 0);
+    final ResendItem aSoon = new ResendItem (IProcessorSenderModule.DO_SEND, 1, new AS2Message (), 200);
+    assertTrue (aNow.getDelay (TimeUnit.MILLISECONDS) <= 0);
+    assertTrue (aLate.getDelay (TimeUnit.MILLISECONDS) > 0);
+    assertTrue (aNow.compareTo (aSoon) < 0);
+    assertTrue (aLate.compareTo (aSoon) > 0);
+    assertEquals (0, aNow.compareTo (aNow));
+
+    final DelayQueue <ResendItem> aQueue = new DelayQueue <> ();
+    aQueue.add (aLate);
+    aQueue.add (aSoon);
+    aQueue.add (aNow);
+
+    // Only the due item is available
+    assertSame (aNow, aQueue.poll ());
+    assertNull (aQueue.poll ());
+
+    // Wakes up when the next item is due
+    assertSame (aSoon, aQueue.poll (5, TimeUnit.SECONDS));
+    assertEquals (1, aQueue.size ());
+  }
+}
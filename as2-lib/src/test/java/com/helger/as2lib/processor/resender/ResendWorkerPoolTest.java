@@ -0,0 +1,175 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor.resender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ThreadHelper;
+
+/**
+ * Test class for class {@link ResendWorkerPool}.
+ *
+ * @author Philip Helger
+ */
+public final class ResendWorkerPoolTest
+{
+  @Test
+  public void testMaxPerDestination () throws Exception
+  {
+    final ResendWorkerPool aPool = new ResendWorkerPool (4, 1);
+    try
+    {
+      final int nCount = 5;
+      final CountDownLatch aDoneA = new CountDownLatch (nCount);
+      final CountDownLatch aReleaseA = new CountDownLatch (1);
+      final AtomicInteger aRunningA = new AtomicInteger (0);
+      final AtomicInteger aMaxRunningA = new AtomicInteger (0);
+      for (int i = 0; i < nCount; ++i)
+        aPool.submit ("a", () -> {
+          aMaxRunningA.accumulateAndGet (aRunningA.incrementAndGet (), Math::max);
+          try
+          {
+            // Blocks until destination "b" was served
+            aReleaseA.await (5, TimeUnit.SECONDS);
+            ThreadHelper.sleep (5);
+          }
+          catch (final InterruptedException ex)
+          {
+            Thread.currentThread ().interrupt ();
+          }
+          aRunningA.decrementAndGet ();
+          aDoneA.countDown ();
+        });
+
+      // Other destinations are not blocked by "a"
+      aPool.submit ("b", aReleaseA::countDown);
+      assertTrue (aReleaseA.await (5, TimeUnit.SECONDS));
+
+      assertTrue (aDoneA.await (10, TimeUnit.SECONDS));
+      assertEquals (1, aMaxRunningA.get ());
+      assertEquals (0, aPool.getPendingCount ());
+    }
+    finally
+    {
+      aPool.shutdown ();
+    }
+  }
+
+  @Test
+  public void testShutdownDiscardsWaiting () throws Exception
+  {
+    final ResendWorkerPool aPool = new ResendWorkerPool (1, 1);
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final AtomicInteger aExecuted = new AtomicInteger (0);
+    assertTrue (aPool.submit ("a", () -> {
+      aStarted.countDown ();
+      try
+      {
+        aRelease.await (5, TimeUnit.SECONDS);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+      aExecuted.incrementAndGet ();
+    }));
+    assertTrue (aStarted.await (5, TimeUnit.SECONDS));
+
+    // One parked for the destination, one waiting for the thread
+    assertTrue (aPool.submit ("a", aExecuted::incrementAndGet));
+    assertTrue (aPool.submit (null, aExecuted::incrementAndGet));
+    assertEquals (2, aPool.getPendingCount ());
+
+    assertEquals (2, aPool.shutdown ());
+    assertEquals (0, aPool.getPendingCount ());
+    // Rejected after shutdown
+    assertFalse (aPool.submit ("a", aExecuted::incrementAndGet));
+    assertFalse (aPool.submit (null, aExecuted::incrementAndGet));
+
+    // The running one is finished
+    aRelease.countDown ();
+    for (int i = 0; i < 50 && aExecuted.get () == 0; ++i)
+      ThreadHelper.sleep (100);
+    ThreadHelper.sleep (100);
+    assertEquals (1, aExecuted.get ());
+  }
+
+  @Test
+  public void testFullQueueRunsInCaller () throws Exception
+  {
+    final ResendWorkerPool aPool = new ResendWorkerPool (1, -1);
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    try
+    {
+      aPool.submit (null, () -> {
+        aStarted.countDown ();
+        try
+        {
+          aRelease.await (5, TimeUnit.SECONDS);
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+      });
+      assertTrue (aStarted.await (5, TimeUnit.SECONDS));
+
+      // Fill the queue
+      for (int i = 0; i < ResendWorkerPool.QUEUE_CAPACITY_PER_THREAD; ++i)
+        assertTrue (aPool.submit (null, () -> {}));
+      assertEquals (ResendWorkerPool.QUEUE_CAPACITY_PER_THREAD, aPool.getPendingCount ());
+
+      // Executed in the submitting thread
+      final Thread [] aThread = new Thread [1];
+      assertTrue (aPool.submit (null, () -> aThread[0] = Thread.currentThread ()));
+      assertSame (Thread.currentThread (), aThread[0]);
+      assertEquals (ResendWorkerPool.QUEUE_CAPACITY_PER_THREAD, aPool.getPendingCount ());
+    }
+    finally
+    {
+      aRelease.countDown ();
+      aPool.shutdown ();
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.supplementary.main;
+
+import java.security.KeyStore;
+import java.security.KeyStore.PrivateKeyEntry;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+import javax.mail.internet.MimeBodyPart;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.crypto.ECryptoAlgorithmCrypt;
+import com.helger.as2lib.crypto.ICryptoHelper;
+import com.helger.as2lib.util.AS2Helper;
+import com.helger.as2lib.util.AS2ResourceHelper;
+import com.helger.commons.CGlobal;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.timing.StopWatch;
+import com.helger.mail.cte.EContentTransferEncoding;
+import com.helger.security.keystore.EKeyStoreType;
+import com.helger.security.keystore.KeyStoreHelper;
+
+/**
+ * Simple throughput benchmark comparing the CBC based EnvelopedData algorithms
+ * with the AES-GCM based AuthEnvelopedData algorithms. The results are logged
+ * as MB/s and as seconds per GB for encrypt and decrypt.
+ *
+ * @author Philip Helger
+ */
+public final class MainCryptBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainCryptBenchmark.class);
+  private static final String PATH = "src/test/resources/mendelson/key3.pfx";
+  private static final int PAYLOAD_SIZE = 16 * CGlobal.BYTES_PER_MEGABYTE;
+  private static final int WARMUP_RUNS = 3;
+  private static final int RUNS = 10;
+
+  private static void _log (final ECryptoAlgorithmCrypt eAlgo, final String sOp, final long nBytes, final long nNanos)
+  {
+    final double dSeconds = nNanos / 1_000_000_000d;
+    final double dMBperSec = nBytes / (double) CGlobal.BYTES_PER_MEGABYTE / dSeconds;
+    final double dSecPerGB = dSeconds * CGlobal.BYTES_PER_GIGABYTE / nBytes;
+    LOGGER.info (String.format ("%-26s %-8s %8.1f MB/s %8.2f s/GB", eAlgo.getID (), sOp, dMBperSec, dSecPerGB));
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    final KeyStore aKS = KeyStoreHelper.loadKeyStore (EKeyStoreType.PKCS12, PATH, "test").getKeyStore ();
+    final PrivateKeyEntry aPKE = KeyStoreHelper.loadPrivateKey (aKS, PATH, "key3", "test".toCharArray ()).getKeyEntry ();
+    final X509Certificate aCert = (X509Certificate) aPKE.getCertificate ();
+    final ICryptoHelper aCryptoHelper = AS2Helper.getCryptoHelper ();
+
+    final byte [] aPayload = new byte [PAYLOAD_SIZE];
+    Arrays.fill (aPayload, (byte) 'x');
+    final MimeBodyPart aPart = new MimeBodyPart ();
+    aPart.setContent (aPayload, "application/octet-stream");
+
+    for (final ECryptoAlgorithmCrypt eAlgo : new ECryptoAlgorithmCrypt [] { ECryptoAlgorithmCrypt.CRYPT_AES128_CBC,
+                                                                            ECryptoAlgorithmCrypt.CRYPT_AES256_CBC,
+                                                                            ECryptoAlgorithmCrypt.CRYPT_AES128_GCM_AUTHENVELOPED,
+                                                                            ECryptoAlgorithmCrypt.CRYPT_AES256_GCM_AUTHENVELOPED })
+    {
+      long nEncryptNanos = 0;
+      long nDecryptNanos = 0;
+      for (int i = 0; i < WARMUP_RUNS + RUNS; ++i)
+      {
+        StopWatch aSW = StopWatch.createdStarted ();
+        // Serialize to force the actual encryption
+        final MimeBodyPart aEncrypted = aCryptoHelper.encrypt (aPart, aCert, eAlgo, EContentTransferEncoding.BINARY);
+        try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+        {
+          aEncrypted.writeTo (aBAOS);
+        }
+        aSW.stop ();
+        final long nEncrypt = aSW.getNanos ();
+
+        aSW = StopWatch.createdStarted ();
+        try (final AS2ResourceHelper aResHelper = new AS2ResourceHelper ())
+        {
+          final MimeBodyPart aDecrypted = aCryptoHelper.decrypt (aEncrypted, aCert, aPKE.getPrivateKey (), false, aResHelper);
+          // Read the content to force the decryption
+          StreamHelper.copyInputStreamToOutputStream (aDecrypted.getInputStream (), new NonBlockingByteArrayOutputStream ());
+        }
+        aSW.stop ();
+        final long nDecrypt = aSW.getNanos ();
+
+        if (i >= WARMUP_RUNS)
+        {
+          nEncryptNanos += nEncrypt;
+          nDecryptNanos += nDecrypt;
+        }
+      }
+      _log (eAlgo, "encrypt", (long) PAYLOAD_SIZE * RUNS, nEncryptNanos);
+      _log (eAlgo, "decrypt", (long) PAYLOAD_SIZE * RUNS, nDecryptNanos);
+    }
+  }
+}
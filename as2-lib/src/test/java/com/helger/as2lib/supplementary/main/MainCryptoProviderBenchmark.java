@@ -0,0 +1,175 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.supplementary.main;
+
+import java.security.KeyStore;
+import java.security.KeyStore.PrivateKeyEntry;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+import javax.mail.internet.MimeBodyPart;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.crypto.BCCryptoHelper;
+import com.helger.as2lib.crypto.ECryptoAlgorithmCrypt;
+import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
+import com.helger.as2lib.util.AS2ResourceHelper;
+import com.helger.commons.CGlobal;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.timing.StopWatch;
+import com.helger.mail.cte.EContentTransferEncoding;
+import com.helger.security.keystore.EKeyStoreType;
+import com.helger.security.keystore.KeyStoreHelper;
+
+/**
+ * Simple benchmark that runs <code>calculateMIC</code>, <code>encrypt</code>
+ * and <code>decrypt</code> of {@link BCCryptoHelper} with different JCA
+ * provider combinations and logs the fastest combination per operation.
+ *
+ * @author Philip Helger
+ */
+public final class MainCryptoProviderBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainCryptoProviderBenchmark.class);
+  private static final String PATH = "src/test/resources/mendelson/key3.pfx";
+  private static final int PAYLOAD_SIZE = 8 * CGlobal.BYTES_PER_MEGABYTE;
+  private static final int WARMUP_RUNS = 3;
+  private static final int RUNS = 10;
+
+  private static final String [] DIGEST_PROVIDERS = { "BC", "SUN" };
+  private static final String [] CIPHER_PROVIDERS = { "BC", "SunJCE" };
+  private static final String [] ASYMMETRIC_PROVIDERS = { "BC", "SunJCE" };
+
+  @FunctionalInterface
+  private interface IOperation
+  {
+    void run () throws Exception;
+  }
+
+  private static long _measure (final IOperation aOp) throws Exception
+  {
+    for (int i = 0; i < WARMUP_RUNS; ++i)
+      aOp.run ();
+    final StopWatch aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < RUNS; ++i)
+      aOp.run ();
+    aSW.stop ();
+    return aSW.getNanos () / RUNS;
+  }
+
+  private static void _log (final String sOp, final String sProviders, final long nNanos)
+  {
+    final double dMBperSec = PAYLOAD_SIZE / (double) CGlobal.BYTES_PER_MEGABYTE / (nNanos / 1_000_000_000d);
+    LOGGER.info (String.format ("%-8s %-30s %8.1f MB/s", sOp, sProviders, dMBperSec));
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    final KeyStore aKS = KeyStoreHelper.loadKeyStore (EKeyStoreType.PKCS12, PATH, "test").getKeyStore ();
+    final PrivateKeyEntry aPKE = KeyStoreHelper.loadPrivateKey (aKS, PATH, "key3", "test".toCharArray ()).getKeyEntry ();
+    final X509Certificate aCert = (X509Certificate) aPKE.getCertificate ();
+
+    final byte [] aPayload = new byte [PAYLOAD_SIZE];
+    Arrays.fill (aPayload, (byte) 'x');
+    final MimeBodyPart aPart = new MimeBodyPart ();
+    aPart.setContent (aPayload, "application/octet-stream");
+
+    final BCCryptoHelper aCryptoHelper = new BCCryptoHelper ();
+
+    // MIC
+    String sBest = null;
+    long nBest = Long.MAX_VALUE;
+    for (final String sDigest : DIGEST_PROVIDERS)
+    {
+      aCryptoHelper.setDigestProviderName (sDigest);
+      final long nNanos = _measure ( () -> aCryptoHelper.calculateMIC (aPart, ECryptoAlgorithmSign.DIGEST_SHA_256, true));
+      _log ("mic", "digest=" + sDigest, nNanos);
+      if (nNanos < nBest)
+      {
+        nBest = nNanos;
+        sBest = sDigest;
+      }
+    }
+    LOGGER.info ("Fastest digest provider: " + sBest);
+
+    // Encrypt and decrypt
+    String sBestEncrypt = null;
+    long nBestEncrypt = Long.MAX_VALUE;
+    String sBestDecrypt = null;
+    long nBestDecrypt = Long.MAX_VALUE;
+    for (final String sCipher : CIPHER_PROVIDERS)
+      for (final String sAsymmetric : ASYMMETRIC_PROVIDERS)
+      {
+        aCryptoHelper.setCipherProviderName (sCipher).setAsymmetricProviderName (sAsymmetric);
+        final String sProviders = "cipher=" + sCipher + "; rsa=" + sAsymmetric;
+
+        final MimeBodyPart aEncrypted = aCryptoHelper.encrypt (aPart,
+                                                               aCert,
+                                                               ECryptoAlgorithmCrypt.CRYPT_AES128_CBC,
+                                                               EContentTransferEncoding.BINARY);
+        final long nEncrypt = _measure ( () -> {
+          // Serialize to force the actual encryption
+          final MimeBodyPart aBP = aCryptoHelper.encrypt (aPart,
+                                                          aCert,
+                                                          ECryptoAlgorithmCrypt.CRYPT_AES128_CBC,
+                                                          EContentTransferEncoding.BINARY);
+          aBP.writeTo (new NonBlockingByteArrayOutputStream ());
+        });
+        _log ("encrypt", sProviders, nEncrypt);
+        if (nEncrypt < nBestEncrypt)
+        {
+          nBestEncrypt = nEncrypt;
+          sBestEncrypt = sProviders;
+        }
+
+        final long nDecrypt = _measure ( () -> {
+          try (final AS2ResourceHelper aResHelper = new AS2ResourceHelper ())
+          {
+            final MimeBodyPart aBP = aCryptoHelper.decrypt (aEncrypted, aCert, aPKE.getPrivateKey (), false, aResHelper);
+            StreamHelper.copyInputStreamToOutputStream (aBP.getInputStream (), new NonBlockingByteArrayOutputStream ());
+          }
+        });
+        _log ("decrypt", sProviders, nDecrypt);
+        if (nDecrypt < nBestDecrypt)
+        {
+          nBestDecrypt = nDecrypt;
+          sBestDecrypt = sProviders;
+        }
+      }
+    LOGGER.info ("Fastest encrypt providers: " + sBestEncrypt);
+    LOGGER.info ("Fastest decrypt providers: " + sBestDecrypt);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.supplementary.main;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.processor.AS2NoModuleException;
+import com.helger.as2lib.processor.DefaultMessageProcessor;
+import com.helger.as2lib.processor.storage.IProcessorStorageModule;
+import com.helger.commons.state.EHandled;
+import com.helger.commons.timing.StopWatch;
+
+/**
+ * Simple benchmark comparing the costs of an optional processor action without
+ * any configured module. Once with {@link AS2NoModuleException} being thrown
+ * and caught and once with the non-throwing
+ * {@link DefaultMessageProcessor#handleIfPossible(String, com.helger.as2lib.message.IMessage, java.util.Map)}.
+ * The results are logged as nanoseconds per operation.
+ *
+ * @author Philip Helger
+ */
+public final class MainNoModuleBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainNoModuleBenchmark.class);
+  private static final int WARMUP_RUNS = 3;
+  private static final int RUNS = 10;
+  private static final int OPERATIONS = 100_000;
+
+  private static long _runThrowing (final DefaultMessageProcessor aMP, final AS2Message aMsg) throws Exception
+  {
+    long nUnhandled = 0;
+    for (int i = 0; i < OPERATIONS; ++i)
+      try
+      {
+        aMP.handle (IProcessorStorageModule.DO_VALIDATE_BEFORE_STORE, aMsg, null);
+      }
+      catch (final AS2NoModuleException ex)
+      {
+        nUnhandled++;
+      }
+    return nUnhandled;
+  }
+
+  private static long _runNonThrowing (final DefaultMessageProcessor aMP, final AS2Message aMsg) throws Exception
+  {
+    long nUnhandled = 0;
+    for (int i = 0; i < OPERATIONS; ++i)
+      if (aMP.handleIfPossible (IProcessorStorageModule.DO_VALIDATE_BEFORE_STORE, aMsg, null) == EHandled.UNHANDLED)
+        nUnhandled++;
+    return nUnhandled;
+  }
+
+  private static void _log (final String sOp, final long nNanos)
+  {
+    final double dNanosPerOp = nNanos / (double) (RUNS * (long) OPERATIONS);
+    LOGGER.info (String.format ("%-16s %10.1f ns/op", sOp, dNanosPerOp));
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    final AS2Message aMsg = new AS2Message ();
+
+    long nCheck = 0;
+    for (int i = 0; i < WARMUP_RUNS; ++i)
+    {
+      nCheck += _runThrowing (aMP, aMsg);
+      nCheck += _runNonThrowing (aMP, aMsg);
+    }
+
+    StopWatch aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < RUNS; ++i)
+      nCheck += _runThrowing (aMP, aMsg);
+    aSW.stop ();
+    final long nThrowingNanos = aSW.getNanos ();
+
+    aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < RUNS; ++i)
+      nCheck += _runNonThrowing (aMP, aMsg);
+    aSW.stop ();
+    final long nNonThrowingNanos = aSW.getNanos ();
+
+    _log ("handle+catch", nThrowingNanos);
+    _log ("handleIfPossible", nNonThrowingNanos);
+    LOGGER.info (String.format ("Speedup: %.1fx (%d unhandled)", nThrowingNanos / (double) nNonThrowingNanos, Long.valueOf (nCheck)));
+  }
+}
@@ -32,10 +32,20 @@
  */
 package com.helger.as2lib.util;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.commons.io.file.SimpleFileIO;
 
 /**
  * Test class for class {@link AS2IOHelper}.
@@ -44,6 +54,9 @@ import org.junit.Test;
  */
 public final class AS2IOHelperTest
 {
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
   @Test
   public void testGetFilenameFromMessageID ()
   {
@@ -80,4 +93,50 @@ public final class AS2IOHelperTest
     assertEquals ("z:/com1", AS2IOHelper.getSafeFileAndFolderName ("z:\\com1"));
     assertEquals ("z:/_com2", AS2IOHelper.getSafeFileAndFolderName ("z:\\com2"));
   }
+
+  @Test
+  public void testWriteFileAtomic () throws Exception
+  {
+    final File aFile = new File (m_aTempFolder.getRoot (), "test.txt");
+    final byte [] aContent1 = "abc".getBytes (StandardCharsets.ISO_8859_1);
+    final byte [] aContent2 = "defgh".getBytes (StandardCharsets.ISO_8859_1);
+
+    AS2IOHelper.writeFileAtomic (aFile, aOS -> aOS.write (aContent1));
+    assertArrayEquals (aContent1, SimpleFileIO.getAllFileBytes (aFile));
+
+    // Closing by the writer is allowed
+    AS2IOHelper.writeFileAtomic (aFile, aOS -> {
+      aOS.write (aContent2);
+      aOS.close ();
+    });
+    assertArrayEquals (aContent2, SimpleFileIO.getAllFileBytes (aFile));
+
+    // No temporary files are left over
+    assertEquals (1, m_aTempFolder.getRoot ().listFiles ().length);
+  }
+
+  @Test
+  public void testWriteFileAtomicFailure () throws Exception
+  {
+    final File aFile = new File (m_aTempFolder.getRoot (), "test.txt");
+    final byte [] aContent = "abc".getBytes (StandardCharsets.ISO_8859_1);
+    AS2IOHelper.writeFileAtomic (aFile, aOS -> aOS.write (aContent));
+
+    try
+    {
+      AS2IOHelper.writeFileAtomic (aFile, aOS -> {
+        aOS.write (1);
+        throw new IOException ("Simulated error");
+      });
+      fail ();
+    }
+    catch (final IOException ex)
+    {
+      // expected
+    }
+
+    // Old content is untouched and the temporary file is removed
+    assertArrayEquals (aContent, SimpleFileIO.getAllFileBytes (aFile));
+    assertEquals (1, m_aTempFolder.getRoot ().listFiles ().length);
+  }
 }
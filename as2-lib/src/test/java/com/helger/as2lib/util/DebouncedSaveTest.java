@@ -0,0 +1,77 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ThreadHelper;
+
+/**
+ * Test class for class {@link DebouncedSave}.
+ *
+ * @author Philip Helger
+ */
+public final class DebouncedSaveTest
+{
+  @Test
+  public void testShutdownSavesPending () throws Exception
+  {
+    final AtomicInteger aSaveCount = new AtomicInteger (0);
+    final DebouncedSave aDS = new DebouncedSave ("test", aSaveCount::incrementAndGet);
+
+    // Multiple requests result in a single save
+    aDS.requestSave (60_000);
+    aDS.requestSave (60_000);
+    assertTrue (aDS.isPending ());
+    aDS.shutdown ();
+    assertFalse (aDS.isPending ());
+    assertEquals (1, aSaveCount.get ());
+
+    // Nothing pending
+    aDS.shutdown ();
+    assertEquals (1, aSaveCount.get ());
+
+    // Delayed saving still works after shutdown
+    aDS.requestSave (10);
+    for (int i = 0; i < 100 && aSaveCount.get () < 2; ++i)
+      ThreadHelper.sleep (20);
+    assertEquals (2, aSaveCount.get ());
+    assertFalse (aDS.isPending ());
+  }
+}
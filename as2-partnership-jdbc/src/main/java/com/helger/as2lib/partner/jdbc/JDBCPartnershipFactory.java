@@ -0,0 +1,578 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.AbstractDynamicComponent;
+import com.helger.as2lib.exception.AS2Exception;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.message.IMessageMDN;
+import com.helger.as2lib.params.MessageParameters;
+import com.helger.as2lib.partner.AS2PartnershipNotFoundException;
+import com.helger.as2lib.partner.IPartnershipFactory;
+import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.partner.PartnershipCache;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.attr.IStringMap;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.CommonsLinkedHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.state.EChange;
+
+/**
+ * JDBC based implementation of {@link IPartnershipFactory}. Partnerships are
+ * not held in memory but looked up with prepared statements on demand. The
+ * sender and receiver AS2 IDs and email addresses are stored in dedicated,
+ * indexed columns so that the lookup by IDs does not require a table scan. All
+ * IDs and attributes are stored in a separate name/value table. Resolved
+ * partnerships are kept in a bounded {@link PartnershipCache}.<br>
+ * Database errors while writing are reported as {@link AS2Exception}. As the
+ * read methods of {@link IPartnershipFactory} partially don't declare checked
+ * exceptions, database errors while reading are always reported as
+ * {@link IllegalStateException}.<br>
+ * Use {@link #createTablesIfNotExisting()} to create the schema, or create it
+ * manually based on {@link #getAllCreateStatements()} if the database does not
+ * support <code>IF NOT EXISTS</code>.
+ *
+ * @author Philip Helger
+ * @since 4.11.1
+ */
+@ThreadSafe
+public class JDBCPartnershipFactory extends AbstractDynamicComponent implements IPartnershipFactory
+{
+  public static final String TABLE_PARTNERSHIP = "as2_partnership";
+  public static final String TABLE_PARTNERSHIP_VALUE = "as2_partnership_value";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (JDBCPartnershipFactory.class);
+
+  private static final String KIND_SENDER = "S";
+  private static final String KIND_RECEIVER = "R";
+  private static final String KIND_ATTRIBUTE = "A";
+
+  private static final String SQL_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " +
+                                                 TABLE_PARTNERSHIP +
+                                                 " (name VARCHAR(255) NOT NULL PRIMARY KEY, sender_as2_id VARCHAR(255), receiver_as2_id VARCHAR(255), sender_email VARCHAR(255), receiver_email VARCHAR(255))";
+  private static final String SQL_CREATE_INDEX_AS2_IDS = "CREATE INDEX IF NOT EXISTS " +
+                                                         TABLE_PARTNERSHIP +
+                                                         "_as2_ids ON " +
+                                                         TABLE_PARTNERSHIP +
+                                                         " (sender_as2_id, receiver_as2_id)";
+  private static final String SQL_CREATE_INDEX_EMAILS = "CREATE INDEX IF NOT EXISTS " +
+                                                        TABLE_PARTNERSHIP +
+                                                        "_emails ON " +
+                                                        TABLE_PARTNERSHIP +
+                                                        " (sender_email, receiver_email)";
+  private static final String SQL_CREATE_TABLE_VALUE = "CREATE TABLE IF NOT EXISTS " +
+                                                       TABLE_PARTNERSHIP_VALUE +
+                                                       " (partnership_name VARCHAR(255) NOT NULL, kind CHAR(1) NOT NULL, attr_name VARCHAR(255) NOT NULL, attr_value VARCHAR(4000), PRIMARY KEY (partnership_name, kind, attr_name))";
+
+  private static final String SQL_EXISTS_BY_NAME = "SELECT name FROM " + TABLE_PARTNERSHIP + " WHERE name=?";
+  // Partnerships with all their values in a single query
+  private static final String SQL_SELECT_WITH_VALUES = "SELECT p.name, v.kind, v.attr_name, v.attr_value FROM " +
+                                                       TABLE_PARTNERSHIP +
+                                                       " p LEFT JOIN " +
+                                                       TABLE_PARTNERSHIP_VALUE +
+                                                       " v ON v.partnership_name=p.name";
+  private static final String SQL_SELECT_BY_NAME = SQL_SELECT_WITH_VALUES + " WHERE p.name=?";
+  static final String SQL_SELECT_BY_AS2_IDS = SQL_SELECT_WITH_VALUES + " WHERE p.sender_as2_id=? AND p.receiver_as2_id=? ORDER BY p.name";
+  private static final String SQL_SELECT_BY_EMAILS = SQL_SELECT_WITH_VALUES + " WHERE p.sender_email=? AND p.receiver_email=? ORDER BY p.name";
+  private static final String SQL_SELECT_ALL = SQL_SELECT_WITH_VALUES + " ORDER BY p.name";
+  private static final String SQL_SELECT_ALL_NAMES = "SELECT name FROM " + TABLE_PARTNERSHIP + " ORDER BY name";
+  private static final String SQL_INSERT = "INSERT INTO " +
+                                           TABLE_PARTNERSHIP +
+                                           " (name, sender_as2_id, receiver_as2_id, sender_email, receiver_email) VALUES (?, ?, ?, ?, ?)";
+  private static final String SQL_INSERT_VALUE = "INSERT INTO " +
+                                                 TABLE_PARTNERSHIP_VALUE +
+                                                 " (partnership_name, kind, attr_name, attr_value) VALUES (?, ?, ?, ?)";
+  private static final String SQL_DELETE = "DELETE FROM " + TABLE_PARTNERSHIP + " WHERE name=?";
+  private static final String SQL_DELETE_VALUES = "DELETE FROM " + TABLE_PARTNERSHIP_VALUE + " WHERE partnership_name=?";
+
+  private final DataSource m_aDataSource;
+  private final PartnershipCache m_aCache = new PartnershipCache ();
+
+  public JDBCPartnershipFactory (@Nonnull final DataSource aDataSource)
+  {
+    ValueEnforcer.notNull (aDataSource, "DataSource");
+    m_aDataSource = aDataSource;
+  }
+
+  /**
+   * @return The DDL statements to create the required tables and indexes.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <String> getAllCreateStatements ()
+  {
+    return new CommonsArrayList <> (SQL_CREATE_TABLE, SQL_CREATE_INDEX_AS2_IDS, SQL_CREATE_INDEX_EMAILS, SQL_CREATE_TABLE_VALUE);
+  }
+
+  /**
+   * Create the required tables and indexes if they are not yet existing.
+   *
+   * @throws AS2Exception
+   *         In case of a database error
+   */
+  public void createTablesIfNotExisting () throws AS2Exception
+  {
+    try (final Connection aConnection = m_aDataSource.getConnection (); final Statement aStatement = aConnection.createStatement ())
+    {
+      for (final String sSQL : getAllCreateStatements ())
+        aStatement.execute (sSQL);
+    }
+    catch (final SQLException ex)
+    {
+      throw new AS2Exception ("Failed to create partnership tables", ex);
+    }
+  }
+
+  /**
+   * @return The read-through cache used by this factory. Use it to configure
+   *         time to live and maximum size. Never <code>null</code>.
+   */
+  @Nonnull
+  public final PartnershipCache getCache ()
+  {
+    return m_aCache;
+  }
+
+  /**
+   * Remove all cached partnerships. Call this if the underlying tables were
+   * modified from outside this factory.
+   */
+  public void invalidateCache ()
+  {
+    m_aCache.clear ();
+  }
+
+  private static void _insertValues (@Nonnull final PreparedStatement aPS,
+                                     @Nonnull final String sName,
+                                     @Nonnull final String sKind,
+                                     @Nonnull final IStringMap aValues) throws SQLException
+  {
+    for (final Map.Entry <String, String> aEntry : aValues.entrySet ())
+    {
+      aPS.setString (1, sName);
+      aPS.setString (2, sKind);
+      aPS.setString (3, aEntry.getKey ());
+      aPS.setString (4, aEntry.getValue ());
+      aPS.addBatch ();
+    }
+  }
+
+  @Nonnull
+  public EChange addPartnership (@Nonnull final Partnership aPartnership) throws AS2Exception
+  {
+    ValueEnforcer.notNull (aPartnership, "Partnership");
+
+    final String sName = aPartnership.getName ();
+    try (final Connection aConnection = m_aDataSource.getConnection ())
+    {
+      // The connection may be pooled - restore the previous state
+      final boolean bOldAutoCommit = aConnection.getAutoCommit ();
+      aConnection.setAutoCommit (false);
+      try
+      {
+        if (_existsByName (aConnection, sName))
+        {
+          aConnection.rollback ();
+          return EChange.UNCHANGED;
+        }
+
+        try (final PreparedStatement aPS = aConnection.prepareStatement (SQL_INSERT))
+        {
+          aPS.setString (1, sName);
+          aPS.setString (2, aPartnership.getSenderAS2ID ());
+          aPS.setString (3, aPartnership.getReceiverAS2ID ());
+          aPS.setString (4, aPartnership.getSenderEmail ());
+          aPS.setString (5, aPartnership.getReceiverEmail ());
+          aPS.executeUpdate ();
+        }
+        try (final PreparedStatement aPS = aConnection.prepareStatement (SQL_INSERT_VALUE))
+        {
+          _insertValues (aPS, sName, KIND_SENDER, aPartnership.getAllSenderIDs ());
+          _insertValues (aPS, sName, KIND_RECEIVER, aPartnership.getAllReceiverIDs ());
+          _insertValues (aPS, sName, KIND_ATTRIBUTE, aPartnership.getAllAttributes ());
+          aPS.executeBatch ();
+        }
+        aConnection.commit ();
+      }
+      catch (final SQLException ex)
+      {
+        aConnection.rollback ();
+        throw ex;
+      }
+      finally
+      {
+        aConnection.setAutoCommit (bOldAutoCommit);
+      }
+    }
+    catch (final SQLException ex)
+    {
+      throw new AS2Exception ("Failed to add partnership '" + sName + "'", ex);
+    }
+    finally
+    {
+      invalidateCache ();
+    }
+    return EChange.CHANGED;
+  }
+
+  @Nonnull
+  public EChange removePartnership (@Nonnull final Partnership aPartnership) throws AS2Exception
+  {
+    ValueEnforcer.notNull (aPartnership, "Partnership");
+
+    final String sName = aPartnership.getName ();
+    int nDeleted;
+    try (final Connection aConnection = m_aDataSource.getConnection ())
+    {
+      // The connection may be pooled - restore the previous state
+      final boolean bOldAutoCommit = aConnection.getAutoCommit ();
+      aConnection.setAutoCommit (false);
+      try
+      {
+        try (final PreparedStatement aPS = aConnection.prepareStatement (SQL_DELETE_VALUES))
+        {
+          aPS.setString (1, sName);
+          aPS.executeUpdate ();
+        }
+        try (final PreparedStatement aPS = aConnection.prepareStatement (SQL_DELETE))
+        {
+          aPS.setString (1, sName);
+          nDeleted = aPS.executeUpdate ();
+        }
+        aConnection.commit ();
+      }
+      catch (final SQLException ex)
+      {
+        aConnection.rollback ();
+        throw ex;
+      }
+      finally
+      {
+        aConnection.setAutoCommit (bOldAutoCommit);
+      }
+    }
+    catch (final SQLException ex)
+    {
+      throw new AS2Exception ("Failed to remove partnership '" + sName + "'", ex);
+    }
+    finally
+    {
+      invalidateCache ();
+    }
+    return EChange.valueOf (nDeleted > 0);
+  }
+
+  private static boolean _existsByName (@Nonnull final Connection aConnection, @Nonnull final String sName) throws SQLException
+  {
+    try (final PreparedStatement aPS = aConnection.prepareStatement (SQL_EXISTS_BY_NAME))
+    {
+      aPS.setString (1, sName);
+      try (final ResultSet aRS = aPS.executeQuery ())
+      {
+        return aRS.next ();
+      }
+    }
+  }
+
+  private static void _addValue (@Nonnull final Partnership aPartnership,
+                                 @Nonnull final String sKind,
+                                 @Nonnull final String sName,
+                                 @Nullable final String sValue)
+  {
+    switch (sKind)
+    {
+      case KIND_SENDER:
+        aPartnership.setSenderID (sName, sValue);
+        break;
+      case KIND_RECEIVER:
+        aPartnership.setReceiverID (sName, sValue);
+        break;
+      case KIND_ATTRIBUTE:
+        aPartnership.setAttribute (sName, sValue);
+        break;
+      default:
+        LOGGER.warn ("Ignoring value '" + sName + "' of unknown kind '" + sKind + "' in partnership '" + aPartnership.getName () + "'");
+    }
+  }
+
+  @Nonnull
+  private static ICommonsOrderedMap <String, Partnership> _loadPartnerships (@Nonnull final Connection aConnection,
+                                                                           @Nonnull final String sSQL,
+                                                                           @Nonnull final String... aParams) throws SQLException
+  {
+    final ICommonsOrderedMap <String, Partnership> ret = new CommonsLinkedHashMap <> ();
+    try (final PreparedStatement aPS = aConnection.prepareStatement (sSQL))
+    {
+      for (int i = 0; i < aParams.length; ++i)
+        aPS.setString (i + 1, aParams[i]);
+      try (final ResultSet aRS = aPS.executeQuery ())
+      {
+        while (aRS.next ())
+        {
+          final Partnership aPartnership = ret.computeIfAbsent (aRS.getString (1), Partnership::new);
+          // Null for partnerships without values
+          final String sKind = aRS.getString (2);
+          if (sKind != null)
+            _addValue (aPartnership, sKind.trim (), aRS.getString (3), aRS.getString (4));
+        }
+      }
+    }
+    return ret;
+  }
+
+  @Nonnull
+  private static ICommonsList <String> _getAllNames (@Nonnull final Connection aConnection,
+                                                     @Nonnull final String sSQL,
+                                                     @Nonnull final String... aParams) throws SQLException
+  {
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    try (final PreparedStatement aPS = aConnection.prepareStatement (sSQL))
+    {
+      for (int i = 0; i < aParams.length; ++i)
+        aPS.setString (i + 1, aParams[i]);
+      try (final ResultSet aRS = aPS.executeQuery ())
+      {
+        while (aRS.next ())
+          ret.add (aRS.getString (1));
+      }
+    }
+    return ret;
+  }
+
+  private static boolean _containsAll (@Nonnull final IStringMap aIDs, @Nonnull final IStringMap aCompareTo)
+  {
+    for (final Map.Entry <String, String> aEntry : aIDs.entrySet ())
+      if (!aEntry.getValue ().equals (aCompareTo.getAsString (aEntry.getKey ())))
+        return false;
+    return true;
+  }
+
+  @Nullable
+  private static Partnership _findFirstMatch (@Nonnull final Iterable <Partnership> aCandidates,
+                                              @Nonnull final IStringMap aSenderIDs,
+                                              @Nonnull final IStringMap aReceiverIDs)
+  {
+    for (final Partnership aCandidate : aCandidates)
+      if (_containsAll (aSenderIDs, aCandidate.getAllSenderIDs ()) && _containsAll (aReceiverIDs, aCandidate.getAllReceiverIDs ()))
+        return aCandidate;
+    return null;
+  }
+
+  @Nullable
+  private static Partnership _findPartnershipByID (@Nonnull final Connection aConnection,
+                                                   @Nonnull final IStringMap aSenderIDs,
+                                                   @Nonnull final IStringMap aReceiverIDs) throws SQLException
+  {
+    if (aSenderIDs.isEmpty () || aReceiverIDs.isEmpty ())
+      return null;
+
+    final Partnership aStub = new Partnership (Partnership.DEFAULT_NAME);
+    aStub.addSenderIDs (aSenderIDs);
+    aStub.addReceiverIDs (aReceiverIDs);
+
+    // Use the indexes where possible
+    final String sSQL;
+    final String [] aParams;
+    final String sSenderAS2ID = aStub.getSenderAS2ID ();
+    final String sReceiverAS2ID = aStub.getReceiverAS2ID ();
+    final String sSenderEmail = aStub.getSenderEmail ();
+    final String sReceiverEmail = aStub.getReceiverEmail ();
+    if (sSenderAS2ID != null && sReceiverAS2ID != null)
+    {
+      sSQL = SQL_SELECT_BY_AS2_IDS;
+      aParams = new String [] { sSenderAS2ID, sReceiverAS2ID };
+    }
+    else
+      if (sSenderEmail != null && sReceiverEmail != null)
+      {
+        sSQL = SQL_SELECT_BY_EMAILS;
+        aParams = new String [] { sSenderEmail, sReceiverEmail };
+      }
+      else
+      {
+        // Neither AS2 IDs nor emails - check all partnerships
+        sSQL = SQL_SELECT_ALL;
+        aParams = new String [0];
+      }
+
+    // All candidates including their values are read with a single query
+    return _findFirstMatch (_loadPartnerships (aConnection, sSQL, aParams).values (), aSenderIDs, aReceiverIDs);
+  }
+
+  @Nonnull
+  private static IllegalStateException _readFailed (@Nonnull final String sWhat, @Nonnull final SQLException ex)
+  {
+    return new IllegalStateException ("Failed to read " + sWhat + " from the database", ex);
+  }
+
+  @Nonnull
+  public Partnership getPartnership (@Nonnull final Partnership aPartnership) throws AS2Exception
+  {
+    ValueEnforcer.notNull (aPartnership, "Partnership");
+
+    final String sName = aPartnership.getName ();
+    Partnership aRealPartnership = getPartnershipByName (sName);
+    if (aRealPartnership == null)
+    {
+      // Found no partnership by name
+      final IStringMap aSenderIDs = aPartnership.getAllSenderIDs ();
+      final IStringMap aReceiverIDs = aPartnership.getAllReceiverIDs ();
+      final String sCacheKey = "id:" + new TreeMap <> (aSenderIDs) + new TreeMap <> (aReceiverIDs);
+      aRealPartnership = m_aCache.get (sCacheKey);
+      if (aRealPartnership == null)
+      {
+        try (final Connection aConnection = m_aDataSource.getConnection ())
+        {
+          aRealPartnership = _findPartnershipByID (aConnection, aSenderIDs, aReceiverIDs);
+        }
+        catch (final SQLException ex)
+        {
+          throw _readFailed ("partnership " + aPartnership, ex);
+        }
+        if (aRealPartnership != null)
+          m_aCache.put (sCacheKey, aRealPartnership);
+      }
+    }
+
+    if (aRealPartnership == null)
+      throw new AS2PartnershipNotFoundException (aPartnership);
+    return aRealPartnership;
+  }
+
+  @Nullable
+  public Partnership getPartnershipByName (@Nullable final String sName)
+  {
+    if (sName == null)
+      return null;
+
+    final String sCacheKey = "name:" + sName;
+    Partnership ret = m_aCache.get (sCacheKey);
+    if (ret == null)
+    {
+      try (final Connection aConnection = m_aDataSource.getConnection ())
+      {
+        ret = _loadPartnerships (aConnection, SQL_SELECT_BY_NAME, sName).getFirstValue ();
+      }
+      catch (final SQLException ex)
+      {
+        throw _readFailed ("partnership '" + sName + "'", ex);
+      }
+      if (ret != null)
+        m_aCache.put (sCacheKey, ret);
+    }
+    return ret;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSet <String> getAllPartnershipNames ()
+  {
+    try (final Connection aConnection = m_aDataSource.getConnection ())
+    {
+      return new CommonsLinkedHashSet <> (_getAllNames (aConnection, SQL_SELECT_ALL_NAMES));
+    }
+    catch (final SQLException ex)
+    {
+      throw _readFailed ("partnership names", ex);
+    }
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <Partnership> getAllPartnerships ()
+  {
+    try (final Connection aConnection = m_aDataSource.getConnection ())
+    {
+      return _loadPartnerships (aConnection, SQL_SELECT_ALL).copyOfValues ();
+    }
+    catch (final SQLException ex)
+    {
+      throw _readFailed ("partnerships", ex);
+    }
+  }
+
+  public void updatePartnership (@Nonnull final IMessage aMsg, final boolean bOverwrite) throws AS2Exception
+  {
+    ValueEnforcer.notNull (aMsg, "Message");
+
+    // Fill in any available partnership information
+    final Partnership aPartnership = getPartnership (aMsg.partnership ());
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Updating partnership " + aPartnership);
+
+    // Update partnership data of message with the stored ones (no copy)
+    aMsg.partnership ().setBasePartnership (aPartnership);
+
+    // Set attributes
+    if (bOverwrite)
+    {
+      final String sSubject = aPartnership.getSubject ();
+      if (sSubject != null)
+      {
+        aMsg.setSubject (new MessageParameters (aMsg).format (sSubject));
+      }
+    }
+  }
+
+  public void updatePartnership (@Nonnull final IMessageMDN aMdn, final boolean bOverwrite) throws AS2Exception
+  {
+    ValueEnforcer.notNull (aMdn, "MessageMDN");
+
+    // Fill in any available partnership information
+    final Partnership aPartnership = getPartnership (aMdn.partnership ());
+    aMdn.partnership ().setBasePartnership (aPartnership);
+  }
+}
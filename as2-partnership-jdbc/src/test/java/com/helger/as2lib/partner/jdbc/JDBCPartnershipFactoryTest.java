@@ -0,0 +1,177 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Locale;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
+import com.helger.as2lib.partner.AS2PartnershipNotFoundException;
+import com.helger.as2lib.partner.Partnership;
+import com.helger.commons.state.EChange;
+
+/**
+ * Test class for class {@link JDBCPartnershipFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class JDBCPartnershipFactoryTest
+{
+  private JdbcDataSource m_aDataSource;
+  private JDBCPartnershipFactory m_aFactory;
+
+  @Before
+  public void before () throws Exception
+  {
+    m_aDataSource = new JdbcDataSource ();
+    m_aDataSource.setURL ("jdbc:h2:mem:as2-partnership-test;DB_CLOSE_DELAY=-1");
+    try (final Connection aConnection = m_aDataSource.getConnection (); final Statement aStatement = aConnection.createStatement ())
+    {
+      aStatement.execute ("DROP ALL OBJECTS");
+    }
+    m_aFactory = new JDBCPartnershipFactory (m_aDataSource);
+    m_aFactory.createTablesIfNotExisting ();
+    // Must be callable more than once
+    m_aFactory.createTablesIfNotExisting ();
+  }
+
+  @Test
+  public void testAddGetRemove () throws Exception
+  {
+    final Partnership aPartnership = new Partnership ("Test partnership");
+    aPartnership.setSenderAS2ID ("Sender");
+    aPartnership.setReceiverAS2ID ("Receiver");
+    aPartnership.setReceiverEmail ("receiver@example.org");
+    aPartnership.setSigningAlgorithm (ECryptoAlgorithmSign.DIGEST_SHA_256);
+    assertTrue (m_aFactory.addPartnership (aPartnership).isChanged ());
+    assertEquals (EChange.UNCHANGED, m_aFactory.addPartnership (aPartnership));
+    assertEquals (1, m_aFactory.getAllPartnershipNames ().size ());
+
+    // By name
+    final Partnership aByName = m_aFactory.getPartnershipByName ("Test partnership");
+    assertNotNull (aByName);
+    assertEquals ("Sender", aByName.getSenderAS2ID ());
+    assertEquals ("Receiver", aByName.getReceiverAS2ID ());
+    assertEquals ("receiver@example.org", aByName.getReceiverEmail ());
+    assertEquals (ECryptoAlgorithmSign.DIGEST_SHA_256.getID (), aByName.getSigningAlgorithm ());
+    assertNull (m_aFactory.getPartnershipByName ("any"));
+
+    // By IDs
+    final Partnership aStub = new Partnership ("any");
+    aStub.setSenderAS2ID ("Sender");
+    aStub.setReceiverAS2ID ("Receiver");
+    assertEquals ("Test partnership", m_aFactory.getPartnership (aStub).getName ());
+
+    // Additional ID not matching
+    aStub.setReceiverEmail ("other@example.org");
+    try
+    {
+      m_aFactory.getPartnership (aStub);
+      fail ();
+    }
+    catch (final AS2PartnershipNotFoundException ex)
+    {
+      // expected
+    }
+
+    assertEquals (1, m_aFactory.getAllPartnerships ().size ());
+    assertEquals (aByName.getAllAttributes (), m_aFactory.getAllPartnerships ().getFirst ().getAllAttributes ());
+
+    assertTrue (m_aFactory.removePartnership (aPartnership).isChanged ());
+    assertFalse (m_aFactory.removePartnership (aPartnership).isChanged ());
+    assertNull (m_aFactory.getPartnershipByName ("Test partnership"));
+    assertTrue (m_aFactory.getAllPartnerships ().isEmpty ());
+  }
+
+  @Test
+  public void testCache () throws Exception
+  {
+    final Partnership aPartnership = new Partnership ("Cached");
+    aPartnership.setSenderAS2ID ("S");
+    aPartnership.setReceiverAS2ID ("R");
+    m_aFactory.addPartnership (aPartnership);
+
+    final Partnership aFirst = m_aFactory.getPartnershipByName ("Cached");
+    assertNotNull (aFirst);
+    final int nCacheSize = m_aFactory.getCache ().size ();
+    assertEquals ("Cached", m_aFactory.getPartnershipByName ("Cached").getName ());
+    assertEquals (nCacheSize, m_aFactory.getCache ().size ());
+
+    // Modifying a returned partnership does not modify the cached one
+    aFirst.setSenderAS2ID ("modified");
+    assertEquals ("S", m_aFactory.getPartnershipByName ("Cached").getSenderAS2ID ());
+
+    final Partnership aStub = new Partnership ("any");
+    aStub.setSenderAS2ID ("S");
+    aStub.setReceiverAS2ID ("R");
+    final Partnership aByID = m_aFactory.getPartnership (aStub);
+    assertNotSame (aByID, m_aFactory.getPartnership (aStub));
+    assertEquals ("Cached", m_aFactory.getPartnership (aStub).getName ());
+
+    // Modifications invalidate the cache
+    m_aFactory.removePartnership (aPartnership);
+    assertNull (m_aFactory.getPartnershipByName ("Cached"));
+  }
+
+  @Test
+  public void testLookupUsesIndex () throws Exception
+  {
+    try (final Connection aConnection = m_aDataSource.getConnection ();
+         final PreparedStatement aPS = aConnection.prepareStatement ("EXPLAIN " + JDBCPartnershipFactory.SQL_SELECT_BY_AS2_IDS))
+    {
+      aPS.setString (1, "Sender");
+      aPS.setString (2, "Receiver");
+      try (final ResultSet aRS = aPS.executeQuery ())
+      {
+        assertTrue (aRS.next ());
+        final String sPlan = aRS.getString (1);
+        assertTrue (sPlan, sPlan.toUpperCase (Locale.ROOT).contains ("AS2_PARTNERSHIP_AS2_IDS"));
+      }
+    }
+  }
+}
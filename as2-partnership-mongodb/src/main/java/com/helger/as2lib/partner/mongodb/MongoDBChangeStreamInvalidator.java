@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015-2023 jochenberger & Philip Helger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.as2lib.partner.mongodb;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.mongodb.MongoCommandException;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Listens to a stream of change events (usually a MongoDB change stream) in a
+ * background daemon thread and invokes a callback for every event. It is used
+ * to invalidate the partnership cache if the partnership collection is
+ * modified by other processes. Change streams require MongoDB to run as a
+ * replica set. If the server does not support change streams, this is logged
+ * once and the listening stops, so that only the time to live of the cache
+ * applies.
+ *
+ * @author Philip Helger
+ * @since 4.11.1
+ */
+@ThreadSafe
+public final class MongoDBChangeStreamInvalidator implements Closeable
+{
+  /** The initial delay before re-opening a failed event source */
+  public static final long DEFAULT_RETRY_DELAY_MS = 1_000;
+  /** The maximum delay before re-opening a failed event source */
+  public static final long MAX_RETRY_DELAY_MS = 60_000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (MongoDBChangeStreamInvalidator.class);
+
+  // "$changeStream is only supported on replica sets"
+  private static final int ERROR_CODE_NO_REPLICA_SET = 40573;
+  // "Unrecognized pipeline stage name: '$changeStream'" of old servers
+  private static final int ERROR_CODE_UNRECOGNIZED_STAGE = 40324;
+
+  private final Supplier <? extends Iterator <?>> m_aEventSource;
+  private final Runnable m_aOnChange;
+  private final Thread m_aThread;
+  private volatile boolean m_bClosed = false;
+  private volatile Iterator <?> m_aCurrentIterator;
+  private volatile boolean m_bUnsupported = false;
+
+  /**
+   * Constructor. The listening thread is started immediately.
+   *
+   * @param aEventSource
+   *        Supplier for the blocking iterator of change events. If the
+   *        iterator is {@link AutoCloseable} it is closed when this object is
+   *        closed. May not be <code>null</code>.
+   * @param aOnChange
+   *        The callback to be invoked for every change event and after the
+   *        event source was (re-)opened. May not be <code>null</code>.
+   */
+  public MongoDBChangeStreamInvalidator (@Nonnull final Supplier <? extends Iterator <?>> aEventSource,
+                                         @Nonnull final Runnable aOnChange)
+  {
+    ValueEnforcer.notNull (aEventSource, "EventSource");
+    ValueEnforcer.notNull (aOnChange, "OnChange");
+    m_aEventSource = aEventSource;
+    m_aOnChange = aOnChange;
+    m_aThread = new Thread (this::_run, "AS2-MongoDB-ChangeStream");
+    m_aThread.setDaemon (true);
+    m_aThread.start ();
+  }
+
+  /**
+   * Check if the provided exception indicates that the server does not support
+   * change streams at all, e.g. because it is a standalone server.
+   *
+   * @param ex
+   *        The exception to check. May not be <code>null</code>.
+   * @return <code>true</code> if change streams are not supported.
+   */
+  public static boolean isChangeStreamUnsupported (@Nonnull final RuntimeException ex)
+  {
+    if (ex instanceof MongoCommandException)
+    {
+      final int nErrorCode = ((MongoCommandException) ex).getErrorCode ();
+      return nErrorCode == ERROR_CODE_NO_REPLICA_SET || nErrorCode == ERROR_CODE_UNRECOGNIZED_STAGE;
+    }
+    return false;
+  }
+
+  private void _run ()
+  {
+    long nRetryDelayMS = DEFAULT_RETRY_DELAY_MS;
+    while (!m_bClosed)
+    {
+      try
+      {
+        final Iterator <?> aIterator = m_aEventSource.get ();
+        m_aCurrentIterator = aIterator;
+        // Changes may have been missed while not listening
+        m_aOnChange.run ();
+        nRetryDelayMS = DEFAULT_RETRY_DELAY_MS;
+        while (!m_bClosed && aIterator.hasNext ())
+        {
+          aIterator.next ();
+          m_aOnChange.run ();
+        }
+      }
+      catch (final RuntimeException ex)
+      {
+        if (m_bClosed)
+          break;
+        if (isChangeStreamUnsupported (ex))
+        {
+          m_bUnsupported = true;
+          LOGGER.warn ("MongoDB does not support change streams (" +
+                       ex.getMessage () +
+                       ") - partnership changes of other processes are only visible after the cache entries expired");
+          break;
+        }
+        LOGGER.warn ("Error listening for partnership changes - retrying in " + nRetryDelayMS + " ms", ex);
+        try
+        {
+          Thread.sleep (nRetryDelayMS);
+          nRetryDelayMS = Math.min (nRetryDelayMS * 2, MAX_RETRY_DELAY_MS);
+        }
+        catch (final InterruptedException ex2)
+        {
+          Thread.currentThread ().interrupt ();
+          break;
+        }
+      }
+      finally
+      {
+        _closeCurrent ();
+      }
+    }
+  }
+
+  private void _closeCurrent ()
+  {
+    final Iterator <?> aIterator = m_aCurrentIterator;
+    m_aCurrentIterator = null;
+    if (aIterator instanceof AutoCloseable)
+      StreamHelper.close ((AutoCloseable) aIterator);
+  }
+
+  /**
+   * @return <code>true</code> if the server does not support change streams
+   *         and listening was therefore stopped.
+   */
+  public boolean isUnsupported ()
+  {
+    return m_bUnsupported;
+  }
+
+  /**
+   * @return <code>true</code> if this object was closed.
+   */
+  public boolean isClosed ()
+  {
+    return m_bClosed;
+  }
+
+  /**
+   * Stop listening. Closes the current event source and stops the background
+   * thread.
+   */
+  public void close ()
+  {
+    m_bClosed = true;
+    _closeCurrent ();
+    m_aThread.interrupt ();
+  }
+}
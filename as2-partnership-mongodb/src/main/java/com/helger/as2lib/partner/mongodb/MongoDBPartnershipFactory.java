@@ -16,6 +16,7 @@
 package com.helger.as2lib.partner.mongodb;
 
 import java.util.Map;
+import java.util.TreeMap;
 
 import javax.annotation.Nonnull;
 
@@ -31,6 +32,7 @@ import com.helger.as2lib.partner.AS2PartnershipNotFoundException;
 import com.helger.as2lib.partner.CPartnershipIDs;
 import com.helger.as2lib.partner.IPartnershipFactory;
 import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.partner.PartnershipCache;
 import com.helger.commons.annotation.CodingStyleguideUnaware;
 import com.helger.commons.collection.attr.IStringMap;
 import com.helger.commons.collection.impl.CommonsArrayList;
@@ -41,6 +43,7 @@ import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.state.EChange;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.result.DeleteResult;
 
@@ -59,18 +62,64 @@ public class MongoDBPartnershipFactory extends AbstractDynamicComponent implemen
 
   private final MongoCollection <Document> m_aPartnerships;
   private final Logger m_aLogger;
+  private final PartnershipCache m_aCache = new PartnershipCache ();
 
   public MongoDBPartnershipFactory (final MongoCollection <Document> aPartnerships, @Nonnull final Logger aLogger)
   {
     m_aLogger = aLogger;
     aPartnerships.createIndex (new Document (NAME_KEY, Integer.valueOf (1)), new IndexOptions ().unique (true));
+    // Compound indexes for the lookup by sender and receiver IDs (in both
+    // directions)
+    for (final String sID : new String [] { CPartnershipIDs.PID_AS2, CPartnershipIDs.PID_EMAIL })
+    {
+      aPartnerships.createIndex (new Document (SENDER_IDS + "." + sID, Integer.valueOf (1)).append (RECEIVER_IDS + "." + sID,
+                                                                                                  Integer.valueOf (1)));
+    }
     m_aPartnerships = aPartnerships;
   }
 
+  /**
+   * @return The read-through cache used by this factory. Use it to configure
+   *         time to live and maximum size. Never <code>null</code>.
+   * @since 4.11.1
+   */
+  @Nonnull
+  public final PartnershipCache getCache ()
+  {
+    return m_aCache;
+  }
+
+  /**
+   * Remove all cached partnerships. Call this if the underlying collection was
+   * modified from outside this factory.
+   *
+   * @since 4.11.1
+   */
+  public void invalidateCache ()
+  {
+    m_aCache.clear ();
+  }
+
+  /**
+   * Start listening to the MongoDB change stream of the partnership collection
+   * and invalidate the cache on every change. This requires MongoDB to run as
+   * a replica set.
+   *
+   * @return The listener that must be closed to stop listening. Never
+   *         <code>null</code>.
+   * @since 4.11.1
+   */
+  @Nonnull
+  public MongoDBChangeStreamInvalidator startChangeStreamInvalidation ()
+  {
+    return new MongoDBChangeStreamInvalidator ( () -> m_aPartnerships.watch ().iterator (), this::invalidateCache);
+  }
+
   @Override
   public EChange addPartnership (final Partnership aPartnership) throws AS2Exception
   {
     m_aPartnerships.insertOne (_toDocument (aPartnership));
+    invalidateCache ();
     return EChange.CHANGED;
   }
 
@@ -78,6 +127,7 @@ public class MongoDBPartnershipFactory extends AbstractDynamicComponent implemen
   public EChange removePartnership (final Partnership aPartnership) throws AS2Exception
   {
     final DeleteResult result = m_aPartnerships.deleteOne (new Document (NAME_KEY, aPartnership.getName ()));
+    invalidateCache ();
     if (result.getDeletedCount () >= 1l)
     {
       return EChange.CHANGED;
@@ -94,7 +144,7 @@ public class MongoDBPartnershipFactory extends AbstractDynamicComponent implemen
     m_aLogger.debug ("Updating partnership {}", aPartnership);
 
     // Update partnership data of message with the stored ones
-    aMsg.partnership ().copyFrom (aPartnership);
+    aMsg.partnership ().setBasePartnership (aPartnership);
 
     // Set attributes
     if (bOverwrite)
@@ -111,17 +161,27 @@ public class MongoDBPartnershipFactory extends AbstractDynamicComponent implemen
   public void updatePartnership (final IMessageMDN aMdn, final boolean bOverwrite) throws AS2Exception
   {
     final Partnership aPartnership = getPartnership (aMdn.partnership ());
-    aMdn.partnership ().copyFrom (aPartnership);
+    aMdn.partnership ().setBasePartnership (aPartnership);
   }
 
   @Override
   public Partnership getPartnership (final Partnership aPartnership) throws AS2Exception
   {
-    Partnership aRealPartnership = getPartnershipByName (aPartnership.getName ());
+    final String sName = aPartnership.getName ();
+    final IStringMap allSenderIDs = aPartnership.getAllSenderIDs ();
+    final IStringMap allReceiverIDs = aPartnership.getAllReceiverIDs ();
+
+    Partnership aRealPartnership = m_aCache.get ("name:" + sName);
     if (aRealPartnership == null)
     {
-      // Found no partnership by name
-      aRealPartnership = getPartnershipByID (aPartnership.getAllSenderIDs (), aPartnership.getAllReceiverIDs ());
+      final String sCacheKey = "id:" + sName + new TreeMap <> (allSenderIDs) + new TreeMap <> (allReceiverIDs);
+      aRealPartnership = m_aCache.get (sCacheKey);
+      if (aRealPartnership == null)
+      {
+        aRealPartnership = _findPartnership (sName, allSenderIDs, allReceiverIDs);
+        if (aRealPartnership != null)
+          m_aCache.put (sName.equals (aRealPartnership.getName ()) ? "name:" + sName : sCacheKey, aRealPartnership);
+      }
     }
 
     if (aRealPartnership == null)
@@ -131,55 +191,129 @@ public class MongoDBPartnershipFactory extends AbstractDynamicComponent implemen
     return aRealPartnership;
   }
 
-  private Partnership getPartnershipByID (final IStringMap allSenderIDs, final IStringMap allReceiverIDs)
+  @Nonnull
+  private static Document _createIDFilter (@Nonnull final IStringMap allSenderIDs,
+                                           @Nonnull final IStringMap allReceiverIDs,
+                                           final boolean bInverse)
   {
-    Document filter = new Document ();
+    final Document filter = new Document ();
     for (final Map.Entry <String, String> entry : allSenderIDs.entrySet ())
     {
-      filter.append (SENDER_IDS + "." + entry.getKey (), entry.getValue ());
+      filter.append ((bInverse ? RECEIVER_IDS : SENDER_IDS) + "." + entry.getKey (), entry.getValue ());
     }
     for (final Map.Entry <String, String> entry : allReceiverIDs.entrySet ())
     {
-      filter.append (RECEIVER_IDS + "." + entry.getKey (), entry.getValue ());
+      filter.append ((bInverse ? SENDER_IDS : RECEIVER_IDS) + "." + entry.getKey (), entry.getValue ());
     }
+    return filter;
+  }
 
-    Partnership result = m_aPartnerships.find (filter).map (MongoDBPartnershipFactory::_toPartnership).first ();
-    if (result != null)
+  /**
+   * Create the filter to find a partnership by name, by sender and receiver
+   * IDs or by the inverse sender and receiver IDs in a single query.
+   *
+   * @param sName
+   *        The partnership name. May not be <code>null</code>.
+   * @param allSenderIDs
+   *        The sender IDs to search. May not be <code>null</code>.
+   * @param allReceiverIDs
+   *        The receiver IDs to search. May not be <code>null</code>.
+   * @return The filter document. Never <code>null</code>.
+   */
+  @Nonnull
+  static Document createLookupFilter (@Nonnull final String sName,
+                                      @Nonnull final IStringMap allSenderIDs,
+                                      @Nonnull final IStringMap allReceiverIDs)
+  {
+    final ICommonsList <Document> aOr = new CommonsArrayList <> ();
+    aOr.add (new Document (NAME_KEY, sName));
+    // An empty ID filter would match all documents
+    if (allSenderIDs.isNotEmpty () || allReceiverIDs.isNotEmpty ())
     {
-      return result;
+      aOr.add (_createIDFilter (allSenderIDs, allReceiverIDs, false));
+      // try the other way around, maybe we're receiving a response
+      aOr.add (_createIDFilter (allSenderIDs, allReceiverIDs, true));
     }
+    return new Document ("$or", aOr);
+  }
 
-    // try the other way around, maybe we're receiving a response
-    // TODO is this really a good idea?
-    filter = new Document ();
-    for (final Map.Entry <String, String> entry : allSenderIDs.entrySet ())
+  private static boolean _matchesIDs (@Nonnull final Document aIDs, @Nonnull final IStringMap aExpectedIDs)
+  {
+    for (final Map.Entry <String, String> entry : aExpectedIDs.entrySet ())
     {
-      filter.append (RECEIVER_IDS + "." + entry.getKey (), entry.getValue ());
+      final Object aValue = aIDs.get (entry.getKey ());
+      if (aValue == null || !aValue.toString ().equals (entry.getValue ()))
+        return false;
     }
-    for (final Map.Entry <String, String> entry : allReceiverIDs.entrySet ())
+    return true;
+  }
+
+  private static boolean _matchesIDs (@Nonnull final Document document,
+                                      @Nonnull final IStringMap allSenderIDs,
+                                      @Nonnull final IStringMap allReceiverIDs,
+                                      final boolean bInverse)
+  {
+    if (allSenderIDs.isEmpty () && allReceiverIDs.isEmpty ())
+      return false;
+    final Document senderIDs = (Document) document.get (bInverse ? RECEIVER_IDS : SENDER_IDS);
+    final Document receiverIDs = (Document) document.get (bInverse ? SENDER_IDS : RECEIVER_IDS);
+    return senderIDs != null &&
+           receiverIDs != null &&
+           _matchesIDs (senderIDs, allSenderIDs) &&
+           _matchesIDs (receiverIDs, allReceiverIDs);
+  }
+
+  private Partnership _findPartnership (@Nonnull final String sName,
+                                        @Nonnull final IStringMap allSenderIDs,
+                                        @Nonnull final IStringMap allReceiverIDs)
+  {
+    // One round-trip for all three variants - the name match has the highest
+    // priority, followed by the ID match and the inverse ID match
+    Document aDirect = null;
+    Document aInverse = null;
+    try (final MongoCursor <Document> aCursor = m_aPartnerships.find (createLookupFilter (sName, allSenderIDs, allReceiverIDs))
+                                                                .iterator ())
     {
-      filter.append (SENDER_IDS + "." + entry.getKey (), entry.getValue ());
+      while (aCursor.hasNext ())
+      {
+        final Document document = aCursor.next ();
+        if (sName.equals (document.getString (NAME_KEY)))
+          return _toPartnership (document);
+        if (aDirect == null && _matchesIDs (document, allSenderIDs, allReceiverIDs, false))
+          aDirect = document;
+        if (aInverse == null && _matchesIDs (document, allSenderIDs, allReceiverIDs, true))
+          aInverse = document;
+      }
     }
 
-    final Partnership inverseResult = m_aPartnerships.find (filter).map (MongoDBPartnershipFactory::_toPartnership).first ();
-    if (inverseResult != null)
+    if (aDirect != null)
+      return _toPartnership (aDirect);
+
+    if (aInverse != null)
     {
-      result = new Partnership (inverseResult.getName () + "-inverse");
+      final Partnership inverseResult = _toPartnership (aInverse);
+      final Partnership result = new Partnership (inverseResult.getName () + "-inverse");
       result.setReceiverX509Alias (inverseResult.getSenderX509Alias ());
       result.setReceiverAS2ID (inverseResult.getSenderAS2ID ());
       result.setSenderX509Alias (inverseResult.getReceiverX509Alias ());
       result.setSenderAS2ID (inverseResult.getReceiverAS2ID ());
-
       return result;
     }
     return null;
-
   }
 
   @Override
   public Partnership getPartnershipByName (final String sName)
   {
-    return m_aPartnerships.find (new Document (NAME_KEY, sName)).map (MongoDBPartnershipFactory::_toPartnership).first ();
+    final String sCacheKey = "name:" + sName;
+    Partnership ret = m_aCache.get (sCacheKey);
+    if (ret == null)
+    {
+      ret = m_aPartnerships.find (new Document (NAME_KEY, sName)).map (MongoDBPartnershipFactory::_toPartnership).first ();
+      if (ret != null)
+        m_aCache.put (sCacheKey, ret);
+    }
+    return ret;
   }
 
   @Override
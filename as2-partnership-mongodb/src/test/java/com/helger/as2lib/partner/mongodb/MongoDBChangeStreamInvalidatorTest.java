@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015-2023 jochenberger & Philip Helger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.as2lib.partner.mongodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.junit.Test;
+
+import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.partner.PartnershipCache;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+
+/**
+ * Test class for class {@link MongoDBChangeStreamInvalidator}.
+ *
+ * @author Philip Helger
+ */
+public final class MongoDBChangeStreamInvalidatorTest
+{
+  @Test
+  public void testChangeStreamInvalidation () throws Exception
+  {
+    // Fake change stream
+    final Object aEnd = new Object ();
+    final BlockingQueue <Object> aEvents = new LinkedBlockingQueue <> ();
+    final Iterator <Object> aIterator = new Iterator <Object> ()
+    {
+      private Object m_aNext;
+
+      @Override
+      public boolean hasNext ()
+      {
+        try
+        {
+          m_aNext = aEvents.take ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+          return false;
+        }
+        return m_aNext != aEnd;
+      }
+
+      @Override
+      public Object next ()
+      {
+        return m_aNext;
+      }
+    };
+
+    final PartnershipCache aCache = new PartnershipCache ();
+    final Semaphore aInvalidations = new Semaphore (0);
+    try (final MongoDBChangeStreamInvalidator aInvalidator = new MongoDBChangeStreamInvalidator ( () -> aIterator, () -> {
+      aCache.clear ();
+      aInvalidations.release ();
+    }))
+    {
+      // Initial invalidation when the stream is opened
+      assertTrue (aInvalidations.tryAcquire (5, TimeUnit.SECONDS));
+
+      aCache.put ("a", new Partnership ("p1"));
+      assertEquals (1, aCache.size ());
+      aEvents.add ("change");
+      assertTrue (aInvalidations.tryAcquire (5, TimeUnit.SECONDS));
+      assertEquals (0, aCache.size ());
+    }
+    aEvents.add (aEnd);
+  }
+
+  @Test
+  public void testUnsupportedStopsListening () throws Exception
+  {
+    final AtomicInteger aOpenCount = new AtomicInteger (0);
+    try (final MongoDBChangeStreamInvalidator aInvalidator = new MongoDBChangeStreamInvalidator ( () -> {
+      aOpenCount.incrementAndGet ();
+      throw new MongoCommandException (new BsonDocument ("code",
+                                                         new BsonInt32 (40573)).append ("errmsg",
+                                                                                        new BsonString ("The $changeStream stage is only supported on replica sets")),
+                                       new ServerAddress ());
+    }, () -> {}))
+    {
+      for (int i = 0; i < 100 && !aInvalidator.isUnsupported (); ++i)
+        ThreadHelper.sleep (50);
+      assertTrue (aInvalidator.isUnsupported ());
+
+      // No retries
+      ThreadHelper.sleep (100);
+      assertEquals (1, aOpenCount.get ());
+    }
+  }
+}
@@ -16,7 +16,10 @@
 package com.helger.as2lib.partner.mongodb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -92,4 +95,70 @@ public class MongoDBPartnershipFactoryTest
     assertEquals (1, s_aCollection.countDocuments ());
     assertNotNull (s_aPartnershipFactory.getPartnershipByName ("Test partnership"));
   }
+
+  @Test
+  public void testCache () throws AS2Exception
+  {
+    final Partnership partnership = new Partnership ("Cached partnership");
+    partnership.setSenderAS2ID ("cache-sender");
+    partnership.setReceiverAS2ID ("cache-receiver");
+    assertTrue (s_aPartnershipFactory.addPartnership (partnership).isChanged ());
+
+    final Partnership aCached = s_aPartnershipFactory.getPartnershipByName ("Cached partnership");
+    assertNotNull (aCached);
+    // Modifying a returned partnership does not modify the cached one
+    aCached.setSenderAS2ID ("modified");
+    assertEquals ("cache-sender", s_aPartnershipFactory.getPartnershipByName ("Cached partnership").getSenderAS2ID ());
+
+    final Partnership aLookup = new Partnership ("other");
+    aLookup.setSenderAS2ID ("cache-sender");
+    aLookup.setReceiverAS2ID ("cache-receiver");
+    final Partnership aByID = s_aPartnershipFactory.getPartnership (aLookup);
+    assertEquals ("Cached partnership", aByID.getName ());
+    assertNotSame (aByID, s_aPartnershipFactory.getPartnership (aLookup));
+
+    // External modification is only visible after invalidation
+    s_aCollection.deleteOne (new Document ("name", "Cached partnership"));
+    assertNotNull (s_aPartnershipFactory.getPartnershipByName ("Cached partnership"));
+    s_aPartnershipFactory.invalidateCache ();
+    assertNull (s_aPartnershipFactory.getPartnershipByName ("Cached partnership"));
+
+    // Own writes invalidate the cache
+    assertTrue (s_aPartnershipFactory.addPartnership (partnership).isChanged ());
+    assertNotNull (s_aPartnershipFactory.getPartnershipByName ("Cached partnership"));
+    assertTrue (s_aPartnershipFactory.removePartnership (partnership).isChanged ());
+    assertNull (s_aPartnershipFactory.getPartnershipByName ("Cached partnership"));
+  }
+
+  @Test
+  public void testLookupUsesIndex () throws AS2Exception
+  {
+    final Partnership partnership = new Partnership ("Indexed partnership");
+    partnership.setSenderAS2ID ("idx-sender");
+    partnership.setReceiverAS2ID ("idx-receiver");
+    assertTrue (s_aPartnershipFactory.addPartnership (partnership).isChanged ());
+
+    final Partnership aLookup = new Partnership ("unknown");
+    aLookup.setSenderAS2ID ("idx-sender");
+    aLookup.setReceiverAS2ID ("idx-receiver");
+    final Document aFilter = MongoDBPartnershipFactory.createLookupFilter (aLookup.getName (),
+                                                                          aLookup.getAllSenderIDs (),
+                                                                          aLookup.getAllReceiverIDs ());
+    final String sExplain = s_aCollection.find (aFilter).explain ().toJson ();
+    assertTrue (sExplain, sExplain.contains ("IXSCAN"));
+    assertFalse (sExplain, sExplain.contains ("COLLSCAN"));
+
+    // Direct lookup
+    assertEquals ("Indexed partnership", s_aPartnershipFactory.getPartnership (aLookup).getName ());
+
+    // Inverse lookup
+    final Partnership aInverseLookup = new Partnership ("unknown");
+    aInverseLookup.setSenderAS2ID ("idx-receiver");
+    aInverseLookup.setReceiverAS2ID ("idx-sender");
+    final Partnership aInverse = s_aPartnershipFactory.getPartnership (aInverseLookup);
+    assertEquals ("Indexed partnership-inverse", aInverse.getName ());
+    assertEquals ("idx-receiver", aInverse.getSenderAS2ID ());
+
+    assertTrue (s_aPartnershipFactory.removePartnership (partnership).isChanged ());
+  }
 }
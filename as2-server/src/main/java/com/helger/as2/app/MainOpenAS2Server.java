@@ -45,6 +45,7 @@ import com.helger.as2.cmd.CommandManager;
 import com.helger.as2.cmd.ICommandRegistry;
 import com.helger.as2.cmdprocessor.AbstractCommandProcessor;
 import com.helger.as2lib.CAS2Info;
+import com.helger.as2lib.crypto.CryptoOffloadExecutor;
 import com.helger.as2lib.exception.AS2Exception;
 import com.helger.commons.collection.ArrayHelper;
 import com.helger.commons.lang.ClassHelper;
@@ -144,12 +145,14 @@ public class MainOpenAS2Server
         try
         {
           aXMLSession.getMessageProcessor ().stopActiveModules ();
+          aXMLSession.savePendingChanges ();
         }
         catch (final AS2Exception same)
         {
           same.terminate ();
         }
       }
+      CryptoOffloadExecutor.shutdown ();
 
       LOGGER.info (SERVER_NAME + " has shut down");
     }
@@ -84,6 +84,7 @@ public class ServerCertificateFactory extends CertificateFactory implements IFil
       final File file = new File (getFilename ());
       m_aFileMonitor = new FileMonitor (file, nInterval);
       m_aFileMonitor.addListener (this);
+      m_aFileMonitor.start ();
     }
 
     return m_aFileMonitor;
@@ -88,6 +88,7 @@ public class ServerSelfFillingXMLPartnershipFactory extends SelfFillingXMLPartne
       final File aFile = new File (getFilename ());
       m_aFileMonitor = new FileMonitor (aFile, nInterval);
       m_aFileMonitor.addListener (this);
+      m_aFileMonitor.start ();
     }
 
     return m_aFileMonitor;
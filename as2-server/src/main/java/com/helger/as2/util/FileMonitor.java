@@ -33,25 +33,58 @@
 package com.helger.as2.util;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.time.LocalDateTime;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.helger.commons.CGlobal;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.io.stream.StreamHelper;
 
+/**
+ * Monitors a single file for modifications. Since v4.11.1 the file system is
+ * watched via a {@link WatchService} on the parent directory so that
+ * modifications are detected right away. The interval is used as the maximum
+ * time between two checks of the last modification date, in case a file
+ * system event is missed. If no watch service is available, the file is
+ * polled in the provided interval.<br>
+ * Since v4.11.1 the monitor is not started by the constructor, so that the
+ * listeners can be added before the first check. Call {@link #start()}
+ * explicitly.
+ */
 public class FileMonitor
 {
+  private static final Logger LOGGER = LoggerFactory.getLogger (FileMonitor.class);
+  // Time to wait for further events before notifying the listeners
+  private static final long SETTLE_MS = 200;
+  // Maximum total time to wait for further events, if the file is written
+  // continuously
+  private static final long MAX_SETTLE_MS = 5_000;
+
   private ICommonsList <IFileMonitorListener> m_aListeners;
-  private LocalDateTime m_aLastModified;
+  private volatile LocalDateTime m_aLastModified;
   private File m_aFile;
   private Timer m_aTimer;
-  private boolean m_bBusy;
+  private WatchService m_aWatchService;
+  private Thread m_aWatchThread;
+  private volatile boolean m_bBusy;
   private int m_nIntervalSecs;
 
   public FileMonitor (final File file, final int nIntervalSecs)
@@ -59,7 +92,6 @@ public class FileMonitor
     super ();
     m_aFile = file;
     m_nIntervalSecs = nIntervalSecs;
-    start ();
   }
 
   public void setBusy (final boolean busy)
@@ -95,7 +127,8 @@ public class FileMonitor
   public void setInterval (final int nIntervalSecs)
   {
     m_nIntervalSecs = nIntervalSecs;
-    restart ();
+    if (isStarted ())
+      restart ();
   }
 
   public int getInterval ()
@@ -137,16 +170,120 @@ public class FileMonitor
     start ();
   }
 
+  /**
+   * @return <code>true</code> if the monitor was started and not stopped since
+   *         then.
+   */
+  public boolean isStarted ()
+  {
+    return m_aTimer != null || m_aWatchThread != null;
+  }
+
+  /**
+   * Start monitoring the file. Does nothing if the monitor is already started.
+   */
   public final void start ()
   {
-    m_aTimer = getTimer ();
-    m_aTimer.scheduleAtFixedRate (new TimerTick (), 0, getInterval () * CGlobal.MILLISECONDS_PER_SECOND);
+    if (isStarted ())
+      return;
+
+    if (!_startWatching ())
+    {
+      m_aTimer = getTimer ();
+      m_aTimer.scheduleAtFixedRate (new TimerTick (), 0, getInterval () * CGlobal.MILLISECONDS_PER_SECOND);
+    }
+  }
+
+  private boolean _startWatching ()
+  {
+    final File aFile = getFile ();
+    final File aParentDir = aFile == null ? null : aFile.getAbsoluteFile ().getParentFile ();
+    if (aParentDir == null)
+      return false;
+
+    final WatchService aWatchService;
+    try
+    {
+      aWatchService = FileSystems.getDefault ().newWatchService ();
+      aParentDir.toPath ()
+                .register (aWatchService,
+                           StandardWatchEventKinds.ENTRY_CREATE,
+                           StandardWatchEventKinds.ENTRY_MODIFY,
+                           StandardWatchEventKinds.ENTRY_DELETE);
+    }
+    catch (final IOException | UnsupportedOperationException ex)
+    {
+      LOGGER.warn ("Failed to watch directory " + aParentDir + " - falling back to polling", ex);
+      return false;
+    }
+
+    m_aWatchService = aWatchService;
+    final Path aFileName = aFile.toPath ().getFileName ();
+    m_aWatchThread = new Thread ( () -> _watch (aWatchService, aFileName), "AS2-FileMonitor-" + aFileName);
+    m_aWatchThread.setDaemon (true);
+    m_aWatchThread.start ();
+    return true;
+  }
+
+  private void _watch (@Nonnull final WatchService aWatchService, @Nonnull final Path aFileName)
+  {
+    try
+    {
+      // Initial check
+      onTick ();
+      while (true)
+      {
+        // Fallback check after the interval, even without event
+        final WatchKey aKey = aWatchService.poll (Math.max (getInterval (), 1), TimeUnit.SECONDS);
+        if (aKey != null && _isRelevant (aKey, aFileName))
+        {
+          // Wait until the writer is done, but not forever
+          final long nSettleEnd = System.currentTimeMillis () + MAX_SETTLE_MS;
+          WatchKey aNextKey;
+          while (System.currentTimeMillis () < nSettleEnd &&
+                 (aNextKey = aWatchService.poll (SETTLE_MS, TimeUnit.MILLISECONDS)) != null)
+            _isRelevant (aNextKey, aFileName);
+        }
+        onTick ();
+      }
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+    }
+    catch (final ClosedWatchServiceException ex)
+    {
+      // Stopped
+    }
+  }
+
+  private static boolean _isRelevant (@Nonnull final WatchKey aKey, @Nonnull final Path aFileName)
+  {
+    boolean bRelevant = false;
+    for (final WatchEvent <?> aEvent : aKey.pollEvents ())
+      if (aEvent.kind () == StandardWatchEventKinds.OVERFLOW || aFileName.equals (aEvent.context ()))
+        bRelevant = true;
+    aKey.reset ();
+    return bRelevant;
   }
 
   public void stop ()
   {
     if (m_aTimer != null)
+    {
       m_aTimer.cancel ();
+      m_aTimer = null;
+    }
+    if (m_aWatchService != null)
+    {
+      StreamHelper.close (m_aWatchService);
+      m_aWatchService = null;
+    }
+    if (m_aWatchThread != null)
+    {
+      m_aWatchThread.interrupt ();
+      m_aWatchThread = null;
+    }
   }
 
   protected boolean isModified ()
@@ -191,21 +328,35 @@ public class FileMonitor
     setLastModified (PDTFactory.createLocalDateTime (getFile ().lastModified ()));
   }
 
-  private class TimerTick extends TimerTask
+  /**
+   * Check the file for modifications and notify the listeners.
+   */
+  protected void onTick ()
   {
-    @Override
-    public void run ()
+    if (!isBusy ())
     {
-      if (!isBusy ())
+      setBusy (true);
+      try
       {
-        setBusy (true);
         updateListeners ();
-        setBusy (false);
       }
-      else
+      finally
       {
-        updateListeners (EFileMonitorEvent.EVENT_MISSED_TICK);
+        setBusy (false);
       }
     }
+    else
+    {
+      updateListeners (EFileMonitorEvent.EVENT_MISSED_TICK);
+    }
+  }
+
+  private class TimerTick extends TimerTask
+  {
+    @Override
+    public void run ()
+    {
+      onTick ();
+    }
   }
 }
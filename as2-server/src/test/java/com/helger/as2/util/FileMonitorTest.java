@@ -0,0 +1,107 @@
+/*
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2023 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.io.file.SimpleFileIO;
+
+/**
+ * Test class for class {@link FileMonitor}.
+ *
+ * @author Philip Helger
+ */
+public final class FileMonitorTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Test
+  public void testCallbacksStopAfterModification () throws Exception
+  {
+    final File aFile = m_aTempFolder.newFile ("partnerships.xml");
+    SimpleFileIO.writeFile (aFile, "<partnerships />", StandardCharsets.UTF_8);
+
+    final AtomicInteger aCallbacks = new AtomicInteger (0);
+    final CountDownLatch aModified = new CountDownLatch (1);
+    // Large interval, so that only the file system events trigger a check
+    final FileMonitor aMonitor = new FileMonitor (aFile, 60);
+    try
+    {
+      aMonitor.addListener ( (aMon, aChangedFile, eEvent) -> {
+        aCallbacks.incrementAndGet ();
+        if (eEvent == EFileMonitorEvent.EVENT_MODIFIED)
+          aModified.countDown ();
+      });
+      aMonitor.start ();
+
+      // Wait for the initial check that remembers the last modification
+      for (int i = 0; i < 50 && aMonitor.getLastModified () == null; ++i)
+        ThreadHelper.sleep (100);
+      assertNotNull (aMonitor.getLastModified ());
+
+      // Modify the file in several writes
+      SimpleFileIO.writeFile (aFile, "<partnerships>", StandardCharsets.UTF_8);
+      SimpleFileIO.writeFile (aFile, "<partnerships></partnerships>", StandardCharsets.UTF_8);
+      // Avoid problems with the file system timestamp granularity
+      assertTrue (aFile.setLastModified (aFile.lastModified () + 2_000));
+
+      assertTrue (aModified.await (30, TimeUnit.SECONDS));
+      // Wait well beyond the 200ms settle window for any late callback
+      ThreadHelper.sleep (1_000);
+      final int nCallbacks = aCallbacks.get ();
+      assertTrue (nCallbacks >= 1);
+
+      // No further callback once the file is quiet
+      ThreadHelper.sleep (1_000);
+      assertEquals (nCallbacks, aCallbacks.get ());
+    }
+    finally
+    {
+      aMonitor.stop ();
+    }
+  }
+}
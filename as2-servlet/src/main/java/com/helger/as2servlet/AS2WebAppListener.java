@@ -21,6 +21,7 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
+import com.helger.as2lib.crypto.CryptoOffloadExecutor;
 import com.helger.web.scope.mgr.WebScopeManager;
 
 /**
@@ -57,6 +58,7 @@ public class AS2WebAppListener implements ServletContextListener
    */
   public static void staticDestroy ()
   {
+    CryptoOffloadExecutor.shutdown ();
     WebScopeManager.onGlobalEnd ();
   }
 
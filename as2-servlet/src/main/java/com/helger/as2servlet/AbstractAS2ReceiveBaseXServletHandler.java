@@ -94,6 +94,22 @@ public abstract class AbstractAS2ReceiveBaseXServletHandler implements IXServlet
     }
   }
 
+  @Override
+  @OverridingMethodsMustInvokeSuper
+  public void onServletDestroy ()
+  {
+    if (m_aSession != null)
+      try
+      {
+        // Make sure delayed saves are not lost
+        m_aSession.savePendingChanges ();
+      }
+      catch (final AS2Exception ex)
+      {
+        LOGGER.error ("Failed to save pending changes of the AS2 session", ex);
+      }
+  }
+
   /**
    * @return The AS2 session that was created in initialization. Never
    *         <code>null</code>.
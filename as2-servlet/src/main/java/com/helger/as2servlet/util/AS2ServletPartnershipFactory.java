@@ -16,21 +16,13 @@
  */
 package com.helger.as2servlet.util;
 
-import com.helger.as2lib.exception.AS2Exception;
 import com.helger.as2lib.partner.xml.SelfFillingXMLPartnershipFactory;
 
 /**
  * A specialized {@link SelfFillingXMLPartnershipFactory} that automatically
- * stores partnerships to a file.
+ * stores partnerships to a file. Since v4.11.1 this is done by the base class.
  *
  * @author Philip Helger
  */
 public class AS2ServletPartnershipFactory extends SelfFillingXMLPartnershipFactory
-{
-  @Override
-  protected void markAsChanged () throws AS2Exception
-  {
-    // Store every time something changed
-    storePartnership ();
-  }
-}
+{}